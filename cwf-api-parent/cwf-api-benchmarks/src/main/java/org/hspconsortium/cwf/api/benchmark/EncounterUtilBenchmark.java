@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * cwf-api-benchmarks
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.dstu3.model.Coding;
+import org.hl7.fhir.dstu3.model.Encounter.EncounterParticipantComponent;
+import org.hspconsortium.cwf.api.encounter.EncounterUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks participation type lookups (<b>EncounterUtil.findType</b>, exercised through
+ * <b>hasType</b>).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncounterUtilBenchmark {
+    
+    
+    private static final String SYSTEM = "http://hl7.org/fhir/v3/ParticipationType";
+    
+    @Param({ "1", "5", "20" })
+    public int typeCount;
+    
+    private EncounterParticipantComponent participant;
+    
+    private final Coding missingType = new Coding(SYSTEM, "XXXX", null);
+    
+    @Setup
+    public void setup() {
+        participant = new EncounterParticipantComponent();
+        
+        for (int i = 1; i < typeCount; i++) {
+            participant.addType().addCoding(new Coding(SYSTEM, "TYPE" + i, null));
+        }
+        
+        participant.addType().getCoding().add(EncounterUtil.primaryType);
+    }
+    
+    @Benchmark
+    public boolean findLast() {
+        return EncounterUtil.isPrimary(participant);
+    }
+    
+    @Benchmark
+    public boolean findMissing() {
+        return EncounterUtil.hasType(participant, missingType);
+    }
+    
+}
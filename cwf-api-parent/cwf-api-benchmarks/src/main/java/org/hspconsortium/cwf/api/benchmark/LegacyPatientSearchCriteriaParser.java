@@ -0,0 +1,83 @@
+/*
+ * #%L
+ * cwf-api-benchmarks
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.benchmark;
+
+import java.util.Date;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.carewebframework.common.DateUtil;
+
+import org.hspconsortium.cwf.api.patient.PatientSearchCriteria;
+
+/**
+ * The original regular expression-based search text parser for patient search criteria, retained
+ * as a baseline for benchmarking.
+ */
+public class LegacyPatientSearchCriteriaParser {
+    
+    
+    public static PatientSearchCriteria parse(String searchText) {
+        PatientSearchCriteria criteria = new PatientSearchCriteria();
+        searchText = searchText == null ? null : searchText.trim();
+        
+        if (!StringUtils.isEmpty(searchText)) {
+            String[] pcs = searchText.split(";");
+            
+            for (String pc : pcs) {
+                pc = pc.trim();
+                Date tempDate;
+                
+                if (pc.isEmpty()) {
+                    continue;
+                } else if (criteria.isValid() && (pc.equalsIgnoreCase("M") || pc.equalsIgnoreCase("F"))) {
+                    criteria.setGender(pc.toUpperCase());
+                } else if (!pc.matches(".*\\d.*")) {
+                    criteria.setName(pc);
+                } else if (pc.matches("^=.+$")) {
+                    criteria.setId(pc.substring(1));
+                } else if (pc.matches("^\\d{3}-\\d{2}-\\d{4}$")) {
+                    criteria.setSSN(pc);
+                } else if ((tempDate = parseDate(pc)) != null) {
+                    criteria.setBirth(tempDate);
+                } else {
+                    criteria.setMRN(pc);
+                }
+            }
+        }
+        
+        return criteria;
+    }
+    
+    private static Date parseDate(String value) {
+        if (StringUtils.isNumeric(value)) {
+            return null;
+        }
+        
+        if (value.matches("^\\d+-\\d+$")) {
+            return null;
+        }
+        
+        return DateUtil.parseDate(value);
+    }
+    
+    private LegacyPatientSearchCriteriaParser() {
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * cwf-api-benchmarks
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleType;
+import org.hl7.fhir.dstu3.model.Patient;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import ca.uhn.fhir.context.FhirContext;
+
+/**
+ * Minimal local FHIR server that answers every request with canned, pre-encoded search result
+ * pages. The page is selected by the "_page" query parameter, defaulting to the first page. Each
+ * page except the last carries a link to the next page.
+ */
+public class MockFhirServer {
+    
+    
+    private static final String PAGE_PARAM = "_page=";
+    
+    private static final String CONTENT_TYPE = "application/json+fhir;charset=UTF-8";
+    
+    private final HttpServer server;
+    
+    private final List<byte[]> pages = new ArrayList<>();
+    
+    /**
+     * Starts a server on an ephemeral local port.
+     * 
+     * @param fhirContext The FHIR context used to encode the canned bundles.
+     * @param pageCount The number of pages of search results.
+     * @param pageSize The number of patients in each page.
+     * @throws IOException If the server could not be started.
+     */
+    public MockFhirServer(FhirContext fhirContext, int pageCount, int pageSize) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        
+        for (int i = 0; i < pageCount; i++) {
+            Bundle bundle = createPage(i, pageCount, pageSize);
+            pages.add(fhirContext.newJsonParser().encodeResourceToString(bundle).getBytes(StandardCharsets.UTF_8));
+        }
+        
+        server.createContext("/", new HttpHandler() {
+            
+            
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] page = pages.get(getPage(exchange.getRequestURI().getRawQuery()));
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, page.length);
+                
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(page);
+                }
+            }
+            
+        });
+        
+        server.start();
+    }
+    
+    /**
+     * Returns the base URL of the server.
+     * 
+     * @return The base URL.
+     */
+    public String getBaseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+    
+    /**
+     * Stops the server.
+     */
+    public void stop() {
+        server.stop(0);
+    }
+    
+    private Bundle createPage(int index, int pageCount, int pageSize) {
+        Bundle bundle = new Bundle();
+        bundle.setType(BundleType.SEARCHSET);
+        bundle.setTotal(pageCount * pageSize);
+        
+        for (int i = 0; i < pageSize; i++) {
+            String id = Integer.toString(index * pageSize + i);
+            Patient patient = new Patient();
+            patient.setId(id);
+            patient.addName().addFamily("Smith").addGiven("Patient" + id);
+            patient.addIdentifier().setValue("MRN" + id);
+            bundle.addEntry().setResource(patient);
+        }
+        
+        if (index < pageCount - 1) {
+            String next = getBaseUrl() + "Patient?" + PAGE_PARAM + (index + 1);
+            bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(next);
+        }
+        
+        return bundle;
+    }
+    
+    private int getPage(String query) {
+        int i = query == null ? -1 : query.indexOf(PAGE_PARAM);
+        
+        if (i < 0) {
+            return 0;
+        }
+        
+        int j = query.indexOf('&', i);
+        String value = query.substring(i + PAGE_PARAM.length(), j < 0 ? query.length() : j);
+        return Math.min(Integer.parseInt(value), pages.size() - 1);
+    }
+}
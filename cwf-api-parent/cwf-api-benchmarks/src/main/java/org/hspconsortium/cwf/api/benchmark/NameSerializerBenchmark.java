@@ -0,0 +1,97 @@
+/*
+ * #%L
+ * cwf-api-benchmarks
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.benchmark;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.HumanName.NameUse;
+import org.hspconsortium.cwf.api.NameSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks CCOW serialization and deserialization of names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NameSerializerBenchmark {
+    
+    
+    private final NameSerializer serializer = new NameSerializer();
+    
+    private HumanName name;
+    
+    private String serializedName;
+    
+    private List<HumanName> names;
+    
+    private String serializedNames;
+    
+    @Setup
+    public void setup() {
+        name = new HumanName();
+        name.addFamily("Smith");
+        name.addGiven("John");
+        name.addGiven("Quincy");
+        name.addSuffix("Jr");
+        name.addPrefix("Dr");
+        name.addSuffix("MD");
+        name.setUse(NameUse.OFFICIAL);
+        serializedName = serializer.serialize(name);
+        names = Collections.nCopies(20, name);
+        serializedNames = serializer.serializeAll(names);
+    }
+    
+    @Benchmark
+    public String serialize() {
+        return serializer.serialize(name);
+    }
+    
+    @Benchmark
+    public HumanName deserialize() {
+        return serializer.deserialize(serializedName);
+    }
+    
+    @Benchmark
+    public String serializeAll() {
+        return serializer.serializeAll(names);
+    }
+    
+    @Benchmark
+    public List<HumanName> deserializeAll() {
+        return serializer.deserializeAll(serializedNames);
+    }
+    
+}
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * cwf-api-benchmarks
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.benchmark;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patientlist.PatientListItem;
+import org.hspconsortium.cwf.api.patientlist.PatientListUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks patient list utilities and sorting of patient list items.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatientListBenchmark {
+    
+    
+    private static final String[] FAMILY = { "Smith", "Jones", "Doe", "Van der Berg", "O'Brien", "Nguyen", "Garcia" };
+    
+    private static final String[] GIVEN = { "John", "Jane", "Mary Ann", "Robert", "Li", "Jose", "Susan" };
+    
+    @Param({ "100", "1000" })
+    public int listSize;
+    
+    private final String serializedList = "Personal Lists^My Patients^20160101^20161231";
+    
+    private final String unformattedName = "van der berg-smith, mary ann o'neil";
+    
+    private List<PatientListItem> items;
+    
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        items = new ArrayList<>(listSize);
+        
+        for (int i = 0; i < listSize; i++) {
+            Patient patient = new Patient();
+            patient.setId(Integer.toString(i));
+            HumanName name = patient.addName();
+            name.addFamily(FAMILY[random.nextInt(FAMILY.length)]);
+            name.addGiven(GIVEN[random.nextInt(GIVEN.length)]);
+            items.add(new PatientListItem(patient));
+        }
+    }
+    
+    @Benchmark
+    public String[] split() {
+        return PatientListUtil.split(serializedList, 4);
+    }
+    
+    @Benchmark
+    public String formatName() {
+        return PatientListUtil.formatName(unformattedName);
+    }
+    
+    @Benchmark
+    public List<PatientListItem> sort() {
+        List<PatientListItem> sorted = new ArrayList<>(items);
+        Collections.sort(sorted);
+        return sorted;
+    }
+    
+}
@@ -0,0 +1,109 @@
+/*
+ * #%L
+ * cwf-api-benchmarks
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patient.PatientSearch;
+import org.hspconsortium.cwf.api.patient.PatientSearchCriteria;
+import org.hspconsortium.cwf.api.query.BundleIterator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.client.ServerValidationModeEnum;
+
+/**
+ * Benchmarks resource queries, including response parsing, against a local mock FHIR server that
+ * returns canned search result pages. Neither the search result cache nor the patient index is
+ * used.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceQueryBenchmark {
+    
+    
+    @Param({ "10", "100" })
+    public int pageSize;
+    
+    @Param({ "5" })
+    public int pageCount;
+    
+    private MockFhirServer server;
+    
+    private PatientSearch search;
+    
+    private final PatientSearchCriteria criteria = new PatientSearchCriteria("smith");
+    
+    @Setup
+    public void setup() throws Exception {
+        FhirContext fhirContext = FhirContext.forDstu3();
+        fhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        server = new MockFhirServer(fhirContext, pageCount, pageSize);
+        IGenericClient fhirClient = fhirContext.newRestfulGenericClient(server.getBaseUrl());
+        search = new PatientSearch(fhirClient);
+        search.setCacheEnabled(false);
+        search.setIndexEnabled(false);
+    }
+    
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+    
+    /**
+     * Retrieves the first page of results.
+     */
+    @Benchmark
+    public List<Patient> search() {
+        return search.search(criteria);
+    }
+    
+    /**
+     * Retrieves all pages of results.
+     */
+    @Benchmark
+    public void iterate(Blackhole blackhole) {
+        BundleIterator<Patient> iterator = search.iterate(search.createQuery(), false);
+        
+        while (iterator.hasNext()) {
+            blackhole.consume(iterator.next());
+        }
+    }
+    
+}
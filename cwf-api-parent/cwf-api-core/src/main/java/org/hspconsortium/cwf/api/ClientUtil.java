@@ -23,8 +23,10 @@ import org.apache.http.impl.client.CloseableHttpClient;
 
 import org.carewebframework.api.spring.SpringUtil;
 
+import org.hl7.fhir.dstu3.model.IdType;
 import org.hl7.fhir.dstu3.model.Reference;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hspconsortium.cwf.api.cache.IResourceCache;
 import org.hspconsortium.cwf.fhir.client.FhirContext;
 
 import ca.uhn.fhir.model.primitive.UriDt;
@@ -53,6 +55,17 @@ public class ClientUtil {
         return SpringUtil.getAppContext().getBean("fhirClient", IGenericClient.class);
     }
     
+    /**
+     * Returns the shared resource cache. The cache is shared by all users and holds only reference
+     * resource types (e.g., Practitioner, Location); requests for other types are passed through
+     * to the server. Returned resources are copies.
+     * 
+     * @return The shared resource cache, or null if none is configured.
+     */
+    public static IResourceCache getResourceCache() {
+        return SpringUtil.getBean("resourceCache", IResourceCache.class);
+    }
+    
     /**
      * Returns the default FHIR service root url.
      * 
@@ -109,7 +122,7 @@ public class ClientUtil {
     
     /**
      * Returns a resource given a resource reference. If the resource has not been previously
-     * fetched, it will be fetched from the server.
+     * fetched, it will be fetched from the resource cache or, failing that, from the server.
      * 
      * @param reference A resource reference.
      * @return The corresponding resource.
@@ -130,7 +143,19 @@ public class ClientUtil {
         }
         
         String resourceUrl = expandURL(resourceId.getValue());
-        IBaseResource resource = getFhirClient().read(new UriDt(resourceUrl));
+        IGenericClient fhirClient = getFhirClient();
+        IResourceCache resourceCache = getResourceCache();
+        IBaseResource resource;
+        
+        if (resourceCache == null) {
+            resource = fhirClient.read(new UriDt(resourceUrl));
+        } else {
+            String resourceType = new IdType(resourceUrl).getResourceType();
+            Class<? extends IBaseResource> clazz = fhirClient.getFhirContext().getResourceDefinition(resourceType)
+                    .getImplementingClass();
+            resource = resourceCache.read(fhirClient, clazz, resourceUrl);
+        }
+        
         reference.setResource(resource);
         return resource;
     }
@@ -19,14 +19,32 @@
  */
 package org.hspconsortium.cwf.api;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.carewebframework.api.domain.IDomainFactory;
+import org.carewebframework.api.domain.IUser;
 import org.carewebframework.common.MiscUtil;
 
 import org.hl7.fhir.dstu3.model.BaseResource;
 import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hspconsortium.cwf.api.cache.IResourceCache;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
 import org.hspconsortium.cwf.fhir.common.FhirUtil;
 
 import ca.uhn.fhir.rest.client.IGenericClient;
@@ -40,8 +58,20 @@ public class DomainFactory implements IDomainFactory<BaseResource> {
     
     private static final IDomainFactory<BaseResource> instance = new DomainFactory();
     
+    private static final int DEFAULT_CHUNK_SIZE = 100;
+    
+    private static final int DEFAULT_MAX_THREADS = 4;
+    
     private IGenericClient fhirClient;
     
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    
+    private int maxThreads = DEFAULT_MAX_THREADS;
+    
+    private ExecutorService executor;
+    
+    private IResourceCache resourceCache;
+    
     public static IDomainFactory<BaseResource> getInstance() {
         return instance;
     }
@@ -59,15 +89,25 @@ public class DomainFactory implements IDomainFactory<BaseResource> {
     }
     
     /**
-     * Fetch an instance of the domain class from the data store.
+     * Fetch an instance of the domain class from the data store, or from the resource cache if one
+     * is configured.
      */
     @Override
     public <T extends BaseResource> T fetchObject(Class<T> clazz, String id) {
+        if (resourceCache != null) {
+            return resourceCache.read(fhirClient, clazz, getResourceType(clazz) + "/" + id);
+        }
+        
         return fhirClient.read(clazz, id);
     }
     
     /**
-     * Fetch multiple instances of the domain class from the data store.
+     * Fetch multiple instances of the domain class from the data store. The ids are split into
+     * chunks no larger than the configured chunk size, each of which is retrieved by a separate
+     * search. When there is more than one chunk, the searches execute in parallel. Results are
+     * returned in the order in which their ids were requested, with duplicate ids and ids that
+     * could not be resolved omitted. If a resource cache is configured, only ids not found in the
+     * cache are searched, and the search results are added to the cache.
      */
     @Override
     public <T extends BaseResource> List<T> fetchObjects(Class<T> clazz, String[] ids) {
@@ -75,10 +115,177 @@ public class DomainFactory implements IDomainFactory<BaseResource> {
             return Collections.emptyList();
         }
         
+        Set<String> idSet = new LinkedHashSet<>(Arrays.asList(ids));
+        idSet.remove(null);
+        Map<String, T> results = new HashMap<>(idSet.size());
+        List<String> uncached = new ArrayList<>(idSet);
+        
+        if (resourceCache != null) {
+            String resourceType = getResourceType(clazz) + "/";
+            Iterator<String> iter = uncached.iterator();
+            
+            while (iter.hasNext()) {
+                String id = iter.next();
+                IBaseResource resource = resourceCache.get(fhirClient, resourceType + id);
+                
+                if (clazz.isInstance(resource)) {
+                    results.put(id, clazz.cast(resource));
+                    iter.remove();
+                }
+            }
+        }
+        
+        String[] uniqueIds = uncached.toArray(new String[uncached.size()]);
+        List<String[]> chunks = new ArrayList<>();
+        
+        for (int i = 0; i < uniqueIds.length; i += chunkSize) {
+            chunks.add(Arrays.copyOfRange(uniqueIds, i, Math.min(i + chunkSize, uniqueIds.length)));
+        }
+        
+        if (chunks.size() == 1) {
+            addResults(results, fetchChunk(clazz, chunks.get(0)));
+        } else if (chunks.size() > 1) {
+            List<Future<List<T>>> futures = new ArrayList<>(chunks.size());
+            IUser user = AbstractAuthInterceptor.getCurrentUser();
+            
+            for (String[] chunkIds : chunks) {
+                futures.add(getExecutor().submit(new ChunkFetcher<>(clazz, chunkIds, user)));
+            }
+            
+            try {
+                for (Future<List<T>> future : futures) {
+                    addResults(results, future.get());
+                }
+            } catch (Exception e) {
+                for (Future<List<T>> future : futures) {
+                    future.cancel(true);
+                }
+                
+                throw MiscUtil.toUnchecked(e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }
+        
+        List<T> list = new ArrayList<>(results.size());
+        
+        for (String id : idSet) {
+            T resource = results.get(id);
+            
+            if (resource != null) {
+                list.add(resource);
+            }
+        }
+        
+        return list;
+    }
+    
+    /**
+     * Adds fetched resources to a map indexed by logical id.
+     * 
+     * @param results Map to receive the fetched resources.
+     * @param resources The fetched resources.
+     */
+    private <T extends BaseResource> void addResults(Map<String, T> results, List<T> resources) {
+        for (T resource : resources) {
+            results.put(resource.getIdElement().getIdPart(), resource);
+        }
+    }
+    
+    /**
+     * Adds fetched resources to the resource cache, if one is configured.
+     * 
+     * @param resources The fetched resources.
+     */
+    private void cacheResults(List<? extends BaseResource> resources) {
+        if (resourceCache != null) {
+            for (BaseResource resource : resources) {
+                resourceCache.put(fhirClient, resource);
+            }
+        }
+    }
+    
+    /**
+     * Returns the FHIR resource type name for a domain class.
+     * 
+     * @param clazz The domain class.
+     * @return The resource type name.
+     */
+    private String getResourceType(Class<? extends BaseResource> clazz) {
+        return fhirClient.getFhirContext().getResourceDefinition(clazz).getName();
+    }
+    
+    /**
+     * Fetch a single chunk of domain objects, following links to subsequent pages of the search
+     * results.
+     * 
+     * @param clazz The domain class.
+     * @param ids The ids for this chunk.
+     * @return The domain objects that were found.
+     */
+    protected <T extends BaseResource> List<T> fetchChunk(Class<T> clazz, String[] ids) {
+        List<T> results = new ArrayList<>(ids.length);
+        Bundle bundle = searchChunk(clazz, ids);
+        
+        while (bundle != null) {
+            results.addAll(FhirUtil.getEntries(bundle, clazz));
+            bundle = bundle.getLink(Bundle.LINK_NEXT) == null ? null : nextPage(bundle);
+        }
+        
+        cacheResults(results);
+        return results;
+    }
+    
+    /**
+     * Performs the search for a chunk of ids, returning the first page of results.
+     * 
+     * @param clazz The domain class.
+     * @param ids The ids to search.
+     * @return The first page of search results.
+     */
+    protected Bundle searchChunk(Class<? extends BaseResource> clazz, String[] ids) {
         StringClientParam param = new StringClientParam(BaseResource.SP_RES_ID);
-        Bundle results = fhirClient.search().forResource(clazz).where(param.matches().values(ids)).returnBundle(Bundle.class)
-                .execute();
-        return FhirUtil.getEntries(results, clazz);
+        return fhirClient.search().forResource(clazz).where(param.matches().values(ids)).count(ids.length)
+                .returnBundle(Bundle.class).execute();
+    }
+    
+    /**
+     * Retrieves the next page of search results.
+     * 
+     * @param bundle The current page of search results.
+     * @return The next page of search results.
+     */
+    protected Bundle nextPage(Bundle bundle) {
+        return fhirClient.loadPage().next(bundle).execute();
+    }
+    
+    /**
+     * Fetches a single chunk on a background thread, as the user who requested the fetch.
+     */
+    private class ChunkFetcher<T extends BaseResource> implements Callable<List<T>> {
+        
+        
+        private final Class<T> clazz;
+        
+        private final String[] ids;
+        
+        private final IUser user;
+        
+        ChunkFetcher(Class<T> clazz, String[] ids, IUser user) {
+            this.clazz = clazz;
+            this.ids = ids;
+            this.user = user;
+        }
+        
+        @Override
+        public List<T> call() throws Exception {
+            return AbstractAuthInterceptor.callAs(user, new Callable<List<T>>() {
+                
+                @Override
+                public List<T> call() throws Exception {
+                    return fetchChunk(clazz, ids);
+                }
+                
+            });
+        }
     }
     
     /**
@@ -111,4 +318,93 @@ public class DomainFactory implements IDomainFactory<BaseResource> {
         this.fhirClient = fhirClient;
     }
     
+    /**
+     * Returns the resource cache, if any.
+     * 
+     * @return The resource cache (may be null).
+     */
+    public IResourceCache getResourceCache() {
+        return resourceCache;
+    }
+    
+    /**
+     * Sets the resource cache. If null, all requests go to the server.
+     * 
+     * @param resourceCache The resource cache.
+     */
+    public void setResourceCache(IResourceCache resourceCache) {
+        this.resourceCache = resourceCache;
+    }
+    
+    /**
+     * Returns the maximum number of ids submitted in a single search.
+     * 
+     * @return The maximum number of ids per search.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+    
+    /**
+     * Sets the maximum number of ids submitted in a single search.
+     * 
+     * @param chunkSize The maximum number of ids per search.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize <= 0 ? DEFAULT_CHUNK_SIZE : chunkSize;
+    }
+    
+    /**
+     * Returns the maximum number of searches that may execute in parallel.
+     * 
+     * @return The maximum number of parallel searches.
+     */
+    public int getMaxThreads() {
+        return maxThreads;
+    }
+    
+    /**
+     * Sets the maximum number of searches that may execute in parallel. Has no effect once the
+     * executor has been created.
+     * 
+     * @param maxThreads The maximum number of parallel searches.
+     */
+    public void setMaxThreads(int maxThreads) {
+        this.maxThreads = maxThreads <= 0 ? DEFAULT_MAX_THREADS : maxThreads;
+    }
+    
+    /**
+     * Sets the executor used for parallel searches. If not set, a fixed thread pool sized by the
+     * maximum thread setting is created upon first use.
+     * 
+     * @param executor The executor service.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * Returns the executor used for parallel searches, creating it if necessary.
+     * 
+     * @return The executor service.
+     */
+    private synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(maxThreads, new ThreadFactory() {
+                
+                
+                private final AtomicInteger count = new AtomicInteger();
+                
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "DomainFactory-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        
+        return executor;
+    }
+    
 }
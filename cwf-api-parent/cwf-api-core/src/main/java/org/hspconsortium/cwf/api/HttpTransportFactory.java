@@ -0,0 +1,387 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+
+import org.hspconsortium.cwf.fhir.client.FhirContext;
+
+/**
+ * Builds a pooled, tuned HTTP client for FHIR requests and registers it with the FHIR context.
+ * Connections are pooled per route and kept alive between requests, responses are compressed
+ * (and, optionally, requests), and idle connections are closed by a background reaper. Pool
+ * statistics are available for monitoring.
+ */
+public class HttpTransportFactory {
+    
+    
+    private static final Log log = LogFactory.getLog(HttpTransportFactory.class);
+    
+    /**
+     * Compresses request entities that are not already encoded. This must run before the standard
+     * protocol interceptors, so that the request's content headers describe the compressed entity.
+     */
+    private static class GzipRequestInterceptor implements HttpRequestInterceptor {
+        
+        
+        @Override
+        public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+            if (request instanceof HttpEntityEnclosingRequest) {
+                HttpEntityEnclosingRequest req = (HttpEntityEnclosingRequest) request;
+                HttpEntity entity = req.getEntity();
+                
+                if (entity != null && entity.getContentEncoding() == null
+                        && !request.containsHeader("Content-Encoding")) {
+                    req.setEntity(new GzipCompressingEntity(entity));
+                }
+            }
+        }
+        
+    }
+    
+    /**
+     * Makes a bean depend on the transport, so that it is not created until the transport's client
+     * has been registered with the FHIR context. This is needed for beans, such as the FHIR client,
+     * that are defined elsewhere and obtain their HTTP client from the FHIR context when created.
+     */
+    public static class ClientDependency implements BeanFactoryPostProcessor {
+        
+        
+        private final String beanName;
+        
+        private final String transportName;
+        
+        /**
+         * @param beanName The name of the bean that uses the transport.
+         * @param transportName The name of the transport bean.
+         */
+        public ClientDependency(String beanName, String transportName) {
+            this.beanName = beanName;
+            this.transportName = transportName;
+        }
+        
+        @Override
+        public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+            if (!beanFactory.containsBeanDefinition(beanName)) {
+                log.warn("No bean named '" + beanName + "' was found; it will not wait for the HTTP transport.");
+                return;
+            }
+            
+            BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+            String[] dependsOn = definition.getDependsOn();
+            
+            if (dependsOn == null || dependsOn.length == 0) {
+                definition.setDependsOn(transportName);
+            } else if (!ArrayUtils.contains(dependsOn, transportName)) {
+                definition.setDependsOn((String[]) ArrayUtils.add(dependsOn, transportName));
+            }
+        }
+        
+    }
+    
+    private final FhirContext fhirContext;
+    
+    private String urlPattern = "*";
+    
+    private int maxTotal = 100;
+    
+    private int maxPerRoute = 20;
+    
+    private int connectTimeout = 10000;
+    
+    private int socketTimeout = 60000;
+    
+    private int connectionRequestTimeout = 10000;
+    
+    private long keepAlive = 30000;
+    
+    private long maxIdle = 60000;
+    
+    private int validateAfterInactivity = 2000;
+    
+    private boolean gzipRequests;
+    
+    private PoolingHttpClientConnectionManager connectionManager;
+    
+    private CloseableHttpClient httpClient;
+    
+    /**
+     * Creates a factory that registers its client with the specified FHIR context.
+     *
+     * @param fhirContext The FHIR context (may be null if the client is not to be registered).
+     */
+    public HttpTransportFactory(FhirContext fhirContext) {
+        this.fhirContext = fhirContext;
+    }
+    
+    /**
+     * Builds the HTTP client and registers it with the FHIR context. Called by Spring IOC.
+     */
+    public void init() {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(maxTotal);
+        connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+        connectionManager.setValidateAfterInactivity(validateAfterInactivity);
+        
+        RequestConfig requestConfig = RequestConfig.custom().setConnectTimeout(connectTimeout)
+                .setSocketTimeout(socketTimeout).setConnectionRequestTimeout(connectionRequestTimeout)
+                .setContentCompressionEnabled(true).build();
+        
+        HttpClientBuilder builder = HttpClientBuilder.create().setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig).setKeepAliveStrategy(createKeepAliveStrategy())
+                .evictExpiredConnections().evictIdleConnections(maxIdle, TimeUnit.MILLISECONDS);
+        
+        if (gzipRequests) {
+            builder.addInterceptorFirst(new GzipRequestInterceptor());
+        }
+        
+        httpClient = builder.build();
+        
+        if (fhirContext != null && !StringUtils.isEmpty(urlPattern)) {
+            fhirContext.registerHttpClient(urlPattern, httpClient);
+        }
+    }
+    
+    /**
+     * Closes the HTTP client, releasing pooled connections and stopping the idle connection
+     * reaper. Called by Spring IOC.
+     */
+    public void destroy() {
+        if (httpClient != null) {
+            try {
+                httpClient.close();
+            } catch (IOException e) {
+                log.warn("Error closing HTTP client.", e);
+            }
+            
+            httpClient = null;
+        }
+    }
+    
+    /**
+     * Returns a keep-alive strategy that honors the server's Keep-Alive header, using the
+     * configured keep-alive duration when the server does not specify one.
+     *
+     * @return The keep-alive strategy.
+     */
+    private ConnectionKeepAliveStrategy createKeepAliveStrategy() {
+        return new ConnectionKeepAliveStrategy() {
+            
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                Header header = response.getFirstHeader("Connection");
+                
+                if (header != null && "close".equalsIgnoreCase(header.getValue())) {
+                    return 0;
+                }
+                
+                long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                return duration > 0 ? duration : keepAlive;
+            }
+            
+        };
+    }
+    
+    /**
+     * Returns the HTTP client.
+     *
+     * @return The HTTP client (null if not initialized).
+     */
+    public CloseableHttpClient getHttpClient() {
+        return httpClient;
+    }
+    
+    /**
+     * Returns statistics for the connection pool as a whole.
+     *
+     * @return Pool statistics (null if not initialized).
+     */
+    public PoolStats getTotalStats() {
+        return connectionManager == null ? null : connectionManager.getTotalStats();
+    }
+    
+    /**
+     * Returns statistics for each route in the connection pool.
+     *
+     * @return Pool statistics indexed by route.
+     */
+    public Map<String, PoolStats> getRouteStats() {
+        Map<String, PoolStats> stats = new LinkedHashMap<>();
+        
+        if (connectionManager != null) {
+            for (HttpRoute route : connectionManager.getRoutes()) {
+                stats.put(route.getTargetHost().toURI(), connectionManager.getStats(route));
+            }
+        }
+        
+        return stats;
+    }
+    
+    /**
+     * Returns the number of connections currently in use.
+     *
+     * @return Leased connection count.
+     */
+    public int getLeased() {
+        PoolStats stats = getTotalStats();
+        return stats == null ? 0 : stats.getLeased();
+    }
+    
+    /**
+     * Returns the number of idle connections available for reuse.
+     *
+     * @return Available connection count.
+     */
+    public int getAvailable() {
+        PoolStats stats = getTotalStats();
+        return stats == null ? 0 : stats.getAvailable();
+    }
+    
+    /**
+     * Returns the number of requests waiting for a connection.
+     *
+     * @return Pending request count.
+     */
+    public int getPending() {
+        PoolStats stats = getTotalStats();
+        return stats == null ? 0 : stats.getPending();
+    }
+    
+    /**
+     * Sets the pattern of urls for which the client is registered with the FHIR context.
+     *
+     * @param urlPattern Url pattern (wildcards permitted). If empty, the client is not registered.
+     */
+    public void setUrlPattern(String urlPattern) {
+        this.urlPattern = urlPattern;
+    }
+    
+    /**
+     * Sets the maximum number of pooled connections across all routes.
+     *
+     * @param maxTotal Maximum total connections.
+     */
+    public void setMaxTotal(int maxTotal) {
+        this.maxTotal = maxTotal;
+    }
+    
+    /**
+     * Sets the maximum number of pooled connections per route (i.e., per host).
+     *
+     * @param maxPerRoute Maximum connections per route.
+     */
+    public void setMaxPerRoute(int maxPerRoute) {
+        this.maxPerRoute = maxPerRoute;
+    }
+    
+    /**
+     * Sets the timeout for establishing a connection.
+     *
+     * @param connectTimeout Timeout in milliseconds.
+     */
+    public void setConnectTimeout(int connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+    
+    /**
+     * Sets the timeout for reading data from an established connection.
+     *
+     * @param socketTimeout Timeout in milliseconds.
+     */
+    public void setSocketTimeout(int socketTimeout) {
+        this.socketTimeout = socketTimeout;
+    }
+    
+    /**
+     * Sets the timeout for obtaining a connection from the pool.
+     *
+     * @param connectionRequestTimeout Timeout in milliseconds.
+     */
+    public void setConnectionRequestTimeout(int connectionRequestTimeout) {
+        this.connectionRequestTimeout = connectionRequestTimeout;
+    }
+    
+    /**
+     * Sets how long a connection may be kept alive when the server does not specify.
+     *
+     * @param keepAlive Keep-alive duration in milliseconds.
+     */
+    public void setKeepAlive(long keepAlive) {
+        this.keepAlive = keepAlive;
+    }
+    
+    /**
+     * Sets how long a connection may remain idle before the reaper closes it.
+     *
+     * @param maxIdle Maximum idle time in milliseconds.
+     */
+    public void setMaxIdle(long maxIdle) {
+        this.maxIdle = maxIdle;
+    }
+    
+    /**
+     * Sets the period of inactivity after which a pooled connection is revalidated before reuse.
+     *
+     * @param validateAfterInactivity Inactivity period in milliseconds.
+     */
+    public void setValidateAfterInactivity(int validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+    
+    /**
+     * Set to true to compress request bodies. The server must accept gzip-encoded requests.
+     *
+     * @param gzipRequests If true, request bodies are compressed.
+     */
+    public void setGzipRequests(boolean gzipRequests) {
+        this.gzipRequests = gzipRequests;
+    }
+    
+}
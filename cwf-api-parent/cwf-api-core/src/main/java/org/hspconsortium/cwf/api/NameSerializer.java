@@ -19,6 +19,8 @@
  */
 package org.hspconsortium.cwf.api;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import org.carewebframework.common.ISerializer;
@@ -28,74 +30,303 @@ import org.hl7.fhir.dstu3.model.StringType;
 
 /**
  * CCOW serializer / deserializer for HumanName class.
+ * <p>
+ * A name is serialized as seven components separated by "^": family, first given, second given,
+ * first suffix, prefix, second suffix and use. Component values are written as is, so a single
+ * serialized name is unchanged from earlier releases.
+ * <p>
+ * Multiple names may be serialized into a single value, separated by "~". In this bulk format only,
+ * occurrences of "^", "~" and "\" within a component are escaped as "\S\", "\R\" and "\E\",
+ * respectively, following HL7 convention. Serialization appends to a caller-supplied or per-thread
+ * buffer, and deserialization scans the value in place rather than splitting it.
  */
 public class NameSerializer implements ISerializer<HumanName> {
     
     
-    private static final String NAME_DELIM = "^";
+    private static final char NAME_DELIM = '^';
+    
+    private static final char REPEAT_DELIM = '~';
+    
+    private static final char ESCAPE_CHAR = '\\';
+    
+    private static final int MAX_BUFFER_CAPACITY = 4096;
+    
+    private static final int COMPONENT_COUNT = 7;
+    
+    private static final ThreadLocal<StringBuilder> buffer = new ThreadLocal<StringBuilder>() {
+        
+        
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(64);
+        }
+        
+    };
     
     @Override
     public String serialize(HumanName value) {
-        return getComponent(value.getFamily(), 0) + NAME_DELIM + getComponent(value.getGiven(), 0) + NAME_DELIM
-                + getComponent(value.getGiven(), 1) + NAME_DELIM + getComponent(value.getSuffix(), 0) + NAME_DELIM
-                + getComponent(value.getPrefix(), 0) + NAME_DELIM + getComponent(value.getSuffix(), 1) + NAME_DELIM
-                + value.getUse();
+        StringBuilder sb = getBuffer();
+        serialize(value, sb);
+        return release(sb);
+    }
+    
+    /**
+     * Serializes multiple names into a single value.
+     * 
+     * @param values The names to serialize.
+     * @return The serialized names, separated by "~", with delimiters in component values escaped.
+     *         An empty collection serializes to an empty string.
+     */
+    public String serializeAll(Collection<HumanName> values) {
+        StringBuilder sb = getBuffer();
+        serializeAll(values, sb);
+        return release(sb);
+    }
+    
+    /**
+     * Appends multiple serialized names to a buffer.
+     * 
+     * @param values The names to serialize.
+     * @param sb The buffer to receive the serialized names, separated by "~", with delimiters in
+     *            component values escaped.
+     */
+    public void serializeAll(Collection<HumanName> values, StringBuilder sb) {
+        boolean first = true;
+        
+        for (HumanName value : values) {
+            if (!first) {
+                sb.append(REPEAT_DELIM);
+            }
+            
+            first = false;
+            serialize(value, sb, true);
+        }
+    }
+    
+    /**
+     * Appends a serialized name to a buffer. Component values are not escaped.
+     * 
+     * @param value The name to serialize.
+     * @param sb The buffer to receive the serialized name.
+     */
+    public void serialize(HumanName value, StringBuilder sb) {
+        serialize(value, sb, false);
+    }
+    
+    private void serialize(HumanName value, StringBuilder sb, boolean escape) {
+        appendComponent(sb, value.getFamily(), 0, escape).append(NAME_DELIM);
+        appendComponent(sb, value.getGiven(), 0, escape).append(NAME_DELIM);
+        appendComponent(sb, value.getGiven(), 1, escape).append(NAME_DELIM);
+        appendComponent(sb, value.getSuffix(), 0, escape).append(NAME_DELIM);
+        appendComponent(sb, value.getPrefix(), 0, escape).append(NAME_DELIM);
+        appendComponent(sb, value.getSuffix(), 1, escape).append(NAME_DELIM);
+        append(sb, String.valueOf(value.getUse()), escape);
     }
     
-    private String getComponent(List<StringType> list, int index) {
-        if (index >= list.size()) {
-            return "";
+    private StringBuilder appendComponent(StringBuilder sb, List<StringType> list, int index, boolean escape) {
+        if (index < list.size()) {
+            String value = list.get(index).getValue();
+            
+            if (value != null) {
+                append(sb, value, escape);
+            }
         }
         
-        StringType value = list.get(index);
-        String result = value.getValue();
-        return result == null ? "" : result;
+        return sb;
+    }
+    
+    private void append(StringBuilder sb, String value, boolean escape) {
+        if (escape) {
+            appendEscaped(sb, value);
+        } else {
+            sb.append(value);
+        }
+    }
+    
+    /**
+     * Appends a component value, escaping delimiter and escape characters.
+     * 
+     * @param sb The buffer.
+     * @param value The component value.
+     */
+    private void appendEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            
+            switch (c) {
+                case NAME_DELIM:
+                    sb.append("\\S\\");
+                    break;
+                
+                case REPEAT_DELIM:
+                    sb.append("\\R\\");
+                    break;
+                
+                case ESCAPE_CHAR:
+                    sb.append("\\E\\");
+                    break;
+                
+                default:
+                    sb.append(c);
+                    break;
+            }
+        }
     }
     
     @Override
     public HumanName deserialize(String value) {
-        String pcs[] = value.split("\\" + NAME_DELIM);
-        HumanName result = new HumanName();
-        int i = 0;
+        return deserialize(value, 0, value.length());
+    }
+    
+    /**
+     * Deserializes multiple names from a single value.
+     * 
+     * @param value The serialized names, separated by "~", with delimiters in component values
+     *            escaped.
+     * @return The deserialized names. An empty value yields an empty list.
+     */
+    public List<HumanName> deserializeAll(String value) {
+        List<HumanName> results = new ArrayList<>();
+        int start = 0;
+        int length = value.length();
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.addFamily(value);
+        while (length > 0 && start <= length) {
+            int end = value.indexOf(REPEAT_DELIM, start);
+            end = end < 0 ? length : end;
+            results.add(deserialize(value, start, end, true));
+            start = end + 1;
         }
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.addGiven(value);
-        }
+        return results;
+    }
+    
+    /**
+     * Deserializes a name from a region of a value. Empty components are ignored and component
+     * values are not unescaped.
+     * 
+     * @param value Contains the serialized name.
+     * @param start Start of the region (inclusive).
+     * @param end End of the region (exclusive).
+     * @return The deserialized name.
+     */
+    public HumanName deserialize(String value, int start, int end) {
+        return deserialize(value, start, end, false);
+    }
+    
+    private HumanName deserialize(String value, int start, int end, boolean unescape) {
+        HumanName result = new HumanName();
+        int pos = start;
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.addGiven(value);
+        for (int i = 0; i < COMPONENT_COUNT && pos < end; i++) {
+            int delim = pos;
+            
+            while (delim < end && value.charAt(delim) != NAME_DELIM) {
+                delim++;
+            }
+            
+            if (delim > pos) {
+                setComponent(result, i, unescape ? unescape(value, pos, delim) : value.substring(pos, delim));
+            }
+            
+            pos = delim + 1;
         }
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.addSuffix(value);
-        }
+        return result;
+    }
+    
+    /**
+     * Returns a region of a value with escape sequences replaced by the characters they represent.
+     * Unrecognized escape sequences are left as is.
+     * 
+     * @param value Contains the escaped component.
+     * @param start Start of the region (inclusive).
+     * @param end End of the region (exclusive).
+     * @return The unescaped component.
+     */
+    private String unescape(String value, int start, int end) {
+        int esc = value.indexOf(ESCAPE_CHAR, start);
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.addPrefix(value);
+        if (esc < 0 || esc >= end) {
+            return value.substring(start, end);
         }
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.addSuffix(value);
-        }
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(value, start, esc);
+        int pos = esc;
         
-        if ((value = getComponent(pcs, i++)) != null) {
-            result.getUseElement().setValueAsString(value);
+        while (pos < end) {
+            char c = value.charAt(pos);
+            
+            if (c == ESCAPE_CHAR && pos + 2 < end && value.charAt(pos + 2) == ESCAPE_CHAR) {
+                char code = value.charAt(pos + 1);
+                char unescaped = code == 'S' ? NAME_DELIM : code == 'R' ? REPEAT_DELIM : code == 'E' ? ESCAPE_CHAR : 0;
+                
+                if (unescaped != 0) {
+                    sb.append(unescaped);
+                    pos += 3;
+                    continue;
+                }
+            }
+            
+            sb.append(c);
+            pos++;
         }
         
-        return result;
+        return sb.toString();
     }
     
-    private String getComponent(String[] pcs, int index) {
-        if (index >= pcs.length) {
-            return null;
+    private void setComponent(HumanName name, int index, String value) {
+        switch (index) {
+            case 0:
+                name.addFamily(value);
+                break;
+            
+            case 1:
+            case 2:
+                name.addGiven(value);
+                break;
+            
+            case 3:
+            case 5:
+                name.addSuffix(value);
+                break;
+            
+            case 4:
+                name.addPrefix(value);
+                break;
+            
+            case 6:
+                name.getUseElement().setValueAsString(value);
+                break;
         }
+    }
+    
+    /**
+     * Returns the per-thread buffer, cleared for use.
+     * 
+     * @return The buffer.
+     */
+    private StringBuilder getBuffer() {
+        StringBuilder sb = buffer.get();
+        sb.setLength(0);
+        return sb;
+    }
+    
+    /**
+     * Returns the contents of the per-thread buffer. A buffer that has grown unusually large is
+     * discarded so that it is not retained for the life of the thread.
+     * 
+     * @param sb The buffer.
+     * @return The buffer contents.
+     */
+    private String release(StringBuilder sb) {
+        String result = sb.toString();
         
-        String result = pcs[index];
-        return result == null || result.isEmpty() ? null : result;
+        if (sb.capacity() > MAX_BUFFER_CAPACITY) {
+            buffer.remove();
+        }
+        
+        return result;
     }
     
     @Override
@@ -23,6 +23,7 @@ import org.carewebframework.api.context.IContextEvent;
 import org.carewebframework.api.context.ManagedContext;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hspconsortium.cwf.api.cache.IResourceCache;
 import org.hspconsortium.cwf.fhir.common.BaseService;
 
 /**
@@ -35,6 +36,8 @@ public abstract class ResourceContext<DomainClass extends IBaseResource> extends
     
     private BaseService fhirService;
     
+    private IResourceCache resourceCache;
+    
     private final Class<DomainClass> domainClass;
     
     /**
@@ -61,6 +64,10 @@ public abstract class ResourceContext<DomainClass extends IBaseResource> extends
             logicalId = domainClass.getSimpleName() + "/" + logicalId;
         }
         
+        if (resourceCache != null) {
+            return resourceCache.read(fhirService.getClient(), domainClass, logicalId);
+        }
+        
         return fhirService.getClient().fetchResourceFromUrl(domainClass, logicalId);
     }
     
@@ -91,4 +98,22 @@ public abstract class ResourceContext<DomainClass extends IBaseResource> extends
         this.fhirService = fhirService;
     }
     
+    /**
+     * Returns the resource cache, if any.
+     * 
+     * @return The resource cache (may be null).
+     */
+    public IResourceCache getResourceCache() {
+        return resourceCache;
+    }
+    
+    /**
+     * Sets the resource cache used when retrieving resources by logical id.
+     * 
+     * @param resourceCache The resource cache.
+     */
+    public void setResourceCache(IResourceCache resourceCache) {
+        this.resourceCache = resourceCache;
+    }
+    
 }
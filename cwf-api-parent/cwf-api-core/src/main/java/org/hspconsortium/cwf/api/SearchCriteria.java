@@ -19,8 +19,17 @@
  */
 package org.hspconsortium.cwf.api;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+
 import org.apache.commons.lang.StringUtils;
 
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Identifier;
+import org.hspconsortium.cwf.fhir.common.FhirUtil;
+
 /**
  * Base class for search criteria.
  */
@@ -100,4 +109,91 @@ public abstract class SearchCriteria {
         return id == null;
     }
     
+    /**
+     * Adds the current criteria settings, in normalized form, to a map of parameters. Two criteria
+     * instances that would produce the same search must produce the same parameters. This method
+     * adds the base criteria only. Override to add criteria that are specific to the resource type.
+     * 
+     * @param params Map to receive the parameters.
+     */
+    protected void getParameters(Map<String, String> params) {
+        addParameter(params, "_id", id);
+        addParameter(params, "_count", maximum > 0 ? maximum : null);
+    }
+    
+    /**
+     * Returns the canonical form of the current criteria settings. Criteria that would produce the
+     * same search have the same canonical form.
+     * 
+     * @return The canonical form.
+     */
+    public String toCanonicalString() {
+        Map<String, String> params = new TreeMap<>();
+        getParameters(params);
+        StringBuilder sb = new StringBuilder(getClass().getName());
+        
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            sb.append('|').append(param.getKey()).append('=');
+            sb.append(param.getValue().replace("\\", "\\\\").replace("|", "\\|"));
+        }
+        
+        return sb.toString();
+    }
+    
+    /**
+     * Adds a normalized parameter value to a map of parameters. Null values are ignored.
+     * Collections become a comma-delimited list of their elements, identifiers are qualified by
+     * their system, and dates are reduced to day precision.
+     * 
+     * @param params Map to receive the parameter.
+     * @param name The parameter name.
+     * @param value The parameter value.
+     */
+    protected static void addParameter(Map<String, String> params, String name, Object value) {
+        String result;
+        
+        if (value == null) {
+            return;
+        } else if (value instanceof Collection) {
+            result = StringUtils.join((Collection<?>) value, ",");
+        } else if (value instanceof Identifier) {
+            Identifier identifier = (Identifier) value;
+            result = StringUtils.defaultString(identifier.getSystem()) + "|" + identifier.getValue();
+        } else if (value instanceof Date) {
+            result = String.format("%tF", (Date) value);
+        } else {
+            result = value.toString();
+        }
+        
+        params.put(name, result);
+    }
+    
+    /**
+     * Adds the family and given components of a name, ignoring case, to a map of parameters.
+     * 
+     * @param params Map to receive the parameters.
+     * @param name The name (may be null).
+     */
+    protected static void addParameter(Map<String, String> params, HumanName name) {
+        if (name != null) {
+            addParameter(params, "family", StringUtils.join(FhirUtil.toStringList(name.getFamily()), ",").toLowerCase());
+            addParameter(params, "given", StringUtils.join(FhirUtil.toStringList(name.getGiven()), ",").toLowerCase());
+        }
+    }
+    
+    /**
+     * Two criteria instances are equal if they are of the same class and have the same canonical
+     * form.
+     */
+    @Override
+    public boolean equals(Object object) {
+        return object != null && object.getClass() == getClass()
+                && toCanonicalString().equals(((SearchCriteria) object).toCanonicalString());
+    }
+    
+    @Override
+    public int hashCode() {
+        return toCanonicalString().hashCode();
+    }
+    
 }
@@ -0,0 +1,78 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.cache;
+
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+import ca.uhn.fhir.rest.client.IGenericClient;
+
+/**
+ * Interface for a cache of FHIR resources shared across all clients. Resources are keyed by their
+ * fully qualified (and, where specified, versioned) resource URL. Because the cache is shared by
+ * all users, implementations should cache only resource types that are not patient-specific and
+ * should pass other requests through to the server. Resources returned from a cache are copies and
+ * may be modified by the caller without affecting the cached version.
+ */
+public interface IResourceCache {
+    
+    
+    /**
+     * Returns a resource given its URL, retrieving it from the server if it is not cached or if the
+     * cached copy is stale.
+     * 
+     * @param fhirClient The FHIR client used to retrieve the resource if necessary.
+     * @param clazz The resource class.
+     * @param url The resource URL. May be relative to the client's service root and may include a
+     *            version.
+     * @return The resource.
+     */
+    <T extends IBaseResource> T read(IGenericClient fhirClient, Class<T> clazz, String url);
+    
+    /**
+     * Returns a cached resource without contacting the server.
+     * 
+     * @param fhirClient The FHIR client whose service root qualifies relative URLs.
+     * @param url The resource URL.
+     * @return The cached resource, or null if not cached or expired.
+     */
+    IBaseResource get(IGenericClient fhirClient, String url);
+    
+    /**
+     * Adds a resource to the cache. The resource must have a resource id.
+     * 
+     * @param fhirClient The FHIR client whose service root qualifies a relative resource id.
+     * @param resource The resource to cache.
+     */
+    void put(IGenericClient fhirClient, IBaseResource resource);
+    
+    /**
+     * Removes all cached copies of a resource.
+     * 
+     * @param fhirClient The FHIR client whose service root qualifies relative URLs.
+     * @param url The resource URL. Any version is ignored.
+     */
+    void invalidate(IGenericClient fhirClient, String url);
+    
+    /**
+     * Removes all resources from the cache.
+     */
+    void clear();
+    
+}
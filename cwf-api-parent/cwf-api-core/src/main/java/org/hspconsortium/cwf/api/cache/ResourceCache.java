@@ -0,0 +1,418 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.cache;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.hl7.fhir.dstu3.model.IdType;
+import org.hl7.fhir.dstu3.model.Resource;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
+
+import ca.uhn.fhir.rest.client.IGenericClient;
+
+/**
+ * Bounded, least-recently-used cache of FHIR resources. Each resource type may be assigned its own
+ * time-to-live. Versioned resource URLs refer to immutable content and never expire. When an
+ * unversioned entry expires and its version is known, it is revalidated using a conditional read
+ * (If-None-Match) so that unchanged resources are not transferred again.
+ * <p>
+ * Since the cache is shared by all users, only resource types that are not patient-specific
+ * (by default, Practitioner, Location, Organization and Medication) are cached. Requests for other
+ * resource types always go to the server. The cache stores and returns copies of resources, so
+ * callers may modify returned resources without affecting the cache or each other.
+ */
+public class ResourceCache implements IResourceCache {
+    
+    
+    private static final int DEFAULT_MAXIMUM_SIZE = 1000;
+    
+    private static final long DEFAULT_TIME_TO_LIVE = 60;
+    
+    private static final String HISTORY = "/_history/";
+    
+    private static final Set<String> DEFAULT_CACHEABLE_TYPES = Collections
+            .unmodifiableSet(new HashSet<>(Arrays.asList("Practitioner", "Location", "Organization", "Medication")));
+    
+    /**
+     * A cached resource with its expiration time.
+     */
+    private static class Entry {
+        
+        
+        final IBaseResource resource;
+        
+        final String versionId;
+        
+        volatile long expires;
+        
+        Entry(IBaseResource resource, long expires) {
+            this.resource = resource;
+            String version = resource.getIdElement().getVersionIdPart();
+            this.versionId = version != null || resource.getMeta() == null ? version : resource.getMeta().getVersionId();
+            this.expires = expires;
+        }
+        
+        boolean isExpired(long now) {
+            return now >= expires;
+        }
+    }
+    
+    private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maximumSize) {
+                evictions.incrementAndGet();
+                return true;
+            }
+            
+            return false;
+        }
+    };
+    
+    private volatile Map<String, Long> timeToLive = Collections.emptyMap();
+    
+    private volatile Set<String> cacheableTypes = DEFAULT_CACHEABLE_TYPES;
+    
+    private final AtomicLong hits = new AtomicLong();
+    
+    private final AtomicLong misses = new AtomicLong();
+    
+    private final AtomicLong evictions = new AtomicLong();
+    
+    private final AtomicLong revalidations = new AtomicLong();
+    
+    private volatile int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    
+    private volatile long defaultTimeToLive = DEFAULT_TIME_TO_LIVE;
+    
+    @Override
+    public <T extends IBaseResource> T read(IGenericClient fhirClient, Class<T> clazz, String url) {
+        IIdType id = qualify(fhirClient, url);
+        String key = id.getValue();
+        
+        if (!isCacheable(id.getResourceType())) {
+            return fhirClient.read().resource(clazz).withUrl(key).execute();
+        }
+        
+        Entry entry = getEntry(key);
+        long now = System.currentTimeMillis();
+        
+        if (entry != null && !entry.isExpired(now) && clazz.isInstance(entry.resource)) {
+            hits.incrementAndGet();
+            return clazz.cast(copy(entry.resource));
+        }
+        
+        misses.incrementAndGet();
+        T resource;
+        
+        if (entry != null && entry.versionId != null && clazz.isInstance(entry.resource)) {
+            T cached = clazz.cast(entry.resource);
+            resource = fhirClient.read().resource(clazz).withUrl(key).ifVersionMatches(entry.versionId)
+                    .returnResource(cached).execute();
+            
+            if (resource == cached) {
+                revalidations.incrementAndGet();
+                entry.expires = now + getTimeToLive(id.getResourceType());
+                return clazz.cast(copy(resource));
+            }
+        } else {
+            resource = fhirClient.read().resource(clazz).withUrl(key).execute();
+        }
+        
+        putEntry(key, id, resource, now);
+        return resource;
+    }
+    
+    @Override
+    public IBaseResource get(IGenericClient fhirClient, String url) {
+        IIdType id = qualify(fhirClient, url);
+        
+        if (!isCacheable(id.getResourceType())) {
+            return null;
+        }
+        
+        Entry entry = getEntry(id.getValue());
+        
+        if (entry == null || entry.isExpired(System.currentTimeMillis())) {
+            misses.incrementAndGet();
+            return null;
+        }
+        
+        hits.incrementAndGet();
+        return copy(entry.resource);
+    }
+    
+    @Override
+    public void put(IGenericClient fhirClient, IBaseResource resource) {
+        IIdType id = resource.getIdElement();
+        
+        if (id == null || id.isEmpty() || !id.hasResourceType() || !isCacheable(id.getResourceType())) {
+            return;
+        }
+        
+        IIdType qualified = qualify(fhirClient, id.getValue()).toVersionless();
+        putEntry(qualified.getValue(), qualified, resource, System.currentTimeMillis());
+    }
+    
+    @Override
+    public void invalidate(IGenericClient fhirClient, String url) {
+        String key = qualify(fhirClient, url).toVersionless().getValue();
+        String prefix = key + HISTORY;
+        
+        synchronized (cache) {
+            Iterator<String> iter = cache.keySet().iterator();
+            
+            while (iter.hasNext()) {
+                String next = iter.next();
+                
+                if (next.equals(key) || next.startsWith(prefix)) {
+                    iter.remove();
+                }
+            }
+        }
+    }
+    
+    @Override
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+    
+    /**
+     * Stores a copy of a resource under the requested key and, if the resource carries a version,
+     * under its versioned key as well.
+     * 
+     * @param key The requested key.
+     * @param id The requested resource id.
+     * @param resource The resource.
+     * @param now The current time.
+     */
+    private void putEntry(String key, IIdType id, IBaseResource resource, long now) {
+        if (resource == null) {
+            return;
+        }
+        
+        resource = copy(resource);
+        Entry entry = new Entry(resource, now + getTimeToLive(id.getResourceType()));
+        Entry versioned = null;
+        
+        if (id.hasVersionIdPart()) {
+            entry.expires = Long.MAX_VALUE;
+        } else if (entry.versionId != null) {
+            versioned = new Entry(resource, Long.MAX_VALUE);
+        }
+        
+        synchronized (cache) {
+            cache.put(key, entry);
+            
+            if (versioned != null) {
+                cache.put(id.withVersion(entry.versionId).getValue(), versioned);
+            }
+        }
+    }
+    
+    /**
+     * Returns a copy of a resource, so that changes made by one caller are not seen by others.
+     * 
+     * @param resource The resource.
+     * @return A copy of the resource.
+     */
+    private IBaseResource copy(IBaseResource resource) {
+        return resource instanceof Resource ? ((Resource) resource).copy() : resource;
+    }
+    
+    private Entry getEntry(String key) {
+        synchronized (cache) {
+            return cache.get(key);
+        }
+    }
+    
+    /**
+     * Converts a possibly relative resource URL to a fully qualified one.
+     * 
+     * @param fhirClient The FHIR client whose service root qualifies relative URLs.
+     * @param url The resource URL.
+     * @return The fully qualified resource id.
+     */
+    private IIdType qualify(IGenericClient fhirClient, String url) {
+        IdType id = new IdType(url);
+        
+        if (!id.hasResourceType() || !id.hasIdPart()) {
+            throw new IllegalArgumentException("Not a valid resource URL: " + url);
+        }
+        
+        return id.hasBaseUrl() ? id : id.withServerBase(fhirClient.getServerBase(), id.getResourceType());
+    }
+    
+    /**
+     * Returns true if resources of the specified type may be cached.
+     * 
+     * @param resourceType The resource type.
+     * @return True if the resource type may be cached.
+     */
+    public boolean isCacheable(String resourceType) {
+        return cacheableTypes.contains(resourceType);
+    }
+    
+    /**
+     * Sets the resource types that may be cached. Because the cache is shared by all users, these
+     * should be limited to reference data that is not specific to a patient.
+     * 
+     * @param cacheableTypes Whitespace- or comma-delimited list of resource types.
+     */
+    public void setCacheableTypes(String cacheableTypes) {
+        Set<String> types = new HashSet<>();
+        
+        for (String type : StringUtils.split(StringUtils.defaultString(cacheableTypes), " ,\t\n")) {
+            types.add(type);
+        }
+        
+        this.cacheableTypes = types;
+    }
+    
+    /**
+     * Returns the time-to-live in milliseconds for the specified resource type.
+     * 
+     * @param resourceType The resource type.
+     * @return The time-to-live in milliseconds.
+     */
+    private long getTimeToLive(String resourceType) {
+        Long ttl = timeToLive.get(resourceType);
+        return (ttl == null ? defaultTimeToLive : ttl) * 1000;
+    }
+    
+    /**
+     * Returns the maximum number of cached entries.
+     * 
+     * @return The maximum number of cached entries.
+     */
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+    
+    /**
+     * Sets the maximum number of cached entries. When exceeded, the least recently used entry is
+     * evicted.
+     * 
+     * @param maximumSize The maximum number of cached entries.
+     */
+    public void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize <= 0 ? DEFAULT_MAXIMUM_SIZE : maximumSize;
+    }
+    
+    /**
+     * Returns the time-to-live in seconds for resource types without a specific setting.
+     * 
+     * @return The default time-to-live in seconds.
+     */
+    public long getDefaultTimeToLive() {
+        return defaultTimeToLive;
+    }
+    
+    /**
+     * Sets the time-to-live in seconds for resource types without a specific setting.
+     * 
+     * @param defaultTimeToLive The default time-to-live in seconds.
+     */
+    public void setDefaultTimeToLive(long defaultTimeToLive) {
+        this.defaultTimeToLive = defaultTimeToLive;
+    }
+    
+    /**
+     * Sets the time-to-live in seconds for individual resource types.
+     * 
+     * @param timeToLive Map of time-to-live values indexed by resource type.
+     */
+    public void setTimeToLive(Map<String, Long> timeToLive) {
+        Map<String, Long> map = new HashMap<>();
+        
+        for (Map.Entry<String, Long> entry : timeToLive.entrySet()) {
+            if (!StringUtils.isEmpty(entry.getKey()) && entry.getValue() != null) {
+                map.put(entry.getKey(), entry.getValue());
+            }
+        }
+        
+        this.timeToLive = map;
+    }
+    
+    /**
+     * Returns the number of cached entries.
+     * 
+     * @return The number of cached entries.
+     */
+    public int getSize() {
+        synchronized (cache) {
+            return cache.size();
+        }
+    }
+    
+    /**
+     * Returns the number of requests satisfied from the cache without contacting the server.
+     * 
+     * @return The hit count.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+    
+    /**
+     * Returns the number of requests that could not be satisfied from the cache alone.
+     * 
+     * @return The miss count.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+    
+    /**
+     * Returns the number of entries evicted to enforce the maximum cache size.
+     * 
+     * @return The eviction count.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+    
+    /**
+     * Returns the number of expired entries that the server confirmed as unchanged.
+     * 
+     * @return The revalidation count.
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+    
+}
@@ -19,6 +19,8 @@
  */
 package org.hspconsortium.cwf.api.encounter;
 
+import java.util.Map;
+
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.Period;
 import org.hspconsortium.cwf.api.SearchCriteria;
@@ -103,4 +105,18 @@ public class EncounterSearchCriteria extends SearchCriteria {
         this.period = period;
     }
     
+    /**
+     * Adds the encounter-specific criteria to the map of parameters.
+     */
+    @Override
+    protected void getParameters(Map<String, String> params) {
+        super.getParameters(params);
+        addParameter(params, "patient", patient == null ? null : patient.getIdElement().getIdPart());
+        addParameter(params, "type", type);
+        
+        if (period != null) {
+            addParameter(params, "start", period.getStart());
+            addParameter(params, "end", period.getEnd());
+        }
+    }
 }
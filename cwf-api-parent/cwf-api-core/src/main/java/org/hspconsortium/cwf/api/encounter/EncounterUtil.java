@@ -25,6 +25,7 @@ import java.util.Date;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.carewebframework.api.spring.SpringUtil;
 
@@ -83,6 +84,16 @@ public class EncounterUtil {
         return getSearchEngine().search(criteria);
     }
     
+    /**
+     * Perform a background search based on given criteria.
+     * 
+     * @param criteria Search criteria.
+     * @return A future for the resources matching the search criteria.
+     */
+    public static CompletableFuture<List<Encounter>> searchAsync(EncounterSearchCriteria criteria) {
+        return getSearchEngine().searchAsync(criteria);
+    }
+    
     /**
      * Returns the default encounter for the current institution for the specified patient. Search
      * is restricted to encounters belonging to the current institution, with care setting codes of
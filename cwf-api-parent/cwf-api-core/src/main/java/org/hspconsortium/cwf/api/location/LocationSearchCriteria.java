@@ -19,6 +19,8 @@
  */
 package org.hspconsortium.cwf.api.location;
 
+import java.util.Map;
+
 import org.hl7.fhir.dstu3.model.Location.LocationStatus;
 import org.hspconsortium.cwf.api.SearchCriteria;
 
@@ -82,4 +84,14 @@ public class LocationSearchCriteria extends SearchCriteria {
         return super.isEmpty() && status == null && type == null;
     }
     
+    /**
+     * Adds the location-specific criteria to the map of parameters.
+     */
+    @Override
+    protected void getParameters(Map<String, String> params) {
+        super.getParameters(params);
+        addParameter(params, "type", type);
+        addParameter(params, "status", status == null ? null : status.toCode());
+        addParameter(params, "name", name == null ? null : name.toLowerCase());
+    }
 }
@@ -20,6 +20,7 @@
 package org.hspconsortium.cwf.api.location;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.carewebframework.api.spring.SpringUtil;
 
@@ -52,6 +53,16 @@ public class LocationUtil {
         return getSearchEngine().search(criteria);
     }
     
+    /**
+     * Perform a background search based on given criteria.
+     * 
+     * @param criteria Search criteria.
+     * @return A future for the resources matching the search criteria.
+     */
+    public static CompletableFuture<List<Location>> searchAsync(LocationSearchCriteria criteria) {
+        return getSearchEngine().searchAsync(criteria);
+    }
+    
     /**
      * Enforce static class.
      */
@@ -57,6 +57,8 @@ public class PatientContext extends ResourceContext<Patient> {
     
     public interface IPatientContextEvent extends IContextEvent {};
     
+    private PatientIndex patientIndex;
+    
     /**
      * Returns the managed patient context.
      * 
@@ -113,6 +115,31 @@ public class PatientContext extends ResourceContext<Patient> {
         super(SUBJECT_NAME, Patient.class, IPatientContextEvent.class, patient);
     }
     
+    /**
+     * Adds a newly committed patient to the session's patient index.
+     */
+    @Override
+    public void commit(boolean accept) {
+        super.commit(accept);
+        
+        if (accept && patientIndex != null) {
+            Patient patient = getContextObject(false);
+            
+            if (patient != null) {
+                patientIndex.add(patient);
+            }
+        }
+    }
+    
+    /**
+     * Sets the patient index to which patients selected into the context are added.
+     * 
+     * @param patientIndex The patient index.
+     */
+    public void setPatientIndex(PatientIndex patientIndex) {
+        this.patientIndex = patientIndex;
+    }
+    
     /**
      * Creates a CCOW context from the specified patient object.
      */
@@ -0,0 +1,680 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patient;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+import org.apache.commons.codec.language.DoubleMetaphone;
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateFormatUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.api.spring.SpringUtil;
+
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Identifier;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.fhir.common.FhirUtil;
+
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.server.exceptions.ResourceGoneException;
+import ca.uhn.fhir.rest.server.exceptions.ResourceNotFoundException;
+
+/**
+ * In-memory index of patients already seen during the session (through the patient context,
+ * patient lists and search results). Patients may be looked up by MRN, by name (prefix or
+ * phonetic) and by birth date without a server request. The index is bounded; the least recently
+ * used patients are evicted when it is full.
+ * <p>
+ * Because the index holds only a subset of all patients, only exact MRN lookups are suitable for
+ * satisfying a search. As with a FHIR token search, an MRN lookup that specifies an identifier
+ * system matches both system and value (MRNs are unique only within their assigning system), while
+ * one without a system matches the value in any system. Patients returned by an MRN lookup are
+ * verified against the server in the background if they have not been verified recently, and are
+ * updated or removed accordingly.
+ */
+public class PatientIndex {
+    
+    
+    private static final Log log = LogFactory.getLog(PatientIndex.class);
+    
+    /**
+     * Node in the name trie. Logical ids are stored only at the node terminating a name.
+     */
+    private static class TrieNode {
+        
+        
+        private final Map<Character, TrieNode> children = new HashMap<>();
+        
+        private final Set<String> ids = new HashSet<>();
+        
+        private boolean isEmpty() {
+            return children.isEmpty() && ids.isEmpty();
+        }
+    }
+    
+    /**
+     * An indexed patient and the keys under which it was indexed.
+     */
+    private static class Entry {
+        
+        
+        private final Patient patient;
+        
+        private final Set<String> mrns = new HashSet<>();
+        
+        private final Set<String> mrnValues = new HashSet<>();
+        
+        private final Set<String> names = new HashSet<>();
+        
+        private final Set<String> phonetics = new HashSet<>();
+        
+        private final String birthDate;
+        
+        private volatile long verified;
+        
+        private Entry(Patient patient, long verified) {
+            this.patient = patient;
+            this.verified = verified;
+            this.birthDate = patient.getBirthDate() == null ? null : toKey(patient.getBirthDate());
+        }
+    }
+    
+    private final DoubleMetaphone metaphone = new DoubleMetaphone();
+    
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() > maximumSize) {
+                unindex(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+            
+            return false;
+        }
+        
+    };
+    
+    private final Map<String, Set<String>> mrnIndex = new HashMap<>();
+    
+    private final Map<String, Set<String>> mrnValueIndex = new HashMap<>();
+    
+    private final Map<String, Set<String>> phoneticIndex = new HashMap<>();
+    
+    private final Map<String, Set<String>> birthDateIndex = new HashMap<>();
+    
+    private final TrieNode nameTrie = new TrieNode();
+    
+    private int maximumSize = 1000;
+    
+    private long verifyInterval = 300;
+    
+    private IGenericClient fhirClient;
+    
+    private ExecutorService executor;
+    
+    /**
+     * Returns the patient index for the current session. The index is a desktop-scoped bean, so
+     * this must be called on the desktop thread. Code that may run elsewhere (e.g., on an executor
+     * thread) should be given the index explicitly.
+     * 
+     * @return The patient index, or null if none.
+     */
+    public static PatientIndex getPatientIndex() {
+        return SpringUtil.getBean("patientIndex", PatientIndex.class);
+    }
+    
+    /**
+     * Adds a patient to the index, replacing any previously indexed version. Patients without a
+     * logical id are ignored.
+     * 
+     * @param patient The patient.
+     */
+    public void add(Patient patient) {
+        add(patient, System.currentTimeMillis());
+    }
+    
+    /**
+     * Adds patients to the index.
+     * 
+     * @param patients The patients.
+     */
+    public void addAll(Collection<Patient> patients) {
+        if (patients != null) {
+            long now = System.currentTimeMillis();
+            
+            for (Patient patient : patients) {
+                add(patient, now);
+            }
+        }
+    }
+    
+    private synchronized void add(Patient patient, long verified) {
+        String id = getId(patient);
+        
+        if (id == null) {
+            return;
+        }
+        
+        remove(id);
+        Entry entry = new Entry(patient, verified);
+        
+        Identifier mrn = FhirUtil.getMRN(patient);
+        
+        if (mrn != null && mrn.getValue() != null) {
+            String key = toKey(mrn.getSystem(), mrn.getValue());
+            entry.mrns.add(key);
+            addKey(mrnIndex, key, id);
+            entry.mrnValues.add(mrn.getValue());
+            addKey(mrnValueIndex, mrn.getValue(), id);
+        }
+        
+        for (HumanName name : patient.getName()) {
+            for (String family : FhirUtil.toStringList(name.getFamily())) {
+                String key = normalize(family);
+                
+                if (!key.isEmpty() && entry.names.add(key)) {
+                    getNode(key, true).ids.add(id);
+                }
+                
+                String phonetic = metaphone.doubleMetaphone(family);
+                
+                if (phonetic != null && !phonetic.isEmpty() && entry.phonetics.add(phonetic)) {
+                    addKey(phoneticIndex, phonetic, id);
+                }
+            }
+        }
+        
+        if (entry.birthDate != null) {
+            addKey(birthDateIndex, entry.birthDate, id);
+        }
+        
+        entries.put(id, entry);
+    }
+    
+    /**
+     * Removes a patient from the index.
+     * 
+     * @param id The patient's logical id.
+     */
+    public synchronized void remove(String id) {
+        Entry entry = entries.remove(id);
+        
+        if (entry != null) {
+            unindex(id, entry);
+        }
+    }
+    
+    /**
+     * Removes all patients from the index.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        mrnIndex.clear();
+        mrnValueIndex.clear();
+        phoneticIndex.clear();
+        birthDateIndex.clear();
+        nameTrie.children.clear();
+        nameTrie.ids.clear();
+    }
+    
+    /**
+     * Returns the number of indexed patients.
+     * 
+     * @return The number of indexed patients.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+    
+    /**
+     * Returns the patients with the specified MRN in any identifier system, scheduling background
+     * verification of any that have not been verified recently.
+     * 
+     * @param mrn The MRN.
+     * @return Matching patients (never null).
+     */
+    public List<Patient> findByMRN(String mrn) {
+        return findByMRN(null, mrn);
+    }
+    
+    /**
+     * Returns the patients with the specified MRN, scheduling background verification of any that
+     * have not been verified recently.
+     * 
+     * @param mrn The MRN identifier. If it has a system, both system and value must match;
+     *            otherwise, the value is matched in any system.
+     * @return Matching patients (never null).
+     */
+    public List<Patient> findByMRN(Identifier mrn) {
+        return findByMRN(mrn.getSystem(), mrn.getValue());
+    }
+    
+    /**
+     * Returns the patients with the specified MRN, scheduling background verification of any that
+     * have not been verified recently.
+     * 
+     * @param system The identifier system (if null or empty, the MRN is matched in any system).
+     * @param mrn The MRN.
+     * @return Matching patients (never null).
+     */
+    public List<Patient> findByMRN(String system, String mrn) {
+        List<Entry> matches;
+        
+        synchronized (this) {
+            Set<String> ids = StringUtils.isEmpty(system) ? mrnValueIndex.get(mrn) : mrnIndex.get(toKey(system, mrn));
+            matches = getEntries(ids);
+        }
+        
+        List<Patient> patients = new ArrayList<>(matches.size());
+        IUser user = matches.isEmpty() ? null : AbstractAuthInterceptor.getCurrentUser();
+        
+        for (Entry entry : matches) {
+            verify(entry, user);
+            patients.add(entry.patient);
+        }
+        
+        return patients;
+    }
+    
+    /**
+     * Returns patients with a family name beginning with, or (optionally) sounding like, the
+     * family name component of the specified name, and with given names beginning with its given
+     * name components.
+     * 
+     * @param name The name to find.
+     * @param phonetic If true, also include patients whose family name sounds like the specified
+     *            one.
+     * @return Matching patients (never null).
+     */
+    public synchronized List<Patient> findByName(HumanName name, boolean phonetic) {
+        Set<String> ids = new LinkedHashSet<>();
+        
+        for (String family : FhirUtil.toStringList(name.getFamily())) {
+            TrieNode node = getNode(normalize(family), false);
+            
+            if (node != null) {
+                collect(node, ids);
+            }
+            
+            if (phonetic) {
+                Set<String> phoneticIds = phoneticIndex.get(metaphone.doubleMetaphone(family));
+                
+                if (phoneticIds != null) {
+                    ids.addAll(phoneticIds);
+                }
+            }
+        }
+        
+        List<Patient> patients = new ArrayList<>();
+        
+        for (Entry entry : getEntries(ids)) {
+            if (matchesGiven(entry.patient, FhirUtil.toStringList(name.getGiven()))) {
+                patients.add(entry.patient);
+            }
+        }
+        
+        return patients;
+    }
+    
+    /**
+     * Returns patients born on the specified date.
+     * 
+     * @param birthDate The birth date.
+     * @return Matching patients (never null).
+     */
+    public synchronized List<Patient> findByBirthDate(Date birthDate) {
+        List<Patient> patients = new ArrayList<>();
+        
+        for (Entry entry : getEntries(birthDateIndex.get(toKey(birthDate)))) {
+            patients.add(entry.patient);
+        }
+        
+        return patients;
+    }
+    
+    /**
+     * Returns indexed patients satisfying the MRN, name, birth date and gender criteria. Because
+     * the index is incomplete, the result may omit patients that a server search would return.
+     * 
+     * @param criteria The search criteria.
+     * @return Matching patients (never null).
+     */
+    public List<Patient> find(PatientSearchCriteria criteria) {
+        List<Patient> candidates;
+        
+        if (criteria.getMRN() != null) {
+            candidates = findByMRN(criteria.getMRN());
+        } else if (criteria.getBirth() != null) {
+            candidates = findByBirthDate(criteria.getBirth());
+        } else if (criteria.getName() != null) {
+            candidates = findByName(criteria.getName(), false);
+        } else {
+            return Collections.emptyList();
+        }
+        
+        List<Patient> patients = new ArrayList<>();
+        
+        for (Patient patient : candidates) {
+            if (matches(patient, criteria)) {
+                patients.add(patient);
+            }
+        }
+        
+        return patients;
+    }
+    
+    private boolean matches(Patient patient, PatientSearchCriteria criteria) {
+        if (criteria.getBirth() != null
+                && (patient.getBirthDate() == null || !toKey(patient.getBirthDate()).equals(toKey(criteria.getBirth())))) {
+            return false;
+        }
+        
+        if (criteria.getGender() != null && (patient.getGender() == null
+                || !patient.getGender().toCode().substring(0, 1).equalsIgnoreCase(criteria.getGender()))) {
+            return false;
+        }
+        
+        if (criteria.getName() != null) {
+            Set<String> names = new HashSet<>();
+            
+            for (HumanName name : patient.getName()) {
+                for (String family : FhirUtil.toStringList(name.getFamily())) {
+                    names.add(normalize(family));
+                }
+            }
+            
+            for (String family : FhirUtil.toStringList(criteria.getName().getFamily())) {
+                if (!startsWithAny(names, normalize(family))) {
+                    return false;
+                }
+            }
+            
+            return matchesGiven(patient, FhirUtil.toStringList(criteria.getName().getGiven()));
+        }
+        
+        return true;
+    }
+    
+    private boolean matchesGiven(Patient patient, List<String> givens) {
+        if (givens.isEmpty()) {
+            return true;
+        }
+        
+        Set<String> names = new HashSet<>();
+        
+        for (HumanName name : patient.getName()) {
+            for (String given : FhirUtil.toStringList(name.getGiven())) {
+                names.add(normalize(given));
+            }
+        }
+        
+        for (String given : givens) {
+            if (!startsWithAny(names, normalize(given))) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    private boolean startsWithAny(Set<String> values, String prefix) {
+        for (String value : values) {
+            if (value.startsWith(prefix)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Schedules background verification of an indexed patient against the server if it has not
+     * been verified within the verification interval. A patient that no longer exists is removed
+     * and one that has changed is reindexed.
+     * 
+     * @param entry The index entry.
+     * @param user The user on whose behalf the patient is read.
+     */
+    private void verify(final Entry entry, final IUser user) {
+        final long now = System.currentTimeMillis();
+        
+        if (fhirClient == null || executor == null || now - entry.verified < verifyInterval * 1000) {
+            return;
+        }
+        
+        entry.verified = now;
+        
+        executor.execute(new Runnable() {
+            
+            
+            @Override
+            public void run() {
+                final String id = getId(entry.patient);
+                final String version = entry.patient.getIdElement().getVersionIdPart();
+                
+                try {
+                    Patient patient = AbstractAuthInterceptor.callAs(user, new Callable<Patient>() {
+                        
+                        @Override
+                        public Patient call() throws Exception {
+                            return read(id, version);
+                        }
+                        
+                    });
+                    
+                    if (patient != null) {
+                        add(patient, now);
+                    }
+                } catch (ResourceNotFoundException | ResourceGoneException e) {
+                    remove(id);
+                } catch (Exception e) {
+                    log.warn("Error verifying indexed patient " + id, e);
+                }
+            }
+            
+        });
+    }
+    
+    /**
+     * Reads a patient from the server. Called on an executor thread.
+     * 
+     * @param id The patient's logical id.
+     * @param version The indexed version (may be null).
+     * @return The current patient, or null if it has not changed from the indexed version.
+     */
+    protected Patient read(String id, String version) {
+        return version == null ? fhirClient.read().resource(Patient.class).withId(id).execute()
+                : fhirClient.read().resource(Patient.class).withId(id).ifVersionMatches(version).returnNull().execute();
+    }
+    
+    private void unindex(String id, Entry entry) {
+        for (String mrn : entry.mrns) {
+            removeKey(mrnIndex, mrn, id);
+        }
+        
+        for (String mrn : entry.mrnValues) {
+            removeKey(mrnValueIndex, mrn, id);
+        }
+        
+        for (String phonetic : entry.phonetics) {
+            removeKey(phoneticIndex, phonetic, id);
+        }
+        
+        for (String name : entry.names) {
+            removeFromTrie(nameTrie, name, 0, id);
+        }
+        
+        if (entry.birthDate != null) {
+            removeKey(birthDateIndex, entry.birthDate, id);
+        }
+    }
+    
+    private List<Entry> getEntries(Collection<String> ids) {
+        List<Entry> result = new ArrayList<>();
+        
+        if (ids != null) {
+            for (String id : ids) {
+                Entry entry = entries.get(id);
+                
+                if (entry != null) {
+                    result.add(entry);
+                }
+            }
+        }
+        
+        return result;
+    }
+    
+    private TrieNode getNode(String key, boolean create) {
+        TrieNode node = nameTrie;
+        
+        for (int i = 0; i < key.length() && node != null; i++) {
+            Character c = key.charAt(i);
+            TrieNode child = node.children.get(c);
+            
+            if (child == null && create) {
+                node.children.put(c, child = new TrieNode());
+            }
+            
+            node = child;
+        }
+        
+        return node;
+    }
+    
+    private void collect(TrieNode node, Set<String> ids) {
+        ids.addAll(node.ids);
+        
+        for (TrieNode child : node.children.values()) {
+            collect(child, ids);
+        }
+    }
+    
+    /**
+     * Removes an id from the node terminating the specified name, pruning nodes left empty.
+     * 
+     * @return True if the node is now empty.
+     */
+    private boolean removeFromTrie(TrieNode node, String key, int index, String id) {
+        if (index == key.length()) {
+            node.ids.remove(id);
+        } else {
+            Character c = key.charAt(index);
+            TrieNode child = node.children.get(c);
+            
+            if (child != null && removeFromTrie(child, key, index + 1, id)) {
+                node.children.remove(c);
+            }
+        }
+        
+        return node.isEmpty();
+    }
+    
+    private static void addKey(Map<String, Set<String>> index, String key, String id) {
+        Set<String> ids = index.get(key);
+        
+        if (ids == null) {
+            index.put(key, ids = new LinkedHashSet<>());
+        }
+        
+        ids.add(id);
+    }
+    
+    private static void removeKey(Map<String, Set<String>> index, String key, String id) {
+        Set<String> ids = index.get(key);
+        
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            index.remove(key);
+        }
+    }
+    
+    private static String getId(Patient patient) {
+        return patient == null || !patient.hasIdElement() ? null : patient.getIdElement().getIdPart();
+    }
+    
+    private static String normalize(String name) {
+        return name == null ? "" : name.replaceAll("[^\\p{L}]", "").toUpperCase();
+    }
+    
+    private static String toKey(Date date) {
+        return DateFormatUtils.format(date, "yyyy-MM-dd");
+    }
+    
+    private static String toKey(String system, String value) {
+        return StringUtils.defaultString(system) + "|" + value;
+    }
+    
+    /**
+     * Sets the maximum number of indexed patients.
+     * 
+     * @param maximumSize The maximum number of indexed patients.
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+    
+    /**
+     * Sets the minimum time, in seconds, between verifications of an indexed patient.
+     * 
+     * @param verifyInterval The verification interval in seconds.
+     */
+    public void setVerifyInterval(long verifyInterval) {
+        this.verifyInterval = verifyInterval;
+    }
+    
+    /**
+     * Sets the FHIR client used to verify indexed patients. If not set, no verification occurs.
+     * 
+     * @param fhirClient The FHIR client.
+     */
+    public void setFhirClient(IGenericClient fhirClient) {
+        this.fhirClient = fhirClient;
+    }
+    
+    /**
+     * Sets the executor used to verify indexed patients in the background. If not set, no
+     * verification occurs.
+     * 
+     * @param executor The executor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+}
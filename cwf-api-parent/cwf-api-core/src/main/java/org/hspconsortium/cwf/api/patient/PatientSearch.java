@@ -19,10 +19,15 @@
  */
 package org.hspconsortium.cwf.api.patient;
 
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
 import org.hl7.fhir.dstu3.model.HumanName;
 import org.hl7.fhir.dstu3.model.Identifier;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hspconsortium.cwf.api.query.BaseResourceQuery;
+import org.hspconsortium.cwf.api.query.IPageListener;
 import org.hspconsortium.cwf.fhir.common.FhirUtil;
 
 import ca.uhn.fhir.rest.client.IGenericClient;
@@ -30,14 +35,120 @@ import ca.uhn.fhir.rest.gclient.IQuery;
 
 /**
  * Patient search implementation using FHIR.
+ * <p>
+ * If enabled, a patient index supplied by the caller is consulted before searching the server. A
+ * search by MRN alone is satisfied from the index when it holds a matching patient. Patients
+ * returned by a server search are added to the index. The index is never looked up here, since the
+ * session's index is a desktop-scoped bean and this engine may be called from any thread.
  */
 public class PatientSearch extends BaseResourceQuery<Patient, PatientSearchCriteria> {
     
     
+    private boolean indexEnabled = true;
+    
     public PatientSearch(IGenericClient fhirClient) {
         super(Patient.class, fhirClient);
     }
     
+    /**
+     * Perform a search based on given criteria, consulting the patient index first.
+     * 
+     * @param criteria Search criteria.
+     * @param index The patient index (may be null).
+     * @return Resources matching the search criteria.
+     */
+    public List<Patient> search(PatientSearchCriteria criteria, PatientIndex index) {
+        index = indexEnabled ? index : null;
+        List<Patient> results = searchIndex(index, criteria);
+        
+        if (results == null) {
+            results = super.search(criteria);
+            
+            if (index != null) {
+                index.addAll(results);
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Perform a background search based on given criteria, consulting the patient index first.
+     * 
+     * @param criteria Search criteria.
+     * @param index The patient index (may be null).
+     * @return A future for the resources matching the search criteria.
+     */
+    public CompletableFuture<List<Patient>> searchAsync(PatientSearchCriteria criteria, PatientIndex index) {
+        index = indexEnabled ? index : null;
+        List<Patient> results = searchIndex(index, criteria);
+        return results != null ? CompletableFuture.completedFuture(results)
+                : addToIndex(index, super.searchAsync(criteria));
+    }
+    
+    /**
+     * Perform a background search based on given criteria, consulting the patient index first and
+     * delivering each page of results as it is retrieved.
+     * 
+     * @param criteria Search criteria.
+     * @param listener Receives each page of results.
+     * @param index The patient index (may be null).
+     * @return A future for the resources matching the search criteria.
+     */
+    public CompletableFuture<List<Patient>> searchAsync(PatientSearchCriteria criteria, IPageListener<Patient> listener,
+                                                        PatientIndex index) {
+        index = indexEnabled ? index : null;
+        List<Patient> results = searchIndex(index, criteria);
+        
+        if (results != null) {
+            listener.onPage(results);
+            return CompletableFuture.completedFuture(results);
+        }
+        
+        return addToIndex(index, super.searchAsync(criteria, listener));
+    }
+    
+    /**
+     * Attempts to satisfy a search from the patient index. Only searches by MRN alone qualify.
+     * 
+     * @param index The patient index (may be null).
+     * @param criteria The search criteria.
+     * @return The matching patients, or null if the search must be performed by the server.
+     */
+    private List<Patient> searchIndex(PatientIndex index, PatientSearchCriteria criteria) {
+        if (index == null || criteria.getMRN() == null || criteria.getName() != null || criteria.getSSN() != null
+                || criteria.getGender() != null || criteria.getBirth() != null || criteria.getId() != null) {
+            return null;
+        }
+        
+        List<Patient> results = index.findByMRN(criteria.getMRN());
+        return results.isEmpty() ? null : results;
+    }
+    
+    /**
+     * Adds the results of a background search to the patient index when it completes.
+     * 
+     * @param index The patient index (may be null).
+     * @param future The future for the search results.
+     * @return The same future.
+     */
+    private CompletableFuture<List<Patient>> addToIndex(final PatientIndex index,
+                                                        CompletableFuture<List<Patient>> future) {
+        if (index != null) {
+            future.thenAccept(new Consumer<List<Patient>>() {
+                
+                
+                @Override
+                public void accept(List<Patient> results) {
+                    index.addAll(results);
+                }
+                
+            });
+        }
+        
+        return future;
+    }
+    
     @Override
     public void buildQuery(PatientSearchCriteria criteria, IQuery<?> query) {
         super.buildQuery(criteria, query);
@@ -75,4 +186,22 @@ public class PatientSearch extends BaseResourceQuery<Patient, PatientSearchCrite
         }
     }
     
+    /**
+     * Returns true if the patient index is consulted.
+     * 
+     * @return True if the patient index is consulted.
+     */
+    public boolean isIndexEnabled() {
+        return indexEnabled;
+    }
+    
+    /**
+     * Enables or disables use of the patient index.
+     * 
+     * @param indexEnabled If true, the patient index is consulted.
+     */
+    public void setIndexEnabled(boolean indexEnabled) {
+        this.indexEnabled = indexEnabled;
+    }
+    
 }
@@ -20,6 +20,7 @@
 package org.hspconsortium.cwf.api.patient;
 
 import java.util.Date;
+import java.util.Map;
 
 import org.apache.commons.lang.StringUtils;
 
@@ -65,44 +66,94 @@ public class PatientSearchCriteria extends SearchCriteria {
         searchText = searchText == null ? null : searchText.trim();
         
         if (!StringUtils.isEmpty(searchText)) {
-            String[] pcs = searchText.split(";");
+            int length = searchText.length();
+            int start = 0;
             
-            for (String pc : pcs) {
-                pc = pc.trim();
-                Date tempDate;
-                
-                if (pc.isEmpty()) {
-                    continue;
-                } else if (isValid() && (pc.equalsIgnoreCase("M") || pc.equalsIgnoreCase("F"))) {
-                    setGender(pc.toUpperCase());
-                } else if (!pc.matches(".*\\d.*")) {
-                    setName(pc);
-                } else if (pc.matches("^=.+$")) {
-                    setId(pc.substring(1));
-                } else if (pc.matches("^\\d{3}-\\d{2}-\\d{4}$")) {
-                    setSSN(pc);
-                } else if ((tempDate = parseDate(pc)) != null) {
-                    setBirth(tempDate);
-                } else {
-                    setMRN(pc);
-                }
+            while (start < length) {
+                int end = searchText.indexOf(';', start);
+                end = end < 0 ? length : end;
+                parseComponent(searchText.substring(start, end).trim());
+                start = end + 1;
             }
         }
     }
     
+    /**
+     * Determines which criterion is associated with an input component and sets it. A single scan
+     * of the component classifies its characters, in place of matching it against a series of
+     * regular expressions. In order of precedence, a component is taken to be:
+     * <ul>
+     * <li>a gender if it is "M" or "F" and other criteria have already been specified</li>
+     * <li>a name if it contains no digits (or spans multiple lines)</li>
+     * <li>a logical id if it is prefixed with "="</li>
+     * <li>an SSN if it has the form ddd-dd-dddd</li>
+     * <li>a birth date if it parses as a date</li>
+     * <li>otherwise, an MRN</li>
+     * </ul>
+     * 
+     * @param pc The input component (already trimmed).
+     */
+    private void parseComponent(String pc) {
+        int length = pc.length();
+        
+        if (length == 0) {
+            return;
+        }
+        
+        char first = pc.charAt(0);
+        
+        if (length == 1 && (first == 'M' || first == 'm' || first == 'F' || first == 'f') && isValid()) {
+            setGender(pc.toUpperCase());
+            return;
+        }
+        
+        int digits = 0;
+        int hyphens = 0;
+        boolean multiline = false;
+        
+        for (int i = 0; i < length; i++) {
+            char c = pc.charAt(i);
+            
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '-') {
+                hyphens++;
+            } else if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                multiline = true;
+            }
+        }
+        
+        boolean digitsAndHyphens = digits + hyphens == length;
+        Date tempDate;
+        
+        if (digits == 0 || multiline) {
+            setName(pc);
+        } else if (first == '=' && length > 1) {
+            setId(pc.substring(1));
+        } else if (digitsAndHyphens && length == 11 && hyphens == 2 && pc.charAt(3) == '-' && pc.charAt(6) == '-') {
+            setSSN(pc);
+        } else if ((tempDate = parseDate(pc, digitsAndHyphens && hyphens == 1)) != null) {
+            setBirth(tempDate);
+        } else {
+            setMRN(pc);
+        }
+    }
+    
     /**
      * Returns a date value if the input is a valid date. Otherwise, returns null. Explicitly
      * excludes some patterns that may successfully parse as a date.
      * 
      * @param value Input to parse.
+     * @param singleHyphen True if the input consists of digits and exactly one hyphen.
      * @return Result of parsed input, or null if parsing unsuccessful.
      */
-    private Date parseDate(String value) {
+    private Date parseDate(String value, boolean singleHyphen) {
         if (StringUtils.isNumeric(value)) {
             return null;
         }
         
-        if (value.matches("^\\d+-\\d+$")) {
+        // Excludes values of the form digits-digits.
+        if (singleHyphen && value.charAt(0) != '-' && value.charAt(value.length() - 1) != '-') {
             return null;
         }
         
@@ -231,4 +282,17 @@ public class PatientSearchCriteria extends SearchCriteria {
     public boolean isEmpty() {
         return super.isEmpty() && name == null && mrn == null && ssn == null && gender == null && birth == null;
     }
+    
+    /**
+     * Adds the patient-specific criteria to the map of parameters.
+     */
+    @Override
+    protected void getParameters(Map<String, String> params) {
+        super.getParameters(params);
+        addParameter(params, name);
+        addParameter(params, "mrn", mrn);
+        addParameter(params, "ssn", ssn);
+        addParameter(params, "gender", gender);
+        addParameter(params, "birthdate", birth);
+    }
 }
@@ -0,0 +1,188 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patient;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.HumanName.NameUse;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.fhir.common.FhirUtil;
+
+/**
+ * A precomputed, collation-aware key for sorting patients by name. Computing the key formats the
+ * name once, so that sorting compares keys rather than reformatting names on every comparison.
+ * Keys compare case-insensitively according to the default locale's collation rules.
+ */
+public class PatientSortKey implements Comparable<PatientSortKey> {
+    
+    
+    private static final ThreadLocal<Collator> collator = new ThreadLocal<Collator>() {
+        
+        @Override
+        protected Collator initialValue() {
+            Collator collator = Collator.getInstance();
+            collator.setStrength(Collator.SECONDARY);
+            return collator;
+        }
+        
+    };
+    
+    /**
+     * Comparator that sorts patients by name, computing each patient's key only once. Instances
+     * are not thread-safe and should not be retained beyond a single sort.
+     */
+    private static class PatientComparator implements Comparator<Patient> {
+        
+        
+        private final Map<Patient, PatientSortKey> keys = new IdentityHashMap<>();
+        
+        @Override
+        public int compare(Patient patient1, Patient patient2) {
+            return getKey(patient1).compareTo(getKey(patient2));
+        }
+        
+        private PatientSortKey getKey(Patient patient) {
+            PatientSortKey key = keys.get(patient);
+            
+            if (key == null) {
+                key = forPatient(patient);
+                keys.put(patient, key);
+            }
+            
+            return key;
+        }
+    }
+    
+    private final String text;
+    
+    private final CollationKey key;
+    
+    /**
+     * Creates a sort key for the specified text.
+     *
+     * @param text The text (may be null).
+     * @return The sort key.
+     */
+    public static PatientSortKey forText(String text) {
+        return new PatientSortKey(text == null ? "" : text);
+    }
+    
+    /**
+     * Creates a sort key from the patient's usual name.
+     *
+     * @param patient The patient (may be null).
+     * @return The sort key.
+     */
+    public static PatientSortKey forPatient(Patient patient) {
+        HumanName name = patient == null ? null : FhirUtil.getName(patient.getName(), NameUse.USUAL, null);
+        return forText(name == null ? null : name.toString());
+    }
+    
+    /**
+     * Creates a sort key from the family name of the patient's usual name.
+     *
+     * @param patient The patient (may be null).
+     * @return The sort key.
+     */
+    public static PatientSortKey forFamilyName(Patient patient) {
+        HumanName name = patient == null ? null : FhirUtil.getName(patient.getName(), NameUse.USUAL, null);
+        return forText(name == null ? null : StringUtils.join(FhirUtil.toStringList(name.getFamily()), " "));
+    }
+    
+    /**
+     * Returns a comparator that sorts patients by their usual name. The comparator caches each
+     * patient's sort key, so a new comparator should be obtained for each sort.
+     *
+     * @return A patient comparator.
+     */
+    public static Comparator<Patient> createComparator() {
+        return new PatientComparator();
+    }
+    
+    /**
+     * Sorts a list of patients by their usual name, computing each patient's sort key once.
+     *
+     * @param patients The list to sort.
+     */
+    public static void sort(List<Patient> patients) {
+        if (patients.size() < 2) {
+            return;
+        }
+        
+        List<Map.Entry<PatientSortKey, Patient>> entries = new ArrayList<>(patients.size());
+        
+        for (Patient patient : patients) {
+            entries.add(new SimpleImmutableEntry<>(forPatient(patient), patient));
+        }
+        
+        Collections.sort(entries, new Comparator<Map.Entry<PatientSortKey, Patient>>() {
+            
+            @Override
+            public int compare(Map.Entry<PatientSortKey, Patient> entry1, Map.Entry<PatientSortKey, Patient> entry2) {
+                return entry1.getKey().compareTo(entry2.getKey());
+            }
+            
+        });
+        
+        for (int i = 0; i < entries.size(); i++) {
+            patients.set(i, entries.get(i).getValue());
+        }
+    }
+    
+    private PatientSortKey(String text) {
+        this.text = text;
+        this.key = collator.get().getCollationKey(text);
+    }
+    
+    /**
+     * Returns the text from which this key was computed.
+     *
+     * @return The source text.
+     */
+    public String getText() {
+        return text;
+    }
+    
+    /**
+     * Compares by collation order. Keys created on different threads are comparable because each
+     * thread's collator is configured identically.
+     */
+    @Override
+    public int compareTo(PatientSortKey other) {
+        return key.compareTo(other.key);
+    }
+    
+    @Override
+    public String toString() {
+        return text;
+    }
+    
+}
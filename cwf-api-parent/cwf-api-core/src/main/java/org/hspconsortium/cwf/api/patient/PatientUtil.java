@@ -20,10 +20,12 @@
 package org.hspconsortium.cwf.api.patient;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.carewebframework.api.spring.SpringUtil;
 
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.query.IPageListener;
 import org.hspconsortium.cwf.api.query.IResourceQueryEx;
 
 /**
@@ -52,6 +54,60 @@ public class PatientUtil {
         return getSearchEngine().search(criteria);
     }
     
+    /**
+     * Perform a background search based on given criteria.
+     * 
+     * @param criteria Search criteria.
+     * @return A future for the resources matching the search criteria.
+     */
+    public static CompletableFuture<List<Patient>> searchAsync(PatientSearchCriteria criteria) {
+        return getSearchEngine().searchAsync(criteria);
+    }
+    
+    /**
+     * Perform a background search based on given criteria, delivering each page of results as it
+     * is retrieved.
+     * 
+     * @param criteria Search criteria.
+     * @param listener Receives each page of results.
+     * @return A future for the resources matching the search criteria.
+     */
+    public static CompletableFuture<List<Patient>> searchAsync(PatientSearchCriteria criteria,
+                                                               IPageListener<Patient> listener) {
+        return getSearchEngine().searchAsync(criteria, listener);
+    }
+    
+    /**
+     * Perform a search based on given criteria, consulting the specified patient index first if
+     * the search engine supports it.
+     * 
+     * @param criteria Search criteria.
+     * @param index The patient index (may be null).
+     * @return Resources matching the search criteria.
+     */
+    public static List<Patient> search(PatientSearchCriteria criteria, PatientIndex index) {
+        IResourceQueryEx<Patient, PatientSearchCriteria> engine = getSearchEngine();
+        return engine instanceof PatientSearch ? ((PatientSearch) engine).search(criteria, index)
+                : engine.search(criteria);
+    }
+    
+    /**
+     * Perform a background search based on given criteria, consulting the specified patient index
+     * first if the search engine supports it, and delivering each page of results as it is
+     * retrieved.
+     * 
+     * @param criteria Search criteria.
+     * @param listener Receives each page of results.
+     * @param index The patient index (may be null).
+     * @return A future for the resources matching the search criteria.
+     */
+    public static CompletableFuture<List<Patient>> searchAsync(PatientSearchCriteria criteria,
+                                                               IPageListener<Patient> listener, PatientIndex index) {
+        IResourceQueryEx<Patient, PatientSearchCriteria> engine = getSearchEngine();
+        return engine instanceof PatientSearch ? ((PatientSearch) engine).searchAsync(criteria, listener, index)
+                : engine.searchAsync(criteria, listener);
+    }
+    
     /**
      * Enforce static class.
      */
@@ -19,6 +19,8 @@
  */
 package org.hspconsortium.cwf.api.practitioner;
 
+import java.util.Map;
+
 import org.apache.commons.lang.StringUtils;
 
 import org.hl7.fhir.dstu3.model.HumanName;
@@ -184,4 +186,16 @@ public class PractitionerSearchCriteria extends SearchCriteria {
     public boolean isEmpty() {
         return super.isEmpty() && name == null && dea == null && ssn == null && gender == null;
     }
+    
+    /**
+     * Adds the practitioner-specific criteria to the map of parameters.
+     */
+    @Override
+    protected void getParameters(Map<String, String> params) {
+        super.getParameters(params);
+        addParameter(params, name);
+        addParameter(params, "dea", dea);
+        addParameter(params, "ssn", ssn);
+        addParameter(params, "gender", gender);
+    }
 }
@@ -19,12 +19,20 @@
  */
 package org.hspconsortium.cwf.api.query;
 
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.carewebframework.api.domain.IUser;
 
 import org.hl7.fhir.dstu3.model.BaseResource;
 import org.hl7.fhir.dstu3.model.Bundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hspconsortium.cwf.api.SearchCriteria;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
 import org.hspconsortium.cwf.fhir.common.FhirUtil;
 
 import ca.uhn.fhir.rest.client.IGenericClient;
@@ -39,6 +47,10 @@ import ca.uhn.fhir.rest.gclient.StringClientParam;
  * query. The second is to call the <b>createQuery</b> method to get a query object, populate the
  * query object directly with your search criteria, and pass this to the <b>search</b> method to
  * perform the query.
+ * <p>
+ * Results of criteria-based searches may optionally be cached for a short time. Cached results are
+ * keyed by the canonical form of the criteria and the authenticated user, and are discarded when
+ * <b>invalidate</b> is called.
  * 
  * @param <R> The resource class
  * @param <C> The criteria class.
@@ -50,6 +62,16 @@ public class BaseResourceQuery<R extends IBaseResource, C extends SearchCriteria
     
     private final Class<R> resourceClass;
     
+    private ExecutorService executor;
+    
+    private boolean cacheEnabled;
+    
+    private int cacheSize = 100;
+    
+    private long cacheTimeToLive = 30;
+    
+    private volatile SearchResultCache<R> resultCache;
+    
     public BaseResourceQuery(Class<R> resourceClass, IGenericClient fhirClient) {
         this.resourceClass = resourceClass;
         this.fhirClient = fhirClient;
@@ -93,14 +115,37 @@ public class BaseResourceQuery<R extends IBaseResource, C extends SearchCriteria
      */
     @Override
     public List<R> search(C criteria) {
-        IQuery<?> query = createQuery();
-        buildQuery(criteria, query);
-        return search(query);
+        return search(criteria, getCacheKey(criteria));
+    }
+    
+    /**
+     * Search for matching resources, consulting the result cache first.
+     * 
+     * @param criteria Resource search criteria.
+     * @param cacheKey The result cache key, or null if results are not to be cached.
+     * @return List of matching resources. May return null to indicate no matches.
+     */
+    private List<R> search(C criteria, String cacheKey) {
+        SearchResultCache<R> cache = cacheKey == null ? null : getResultCache();
+        List<R> results = cache == null ? null : cache.get(cacheKey);
+        
+        if (results == null) {
+            IQuery<?> query = createQuery();
+            buildQuery(criteria, query);
+            results = search(query);
+            
+            if (cache != null) {
+                cache.put(cacheKey, results);
+            }
+        }
+        
+        return results;
     }
     
     /**
      * Alternative method for performing a search that allows for external configuration of the
-     * query object.
+     * query object. Only the first page of results is returned. Use <b>iterate</b> to retrieve all
+     * matching resources.
      * 
      * @param query The query object.
      * @return List of matching resources. May return null to indicate no matches.
@@ -109,4 +154,281 @@ public class BaseResourceQuery<R extends IBaseResource, C extends SearchCriteria
     public List<R> search(IQuery<?> query) {
         return FhirUtil.getEntries(query.returnBundle(Bundle.class).execute(), resourceClass);
     }
+    
+    /**
+     * Performs a search, returning an iterator that retrieves subsequent pages of the results only
+     * as they are consumed. Background retrieval of the next page requires that an executor has
+     * been set.
+     * 
+     * @param query The query object.
+     * @param prefetch If true, each subsequent page is retrieved in the background while the
+     *            current page is being consumed.
+     * @return An iterator over all matching resources.
+     */
+    @Override
+    public BundleIterator<R> iterate(IQuery<?> query, boolean prefetch) {
+        Bundle bundle = query.returnBundle(Bundle.class).execute();
+        return new BundleIterator<>(fhirClient, resourceClass, bundle, prefetch ? executor : null);
+    }
+    
+    /**
+     * Search for matching resources in the background. If no executor has been set, the search is
+     * performed immediately on the calling thread.
+     * 
+     * @param criteria Resource search criteria.
+     * @return A future for the list of matching resources.
+     */
+    @Override
+    public CompletableFuture<List<R>> searchAsync(final C criteria) {
+        final String cacheKey = getCacheKey(criteria);
+        
+        return submit(new Callable<List<R>>() {
+            
+            
+            @Override
+            public List<R> call() throws Exception {
+                return search(criteria, cacheKey);
+            }
+            
+        });
+    }
+    
+    /**
+     * Search for matching resources in the background using an externally configured query
+     * object. If no executor has been set, the search is performed immediately on the calling
+     * thread.
+     * 
+     * @param query The query object.
+     * @return A future for the list of matching resources.
+     */
+    @Override
+    public CompletableFuture<List<R>> searchAsync(final IQuery<?> query) {
+        return submit(new Callable<List<R>>() {
+            
+            
+            @Override
+            public List<R> call() throws Exception {
+                return search(query);
+            }
+            
+        });
+    }
+    
+    /**
+     * Search for matching resources in the background, delivering each page of results to the
+     * listener as it is retrieved. Retrieval stops once the maximum specified by the criteria has
+     * been reached. Results served from the cache are delivered as a single page.
+     * 
+     * @param criteria Resource search criteria.
+     * @param listener Receives each page of results.
+     * @return A future for the list of all matching resources.
+     */
+    @Override
+    public CompletableFuture<List<R>> searchAsync(final C criteria, final IPageListener<R> listener) {
+        final String cacheKey = getCacheKey(criteria);
+        
+        return submit(new Callable<List<R>>() {
+            
+            
+            @Override
+            public List<R> call() throws Exception {
+                return search(criteria, cacheKey, listener);
+            }
+            
+        });
+    }
+    
+    /**
+     * Retrieves matching resources page by page, notifying the listener of each page.
+     * 
+     * @param criteria Resource search criteria.
+     * @param cacheKey The result cache key, or null if results are not to be cached.
+     * @param listener Receives each page of results.
+     * @return List of all matching resources.
+     */
+    private List<R> search(C criteria, String cacheKey, IPageListener<R> listener) {
+        SearchResultCache<R> cache = cacheKey == null ? null : getResultCache();
+        List<R> results = cache == null ? null : cache.get(cacheKey);
+        
+        if (results != null) {
+            listener.onPage(results);
+            return results;
+        }
+        
+        IQuery<?> query = createQuery();
+        buildQuery(criteria, query);
+        int max = criteria.getMaximum();
+        results = new ArrayList<>();
+        Bundle bundle = query.returnBundle(Bundle.class).execute();
+        
+        while (true) {
+            List<R> page = FhirUtil.getEntries(bundle, resourceClass);
+            
+            if (max > 0 && results.size() + page.size() > max) {
+                page = page.subList(0, max - results.size());
+            }
+            
+            results.addAll(page);
+            listener.onPage(page);
+            
+            if ((max > 0 && results.size() >= max) || bundle.getLink(Bundle.LINK_NEXT) == null) {
+                break;
+            }
+            
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            
+            bundle = fhirClient.loadPage().next(bundle).execute();
+        }
+        
+        if (cache != null) {
+            cache.put(cacheKey, results);
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Submits a query for background execution.
+     * 
+     * @param query The query.
+     * @return A future for the query result.
+     */
+    protected <T> CompletableFuture<T> submit(Callable<T> query) {
+        if (executor != null) {
+            return QueryFuture.submit(executor, query);
+        }
+        
+        CompletableFuture<T> future = new CompletableFuture<>();
+        
+        try {
+            future.complete(query.call());
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+        }
+        
+        return future;
+    }
+    
+    /**
+     * Returns the key under which results for the specified criteria are cached. The key is
+     * qualified by the current user, since search results may depend on the user's access rights.
+     * This must be called on the requesting thread.
+     * 
+     * @param criteria Resource search criteria.
+     * @return The cache key, or null if caching is disabled.
+     */
+    private String getCacheKey(C criteria) {
+        if (!cacheEnabled) {
+            return null;
+        }
+        
+        IUser user = AbstractAuthInterceptor.getCurrentUser();
+        return (user == null ? "" : user.getLoginName()) + "@" + criteria.toCanonicalString();
+    }
+    
+    /**
+     * Returns the result cache, creating it if necessary.
+     * 
+     * @return The result cache.
+     */
+    private SearchResultCache<R> getResultCache() {
+        SearchResultCache<R> cache = resultCache;
+        
+        if (cache == null) {
+            synchronized (this) {
+                if ((cache = resultCache) == null) {
+                    resultCache = cache = new SearchResultCache<>(cacheSize, cacheTimeToLive);
+                }
+            }
+        }
+        
+        return cache;
+    }
+    
+    /**
+     * Discards all cached search results. Call this when resources of this type are modified.
+     */
+    public void invalidate() {
+        SearchResultCache<R> cache = resultCache;
+        
+        if (cache != null) {
+            cache.clear();
+        }
+    }
+    
+    /**
+     * Returns the resource class for this query.
+     * 
+     * @return The resource class.
+     */
+    public Class<R> getResourceClass() {
+        return resourceClass;
+    }
+    
+    /**
+     * Returns the FHIR resource type name for this query.
+     * 
+     * @return The resource type name.
+     */
+    public String getResourceType() {
+        return fhirClient.getFhirContext().getResourceDefinition(resourceClass).getName();
+    }
+    
+    /**
+     * Returns true if results of criteria-based searches are cached.
+     * 
+     * @return True if results are cached.
+     */
+    public boolean isCacheEnabled() {
+        return cacheEnabled;
+    }
+    
+    /**
+     * Enables or disables caching of results of criteria-based searches.
+     * 
+     * @param cacheEnabled If true, results are cached.
+     */
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+        invalidate();
+    }
+    
+    /**
+     * Sets the maximum number of cached search results. Takes effect when the cache is created.
+     * 
+     * @param cacheSize The maximum number of cached search results.
+     */
+    public void setCacheSize(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+    
+    /**
+     * Sets the time, in seconds, for which cached search results remain valid. Takes effect when
+     * the cache is created.
+     * 
+     * @param cacheTimeToLive The time-to-live in seconds.
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        this.cacheTimeToLive = cacheTimeToLive;
+    }
+    
+    /**
+     * Returns the executor used for background operations.
+     * 
+     * @return The executor (may be null).
+     */
+    public ExecutorService getExecutor() {
+        return executor;
+    }
+    
+    /**
+     * Sets the executor used for background operations.
+     * 
+     * @param executor The executor.
+     */
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
 }
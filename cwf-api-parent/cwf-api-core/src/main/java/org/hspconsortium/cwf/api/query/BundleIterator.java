@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.common.MiscUtil;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.fhir.common.FhirUtil;
+
+import ca.uhn.fhir.rest.client.IGenericClient;
+
+/**
+ * Iterates over the resources returned by a search, retrieving subsequent pages of the search
+ * results only as they are needed. At most two pages are held in memory at any time. If an
+ * executor is provided, the next page is retrieved in the background while the current page is
+ * consumed, as the user who created the iterator. Call <b>close</b> when abandoning iteration before reaching the end so that any
+ * pending page retrieval is canceled.
+ *
+ * @param <R> The resource class.
+ */
+public class BundleIterator<R extends IBaseResource> implements Iterator<R> {
+    
+    
+    private final IGenericClient fhirClient;
+    
+    private final Class<R> resourceClass;
+    
+    private final ExecutorService executor;
+    
+    private final IUser user;
+    
+    private Bundle bundle;
+    
+    private Iterator<R> entries;
+    
+    private Future<Bundle> nextPage;
+    
+    private boolean closed;
+    
+    /**
+     * Creates an iterator starting with the first page of search results.
+     * 
+     * @param fhirClient The FHIR client used to retrieve subsequent pages.
+     * @param resourceClass The resource class. Resources of other types are skipped.
+     * @param bundle The first page of search results.
+     * @param executor If not null, the executor used to retrieve the next page in the background.
+     */
+    public BundleIterator(IGenericClient fhirClient, Class<R> resourceClass, Bundle bundle, ExecutorService executor) {
+        this.fhirClient = fhirClient;
+        this.resourceClass = resourceClass;
+        this.executor = executor;
+        this.user = executor == null ? null : AbstractAuthInterceptor.getCurrentUser();
+        setPage(bundle);
+    }
+    
+    /**
+     * Returns true if there are more resources, retrieving the next page if necessary.
+     */
+    @Override
+    public boolean hasNext() {
+        while (!closed && !entries.hasNext()) {
+            if (!nextPage()) {
+                close();
+            }
+        }
+        
+        return !closed;
+    }
+    
+    @Override
+    public R next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        
+        return entries.next();
+    }
+    
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+    
+    /**
+     * Stops iteration, canceling any pending page retrieval and releasing retained pages.
+     */
+    public void close() {
+        closed = true;
+        bundle = null;
+        entries = Collections.<R> emptyList().iterator();
+        
+        if (nextPage != null) {
+            nextPage.cancel(true);
+            nextPage = null;
+        }
+    }
+    
+    /**
+     * Makes the next page of search results current.
+     * 
+     * @return False if there are no more pages.
+     */
+    private boolean nextPage() {
+        if (nextPage != null) {
+            try {
+                setPage(nextPage.get());
+            } catch (ExecutionException e) {
+                throw MiscUtil.toUnchecked(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw MiscUtil.toUnchecked(e);
+            }
+        } else if (hasNextPage()) {
+            setPage(loadNextPage(bundle));
+        } else {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Sets the current page and, if an executor is available, initiates retrieval of the page that
+     * follows it.
+     * 
+     * @param bundle The new current page.
+     */
+    private void setPage(Bundle bundle) {
+        this.bundle = bundle;
+        this.entries = bundle == null ? Collections.<R> emptyList().iterator()
+                : FhirUtil.getEntries(bundle, resourceClass).iterator();
+        this.nextPage = null;
+        
+        if (executor != null && hasNextPage()) {
+            final Bundle current = bundle;
+            final Callable<Bundle> loader = new Callable<Bundle>() {
+                
+                
+                @Override
+                public Bundle call() throws Exception {
+                    return loadNextPage(current);
+                }
+                
+            };
+            
+            nextPage = executor.submit(new Callable<Bundle>() {
+                
+                
+                @Override
+                public Bundle call() throws Exception {
+                    return AbstractAuthInterceptor.callAs(user, loader);
+                }
+                
+            });
+        }
+    }
+    
+    private boolean hasNextPage() {
+        return bundle != null && bundle.getLink(Bundle.LINK_NEXT) != null;
+    }
+    
+    /**
+     * Retrieves the page of search results that follows the specified page.
+     * 
+     * @param bundle The current page of search results.
+     * @return The next page of search results.
+     */
+    protected Bundle loadNextPage(Bundle bundle) {
+        return fhirClient.loadPage().next(bundle).execute();
+    }
+    
+}
@@ -0,0 +1,39 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.util.List;
+
+/**
+ * Receives search results a page at a time as they are retrieved. Notifications occur on the
+ * thread performing the search.
+ * 
+ * @param <R> The resource class.
+ */
+public interface IPageListener<R> {
+    
+    
+    /**
+     * Called when a page of search results has been retrieved.
+     * 
+     * @param page The resources in the page.
+     */
+    void onPage(List<R> page);
+}
@@ -20,6 +20,7 @@
 package org.hspconsortium.cwf.api.query;
 
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.hl7.fhir.instance.model.api.IBaseResource;
 
@@ -43,6 +44,45 @@ public interface IResourceQueryEx<R extends IBaseResource, C> extends IResourceQ
      */
     List<R> search(IQuery<?> query);
     
+    /**
+     * Performs a search, returning an iterator that retrieves subsequent pages of the results only
+     * as they are consumed.
+     * 
+     * @param query The query object.
+     * @param prefetch If true, each subsequent page is retrieved in the background while the
+     *            current page is being consumed.
+     * @return An iterator over all matching resources.
+     */
+    BundleIterator<R> iterate(IQuery<?> query, boolean prefetch);
+    
+    /**
+     * Search for matching resources in the background. Canceling the returned future aborts the
+     * search.
+     * 
+     * @param criteria Search criteria.
+     * @return A future for the list of matching resources.
+     */
+    CompletableFuture<List<R>> searchAsync(C criteria);
+    
+    /**
+     * Search for matching resources in the background using an externally configured query
+     * object. Canceling the returned future aborts the search.
+     * 
+     * @param query The query object.
+     * @return A future for the list of matching resources.
+     */
+    CompletableFuture<List<R>> searchAsync(IQuery<?> query);
+    
+    /**
+     * Search for matching resources in the background, delivering each page of results to the
+     * listener as it is retrieved. Canceling the returned future aborts the search.
+     * 
+     * @param criteria Search criteria.
+     * @param listener Receives each page of results.
+     * @return A future for the list of all matching resources.
+     */
+    CompletableFuture<List<R>> searchAsync(C criteria, IPageListener<R> listener);
+    
     /**
      * Creates an empty query object for this resource class.
      * 
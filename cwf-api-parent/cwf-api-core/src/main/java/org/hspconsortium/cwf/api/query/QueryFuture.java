@@ -0,0 +1,161 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.carewebframework.api.domain.IUser;
+
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+
+import ca.uhn.fhir.rest.client.apache.ApacheHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+
+/**
+ * A future representing a query executing in the background. Canceling the future prevents the
+ * query from starting if it has not yet done so and interrupts it if it has. If the FHIR client has
+ * a {@link QueryRequestTracker} registered and uses the Apache HTTP transport, canceling also
+ * aborts any HTTP request the query has in progress.
+ * <p>
+ * The query runs as the user who submitted it (see {@link AbstractAuthInterceptor#callAs}), so
+ * that its requests carry that user's credentials rather than none or those of another user.
+ *
+ * @param <T> The result type.
+ */
+public class QueryFuture<T> extends CompletableFuture<T> {
+    
+    
+    private static final ThreadLocal<QueryFuture<?>> current = new ThreadLocal<>();
+    
+    private volatile Future<?> task;
+    
+    private volatile IHttpRequest request;
+    
+    /**
+     * Submits a query for background execution as the current user.
+     * 
+     * @param executor The executor.
+     * @param query The query.
+     * @return A future for the query result.
+     */
+    public static <T> QueryFuture<T> submit(ExecutorService executor, final Callable<T> query) {
+        final QueryFuture<T> future = new QueryFuture<>();
+        final IUser user = AbstractAuthInterceptor.getCurrentUser();
+        
+        future.task = executor.submit(new Runnable() {
+            
+            
+            @Override
+            public void run() {
+                future.execute(user, query);
+            }
+            
+        });
+        
+        return future;
+    }
+    
+    /**
+     * Returns the query executing on the current thread.
+     * 
+     * @return The query executing on the current thread, or null if none.
+     */
+    static QueryFuture<?> getCurrent() {
+        return current.get();
+    }
+    
+    private QueryFuture() {
+        super();
+    }
+    
+    /**
+     * Executes the query on the current thread as the specified user, completing this future with
+     * its result.
+     * 
+     * @param user The user on whose behalf the query runs.
+     * @param query The query.
+     */
+    private void execute(IUser user, Callable<T> query) {
+        if (isDone()) {
+            return;
+        }
+        
+        current.set(this);
+        
+        try {
+            complete(AbstractAuthInterceptor.callAs(user, query));
+        } catch (Throwable e) {
+            completeExceptionally(e);
+        } finally {
+            current.remove();
+            request = null;
+        }
+    }
+    
+    /**
+     * Records the HTTP request in progress for this query, aborting it if the query has already
+     * been canceled.
+     * 
+     * @param request The HTTP request, or null if none is in progress.
+     */
+    void setRequest(IHttpRequest request) {
+        this.request = request;
+        
+        if (request != null && isCancelled()) {
+            abort(request);
+        }
+    }
+    
+    /**
+     * Cancels the query, aborting any HTTP request in progress.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean result = super.cancel(mayInterruptIfRunning);
+        Future<?> task = this.task;
+        IHttpRequest request = this.request;
+        
+        if (task != null) {
+            task.cancel(mayInterruptIfRunning);
+        }
+        
+        if (request != null) {
+            abort(request);
+        }
+        
+        return result;
+    }
+    
+    /**
+     * Aborts an HTTP request. Only requests issued through the Apache HTTP transport can be
+     * aborted; others run to completion, with their results discarded.
+     * 
+     * @param request The HTTP request.
+     */
+    private void abort(IHttpRequest request) {
+        if (request instanceof ApacheHttpRequest) {
+            ((ApacheHttpRequest) request).getApacheRequest().abort();
+        }
+    }
+    
+}
@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.io.IOException;
+
+import ca.uhn.fhir.rest.client.IClientInterceptor;
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+
+/**
+ * Client interceptor that associates each HTTP request with the background query executing on the
+ * issuing thread, so that canceling the query can abort the request. The tracker must be
+ * registered with the FHIR client when the client is set up, before it is shared across threads;
+ * without it, canceling a query only prevents it from starting or interrupts it between requests.
+ */
+public class QueryRequestTracker implements IClientInterceptor {
+    
+    
+    private final IGenericClient fhirClient;
+    
+    /**
+     * Creates a tracker for the specified client.
+     * 
+     * @param fhirClient The FHIR client.
+     */
+    public QueryRequestTracker(IGenericClient fhirClient) {
+        this.fhirClient = fhirClient;
+    }
+    
+    /**
+     * Registers the tracker with the FHIR client. Called by Spring IOC.
+     */
+    public void init() {
+        fhirClient.registerInterceptor(this);
+    }
+    
+    @Override
+    public void interceptRequest(IHttpRequest request) {
+        QueryFuture<?> query = QueryFuture.getCurrent();
+        
+        if (query != null) {
+            query.setRequest(request);
+        }
+    }
+    
+    @Override
+    public void interceptResponse(IHttpResponse response) throws IOException {
+        QueryFuture<?> query = QueryFuture.getCurrent();
+        
+        if (query != null) {
+            query.setRequest(null);
+        }
+    }
+    
+}
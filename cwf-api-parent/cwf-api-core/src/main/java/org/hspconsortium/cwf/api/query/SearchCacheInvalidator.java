@@ -0,0 +1,89 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.carewebframework.api.event.IEventManager;
+import org.carewebframework.api.event.IGenericEvent;
+
+/**
+ * Clears cached search results when a resource is published through the event manager under the
+ * resource type of a search engine (for example, "Patient" for the patient search engine). Only
+ * events whose payload is a resource of the search engine's type clear its cache; events that
+ * carry other resources under the same name (e.g., clinical data for a patient) are ignored.
+ * Writes issued through the FHIR client are handled by {@link SearchCacheWriteInterceptor}.
+ */
+public class SearchCacheInvalidator {
+    
+    
+    private final IEventManager eventManager;
+    
+    private final List<BaseResourceQuery<?, ?>> searchEngines;
+    
+    private final List<String> eventNames = new ArrayList<>();
+    
+    private final IGenericEvent<Object> eventListener = new IGenericEvent<Object>() {
+        
+        
+        @Override
+        public void eventCallback(String eventName, Object eventData) {
+            for (BaseResourceQuery<?, ?> searchEngine : searchEngines) {
+                if (searchEngine.getResourceType().equals(eventName)
+                        && searchEngine.getResourceClass().isInstance(eventData)) {
+                    searchEngine.invalidate();
+                }
+            }
+        }
+        
+    };
+    
+    public SearchCacheInvalidator(IEventManager eventManager, List<BaseResourceQuery<?, ?>> searchEngines) {
+        this.eventManager = eventManager;
+        this.searchEngines = searchEngines;
+    }
+    
+    /**
+     * Subscribes to events for the resource types of all search engines that cache results.
+     */
+    public void init() {
+        for (BaseResourceQuery<?, ?> searchEngine : searchEngines) {
+            String eventName = searchEngine.getResourceType();
+            
+            if (searchEngine.isCacheEnabled() && !eventNames.contains(eventName)) {
+                eventNames.add(eventName);
+                eventManager.subscribe(eventName, eventListener);
+            }
+        }
+    }
+    
+    /**
+     * Removes all event subscriptions.
+     */
+    public void destroy() {
+        for (String eventName : eventNames) {
+            eventManager.unsubscribe(eventName, eventListener);
+        }
+        
+        eventNames.clear();
+    }
+    
+}
@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.commons.lang.StringUtils;
+
+import ca.uhn.fhir.rest.client.IClientInterceptor;
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.client.api.IHttpRequest;
+import ca.uhn.fhir.rest.client.api.IHttpResponse;
+
+/**
+ * Client interceptor that clears cached search results when a resource is written through the
+ * FHIR client. A create, update, patch or delete clears the cache of the search engine for the
+ * affected resource type once the server responds. Transactions, batches and operations may
+ * affect any resource type, so they clear the caches of all search engines. Searches submitted by
+ * POST are not writes and are ignored.
+ * <p>
+ * The interceptor must be registered with the FHIR client when the client is set up, before it is
+ * shared across threads.
+ */
+public class SearchCacheWriteInterceptor implements IClientInterceptor {
+    
+    
+    private static final String ALL = "";
+    
+    private final ThreadLocal<String> pendingWrite = new ThreadLocal<>();
+    
+    private final IGenericClient fhirClient;
+    
+    private final List<BaseResourceQuery<?, ?>> searchEngines;
+    
+    public SearchCacheWriteInterceptor(IGenericClient fhirClient, List<BaseResourceQuery<?, ?>> searchEngines) {
+        this.fhirClient = fhirClient;
+        this.searchEngines = searchEngines;
+    }
+    
+    /**
+     * Registers the interceptor with the FHIR client. Called by Spring IOC.
+     */
+    public void init() {
+        fhirClient.registerInterceptor(this);
+    }
+    
+    /**
+     * Notes the resource type affected by a write request.
+     */
+    @Override
+    public void interceptRequest(IHttpRequest request) {
+        String resourceType = getWriteTarget(request.getHttpVerbName(), request.getUri());
+        
+        if (resourceType == null) {
+            pendingWrite.remove();
+        } else {
+            pendingWrite.set(resourceType);
+        }
+    }
+    
+    /**
+     * Clears the affected caches once the server has responded to a write request.
+     */
+    @Override
+    public void interceptResponse(IHttpResponse response) throws IOException {
+        String resourceType = pendingWrite.get();
+        
+        if (resourceType != null) {
+            pendingWrite.remove();
+            invalidate(resourceType);
+        }
+    }
+    
+    /**
+     * Clears the caches of search engines for the specified resource type.
+     * 
+     * @param resourceType The resource type. If empty, the caches of all search engines are
+     *            cleared.
+     */
+    public void invalidate(String resourceType) {
+        for (BaseResourceQuery<?, ?> searchEngine : searchEngines) {
+            if (resourceType.isEmpty() || searchEngine.getResourceType().equals(resourceType)) {
+                searchEngine.invalidate();
+            }
+        }
+    }
+    
+    /**
+     * Returns the resource type affected by a request.
+     * 
+     * @param method The HTTP method.
+     * @param url The request URL.
+     * @return The resource type, an empty string if the request may affect any resource type, or
+     *         null if the request is not a write.
+     */
+    protected String getWriteTarget(String method, String url) {
+        if (!"POST".equals(method) && !"PUT".equals(method) && !"DELETE".equals(method) && !"PATCH".equals(method)) {
+            return null;
+        }
+        
+        String path = StringUtils.substringBefore(StringUtils.defaultString(url), "?");
+        String base = StringUtils.removeEnd(fhirClient.getServerBase(), "/");
+        path = path.startsWith(base) ? path.substring(base.length()) : path;
+        String[] pcs = StringUtils.split(path, '/');
+        
+        if (pcs.length == 0 || pcs[0].startsWith("$")) {
+            return ALL;
+        }
+        
+        if (pcs.length > 1 && "_search".equals(pcs[1])) {
+            return null;
+        }
+        
+        return pcs[0];
+    }
+    
+}
@@ -0,0 +1,117 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Short-lived, bounded cache of search results, keyed by the canonical form of the search
+ * criteria. The least recently used entry is evicted when the cache is full.
+ *
+ * @param <R> The resource class.
+ */
+public class SearchResultCache<R> {
+    
+    
+    /**
+     * A cached result with its expiration time.
+     */
+    private static class Entry<R> {
+        
+        
+        final List<R> results;
+        
+        final long expires;
+        
+        Entry(List<R> results, long expires) {
+            this.results = results;
+            this.expires = expires;
+        }
+    }
+    
+    private final Map<String, Entry<R>> cache;
+    
+    private final long timeToLive;
+    
+    /**
+     * Creates a cache with the specified settings.
+     * 
+     * @param maximumSize The maximum number of cached results.
+     * @param timeToLive The time, in seconds, for which results remain valid.
+     */
+    public SearchResultCache(final int maximumSize, long timeToLive) {
+        this.timeToLive = timeToLive * 1000;
+        
+        cache = new LinkedHashMap<String, Entry<R>>(16, 0.75f, true) {
+            
+            
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry<R>> eldest) {
+                return size() > maximumSize;
+            }
+        };
+    }
+    
+    /**
+     * Returns a copy of the cached results for the specified key.
+     * 
+     * @param key The canonical form of the search criteria.
+     * @return A copy of the cached results, or null if none or expired.
+     */
+    public synchronized List<R> get(String key) {
+        Entry<R> entry = cache.get(key);
+        
+        if (entry == null) {
+            return null;
+        }
+        
+        if (System.currentTimeMillis() >= entry.expires) {
+            cache.remove(key);
+            return null;
+        }
+        
+        return new ArrayList<>(entry.results);
+    }
+    
+    /**
+     * Caches the results for the specified key.
+     * 
+     * @param key The canonical form of the search criteria.
+     * @param results The search results. A copy is cached.
+     */
+    public synchronized void put(String key, List<R> results) {
+        if (results != null) {
+            cache.put(key, new Entry<R>(new ArrayList<>(results), System.currentTimeMillis() + timeToLive));
+        }
+    }
+    
+    /**
+     * Removes all cached results.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+    
+}
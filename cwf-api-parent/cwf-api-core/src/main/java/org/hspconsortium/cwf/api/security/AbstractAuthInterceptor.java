@@ -20,6 +20,10 @@
 package org.hspconsortium.cwf.api.security;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.api.security.SecurityUtil;
 
 import org.hspconsortium.cwf.fhir.client.FhirContext;
 import org.hspconsortium.cwf.fhir.client.IAuthInterceptor;
@@ -34,8 +38,46 @@ import ca.uhn.fhir.rest.server.Constants;
 public abstract class AbstractAuthInterceptor implements IAuthInterceptor {
     
     
+    private static final ThreadLocal<IUser> runAsUser = new ThreadLocal<>();
+    
     private final String authType;
     
+    /**
+     * Calls a task on the current thread as the specified user. Use this for work handed off to
+     * a background thread, which otherwise has no authenticated user, so that its requests are
+     * authenticated as the user on whose behalf it runs.
+     * 
+     * @param user The user (if null, the task runs with the thread's own authenticated user).
+     * @param task The task to call.
+     * @return The task's result.
+     * @throws Exception Exception thrown by the task.
+     */
+    public static <T> T callAs(IUser user, Callable<T> task) throws Exception {
+        IUser previous = runAsUser.get();
+        runAsUser.set(user);
+        
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                runAsUser.remove();
+            } else {
+                runAsUser.set(previous);
+            }
+        }
+    }
+    
+    /**
+     * Returns the user for the current thread: the user set by {@link #callAs}, if any, or else
+     * the authenticated user. Capture this before handing work off to a background thread.
+     * 
+     * @return The user, or null if none.
+     */
+    public static IUser getCurrentUser() {
+        IUser user = runAsUser.get();
+        return user != null ? user : SecurityUtil.getAuthenticatedUser();
+    }
+    
     /**
      * Create the interceptor with the specified authorization type.
      * 
@@ -52,13 +94,54 @@ public abstract class AbstractAuthInterceptor implements IAuthInterceptor {
      */
     @Override
     public void interceptRequest(IHttpRequest theRequest) {
-        String credentials = getCredentials();
+        String authorization = getAuthorization();
         
-        if (credentials != null && !credentials.isEmpty()) {
-            theRequest.addHeader(Constants.HEADER_AUTHORIZATION, authType + " " + credentials);
+        if (authorization != null) {
+            theRequest.addHeader(Constants.HEADER_AUTHORIZATION, authorization);
         }
     }
     
+    /**
+     * Returns the value for the authorization header. By default, this is formed from the
+     * authorization type and the credentials. Subclasses may override this to return a
+     * precomputed value.
+     * 
+     * @return The authorization header value, or null if there are no credentials.
+     */
+    protected String getAuthorization() {
+        String credentials = getCredentials();
+        return credentials == null || credentials.isEmpty() ? null : formatAuthorization(credentials);
+    }
+    
+    /**
+     * Formats an authorization header value from the specified credentials.
+     * 
+     * @param credentials The credentials.
+     * @return The authorization header value.
+     */
+    protected String formatAuthorization(String credentials) {
+        return authType + " " + credentials;
+    }
+    
+    /**
+     * Discards any credentials cached for the specified user. Called when the user's session
+     * ends. By default, nothing is cached.
+     * 
+     * @param username The user's login name.
+     */
+    public void releaseCredentials(String username) {
+    }
+    
+    /**
+     * Returns the user whose credentials are to be used for the current request.
+     * 
+     * @return The user, or null if none.
+     * @see #getCurrentUser()
+     */
+    protected IUser getAuthenticatedUser() {
+        return getCurrentUser();
+    }
+    
     @Override
     public void interceptResponse(IHttpResponse theResponse) throws IOException {
         // nothing
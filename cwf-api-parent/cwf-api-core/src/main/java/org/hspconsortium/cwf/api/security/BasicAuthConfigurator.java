@@ -37,8 +37,16 @@ public class BasicAuthConfigurator {
         return username;
     }
     
+    public void setUsername(String username) {
+        this.username = username;
+    }
+    
     public String getPassword() {
         return password;
     }
     
+    public void setPassword(String password) {
+        this.password = password;
+    }
+    
 }
@@ -25,32 +25,113 @@ import org.apache.commons.codec.binary.Base64;
 import org.apache.commons.lang3.StringUtils;
 
 import org.carewebframework.api.domain.IUser;
-import org.carewebframework.api.security.SecurityUtil;
 import org.carewebframework.common.MiscUtil;
 
 /**
- * Authentication interceptor supporting Basic authentication.
+ * Authentication interceptor supporting Basic authentication. Encoded credentials and the
+ * resulting authorization header are computed once for the configured user or, if none, once for
+ * each authenticated user, and are recomputed only if that user's password changes. Entries for
+ * authenticated users are held in a bounded cache, are discarded when unused for a time, and are
+ * released when the user's session ends.
  */
 public class BasicAuthInterceptor extends AbstractAuthInterceptor {
     
     
-    private final String credentials;
+    /**
+     * Encoded credentials and authorization header for a single user.
+     */
+    private class Entry {
+        
+        
+        private final String password;
+        
+        private final String credentials;
+        
+        private final String authorization;
+        
+        Entry(String username, String password) {
+            this.password = password;
+            this.credentials = encode(username, password);
+            this.authorization = formatAuthorization(credentials);
+        }
+    }
+    
+    private final Entry entry;
+    
+    private final PrincipalCache<Entry> userEntries = new PrincipalCache<>();
     
     public BasicAuthInterceptor(String id, BasicAuthConfigurator config) {
         super(id, "Basic");
         String username = StringUtils.trimToNull(config.getUsername());
         String password = StringUtils.trimToEmpty(config.getPassword());
-        this.credentials = username == null ? null : encode(username, password);
+        this.entry = username == null ? null : new Entry(username, password);
     }
     
     @Override
     public String getCredentials() {
-        if (credentials != null) {
-            return credentials;
+        Entry entry = getEntry();
+        return entry == null ? null : entry.credentials;
+    }
+    
+    /**
+     * Returns the precomputed authorization header.
+     */
+    @Override
+    protected String getAuthorization() {
+        Entry entry = getEntry();
+        return entry == null ? null : entry.authorization;
+    }
+    
+    @Override
+    public void releaseCredentials(String username) {
+        userEntries.remove(String.valueOf(username));
+    }
+    
+    /**
+     * Sets the maximum number of users for whom credentials are cached.
+     * 
+     * @param cacheSize The maximum number of users.
+     */
+    public void setCacheSize(int cacheSize) {
+        userEntries.setMaximumSize(cacheSize);
+    }
+    
+    /**
+     * Sets the time, in seconds, after which a user's unused credentials are discarded.
+     * 
+     * @param cacheTimeToLive The time-to-live in seconds.
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        userEntries.setTimeToLive(cacheTimeToLive);
+    }
+    
+    /**
+     * Returns the entry for the configured user or, if none, for the authenticated user.
+     * 
+     * @return The entry, or null if there is no user.
+     */
+    private Entry getEntry() {
+        if (entry != null) {
+            return entry;
+        }
+        
+        IUser user = getAuthenticatedUser();
+        
+        if (user == null) {
+            return null;
+        }
+        
+        String username = user.getLoginName();
+        String password = user.getPassword();
+        String key = String.valueOf(username);
+        Entry entry = userEntries.get(key);
+        
+        if (entry == null || !StringUtils.equals(entry.password, password)) {
+            entry = new Entry(username, password);
+            userEntries.put(key, entry);
         }
         
-        IUser user = SecurityUtil.getAuthenticatedUser();
-        return user == null ? null : encode(user.getLoginName(), user.getPassword());
+        return entry;
     }
     
     private String encode(String username, String password) {
@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import java.util.List;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.api.security.SecurityUtil;
+
+/**
+ * Releases the credentials that authentication interceptors have cached for a session's user when
+ * the session ends, so that a user's password and tokens are not retained after logout.
+ */
+public class CredentialsReleaser {
+    
+    
+    private final List<AbstractAuthInterceptor> interceptors;
+    
+    private String username;
+    
+    public CredentialsReleaser(List<AbstractAuthInterceptor> interceptors) {
+        this.interceptors = interceptors;
+    }
+    
+    /**
+     * Records the session's authenticated user. Called by Spring IOC.
+     */
+    public void init() {
+        IUser user = SecurityUtil.getAuthenticatedUser();
+        username = user == null ? null : user.getLoginName();
+    }
+    
+    /**
+     * Releases the cached credentials of the session's user. Called by Spring IOC.
+     */
+    public void destroy() {
+        if (username != null) {
+            for (AbstractAuthInterceptor interceptor : interceptors) {
+                interceptor.releaseCredentials(username);
+            }
+        }
+    }
+    
+}
@@ -39,6 +39,9 @@ public class JWTAuthConfigurator {
     @Value("${fhir.service.authentication.token.duration:300}")
     private long duration;
     
+    @Value("${fhir.service.authentication.token.refresh:0.8}")
+    private double refreshFraction;
+    
     @Value("${fhir.service.authentication.token.provider:}")
     private String tokenProviderUrl;
     
@@ -56,28 +59,64 @@ public class JWTAuthConfigurator {
         return webKey;
     }
     
+    public void setWebKey(String webKey) {
+        this.webKey = webKey;
+    }
+    
     public String getIssuer() {
         return issuer;
     }
     
+    public void setIssuer(String issuer) {
+        this.issuer = issuer;
+    }
+    
     public String getSubject() {
         return subject;
     }
     
+    public void setSubject(String subject) {
+        this.subject = subject;
+    }
+    
     public long getDuration() {
         return duration;
     }
     
+    public void setDuration(long duration) {
+        this.duration = duration;
+    }
+    
+    public double getRefreshFraction() {
+        return refreshFraction;
+    }
+    
+    public void setRefreshFraction(double refreshFraction) {
+        this.refreshFraction = refreshFraction;
+    }
+    
     public String getTokenProviderUrl() {
         return tokenProviderUrl;
     }
     
+    public void setTokenProviderUrl(String tokenProviderUrl) {
+        this.tokenProviderUrl = tokenProviderUrl;
+    }
+    
     public String getAudience() {
         return audience;
     }
     
+    public void setAudience(String audience) {
+        this.audience = audience;
+    }
+    
     public String getRequestedScopes() {
         return requestedScopes;
     }
     
+    public void setRequestedScopes(String requestedScopes) {
+        this.requestedScopes = requestedScopes;
+    }
+    
 }
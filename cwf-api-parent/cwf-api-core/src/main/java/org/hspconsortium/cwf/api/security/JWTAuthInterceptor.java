@@ -19,11 +19,15 @@
  */
 package org.hspconsortium.cwf.api.security;
 
-import java.net.URL;
-import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.RSAKey;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.carewebframework.common.MiscUtil;
 
@@ -39,11 +43,59 @@ import ca.uhn.fhir.context.FhirContext;
 
 /**
  * Authentication interceptor supporting JWT authentication.
+ * <p>
+ * The current access token is read without locking. Once a configurable fraction of the token's
+ * lifetime has elapsed, it is renewed on a background thread while requests continue to use the
+ * existing token. Only when no unexpired token is available do requests wait for a renewal.
+ * Concurrent renewals are coalesced into a single request to the token provider.
+ * <p>
+ * Signing credentials are shared with other interceptors using the same web key and issuer (see
+ * {@link JWTCredentialsCache}), and the assertion for the next renewal is signed in advance.
  */
 public class JWTAuthInterceptor extends AbstractAuthInterceptor {
     
     
-    private AccessToken accessToken;
+    private static final Log log = LogFactory.getLog(JWTAuthInterceptor.class);
+    
+    private static final long RETRY_DELAY = 10000;
+    
+    /**
+     * An access token together with the time at which it should be renewed.
+     */
+    private static class TokenState {
+        
+        
+        private final AccessToken accessToken;
+        
+        private final long refreshAt;
+        
+        TokenState(AccessToken accessToken, long refreshAt) {
+            this.accessToken = accessToken;
+            this.refreshAt = refreshAt;
+        }
+        
+        boolean isExpired() {
+            return accessToken == null || accessToken.isExpired();
+        }
+        
+        boolean isStale(long now) {
+            return now >= refreshAt;
+        }
+    }
+    
+    private volatile TokenState tokenState;
+    
+    private FutureTask<TokenState> pendingRefresh;
+    
+    private ScheduledExecutorService scheduler;
+    
+    private final AtomicLong fetchCount = new AtomicLong();
+    
+    private final AtomicLong fetchTime = new AtomicLong();
+    
+    private final AtomicLong lastFetchTime = new AtomicLong();
+    
+    private final AtomicLong maxFetchTime = new AtomicLong();
     
     private final JWTAuthConfigurator config;
     
@@ -51,7 +103,7 @@ public class JWTAuthInterceptor extends AbstractAuthInterceptor {
     
     private final AccessTokenProvider<?> tokenProvider;
     
-    private JWTCredentials jwtCredentials;
+    private ClientCredentialsAccessTokenRequest<JWTCredentials> tokenRequest;
     
     public JWTAuthInterceptor(String id, FhirContext fhirContext, JWTAuthConfigurator config) throws Exception {
         super(id, "Bearer");
@@ -70,43 +122,278 @@ public class JWTAuthInterceptor extends AbstractAuthInterceptor {
         
     }
     
+    /**
+     * Loads the signing credentials and signs the first assertion, so that this work is not
+     * performed on the first request. Called by Spring IOC.
+     */
+    public void init() {
+        if (config.getWebKey().isEmpty() || config.getTokenProviderUrl().isEmpty()) {
+            return;
+        }
+        
+        try {
+            getSigningCredentials().presign(scheduler);
+        } catch (Exception e) {
+            log.warn("Error loading JWT signing credentials.", e);
+        }
+    }
+    
+    /**
+     * Returns the current access token, waiting for a renewal only if there is no unexpired token.
+     * If the token is due for renewal, a background renewal is started if one is not already in
+     * progress.
+     */
     @Override
-    public synchronized String getCredentials() {
-        if (accessToken == null || accessToken.isExpired()) {
-            accessToken = getAccessToken();
+    public String getCredentials() {
+        TokenState state = tokenState;
+        
+        if (state == null || state.isExpired()) {
+            state = awaitRefresh();
+        } else if (state.isStale(currentTimeMillis())) {
+            refreshAsync();
         }
         
-        return accessToken.getValue();
+        return state.accessToken.getValue();
+    }
+    
+    /**
+     * Sets the scheduler used to renew tokens in the background. If none is set, renewals occur on
+     * the thread of the first request to find the token due for renewal.
+     *
+     * @param scheduler The scheduler.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Returns the current time, against which token renewal is scheduled. Override to supply a
+     * different clock.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+    
+    /**
+     * Returns the number of tokens fetched from the token provider.
+     *
+     * @return The fetch count.
+     */
+    public long getFetchCount() {
+        return fetchCount.get();
+    }
+    
+    /**
+     * Returns the duration of the most recent token fetch.
+     *
+     * @return The fetch latency in milliseconds.
+     */
+    public long getLastFetchLatency() {
+        return lastFetchTime.get();
     }
     
-    private AccessToken getAccessToken() {
-        if (jwtCredentials == null) {
-            initCredentials();
+    /**
+     * Returns the average duration of token fetches.
+     *
+     * @return The average fetch latency in milliseconds.
+     */
+    public long getAverageFetchLatency() {
+        long count = fetchCount.get();
+        return count == 0 ? 0 : fetchTime.get() / count;
+    }
+    
+    /**
+     * Returns the longest duration of any token fetch.
+     *
+     * @return The maximum fetch latency in milliseconds.
+     */
+    public long getMaxFetchLatency() {
+        return maxFetchTime.get();
+    }
+    
+    /**
+     * Waits for a renewal, starting one on this thread if none is in progress.
+     *
+     * @return The renewed token state.
+     */
+    private TokenState awaitRefresh() {
+        FutureTask<TokenState> task = startRefresh(false);
+        
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw MiscUtil.toUnchecked(e);
+        } catch (ExecutionException e) {
+            throw MiscUtil.toUnchecked(e.getCause());
+        }
+    }
+    
+    /**
+     * Starts a background renewal if none is in progress.
+     */
+    private void refreshAsync() {
+        startRefresh(true);
+    }
+    
+    /**
+     * Returns the renewal in progress, starting a new one if there is none. Only the caller that
+     * starts the renewal executes it, either on the scheduler or on its own thread.
+     *
+     * @param background If true, run a new renewal on the scheduler, if one is available.
+     * @return The renewal in progress.
+     */
+    private FutureTask<TokenState> startRefresh(boolean background) {
+        FutureTask<TokenState> task;
+        
+        synchronized (this) {
+            if (pendingRefresh != null) {
+                return pendingRefresh;
+            }
+            
+            task = pendingRefresh = new FutureTask<>(new Callable<TokenState>() {
+                
+                @Override
+                public TokenState call() throws Exception {
+                    return refresh();
+                }
+                
+            });
         }
         
-        jwtCredentials.setTokenReference(UUID.randomUUID().toString());
-        ClientCredentialsAccessTokenRequest<JWTCredentials> tokenRequest = new ClientCredentialsAccessTokenRequest<>(
-                config.getIssuer(), jwtCredentials, requestedScopes);
+        if (background && scheduler != null) {
+            try {
+                scheduler.execute(task);
+                return task;
+            } catch (Exception e) {
+                log.warn("Unable to schedule access token renewal.", e);
+            }
+        }
         
-        return tokenProvider.getAccessToken(config.getTokenProviderUrl(), tokenRequest);
+        task.run();
+        return task;
     }
     
-    private void initCredentials() {
+    /**
+     * Fetches a new access token and schedules its renewal. If the fetch fails and the current
+     * token has not expired, the current token remains in use and renewal is retried later.
+     *
+     * @return The new token state.
+     * @throws Exception Exception fetching the token.
+     */
+    private TokenState refresh() throws Exception {
         try {
-            // RSA signatures require a public and private RSA key pair, the public key
-            // must be made known to the JWS recipient in order to verify the signatures
-            URL url = getClass().getResource(config.getWebKey());
-            JWKSet jwks = JWKSet.load(url);
-            RSAKey rsaKey = (RSAKey) jwks.getKeys().get(0);
-            
-            jwtCredentials = new JWTCredentials(rsaKey.toRSAPrivateKey());
-            jwtCredentials.setIssuer(config.getIssuer());
-            jwtCredentials.setSubject(config.getSubject());
-            jwtCredentials.setAudience(config.getAudience().isEmpty() ? config.getTokenProviderUrl() : config.getAudience());
-            jwtCredentials.setDuration(config.getDuration());
+            long start = currentTimeMillis();
+            AccessToken accessToken = fetchAccessToken();
+            long now = currentTimeMillis();
+            recordFetch(now - start);
+            TokenState state = new TokenState(accessToken, now + getRefreshDelay(accessToken));
+            tokenState = state;
+            scheduleRefresh(state.refreshAt - now);
+            return state;
         } catch (Exception e) {
-            throw MiscUtil.toUnchecked(e);
+            TokenState state = tokenState;
+            
+            if (state != null && !state.isExpired()) {
+                log.warn("Error renewing access token, will retry.", e);
+                tokenState = new TokenState(state.accessToken, currentTimeMillis() + RETRY_DELAY);
+                scheduleRefresh(RETRY_DELAY);
+            }
+            
+            throw e;
+        } finally {
+            synchronized (this) {
+                pendingRefresh = null;
+            }
         }
     }
     
+    /**
+     * Returns the delay before a token should be renewed, based on the configured fraction of its
+     * lifetime. If the token's lifetime is unknown, it is renewed only upon expiration.
+     *
+     * @param accessToken The access token.
+     * @return The delay in milliseconds.
+     */
+    private long getRefreshDelay(AccessToken accessToken) {
+        Long expiresIn = accessToken.getExpiresIn();
+        double fraction = config.getRefreshFraction();
+        
+        if (expiresIn == null || expiresIn <= 0 || fraction <= 0 || fraction >= 1) {
+            return Long.MAX_VALUE / 2;
+        }
+        
+        return (long) (expiresIn * 1000 * fraction);
+    }
+    
+    /**
+     * Schedules a background renewal after the specified delay. When the delay elapses, the
+     * renewal is skipped if the token has since been renewed by other means.
+     *
+     * @param delay The delay in milliseconds.
+     */
+    private void scheduleRefresh(long delay) {
+        if (scheduler != null && delay < Long.MAX_VALUE / 2) {
+            try {
+                scheduler.schedule(new Runnable() {
+                    
+                    @Override
+                    public void run() {
+                        TokenState state = tokenState;
+                        
+                        if (state == null || state.isStale(currentTimeMillis())) {
+                            refreshAsync();
+                        }
+                    }
+                    
+                }, delay, TimeUnit.MILLISECONDS);
+            } catch (Exception e) {
+                log.warn("Unable to schedule access token renewal.", e);
+            }
+        }
+    }
+    
+    /**
+     * Records the duration of a token fetch.
+     *
+     * @param elapsed The duration in milliseconds.
+     */
+    private void recordFetch(long elapsed) {
+        fetchCount.incrementAndGet();
+        fetchTime.addAndGet(elapsed);
+        lastFetchTime.set(elapsed);
+        long max;
+        
+        while (elapsed > (max = maxFetchTime.get()) && !maxFetchTime.compareAndSet(max, elapsed)) {
+            // retry
+        }
+    }
+    
+    /**
+     * Fetches a new access token from the token provider, then signs the assertion for the next
+     * fetch in advance.
+     *
+     * @return The access token.
+     */
+    protected AccessToken fetchAccessToken() {
+        AccessToken accessToken = tokenProvider.getAccessToken(config.getTokenProviderUrl(), getTokenRequest());
+        getSigningCredentials().presign(scheduler);
+        return accessToken;
+    }
+    
+    private synchronized ClientCredentialsAccessTokenRequest<JWTCredentials> getTokenRequest() {
+        if (tokenRequest == null) {
+            tokenRequest = new ClientCredentialsAccessTokenRequest<JWTCredentials>(config.getIssuer(),
+                    getSigningCredentials(), requestedScopes);
+        }
+        
+        return tokenRequest;
+    }
+    
+    private JWTCredentialsCache.CachedCredentials getSigningCredentials() {
+        return JWTCredentialsCache.getCredentials(config);
+    }
+    
 }
@@ -0,0 +1,232 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import java.net.URL;
+import java.security.interfaces.RSAPrivateKey;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.common.MiscUtil;
+
+import org.hspconsortium.client.auth.credentials.JWTCredentials;
+
+/**
+ * Shares JWT credentials among interceptors that use the same web key and issuer, so that the
+ * key set is loaded and its private key converted only once. Each shared credential can also sign
+ * its next assertion in advance, taking signing off the path of the token request.
+ */
+public class JWTCredentialsCache {
+    
+    
+    private static final Log log = LogFactory.getLog(JWTCredentialsCache.class);
+    
+    private static final long MAX_MARGIN = 30000;
+    
+    /**
+     * A signed assertion and the time at which it expires.
+     */
+    private static class Assertion {
+        
+        
+        private final String value;
+        
+        private final long expiresAt;
+        
+        Assertion(String value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+    
+    /**
+     * JWT credentials that return a pre-signed assertion when one is available. A pre-signed
+     * assertion is used only once, and only if it is not close to expiring. Otherwise, a new
+     * assertion is signed on demand.
+     */
+    public static class CachedCredentials extends JWTCredentials {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final long duration;
+        
+        private final long margin;
+        
+        private final AtomicReference<Assertion> next = new AtomicReference<>();
+        
+        /**
+         * Creates credentials that sign with the specified key.
+         *
+         * @param privateKey The signing key.
+         * @param duration The lifetime of a signed assertion, in seconds.
+         */
+        protected CachedCredentials(RSAPrivateKey privateKey, long duration) {
+            super(privateKey);
+            this.duration = duration * 1000;
+            this.margin = Math.min(MAX_MARGIN, this.duration / 2);
+        }
+        
+        /**
+         * Returns a signed assertion, using the pre-signed one if it is still usable.
+         */
+        @Override
+        public String getCredentials() {
+            Assertion assertion = next.getAndSet(null);
+            
+            if (assertion == null || assertion.expiresAt - margin <= currentTimeMillis()) {
+                assertion = sign();
+            }
+            
+            return assertion.value;
+        }
+        
+        /**
+         * Signs the next assertion if one is not already available.
+         */
+        public void presign() {
+            Assertion assertion = next.get();
+            
+            if (assertion == null || assertion.expiresAt - margin <= currentTimeMillis()) {
+                next.compareAndSet(assertion, sign());
+            }
+        }
+        
+        /**
+         * Signs the next assertion on the specified executor. Errors are logged rather than thrown,
+         * since an assertion is signed on demand if none is available.
+         *
+         * @param executor The executor (if null, the assertion is signed on the calling thread).
+         */
+        public void presign(Executor executor) {
+            Runnable task = new Runnable() {
+                
+                @Override
+                public void run() {
+                    try {
+                        presign();
+                    } catch (Exception e) {
+                        log.warn("Error signing JWT assertion.", e);
+                    }
+                }
+                
+            };
+            
+            if (executor == null) {
+                task.run();
+                return;
+            }
+            
+            try {
+                executor.execute(task);
+            } catch (Exception e) {
+                log.warn("Unable to schedule JWT assertion signing.", e);
+            }
+        }
+        
+        /**
+         * Returns the current time, against which pre-signed assertions are judged usable.
+         * Override to supply a different clock.
+         *
+         * @return The current time in milliseconds.
+         */
+        protected long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+        
+        /**
+         * Signs a new assertion with a unique token reference.
+         *
+         * @return The signed assertion.
+         */
+        private synchronized Assertion sign() {
+            setTokenReference(UUID.randomUUID().toString());
+            long now = currentTimeMillis();
+            return new Assertion(super.getCredentials(), now + duration);
+        }
+    }
+    
+    private static final Map<String, CachedCredentials> cache = new ConcurrentHashMap<>();
+    
+    /**
+     * Returns the shared credentials for the configuration's web key and issuer, creating them if
+     * necessary. Configurations sharing a web key and issuer are assumed to be otherwise
+     * equivalent.
+     *
+     * @param config The JWT configuration.
+     * @return The shared credentials.
+     */
+    public static CachedCredentials getCredentials(JWTAuthConfigurator config) {
+        String key = config.getWebKey() + "\n" + config.getIssuer();
+        CachedCredentials credentials = cache.get(key);
+        
+        if (credentials == null) {
+            synchronized (cache) {
+                credentials = cache.get(key);
+                
+                if (credentials == null) {
+                    credentials = createCredentials(config);
+                    cache.put(key, credentials);
+                }
+            }
+        }
+        
+        return credentials;
+    }
+    
+    /**
+     * Removes all shared credentials.
+     */
+    public static void clear() {
+        cache.clear();
+    }
+    
+    private static CachedCredentials createCredentials(JWTAuthConfigurator config) {
+        try {
+            // RSA signatures require a public and private RSA key pair, the public key
+            // must be made known to the JWS recipient in order to verify the signatures
+            URL url = JWTCredentialsCache.class.getResource(config.getWebKey());
+            JWKSet jwks = JWKSet.load(url);
+            RSAKey rsaKey = (RSAKey) jwks.getKeys().get(0);
+            
+            CachedCredentials credentials = new CachedCredentials(rsaKey.toRSAPrivateKey(), config.getDuration());
+            credentials.setIssuer(config.getIssuer());
+            credentials.setSubject(config.getSubject());
+            credentials.setAudience(config.getAudience().isEmpty() ? config.getTokenProviderUrl() : config.getAudience());
+            credentials.setDuration(config.getDuration());
+            return credentials;
+        } catch (Exception e) {
+            throw MiscUtil.toUnchecked(e);
+        }
+    }
+    
+    private JWTCredentialsCache() {
+    }
+    
+}
@@ -19,9 +19,93 @@
  */
 package org.hspconsortium.cwf.api.security;
 
+import org.springframework.beans.factory.annotation.Value;
+
 /**
- * OAuth2 authentication configurator. TODO: to be implemented
+ * OAuth2 authentication configurator.
  */
 public class OAuth2AuthConfigurator {
     
+    
+    @Value("${fhir.service.authentication.oauth2.token.provider:}")
+    private String tokenProviderUrl;
+    
+    @Value("${fhir.service.authentication.oauth2.grant:client_credentials}")
+    private String grantType;
+    
+    @Value("${fhir.service.authentication.oauth2.client.id:}")
+    private String clientId;
+    
+    @Value("${fhir.service.authentication.oauth2.client.secret:}")
+    private String clientSecret;
+    
+    @Value("${fhir.service.authentication.oauth2.scopes:}")
+    private String requestedScopes;
+    
+    @Value("${fhir.service.authentication.oauth2.token.refresh:0.8}")
+    private double refreshFraction;
+    
+    @Value("${fhir.service.authentication.oauth2.timeout:10000}")
+    private int timeout;
+    
+    public OAuth2AuthConfigurator() {
+        super();
+    }
+    
+    public String getTokenProviderUrl() {
+        return tokenProviderUrl;
+    }
+    
+    public void setTokenProviderUrl(String tokenProviderUrl) {
+        this.tokenProviderUrl = tokenProviderUrl;
+    }
+    
+    public String getGrantType() {
+        return grantType;
+    }
+    
+    public void setGrantType(String grantType) {
+        this.grantType = grantType;
+    }
+    
+    public String getClientId() {
+        return clientId;
+    }
+    
+    public void setClientId(String clientId) {
+        this.clientId = clientId;
+    }
+    
+    public String getClientSecret() {
+        return clientSecret;
+    }
+    
+    public void setClientSecret(String clientSecret) {
+        this.clientSecret = clientSecret;
+    }
+    
+    public String getRequestedScopes() {
+        return requestedScopes;
+    }
+    
+    public void setRequestedScopes(String requestedScopes) {
+        this.requestedScopes = requestedScopes;
+    }
+    
+    public double getRefreshFraction() {
+        return refreshFraction;
+    }
+    
+    public void setRefreshFraction(double refreshFraction) {
+        this.refreshFraction = refreshFraction;
+    }
+    
+    public int getTimeout() {
+        return timeout;
+    }
+    
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+    
 }
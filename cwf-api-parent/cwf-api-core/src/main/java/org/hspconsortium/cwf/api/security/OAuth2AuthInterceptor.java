@@ -19,19 +19,501 @@
  */
 package org.hspconsortium.cwf.api.security;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledExecutorService;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.common.JSONUtil;
+import org.carewebframework.common.MiscUtil;
+
+import org.hspconsortium.client.auth.Scopes;
+import org.hspconsortium.client.auth.SimpleScope;
+import org.hspconsortium.client.auth.access.AccessToken;
+import org.hspconsortium.client.auth.access.AccessTokenProvider;
+import org.hspconsortium.client.auth.access.JsonAccessTokenProvider;
+import org.hspconsortium.client.auth.credentials.ClientSecretCredentials;
+import org.hspconsortium.client.session.clientcredentials.ClientCredentialsAccessTokenRequest;
+
+import ca.uhn.fhir.context.FhirContext;
+
 /**
- * Authentication interceptor supporting OAuth2 authentication.
+ * Authentication interceptor supporting OAuth2 authentication. Access tokens are obtained from
+ * the configured token endpoint using either the client credentials grant or, if so configured,
+ * the resource owner password grant with the credentials of the authenticated user. Client
+ * credentials tokens are requested through the HSPC client's token provider, as for JWT
+ * authentication. That client has no password or refresh token grant, so those requests are
+ * posted to the token endpoint directly.
+ * <p>
+ * Tokens are cached for each security principal (the client, or the authenticated user) until
+ * they expire. Once a configurable fraction of a token's lifetime has elapsed, it is renewed in
+ * the background (using the refresh token, if one was issued) while requests continue to use the
+ * existing token. Concurrent renewals for the same principal are coalesced into a single request.
+ * The cache is bounded, unused entries are discarded after a time, and a user's entry is released
+ * when the user's session ends.
  */
 public class OAuth2AuthInterceptor extends AbstractAuthInterceptor {
     
     
-    public OAuth2AuthInterceptor(String id, OAuth2AuthConfigurator config) {
+    private static final Log log = LogFactory.getLog(OAuth2AuthInterceptor.class);
+    
+    private static final String GRANT_PASSWORD = "password";
+    
+    private static final String GRANT_REFRESH = "refresh_token";
+    
+    private static final long RETRY_DELAY = 10000;
+    
+    private static final long NEVER = Long.MAX_VALUE / 2;
+    
+    /**
+     * An access token with its refresh token and renewal times.
+     */
+    private static class Token {
+        
+        
+        private final String accessToken;
+        
+        private final String refreshToken;
+        
+        private final long expiresAt;
+        
+        private final long refreshAt;
+        
+        Token(String accessToken, String refreshToken, long expiresAt, long refreshAt) {
+            this.accessToken = accessToken;
+            this.refreshToken = refreshToken;
+            this.expiresAt = expiresAt;
+            this.refreshAt = refreshAt;
+        }
+        
+        boolean isExpired(long now) {
+            return now >= expiresAt;
+        }
+        
+        boolean isStale(long now) {
+            return now >= refreshAt;
+        }
+    }
+    
+    /**
+     * The cached token for a single security principal.
+     */
+    private static class Session {
+        
+        
+        private final String username;
+        
+        private final String password;
+        
+        private volatile Token token;
+        
+        private FutureTask<Token> pendingRefresh;
+        
+        Session(String username, String password) {
+            this.username = username;
+            this.password = password;
+        }
+    }
+    
+    private final OAuth2AuthConfigurator config;
+    
+    private final PrincipalCache<Session> sessions = new PrincipalCache<Session>() {
+        
+        
+        @Override
+        protected long currentTimeMillis() {
+            return OAuth2AuthInterceptor.this.currentTimeMillis();
+        }
+        
+    };
+    
+    private final AccessTokenProvider<?> tokenProvider;
+    
+    private final Scopes requestedScopes = new Scopes();
+    
+    private ClientCredentialsAccessTokenRequest<ClientSecretCredentials> tokenRequest;
+    
+    private ScheduledExecutorService scheduler;
+    
+    public OAuth2AuthInterceptor(String id, FhirContext fhirContext, OAuth2AuthConfigurator config) {
         super(id, "Bearer");
+        this.config = config;
+        tokenProvider = new JsonAccessTokenProvider(fhirContext);
+        String scopes = StringUtils.defaultString(config.getRequestedScopes());
+        
+        for (String scope : scopes.replace(",", " ").split(" ")) {
+            if (!scope.isEmpty()) {
+                requestedScopes.add(new SimpleScope(scope));
+            }
+        }
     }
     
+    /**
+     * Returns the cached access token for the current principal, waiting for a token to be
+     * fetched only if there is no unexpired token.
+     */
     @Override
     public String getCredentials() {
-        return null; //TODO:  need to implement.
+        Session session = getSession();
+        
+        if (session == null) {
+            return null;
+        }
+        
+        Token token = session.token;
+        long now = currentTimeMillis();
+        
+        if (token == null || token.isExpired(now)) {
+            token = awaitRefresh(session);
+        } else if (token.isStale(now)) {
+            startRefresh(session, true);
+        }
+        
+        return token.accessToken;
+    }
+    
+    /**
+     * Sets the scheduler used to renew tokens in the background. If none is set, renewals occur on
+     * the thread of the first request to find the token due for renewal.
+     *
+     * @param scheduler The scheduler.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Discards all cached tokens.
+     */
+    public void clear() {
+        sessions.clear();
+    }
+    
+    /**
+     * Discards the cached token for the specified user.
+     */
+    @Override
+    public void releaseCredentials(String username) {
+        sessions.remove(String.valueOf(username));
+    }
+    
+    /**
+     * Sets the maximum number of principals for whom tokens are cached.
+     *
+     * @param cacheSize The maximum number of principals.
+     */
+    public void setCacheSize(int cacheSize) {
+        sessions.setMaximumSize(cacheSize);
+    }
+    
+    /**
+     * Sets the time, in seconds, after which a principal's unused token is discarded.
+     *
+     * @param cacheTimeToLive The time-to-live in seconds.
+     */
+    public void setCacheTimeToLive(long cacheTimeToLive) {
+        sessions.setTimeToLive(cacheTimeToLive);
+    }
+    
+    /**
+     * Returns the current time, against which token lifetimes and cache entries are measured.
+     * Override to supply a different clock.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+    
+    /**
+     * Returns the session for the current principal, creating it if necessary.
+     *
+     * @return The session, or null if no token endpoint is configured or, for the password grant,
+     *         there is no authenticated user.
+     */
+    private Session getSession() {
+        if (StringUtils.isEmpty(config.getTokenProviderUrl())) {
+            return null;
+        }
+        
+        String username = null;
+        String password = null;
+        
+        if (GRANT_PASSWORD.equals(config.getGrantType())) {
+            IUser user = getAuthenticatedUser();
+            
+            if (user == null) {
+                return null;
+            }
+            
+            username = user.getLoginName();
+            password = user.getPassword();
+        }
+        
+        String key = String.valueOf(username);
+        Session session = sessions.get(key);
+        
+        if (session == null || !StringUtils.equals(session.password, password)) {
+            session = new Session(username, password);
+            sessions.put(key, session);
+        }
+        
+        return session;
+    }
+    
+    /**
+     * Waits for a renewal, starting one on this thread if none is in progress.
+     *
+     * @param session The session.
+     * @return The renewed token.
+     */
+    private Token awaitRefresh(Session session) {
+        FutureTask<Token> task = startRefresh(session, false);
+        
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw MiscUtil.toUnchecked(e);
+        } catch (ExecutionException e) {
+            throw MiscUtil.toUnchecked(e.getCause());
+        }
+    }
+    
+    /**
+     * Returns the renewal in progress for a session, starting a new one if there is none.
+     *
+     * @param session The session.
+     * @param background If true, run a new renewal on the scheduler, if one is available.
+     * @return The renewal in progress.
+     */
+    private FutureTask<Token> startRefresh(final Session session, boolean background) {
+        FutureTask<Token> task;
+        
+        synchronized (session) {
+            if (session.pendingRefresh != null) {
+                return session.pendingRefresh;
+            }
+            
+            task = session.pendingRefresh = new FutureTask<>(new Callable<Token>() {
+                
+                @Override
+                public Token call() throws Exception {
+                    return refresh(session);
+                }
+                
+            });
+        }
+        
+        if (background && scheduler != null) {
+            try {
+                scheduler.execute(task);
+                return task;
+            } catch (Exception e) {
+                log.warn("Unable to schedule access token renewal.", e);
+            }
+        }
+        
+        task.run();
+        return task;
+    }
+    
+    /**
+     * Fetches a new token for a session. The refresh token is used if available, falling back to
+     * the configured grant if it is rejected. If the fetch fails and the current token has not
+     * expired, the current token remains in use and renewal is retried later.
+     *
+     * @param session The session.
+     * @return The new token.
+     * @throws Exception Exception fetching the token.
+     */
+    private Token refresh(Session session) throws Exception {
+        try {
+            Token current = session.token;
+            Token token = null;
+            
+            if (current != null && current.refreshToken != null) {
+                try {
+                    token = requestToken(session, GRANT_REFRESH, current.refreshToken);
+                } catch (Exception e) {
+                    log.debug("Refresh token rejected, requesting new token.", e);
+                }
+            }
+            
+            if (token == null) {
+                token = GRANT_PASSWORD.equals(config.getGrantType()) ? requestToken(session, GRANT_PASSWORD, null)
+                        : requestClientToken();
+            }
+            
+            session.token = token;
+            return token;
+        } catch (Exception e) {
+            Token current = session.token;
+            long now = currentTimeMillis();
+            
+            if (current != null && !current.isExpired(now)) {
+                log.warn("Error renewing access token, will retry.", e);
+                session.token = new Token(current.accessToken, current.refreshToken, current.expiresAt,
+                        now + RETRY_DELAY);
+            }
+            
+            throw e;
+        } finally {
+            synchronized (session) {
+                session.pendingRefresh = null;
+            }
+        }
+    }
+    
+    /**
+     * Requests a token from the token endpoint using the client credentials grant.
+     *
+     * @return The token.
+     */
+    private Token requestClientToken() {
+        long now = currentTimeMillis();
+        AccessToken accessToken = tokenProvider.getAccessToken(config.getTokenProviderUrl(), getTokenRequest());
+        return createToken(accessToken.getValue(), null, accessToken.getExpiresIn(), now);
+    }
+    
+    private synchronized ClientCredentialsAccessTokenRequest<ClientSecretCredentials> getTokenRequest() {
+        if (tokenRequest == null) {
+            tokenRequest = new ClientCredentialsAccessTokenRequest<ClientSecretCredentials>(
+                    StringUtils.trimToEmpty(config.getClientId()),
+                    new ClientSecretCredentials(StringUtils.trimToEmpty(config.getClientSecret())), requestedScopes);
+        }
+        
+        return tokenRequest;
+    }
+    
+    /**
+     * Creates a token, computing its expiration and renewal times from its lifetime.
+     *
+     * @param accessToken The access token.
+     * @param refreshToken The refresh token (may be null).
+     * @param expiresIn The lifetime in seconds (null or not positive if unknown).
+     * @param now The time at which the token was requested.
+     * @return The token.
+     */
+    private Token createToken(String accessToken, String refreshToken, Long expiresIn, long now) {
+        long lifetime = expiresIn == null ? 0 : expiresIn * 1000;
+        double fraction = config.getRefreshFraction();
+        long expiresAt = lifetime <= 0 ? NEVER : now + lifetime;
+        long refreshAt = lifetime <= 0 || fraction <= 0 || fraction >= 1 ? expiresAt
+                : now + (long) (lifetime * fraction);
+        return new Token(accessToken, refreshToken, expiresAt, refreshAt);
+    }
+    
+    /**
+     * Posts a password or refresh token grant request to the token endpoint.
+     *
+     * @param session The session.
+     * @param grantType The grant type.
+     * @param refreshToken The refresh token (for the refresh token grant only).
+     * @return The token.
+     * @throws IOException Exception communicating with the token endpoint.
+     */
+    @SuppressWarnings("unchecked")
+    private Token requestToken(Session session, String grantType, String refreshToken) throws IOException {
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("grant_type", grantType);
+        
+        if (GRANT_REFRESH.equals(grantType)) {
+            params.put("refresh_token", refreshToken);
+        } else if (GRANT_PASSWORD.equals(grantType)) {
+            params.put("username", session.username);
+            params.put("password", session.password);
+        }
+        
+        if (!StringUtils.isEmpty(config.getRequestedScopes())) {
+            params.put("scope", config.getRequestedScopes().replace(",", " ").trim());
+        }
+        
+        String clientId = StringUtils.trimToEmpty(config.getClientId());
+        String clientSecret = StringUtils.trimToEmpty(config.getClientSecret());
+        HttpURLConnection conn = (HttpURLConnection) new URL(config.getTokenProviderUrl()).openConnection();
+        
+        try {
+            conn.setRequestMethod("POST");
+            conn.setConnectTimeout(config.getTimeout());
+            conn.setReadTimeout(config.getTimeout());
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            conn.setRequestProperty("Accept", "application/json");
+            
+            if (!clientSecret.isEmpty()) {
+                String credentials = encode(clientId) + ":" + encode(clientSecret);
+                conn.setRequestProperty("Authorization", "Basic " + Base64.encodeBase64String(credentials.getBytes("UTF-8")));
+            } else if (!clientId.isEmpty()) {
+                params.put("client_id", clientId);
+            }
+            
+            try (OutputStream out = conn.getOutputStream()) {
+                out.write(formEncode(params).getBytes("UTF-8"));
+            }
+            
+            long now = currentTimeMillis();
+            int status = conn.getResponseCode();
+            
+            if (status / 100 != 2) {
+                InputStream err = conn.getErrorStream();
+                String body = err == null ? "" : IOUtils.toString(err, "UTF-8");
+                throw new IOException("Token request failed with status " + status + ": " + body);
+            }
+            
+            Map<String, Object> response;
+            
+            try (InputStream in = conn.getInputStream()) {
+                response = JSONUtil.getMapper().readValue(in, Map.class);
+            }
+            
+            String accessToken = (String) response.get("access_token");
+            
+            if (StringUtils.isEmpty(accessToken)) {
+                throw new IOException("Token response did not include an access token.");
+            }
+            
+            Object newRefreshToken = response.get("refresh_token");
+            Object expiresIn = response.get("expires_in");
+            return createToken(accessToken, newRefreshToken == null ? refreshToken : newRefreshToken.toString(),
+                    expiresIn == null ? null : Long.valueOf(expiresIn.toString()), now);
+        } finally {
+            conn.disconnect();
+        }
+    }
+    
+    private String formEncode(Map<String, String> params) {
+        StringBuilder sb = new StringBuilder();
+        
+        for (Map.Entry<String, String> param : params.entrySet()) {
+            sb.append(sb.length() == 0 ? "" : "&").append(encode(param.getKey())).append('=')
+                    .append(encode(StringUtils.defaultString(param.getValue())));
+        }
+        
+        return sb.toString();
+    }
+    
+    private String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (IOException e) {
+            throw MiscUtil.toUnchecked(e);
+        }
     }
     
 }
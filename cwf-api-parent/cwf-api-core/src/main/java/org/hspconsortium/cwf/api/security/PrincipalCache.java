@@ -0,0 +1,173 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded cache of values, such as credentials or access tokens, held for each security
+ * principal. An entry that has not been used within the time-to-live is discarded, as is the least
+ * recently used entry when the cache is full. Entries for a principal should also be removed when
+ * that principal logs out.
+ *
+ * @param <V> The class of cached value.
+ */
+public class PrincipalCache<V> {
+    
+    
+    private static final int DEFAULT_MAXIMUM_SIZE = 100;
+    
+    private static final long DEFAULT_TIME_TO_LIVE = 1800;
+    
+    /**
+     * A cached value with the time it was last used.
+     */
+    private static class Entry<V> {
+        
+        
+        final V value;
+        
+        long lastUsed;
+        
+        Entry(V value, long lastUsed) {
+            this.value = value;
+            this.lastUsed = lastUsed;
+        }
+    }
+    
+    private final Map<String, Entry<V>> cache = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+            return size() > maximumSize;
+        }
+    };
+    
+    private int maximumSize = DEFAULT_MAXIMUM_SIZE;
+    
+    private long timeToLive = DEFAULT_TIME_TO_LIVE * 1000;
+    
+    /**
+     * Returns the cached value for a principal.
+     *
+     * @param key The principal's key.
+     * @return The cached value, or null if none or expired.
+     */
+    public synchronized V get(String key) {
+        long now = currentTimeMillis();
+        purge(now);
+        Entry<V> entry = cache.get(key);
+        
+        if (entry == null) {
+            return null;
+        }
+        
+        entry.lastUsed = now;
+        return entry.value;
+    }
+    
+    /**
+     * Caches the value for a principal, replacing any existing value.
+     *
+     * @param key The principal's key.
+     * @param value The value to cache.
+     */
+    public synchronized void put(String key, V value) {
+        long now = currentTimeMillis();
+        purge(now);
+        cache.put(key, new Entry<V>(value, now));
+    }
+    
+    /**
+     * Removes the cached value for a principal.
+     *
+     * @param key The principal's key.
+     * @return The removed value, or null if none.
+     */
+    public synchronized V remove(String key) {
+        Entry<V> entry = cache.remove(key);
+        return entry == null ? null : entry.value;
+    }
+    
+    /**
+     * Removes all cached values.
+     */
+    public synchronized void clear() {
+        cache.clear();
+    }
+    
+    /**
+     * Returns the number of cached values, including any that have expired but not yet been
+     * removed.
+     *
+     * @return The number of cached values.
+     */
+    public synchronized int size() {
+        return cache.size();
+    }
+    
+    /**
+     * Removes expired entries. Entries are kept in order of last use, so removal stops at the
+     * first entry that has not expired.
+     *
+     * @param now The current time.
+     */
+    private void purge(long now) {
+        Iterator<Entry<V>> iter = cache.values().iterator();
+        
+        while (iter.hasNext() && now - iter.next().lastUsed >= timeToLive) {
+            iter.remove();
+        }
+    }
+    
+    /**
+     * Returns the current time, against which the time-to-live is measured. Override to supply a
+     * different clock.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+    
+    /**
+     * Sets the maximum number of cached values.
+     *
+     * @param maximumSize The maximum number of cached values.
+     */
+    public synchronized void setMaximumSize(int maximumSize) {
+        this.maximumSize = maximumSize;
+    }
+    
+    /**
+     * Sets the time, in seconds, after which an unused value is discarded.
+     *
+     * @param timeToLive The time-to-live in seconds.
+     */
+    public synchronized void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive * 1000;
+    }
+    
+}
@@ -0,0 +1,183 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.hl7.fhir.dstu3.model.BaseResource;
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.api.security.BasicAuthConfigurator;
+import org.hspconsortium.cwf.api.security.BasicAuthInterceptor;
+import org.hspconsortium.cwf.api.security.TestUser;
+import org.junit.Test;
+
+public class DomainFactoryTest {
+    
+    
+    private static final int CHUNK_SIZE = 100;
+    
+    private static final int PAGE_SIZE = 30;
+    
+    private static final BasicAuthInterceptor interceptor = new BasicAuthInterceptor("DomainFactoryTest",
+            new BasicAuthConfigurator());
+    
+    /**
+     * Simulates a FHIR server that returns search results in pages, in an order different from the
+     * requested order. Only even-numbered patient ids exist on the server.
+     */
+    private static class MockFhirServer extends DomainFactory {
+        
+        
+        private final Map<String, List<Patient>> pages = new ConcurrentHashMap<>();
+        
+        private final AtomicInteger pageCount = new AtomicInteger();
+        
+        private final AtomicInteger searchCount = new AtomicInteger();
+        
+        private final Set<String> credentials = ConcurrentHashMap.newKeySet();
+        
+        @Override
+        protected Bundle searchChunk(Class<? extends BaseResource> clazz, String[] ids) {
+            assertTrue("Chunk size exceeded", ids.length <= getChunkSize());
+            searchCount.incrementAndGet();
+            credentials.add(String.valueOf(interceptor.getCredentials()));
+            List<Patient> matches = new ArrayList<>();
+            
+            for (String id : ids) {
+                if (Integer.parseInt(id) % 2 == 0) {
+                    Patient patient = new Patient();
+                    patient.setId("Patient/" + id);
+                    matches.add(patient);
+                }
+            }
+            
+            Collections.reverse(matches);
+            return createPage(matches);
+        }
+        
+        @Override
+        protected Bundle nextPage(Bundle bundle) {
+            return createPage(pages.remove(bundle.getLink(Bundle.LINK_NEXT).getUrl()));
+        }
+        
+        private Bundle createPage(List<Patient> matches) {
+            Bundle bundle = new Bundle();
+            int size = Math.min(PAGE_SIZE, matches.size());
+            
+            for (Patient patient : matches.subList(0, size)) {
+                bundle.addEntry().setResource(patient);
+            }
+            
+            if (size < matches.size()) {
+                String url = "page" + pageCount.incrementAndGet();
+                pages.put(url, new ArrayList<>(matches.subList(size, matches.size())));
+                bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(url);
+            }
+            
+            return bundle;
+        }
+    }
+    
+    @Test
+    public void testFetchObjects() {
+        testFetchObjects(5);
+        testFetchObjects(500);
+        testFetchObjects(5000);
+    }
+    
+    private void testFetchObjects(int count) {
+        MockFhirServer factory = new MockFhirServer();
+        factory.setChunkSize(CHUNK_SIZE);
+        List<String> ids = new ArrayList<>(count + 1);
+        
+        for (int i = 0; i < count; i++) {
+            ids.add(Integer.toString(i));
+        }
+        
+        Collections.shuffle(ids, new Random(count));
+        ids.add(ids.get(0));
+        Set<String> expected = new LinkedHashSet<>();
+        
+        for (String id : ids) {
+            if (Integer.parseInt(id) % 2 == 0) {
+                expected.add(id);
+            }
+        }
+        
+        List<Patient> results = factory.fetchObjects(Patient.class, ids.toArray(new String[ids.size()]));
+        List<String> actual = new ArrayList<>(results.size());
+        
+        for (Patient patient : results) {
+            actual.add(patient.getIdElement().getIdPart());
+        }
+        
+        assertEquals(new ArrayList<>(expected), actual);
+        assertEquals((count + CHUNK_SIZE - 1) / CHUNK_SIZE, factory.searchCount.get());
+        assertTrue("Unread pages remain", factory.pages.isEmpty());
+        assertEquals(Collections.emptyList(), factory.fetchObjects(Patient.class, new String[0]));
+        assertEquals(Collections.emptyList(), factory.fetchObjects(Patient.class, null));
+    }
+    
+    /**
+     * Chunks fetched in the background must be retrieved with the caller's credentials.
+     */
+    @Test
+    public void testFetchAsCaller() throws Exception {
+        final MockFhirServer factory = new MockFhirServer();
+        factory.setChunkSize(CHUNK_SIZE);
+        final String[] ids = new String[500];
+        
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = Integer.toString(i);
+        }
+        
+        List<Patient> results = AbstractAuthInterceptor.callAs(TestUser.create("user1", "pw1"),
+            new Callable<List<Patient>>() {
+                
+                @Override
+                public List<Patient> call() throws Exception {
+                    return factory.fetchObjects(Patient.class, ids);
+                }
+                
+            });
+        
+        assertEquals(250, results.size());
+        assertEquals(5, factory.searchCount.get());
+        assertEquals(Collections.singleton(Base64.encodeBase64String("user1:pw1".getBytes("ISO-8859-1"))),
+            factory.credentials);
+    }
+    
+}
@@ -0,0 +1,145 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.GZIPInputStream;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+
+import org.springframework.beans.factory.support.DefaultListableBeanFactory;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HttpTransportFactoryTest {
+    
+    
+    /**
+     * Records the content headers and decoded body of the last request received.
+     */
+    private static class RecordingHandler implements HttpHandler {
+        
+        
+        private volatile String contentEncoding;
+        
+        private volatile String contentLength;
+        
+        private volatile String body;
+        
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            contentEncoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            InputStream in = exchange.getRequestBody();
+            in = "gzip".equals(contentEncoding) ? new GZIPInputStream(in) : in;
+            body = IOUtils.toString(in, "UTF-8");
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        }
+        
+    }
+    
+    private final RecordingHandler handler = new RecordingHandler();
+    
+    private HttpServer server;
+    
+    private HttpTransportFactory factory;
+    
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/fhir", handler);
+        server.start();
+    }
+    
+    @After
+    public void tearDown() {
+        if (factory != null) {
+            factory.destroy();
+        }
+        
+        server.stop(0);
+    }
+    
+    private String post(boolean gzipRequests, String body) throws Exception {
+        factory = new HttpTransportFactory(null);
+        factory.setGzipRequests(gzipRequests);
+        factory.init();
+        HttpPost post = new HttpPost("http://localhost:" + server.getAddress().getPort() + "/fhir/Patient");
+        post.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+        
+        try (CloseableHttpResponse response = factory.getHttpClient().execute(post)) {
+            assertEquals(204, response.getStatusLine().getStatusCode());
+        }
+        
+        return handler.body;
+    }
+    
+    @Test
+    public void testCompressedRequest() throws Exception {
+        String body = StringUtils.repeat("{\"resourceType\":\"Patient\"}", 200);
+        assertEquals(body, post(true, body));
+        assertEquals("gzip", handler.contentEncoding);
+        // The compressed length is not known in advance, so the request is chunked.
+        assertNull(handler.contentLength);
+    }
+    
+    @Test
+    public void testUncompressedRequest() throws Exception {
+        String body = "{\"resourceType\":\"Patient\"}";
+        assertEquals(body, post(false, body));
+        assertNull(handler.contentEncoding);
+        assertEquals(Integer.toString(body.length()), handler.contentLength);
+    }
+    
+    @Test
+    public void testClientDependency() {
+        DefaultListableBeanFactory beanFactory = new DefaultListableBeanFactory();
+        RootBeanDefinition definition = new RootBeanDefinition(Object.class);
+        definition.setDependsOn("other");
+        beanFactory.registerBeanDefinition("fhirClient", definition);
+        new HttpTransportFactory.ClientDependency("fhirClient", "fhirHttpTransport").postProcessBeanFactory(beanFactory);
+        new HttpTransportFactory.ClientDependency("fhirClient", "fhirHttpTransport").postProcessBeanFactory(beanFactory);
+        new HttpTransportFactory.ClientDependency("missing", "fhirHttpTransport").postProcessBeanFactory(beanFactory);
+        String[] dependsOn = beanFactory.getBeanDefinition("fhirClient").getDependsOn();
+        assertEquals(2, dependsOn.length);
+        assertEquals("other", dependsOn[0]);
+        assertEquals("fhirHttpTransport", dependsOn[1]);
+    }
+    
+}
@@ -0,0 +1,101 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.hspconsortium.cwf.api.location.LocationSearchCriteria;
+import org.hspconsortium.cwf.api.patient.PatientSearchCriteria;
+import org.junit.Test;
+
+public class SearchCriteriaTest {
+    
+    
+    private void assertSame(SearchCriteria criteria1, SearchCriteria criteria2) {
+        assertEquals(criteria1.toCanonicalString(), criteria2.toCanonicalString());
+        assertEquals(criteria1, criteria2);
+        assertEquals(criteria1.hashCode(), criteria2.hashCode());
+    }
+    
+    private void assertDifferent(SearchCriteria criteria1, SearchCriteria criteria2) {
+        assertNotEquals(criteria1.toCanonicalString(), criteria2.toCanonicalString());
+        assertNotEquals(criteria1, criteria2);
+    }
+    
+    @Test
+    public void testNormalization() {
+        assertSame(new PatientSearchCriteria("Smith, John;M"), new PatientSearchCriteria(" smith, JOHN ; m "));
+        assertSame(new PatientSearchCriteria("123456"), new PatientSearchCriteria("123456"));
+        assertDifferent(new PatientSearchCriteria("123456"), new PatientSearchCriteria("123457"));
+        assertDifferent(new PatientSearchCriteria("smith"), new PatientSearchCriteria("smith;f"));
+        assertDifferent(new PatientSearchCriteria("smith, john"), new PatientSearchCriteria("smith, jane"));
+    }
+    
+    @Test
+    public void testDatePrecision() {
+        PatientSearchCriteria criteria1 = new PatientSearchCriteria("smith");
+        PatientSearchCriteria criteria2 = new PatientSearchCriteria("smith");
+        criteria1.setBirth(new GregorianCalendar(1958, Calendar.JULY, 27, 8, 30).getTime());
+        criteria2.setBirth(new GregorianCalendar(1958, Calendar.JULY, 27, 17, 45).getTime());
+        assertSame(criteria1, criteria2);
+        criteria2.setBirth(new GregorianCalendar(1958, Calendar.JULY, 28).getTime());
+        assertDifferent(criteria1, criteria2);
+    }
+    
+    @Test
+    public void testMaximum() {
+        PatientSearchCriteria criteria1 = new PatientSearchCriteria("smith");
+        PatientSearchCriteria criteria2 = new PatientSearchCriteria("smith");
+        criteria1.setMaximum(100);
+        assertDifferent(criteria1, criteria2);
+        criteria2.setMaximum(100);
+        assertSame(criteria1, criteria2);
+    }
+    
+    @Test
+    public void testClass() {
+        PatientSearchCriteria patient = new PatientSearchCriteria();
+        LocationSearchCriteria location = new LocationSearchCriteria();
+        patient.setId("1");
+        location.setId("1");
+        assertDifferent(patient, location);
+        assertFalse(patient.equals(null));
+        assertFalse(patient.equals(patient.toCanonicalString()));
+    }
+    
+    @Test
+    public void testEscaping() {
+        LocationSearchCriteria criteria1 = new LocationSearchCriteria();
+        LocationSearchCriteria criteria2 = new LocationSearchCriteria();
+        criteria1.setName("ward|type=icu");
+        criteria2.setName("ward");
+        criteria2.setType("icu");
+        assertDifferent(criteria1, criteria2);
+        criteria1.setName("Ward");
+        criteria1.setType("icu");
+        assertSame(criteria1, criteria2);
+    }
+    
+}
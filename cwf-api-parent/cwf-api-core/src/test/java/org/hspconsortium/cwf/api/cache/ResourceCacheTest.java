@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.dstu3.model.Practitioner;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.junit.Test;
+
+public class ResourceCacheTest {
+    
+    
+    private static final String BASE = "http://localhost/fhir/";
+    
+    private Practitioner createPractitioner(String id) {
+        Practitioner practitioner = new Practitioner();
+        practitioner.setId(BASE + "Practitioner/" + id + "/_history/1");
+        return practitioner;
+    }
+    
+    private void assertCopy(IBaseResource expected, IBaseResource actual) {
+        assertNotSame(expected, actual);
+        assertEquals(expected.getIdElement().getValue(), actual.getIdElement().getValue());
+    }
+    
+    @Test
+    public void testCache() {
+        ResourceCache cache = new ResourceCache();
+        cache.setMaximumSize(4);
+        Practitioner p1 = createPractitioner("1");
+        Practitioner p2 = createPractitioner("2");
+        Practitioner p3 = createPractitioner("3");
+        cache.put(null, p1);
+        cache.put(null, p2);
+        assertEquals(4, cache.getSize()); // Versioned and unversioned entries
+        assertCopy(p1, cache.get(null, BASE + "Practitioner/1"));
+        assertCopy(p1, cache.get(null, BASE + "Practitioner/1/_history/1"));
+        assertNull(cache.get(null, BASE + "Practitioner/1/_history/2"));
+        cache.put(null, p3); // Evicts least recently used entries for p2
+        assertEquals(2, cache.getEvictions());
+        assertNull(cache.get(null, BASE + "Practitioner/2"));
+        assertCopy(p3, cache.get(null, BASE + "Practitioner/3"));
+        assertEquals(3, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        cache.invalidate(null, BASE + "Practitioner/1/_history/1");
+        assertNull(cache.get(null, BASE + "Practitioner/1"));
+        assertEquals(2, cache.getSize());
+        cache.setDefaultTimeToLive(0);
+        cache.put(null, p2);
+        assertNull(cache.get(null, BASE + "Practitioner/2"));
+        assertCopy(p2, cache.get(null, BASE + "Practitioner/2/_history/1"));
+        cache.clear();
+        assertEquals(0, cache.getSize());
+    }
+    
+    @Test
+    public void testCopies() {
+        ResourceCache cache = new ResourceCache();
+        Practitioner p1 = createPractitioner("1");
+        p1.setActive(true);
+        cache.put(null, p1);
+        p1.setActive(false);
+        Practitioner cached = (Practitioner) cache.get(null, BASE + "Practitioner/1");
+        assertTrue(cached.getActive());
+        cached.setActive(false);
+        assertTrue(((Practitioner) cache.get(null, BASE + "Practitioner/1")).getActive());
+    }
+    
+    @Test
+    public void testCacheableTypes() {
+        ResourceCache cache = new ResourceCache();
+        Patient patient = new Patient();
+        patient.setId(BASE + "Patient/1/_history/1");
+        assertFalse(cache.isCacheable("Patient"));
+        cache.put(null, patient);
+        assertEquals(0, cache.getSize());
+        assertNull(cache.get(null, BASE + "Patient/1"));
+        cache.setCacheableTypes("Patient, Practitioner");
+        assertTrue(cache.isCacheable("Patient"));
+        assertFalse(cache.isCacheable("Location"));
+        cache.put(null, patient);
+        assertCopy(patient, cache.get(null, BASE + "Patient/1"));
+    }
+    
+}
@@ -20,15 +20,30 @@
 package org.hspconsortium.cwf.api.context;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
 import org.hl7.fhir.dstu3.model.HumanName;
 import org.hl7.fhir.dstu3.model.HumanName.NameUse;
+import org.hl7.fhir.dstu3.model.StringType;
 import org.hspconsortium.cwf.api.NameSerializer;
 import org.junit.Test;
 
 public class NameSerializerTest {
     
     
+    private static final String CHARS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ .,'-^~\\\u00e9\u00fc\u4e2d";
+    
+    private static final NameUse[] USES = { NameUse.USUAL, NameUse.OFFICIAL, NameUse.TEMP, NameUse.NICKNAME,
+            NameUse.ANONYMOUS, NameUse.OLD, NameUse.MAIDEN };
+    
+    private final Random random = new Random(12345);
+    
     @Test
     public void test() {
         NameSerializer ns = new NameSerializer();
@@ -49,4 +64,233 @@ public class NameSerializerTest {
         assertEquals(name.getUse(), name2.getUse());
     }
     
+    /**
+     * Compares serialization and deserialization against the original split/concatenation-based
+     * implementation for randomly generated names. Component values may contain delimiters, which
+     * the single-name format does not escape, so deserialization must fail wherever the original
+     * implementation did.
+     */
+    @Test
+    public void testRandomNames() {
+        NameSerializer ns = new NameSerializer();
+        
+        for (int i = 0; i < 2000; i++) {
+            HumanName name = randomName();
+            String s = ns.serialize(name);
+            assertEquals(legacySerialize(name), s);
+            HumanName expected;
+            
+            try {
+                expected = legacyDeserialize(s);
+            } catch (IllegalArgumentException e) {
+                try {
+                    ns.deserialize(s);
+                    fail("Expected deserialization of " + s + " to fail");
+                } catch (IllegalArgumentException e2) {
+                    // expected
+                }
+                
+                continue;
+            }
+            
+            HumanName name2 = ns.deserialize(s);
+            assertEquals(legacySerialize(expected), ns.serialize(name2));
+            assertEquals(expected.getUse(), name2.getUse());
+        }
+    }
+    
+    /**
+     * Round-trips lists of random names through the bulk API.
+     */
+    @Test
+    public void testBulk() {
+        NameSerializer ns = new NameSerializer();
+        
+        for (int i = 0; i < 200; i++) {
+            List<HumanName> names = new ArrayList<>();
+            int count = random.nextInt(10) + 1;
+            
+            for (int j = 0; j < count; j++) {
+                names.add(randomName());
+            }
+            
+            String s = ns.serializeAll(names);
+            List<HumanName> names2 = ns.deserializeAll(s);
+            assertEquals(names.size(), names2.size());
+            
+            for (int j = 0; j < count; j++) {
+                HumanName name = names.get(j);
+                HumanName name2 = names2.get(j);
+                assertEquals(nonEmpty(name.getFamily(), 1), nonEmpty(name2.getFamily(), 1));
+                assertEquals(nonEmpty(name.getGiven(), 2), nonEmpty(name2.getGiven(), 2));
+                assertEquals(nonEmpty(name.getPrefix(), 1), nonEmpty(name2.getPrefix(), 1));
+                assertEquals(nonEmpty(name.getSuffix(), 2), nonEmpty(name2.getSuffix(), 2));
+                assertEquals(name.getUse(), name2.getUse());
+            }
+            
+            StringBuilder sb = new StringBuilder("prefix");
+            ns.serializeAll(names, sb);
+            assertEquals("prefix" + s, sb.toString());
+        }
+    }
+    
+    @Test
+    public void testEmptyList() {
+        NameSerializer ns = new NameSerializer();
+        String s = ns.serializeAll(Collections.<HumanName> emptyList());
+        assertEquals("", s);
+        assertTrue(ns.deserializeAll(s).isEmpty());
+    }
+    
+    @Test
+    public void testEscaping() {
+        NameSerializer ns = new NameSerializer();
+        HumanName name = new HumanName();
+        name.addFamily("Smith^Jones");
+        name.addGiven("Jo~Ann");
+        name.addGiven("\\S\\");
+        name.addPrefix("^~\\");
+        name.getUseElement().setValue(NameUse.OFFICIAL);
+        assertEquals(legacySerialize(name), ns.serialize(name));
+        String s = ns.serializeAll(Collections.singletonList(name));
+        assertEquals("Smith\\S\\Jones^Jo\\R\\Ann^\\E\\S\\E\\^^\\S\\\\R\\\\E\\^^" + name.getUse(), s);
+        List<HumanName> names = ns.deserializeAll(ns.serializeAll(Collections.nCopies(2, name)));
+        assertEquals(2, names.size());
+        
+        for (HumanName name2 : names) {
+            assertEquals("Smith^Jones", name2.getFamily().get(0).getValue());
+            assertEquals("Jo~Ann", name2.getGiven().get(0).getValue());
+            assertEquals("\\S\\", name2.getGiven().get(1).getValue());
+            assertEquals("^~\\", name2.getPrefix().get(0).getValue());
+            assertEquals(NameUse.OFFICIAL, name2.getUse());
+        }
+        
+        // Unrecognized escape sequences are preserved
+        assertEquals("a\\X\\b", ns.deserializeAll("a\\X\\b").get(0).getFamily().get(0).getValue());
+        // The single-name format does not unescape
+        assertEquals("a\\S\\b", ns.deserialize("a\\S\\b").getFamily().get(0).getValue());
+    }
+    
+    @Test
+    public void testLargeValue() {
+        NameSerializer ns = new NameSerializer();
+        StringBuilder sb = new StringBuilder();
+        
+        for (int i = 0; i < 10000; i++) {
+            sb.append('x');
+        }
+        
+        HumanName name = new HumanName();
+        name.addFamily(sb.toString());
+        assertEquals(sb.toString(), ns.deserialize(ns.serialize(name)).getFamily().get(0).getValue());
+        name = new HumanName();
+        name.addFamily("Smith");
+        name.getUseElement().setValue(NameUse.OFFICIAL);
+        assertEquals("Smith^^^^^^" + name.getUse(), ns.serialize(name));
+    }
+    
+    private HumanName randomName() {
+        HumanName name = new HumanName();
+        addRandom(name.getFamily(), 1);
+        addRandom(name.getGiven(), 2);
+        addRandom(name.getPrefix(), 1);
+        addRandom(name.getSuffix(), 2);
+        name.setUse(USES[random.nextInt(USES.length)]);
+        return name;
+    }
+    
+    /**
+     * Adds up to max components, some of which may be empty or have null values.
+     */
+    private void addRandom(List<StringType> list, int max) {
+        int count = random.nextInt(max + 1);
+        
+        for (int i = 0; i < count; i++) {
+            int length = random.nextInt(12) - 2;
+            
+            if (length < 0) {
+                list.add(new StringType());
+                continue;
+            }
+            
+            StringBuilder sb = new StringBuilder();
+            
+            for (int j = 0; j < length; j++) {
+                sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+            
+            list.add(new StringType(sb.toString()));
+        }
+    }
+    
+    /**
+     * Returns the non-empty values among the first max components, in order.
+     */
+    private List<String> nonEmpty(List<StringType> list, int max) {
+        List<String> result = new ArrayList<>();
+        
+        for (int i = 0; i < max; i++) {
+            String value = getComponent(list, i);
+            
+            if (!value.isEmpty()) {
+                result.add(value);
+            }
+        }
+        
+        return result;
+    }
+    
+    private String legacySerialize(HumanName value) {
+        return getComponent(value.getFamily(), 0) + "^" + getComponent(value.getGiven(), 0) + "^"
+                + getComponent(value.getGiven(), 1) + "^" + getComponent(value.getSuffix(), 0) + "^"
+                + getComponent(value.getPrefix(), 0) + "^" + getComponent(value.getSuffix(), 1) + "^"
+                + value.getUse();
+    }
+    
+    private String getComponent(List<StringType> list, int index) {
+        String result = index >= list.size() ? null : list.get(index).getValue();
+        return result == null ? "" : result;
+    }
+    
+    private HumanName legacyDeserialize(String value) {
+        String pcs[] = value.split("\\^");
+        HumanName result = new HumanName();
+        int i = 0;
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.addFamily(value);
+        }
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.addGiven(value);
+        }
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.addGiven(value);
+        }
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.addSuffix(value);
+        }
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.addPrefix(value);
+        }
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.addSuffix(value);
+        }
+        
+        if ((value = getComponent(pcs, i++)) != null) {
+            result.getUseElement().setValueAsString(value);
+        }
+        
+        return result;
+    }
+    
+    private String getComponent(String[] pcs, int index) {
+        String result = index >= pcs.length ? null : pcs[index];
+        return result == null || result.isEmpty() ? null : result;
+    }
+    
 }
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.common.DateUtil;
+
+import org.hl7.fhir.dstu3.model.Identifier;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.api.security.BasicAuthConfigurator;
+import org.hspconsortium.cwf.api.security.BasicAuthInterceptor;
+import org.hspconsortium.cwf.api.security.TestUser;
+import org.hspconsortium.cwf.fhir.common.FhirTerminology;
+import org.hspconsortium.cwf.fhir.common.HumanNameParser;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class PatientIndexTest {
+    
+    
+    private static final BasicAuthInterceptor interceptor = new BasicAuthInterceptor("PatientIndexTest",
+            new BasicAuthConfigurator());
+    
+    private final HumanNameParser hnp = new HumanNameParser();
+    
+    private Patient createPatient(String id, String name, String mrn, String dob) {
+        return createPatient(id, name, null, mrn, dob);
+    }
+    
+    private Patient createPatient(String id, String name, String system, String mrn, String dob) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        patient.getName().add(hnp.fromString(null, name));
+        Identifier identifier = new Identifier();
+        identifier.setType(FhirTerminology.IDENT_MRN);
+        identifier.setSystem(system);
+        identifier.setValue(mrn);
+        patient.getIdentifier().add(identifier);
+        patient.setBirthDate(DateUtil.parseDate(dob));
+        return patient;
+    }
+    
+    @Test
+    public void testIndex() {
+        PatientIndex index = new PatientIndex();
+        Patient p1 = createPatient("1", "Smith, Joe", "1001", "1958-07-27");
+        Patient p2 = createPatient("2", "Smyth, Jane", "1002", "1963-05-01");
+        Patient p3 = createPatient("3", "Smithers, Waylon", "1003", "1958-07-27");
+        index.add(p1);
+        index.add(p2);
+        index.add(p3);
+        assertEquals(3, index.getSize());
+        // MRN lookup
+        assertSame(p2, index.findByMRN("1002").get(0));
+        assertTrue(index.findByMRN("9999").isEmpty());
+        // Prefix lookup
+        List<Patient> matches = index.findByName(hnp.fromString(null, "smith"), false);
+        assertEquals(2, matches.size());
+        assertTrue(matches.contains(p1) && matches.contains(p3));
+        assertEquals(1, index.findByName(hnp.fromString(null, "smi, w"), false).size());
+        // Phonetic lookup
+        matches = index.findByName(hnp.fromString(null, "smith"), true);
+        assertEquals(3, matches.size());
+        // Birth date lookup
+        assertEquals(2, index.findByBirthDate(DateUtil.parseDate("1958-07-27")).size());
+        // Combined criteria
+        PatientSearchCriteria criteria = new PatientSearchCriteria("smi;1958-07-27");
+        assertEquals(2, index.find(criteria).size());
+        // Reindexing replaces previous keys
+        index.add(createPatient("1", "Jones, Joe", "2001", "1958-07-27"));
+        assertTrue(index.findByMRN("1001").isEmpty());
+        assertEquals(1, index.findByName(hnp.fromString(null, "smith"), false).size());
+        assertEquals(1, index.findByMRN("2001").size());
+    }
+    
+    @Test
+    public void testMRNSystem() {
+        PatientIndex index = new PatientIndex();
+        Patient p1 = createPatient("1", "Smith, Joe", "urn:oid:1.2.3", "1001", "1958-07-27");
+        Patient p2 = createPatient("2", "Doe, Jane", "urn:oid:4.5.6", "1001", "1963-05-01");
+        index.add(p1);
+        index.add(p2);
+        assertSame(p1, index.findByMRN("urn:oid:1.2.3", "1001").get(0));
+        assertEquals(1, index.findByMRN("urn:oid:4.5.6", "1001").size());
+        assertSame(p2, index.findByMRN("urn:oid:4.5.6", "1001").get(0));
+        assertTrue(index.findByMRN("urn:oid:7.8.9", "1001").isEmpty());
+        // No system matches the value in any system
+        List<Patient> matches = index.findByMRN("1001");
+        assertEquals(2, matches.size());
+        assertTrue(matches.contains(p1) && matches.contains(p2));
+        assertEquals(2, index.findByMRN("", "1001").size());
+        Identifier mrn = new Identifier();
+        mrn.setSystem("urn:oid:1.2.3");
+        mrn.setValue("1001");
+        assertSame(p1, index.findByMRN(mrn).get(0));
+        mrn.setSystem(null);
+        assertEquals(2, index.findByMRN(mrn).size());
+        // Criteria without a system (as for a typed MRN) match an MRN assigned by a system
+        PatientSearchCriteria criteria = new PatientSearchCriteria();
+        criteria.setMRN("1001");
+        assertEquals(2, index.find(criteria).size());
+        // Reindexing and removal drop the value-only key
+        index.add(createPatient("1", "Smith, Joe", "urn:oid:1.2.3", "2001", "1958-07-27"));
+        assertEquals(1, index.findByMRN("1001").size());
+        index.remove("2");
+        assertTrue(index.findByMRN("1001").isEmpty());
+        assertSame(index.findByMRN("2001").get(0), index.findByMRN("urn:oid:1.2.3", "2001").get(0));
+    }
+    
+    /**
+     * Background verification must read the patient with the credentials of the user whose lookup
+     * triggered it.
+     */
+    @Test
+    public void testVerifyAsUser() throws Exception {
+        final List<String> credentials = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch verified = new CountDownLatch(2);
+        final PatientIndex index = new PatientIndex() {
+            
+            
+            @Override
+            protected Patient read(String id, String version) {
+                credentials.add(String.valueOf(interceptor.getCredentials()));
+                verified.countDown();
+                return null;
+            }
+            
+        };
+        
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        
+        try {
+            index.setExecutor(executor);
+            index.setFhirClient(FhirContext.forDstu3().newRestfulGenericClient("http://localhost/fhir"));
+            index.setVerifyInterval(0);
+            index.add(createPatient("1", "Smith, Joe", "1001", "1958-07-27"));
+            findByMRNAs(index, TestUser.create("user1", "pw1"));
+            findByMRNAs(index, TestUser.create("user2", "pw2"));
+            assertTrue("Verification not performed", verified.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList(encode("user1:pw1"), encode("user2:pw2")), credentials);
+            assertEquals(1, index.getSize());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+    
+    private void findByMRNAs(final PatientIndex index, IUser user) throws Exception {
+        assertEquals(1, AbstractAuthInterceptor.callAs(user, new Callable<List<Patient>>() {
+            
+            
+            @Override
+            public List<Patient> call() throws Exception {
+                return index.findByMRN("1001");
+            }
+            
+        }).size());
+    }
+    
+    private String encode(String credentials) throws Exception {
+        return Base64.encodeBase64String(credentials.getBytes("ISO-8859-1"));
+    }
+    
+    @Test
+    public void testEviction() {
+        PatientIndex index = new PatientIndex();
+        index.setMaximumSize(2);
+        index.add(createPatient("1", "Smith, Joe", "1001", "1958-07-27"));
+        index.add(createPatient("2", "Doe, Jane", "1002", "1963-05-01"));
+        index.findByMRN("1001"); // Makes patient 2 least recently used
+        index.add(createPatient("3", "Doe, John", "1003", "1963-05-01"));
+        assertEquals(2, index.getSize());
+        assertTrue(index.findByMRN("1002").isEmpty());
+        assertEquals(1, index.findByMRN("1001").size());
+        assertEquals(1, index.findByName(hnp.fromString(null, "doe"), false).size());
+        assertEquals(1, index.findByBirthDate(DateUtil.parseDate("1963-05-01")).size());
+    }
+    
+}
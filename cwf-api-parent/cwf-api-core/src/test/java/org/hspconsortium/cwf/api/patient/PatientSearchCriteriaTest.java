@@ -0,0 +1,138 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patient;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.Random;
+
+import org.apache.commons.lang.StringUtils;
+
+import org.carewebframework.common.DateUtil;
+
+import org.junit.Test;
+
+public class PatientSearchCriteriaTest {
+    
+    
+    private static final String[] SAMPLES = { "", " ", ";", "smith", "smith, john", "smith;m", "m", "M;smith",
+            "smith;f;1958-07-27", "123456", "12-34", "-12", "12-", "123-45-6789", "123-456-789", "=abc123", "=",
+            "=123", "07/27/1958", "1958-07-27", "27-Jul-1958", "t-1", "smith;123456;m", "abc123", "12\n34",
+            "smith\n1", "\u0661\u0662", "1\u0662", ";;smith;;", " smith ; 123 ; f " };
+    
+    private static final String CHARS = "0123456789-=;/ ,.MFmfabcxyz\n";
+    
+    @Test
+    public void testSamples() {
+        for (String sample : SAMPLES) {
+            assertParsesSame(sample);
+        }
+    }
+    
+    @Test
+    public void testRandom() {
+        Random random = new Random(4321);
+        
+        for (int i = 0; i < 5000; i++) {
+            int length = random.nextInt(16);
+            StringBuilder sb = new StringBuilder(length);
+            
+            for (int j = 0; j < length; j++) {
+                sb.append(CHARS.charAt(random.nextInt(CHARS.length())));
+            }
+            
+            assertParsesSame(sb.toString());
+        }
+    }
+    
+    /**
+     * Asserts that the search text is parsed exactly as by the original parser, including any
+     * exception thrown.
+     */
+    private void assertParsesSame(String searchText) {
+        PatientSearchCriteria expected;
+        
+        try {
+            expected = parseLegacy(searchText);
+        } catch (Exception e) {
+            try {
+                new PatientSearchCriteria(searchText);
+            } catch (Exception e2) {
+                assertEquals(searchText, e.getClass(), e2.getClass());
+                return;
+            }
+            
+            throw new AssertionError("Expected exception for: " + searchText);
+        }
+        
+        PatientSearchCriteria actual = new PatientSearchCriteria(searchText);
+        assertEquals(searchText, expected.toCanonicalString(), actual.toCanonicalString());
+        assertEquals(searchText, expected.getId(), actual.getId());
+    }
+    
+    /**
+     * The original regular expression-based parser.
+     */
+    static PatientSearchCriteria parseLegacy(String searchText) {
+        PatientSearchCriteria criteria = new PatientSearchCriteria();
+        searchText = searchText == null ? null : searchText.trim();
+        
+        if (!StringUtils.isEmpty(searchText)) {
+            String[] pcs = searchText.split(";");
+            
+            for (String pc : pcs) {
+                pc = pc.trim();
+                Date tempDate;
+                
+                if (pc.isEmpty()) {
+                    continue;
+                } else if (criteria.isValid() && (pc.equalsIgnoreCase("M") || pc.equalsIgnoreCase("F"))) {
+                    criteria.setGender(pc.toUpperCase());
+                } else if (!pc.matches(".*\\d.*")) {
+                    criteria.setName(pc);
+                } else if (pc.matches("^=.+$")) {
+                    criteria.setId(pc.substring(1));
+                } else if (pc.matches("^\\d{3}-\\d{2}-\\d{4}$")) {
+                    criteria.setSSN(pc);
+                } else if ((tempDate = parseDate(pc)) != null) {
+                    criteria.setBirth(tempDate);
+                } else {
+                    criteria.setMRN(pc);
+                }
+            }
+        }
+        
+        return criteria;
+    }
+    
+    private static Date parseDate(String value) {
+        if (StringUtils.isNumeric(value)) {
+            return null;
+        }
+        
+        if (value.matches("^\\d+-\\d+$")) {
+            return null;
+        }
+        
+        return DateUtil.parseDate(value);
+    }
+    
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.HumanName.NameUse;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.fhir.common.HumanNameParser;
+import org.junit.Test;
+
+public class PatientSortKeyTest {
+    
+    
+    private final HumanNameParser hnp = new HumanNameParser();
+    
+    private Patient createPatient(String name) {
+        Patient patient = new Patient();
+        HumanName humanName = hnp.fromString(null, name);
+        humanName.setUse(NameUse.USUAL);
+        patient.getName().add(humanName);
+        return patient;
+    }
+    
+    private int compare(String text1, String text2) {
+        return Integer.signum(PatientSortKey.forText(text1).compareTo(PatientSortKey.forText(text2)));
+    }
+    
+    @Test
+    public void testCollation() {
+        // Case is ignored
+        assertEquals(0, compare("smith", "SMITH"));
+        assertEquals(-1, compare("apple", "Banana"));
+        assertEquals(1, compare("Banana", "apple"));
+        // Accents follow their base letter rather than sorting after all unaccented letters
+        assertEquals(-1, compare("Eason", "Ébert"));
+        assertEquals(-1, compare("Ébert", "Fisher"));
+        // but remain significant
+        assertTrue(compare("Ebert", "Ébert") != 0);
+        // Null sorts as empty text, before any name
+        assertEquals(0, compare(null, ""));
+        assertEquals(-1, compare(null, "Adams"));
+        assertEquals("", PatientSortKey.forText(null).getText());
+        assertEquals("Adams", PatientSortKey.forText("Adams").toString());
+    }
+    
+    @Test
+    public void testFamilyName() {
+        PatientSortKey key1 = PatientSortKey.forFamilyName(createPatient("smith, Zoe"));
+        PatientSortKey key2 = PatientSortKey.forFamilyName(createPatient("Smith, Adam"));
+        PatientSortKey key3 = PatientSortKey.forFamilyName(createPatient("Smithers, Adam"));
+        assertEquals("smith", key1.getText());
+        assertEquals(0, key1.compareTo(key2));
+        assertTrue(key2.compareTo(key3) < 0);
+        assertEquals("", PatientSortKey.forFamilyName(null).getText());
+        assertEquals("", PatientSortKey.forPatient(null).getText());
+    }
+    
+    @Test
+    public void testSort() {
+        Patient p1 = createPatient("jones, Al");
+        Patient p2 = createPatient("Adams, Bo");
+        Patient p3 = createPatient("Ébert, Cy");
+        Patient p4 = createPatient("Fisher, Di");
+        List<Patient> expected = Arrays.asList(p2, p3, p4, p1);
+        List<Patient> patients = new ArrayList<>(Arrays.asList(p1, p2, p3, p4));
+        PatientSortKey.sort(patients);
+        assertEquals(expected, patients);
+        patients = new ArrayList<>(Arrays.asList(p4, p1, p3, p2));
+        Collections.sort(patients, PatientSortKey.createComparator());
+        assertEquals(expected, patients);
+        patients = new ArrayList<>(Collections.singletonList(p1));
+        PatientSortKey.sort(patients);
+        assertSame(p1, patients.get(0));
+    }
+    
+}
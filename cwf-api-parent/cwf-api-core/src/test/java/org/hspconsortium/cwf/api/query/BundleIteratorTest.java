@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.carewebframework.api.domain.IUser;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.OperationOutcome;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.api.security.BasicAuthConfigurator;
+import org.hspconsortium.cwf.api.security.BasicAuthInterceptor;
+import org.hspconsortium.cwf.api.security.TestUser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BundleIteratorTest {
+    
+    
+    private static final int PAGE_SIZE = 2;
+    
+    private static final int PAGE_COUNT = 3;
+    
+    private static final BasicAuthInterceptor interceptor = new BasicAuthInterceptor("BundleIteratorTest",
+            new BasicAuthConfigurator());
+    
+    /**
+     * Simulates a server returning pages of patients. Each page also contains a resource of
+     * another type, which the iterator should skip.
+     */
+    private static class MockPages {
+        
+        
+        private final AtomicInteger loads = new AtomicInteger();
+        
+        private final Set<String> credentials = ConcurrentHashMap.newKeySet();
+        
+        Bundle getPage(int page) {
+            Bundle bundle = new Bundle();
+            bundle.addEntry().setResource(new OperationOutcome());
+            
+            for (int i = 0; i < PAGE_SIZE; i++) {
+                Patient patient = new Patient();
+                patient.setId("Patient/" + (page * PAGE_SIZE + i));
+                bundle.addEntry().setResource(patient);
+            }
+            
+            if (page < PAGE_COUNT - 1) {
+                bundle.addLink().setRelation(Bundle.LINK_NEXT).setUrl(Integer.toString(page + 1));
+            }
+            
+            return bundle;
+        }
+        
+        Bundle loadNextPage(Bundle bundle) throws InterruptedException {
+            loads.incrementAndGet();
+            credentials.add(String.valueOf(interceptor.getCredentials()));
+            return getPage(Integer.parseInt(bundle.getLink(Bundle.LINK_NEXT).getUrl()));
+        }
+    }
+    
+    private ExecutorService executor;
+    
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+    }
+    
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    private BundleIterator<Patient> createIterator(final MockPages pages, ExecutorService executor) {
+        return new BundleIterator<Patient>(null, Patient.class, pages.getPage(0), executor) {
+            
+            
+            @Override
+            protected Bundle loadNextPage(Bundle bundle) {
+                try {
+                    return pages.loadNextPage(bundle);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+            
+        };
+    }
+    
+    private List<String> getIds(BundleIterator<Patient> iterator) {
+        List<String> ids = new ArrayList<>();
+        
+        while (iterator.hasNext()) {
+            ids.add(iterator.next().getIdElement().getIdPart());
+        }
+        
+        return ids;
+    }
+    
+    private List<String> getExpectedIds() {
+        List<String> ids = new ArrayList<>();
+        
+        for (int i = 0; i < PAGE_SIZE * PAGE_COUNT; i++) {
+            ids.add(Integer.toString(i));
+        }
+        
+        return ids;
+    }
+    
+    @Test
+    public void testPaging() {
+        MockPages pages = new MockPages();
+        BundleIterator<Patient> iterator = createIterator(pages, null);
+        assertEquals(0, pages.loads.get());
+        assertEquals(getExpectedIds(), getIds(iterator));
+        assertEquals(PAGE_COUNT - 1, pages.loads.get());
+        assertFalse(iterator.hasNext());
+    }
+    
+    @Test
+    public void testPrefetch() {
+        MockPages pages = new MockPages();
+        assertEquals(getExpectedIds(), getIds(createIterator(pages, executor)));
+        assertEquals(PAGE_COUNT - 1, pages.loads.get());
+    }
+    
+    @Test
+    public void testClose() {
+        MockPages pages = new MockPages();
+        BundleIterator<Patient> iterator = createIterator(pages, null);
+        assertEquals("0", iterator.next().getIdElement().getIdPart());
+        iterator.close();
+        assertFalse(iterator.hasNext());
+        assertEquals(0, pages.loads.get());
+        
+        try {
+            iterator.next();
+            fail("Expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    public void testCloseCancelsPrefetch() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final AtomicBoolean completed = new AtomicBoolean();
+        MockPages pages = new MockPages() {
+            
+            
+            @Override
+            Bundle loadNextPage(Bundle bundle) throws InterruptedException {
+                started.countDown();
+                
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    interrupted.countDown();
+                    throw e;
+                }
+                
+                completed.set(true);
+                return super.loadNextPage(bundle);
+            }
+            
+        };
+        
+        BundleIterator<Patient> iterator = createIterator(pages, executor);
+        assertTrue("Prefetch not started", started.await(5, TimeUnit.SECONDS));
+        iterator.close();
+        assertTrue("Prefetch not interrupted", interrupted.await(5, TimeUnit.SECONDS));
+        assertFalse(completed.get());
+        assertFalse(iterator.hasNext());
+    }
+    
+    /**
+     * Pages retrieved in the background must carry the credentials of the user who created the
+     * iterator, even when the pool thread last served another user.
+     */
+    @Test
+    public void testPrefetchAsCreator() throws Exception {
+        testPrefetchAs(TestUser.create("user1", "pw1"), "user1:pw1");
+        testPrefetchAs(TestUser.create("user2", "pw2"), "user2:pw2");
+    }
+    
+    private void testPrefetchAs(IUser user, String credentials) throws Exception {
+        final MockPages pages = new MockPages();
+        BundleIterator<Patient> iterator = AbstractAuthInterceptor.callAs(user, new Callable<BundleIterator<Patient>>() {
+            
+            
+            @Override
+            public BundleIterator<Patient> call() throws Exception {
+                return createIterator(pages, executor);
+            }
+            
+        });
+        
+        assertEquals(getExpectedIds(), getIds(iterator));
+        assertEquals(Collections.singleton(Base64.encodeBase64String(credentials.getBytes("ISO-8859-1"))),
+            pages.credentials);
+    }
+    
+}
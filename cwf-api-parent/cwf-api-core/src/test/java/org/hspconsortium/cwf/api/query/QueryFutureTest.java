@@ -0,0 +1,200 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.carewebframework.api.domain.IUser;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.api.security.BasicAuthConfigurator;
+import org.hspconsortium.cwf.api.security.BasicAuthInterceptor;
+import org.hspconsortium.cwf.api.security.TestUser;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.rest.client.ServerValidationModeEnum;
+
+public class QueryFutureTest {
+    
+    
+    private static final BasicAuthInterceptor interceptor = new BasicAuthInterceptor("QueryFutureTest",
+            new BasicAuthConfigurator());
+    
+    private final CountDownLatch received = new CountDownLatch(1);
+    
+    private final CountDownLatch release = new CountDownLatch(1);
+    
+    private HttpServer server;
+    
+    private ExecutorService executor;
+    
+    private IGenericClient fhirClient;
+    
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/fhir", new HttpHandler() {
+            
+            
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                received.countDown();
+                
+                try {
+                    release.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                
+                exchange.sendResponseHeaders(500, -1);
+                exchange.close();
+            }
+            
+        });
+        server.start();
+        executor = Executors.newSingleThreadExecutor();
+        FhirContext fhirContext = FhirContext.forDstu3();
+        fhirContext.getRestfulClientFactory().setServerValidationMode(ServerValidationModeEnum.NEVER);
+        fhirContext.getRestfulClientFactory().setSocketTimeout(60000);
+        fhirClient = fhirContext.newRestfulGenericClient("http://localhost:" + server.getAddress().getPort() + "/fhir");
+        new QueryRequestTracker(fhirClient).init();
+    }
+    
+    @After
+    public void tearDown() {
+        release.countDown();
+        executor.shutdownNow();
+        server.stop(0);
+    }
+    
+    private QueryFuture<Bundle> submitSearch() {
+        return QueryFuture.submit(executor, new Callable<Bundle>() {
+            
+            
+            @Override
+            public Bundle call() throws Exception {
+                return fhirClient.search().forResource(Patient.class).returnBundle(Bundle.class).execute();
+            }
+            
+        });
+    }
+    
+    /**
+     * Canceling a query must abort its HTTP request. Blocking socket reads do not respond to
+     * interrupts, so the worker thread can finish while the server is still stalled only if the
+     * request was aborted.
+     */
+    @Test
+    public void testCancelAbortsRequest() throws Exception {
+        QueryFuture<Bundle> future = submitSearch();
+        assertTrue("Request not received", received.await(10, TimeUnit.SECONDS));
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        executor.shutdown();
+        assertTrue("HTTP request was not aborted", executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(release.await(0, TimeUnit.SECONDS));
+    }
+    
+    @Test
+    public void testCancelBeforeStart() throws Exception {
+        QueryFuture<Bundle> blocker = submitSearch();
+        final AtomicBoolean started = new AtomicBoolean();
+        QueryFuture<Boolean> future = QueryFuture.submit(executor, new Callable<Boolean>() {
+            
+            
+            @Override
+            public Boolean call() throws Exception {
+                started.set(true);
+                return true;
+            }
+            
+        });
+        
+        assertTrue(future.cancel(false));
+        blocker.cancel(true);
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertFalse(started.get());
+    }
+    
+    /**
+     * A query must be authenticated as the user who submitted it, even when it runs on a pool
+     * thread that previously ran a query for another user.
+     */
+    @Test
+    public void testRunsAsSubmitter() throws Exception {
+        assertEquals(encode("user1:pw1"), submitAs(TestUser.create("user1", "pw1")).get(5, TimeUnit.SECONDS));
+        assertEquals(encode("user2:pw2"), submitAs(TestUser.create("user2", "pw2")).get(5, TimeUnit.SECONDS));
+        assertEquals(encode("user1:pw1"), submitAs(TestUser.create("user1", "pw1")).get(5, TimeUnit.SECONDS));
+    }
+    
+    /**
+     * Submits, as the specified user, a query that returns the credentials its requests would
+     * carry.
+     */
+    private QueryFuture<String> submitAs(IUser user) throws Exception {
+        return AbstractAuthInterceptor.callAs(user, new Callable<QueryFuture<String>>() {
+            
+            
+            @Override
+            public QueryFuture<String> call() throws Exception {
+                return QueryFuture.submit(executor, new Callable<String>() {
+                    
+                    
+                    @Override
+                    public String call() throws Exception {
+                        return interceptor.getCredentials();
+                    }
+                    
+                });
+            }
+            
+        });
+    }
+    
+    private String encode(String credentials) throws Exception {
+        return Base64.encodeBase64String(credentials.getBytes("ISO-8859-1"));
+    }
+    
+}
@@ -0,0 +1,102 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hl7.fhir.dstu3.model.Location;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hspconsortium.cwf.api.SearchCriteria;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.IGenericClient;
+
+public class SearchCacheWriteInterceptorTest {
+    
+    
+    private static final String BASE = "http://localhost/fhir";
+    
+    private static class MockSearch<R extends IBaseResource> extends BaseResourceQuery<R, SearchCriteria> {
+        
+        
+        private final AtomicInteger invalidations = new AtomicInteger();
+        
+        MockSearch(Class<R> resourceClass, IGenericClient fhirClient) {
+            super(resourceClass, fhirClient);
+        }
+        
+        @Override
+        public void invalidate() {
+            invalidations.incrementAndGet();
+        }
+    }
+    
+    private MockSearch<Patient> patientSearch;
+    
+    private MockSearch<Location> locationSearch;
+    
+    private SearchCacheWriteInterceptor interceptor;
+    
+    @Before
+    public void setUp() {
+        IGenericClient fhirClient = FhirContext.forDstu3().newRestfulGenericClient(BASE);
+        patientSearch = new MockSearch<>(Patient.class, fhirClient);
+        locationSearch = new MockSearch<>(Location.class, fhirClient);
+        List<BaseResourceQuery<?, ?>> searchEngines = new ArrayList<>();
+        searchEngines.add(patientSearch);
+        searchEngines.add(locationSearch);
+        interceptor = new SearchCacheWriteInterceptor(fhirClient, searchEngines);
+    }
+    
+    @Test
+    public void testWriteTarget() {
+        assertEquals("Patient", interceptor.getWriteTarget("POST", BASE + "/Patient"));
+        assertEquals("Patient", interceptor.getWriteTarget("PUT", BASE + "/Patient/123"));
+        assertEquals("Patient", interceptor.getWriteTarget("PUT", BASE + "/Patient?identifier=123"));
+        assertEquals("Condition", interceptor.getWriteTarget("DELETE", BASE + "/Condition/1"));
+        assertEquals("", interceptor.getWriteTarget("POST", BASE));
+        assertEquals("", interceptor.getWriteTarget("POST", BASE + "/"));
+        assertEquals("", interceptor.getWriteTarget("POST", BASE + "/$process-message"));
+        assertNull(interceptor.getWriteTarget("POST", BASE + "/Patient/_search"));
+        assertNull(interceptor.getWriteTarget("GET", BASE + "/Patient/123"));
+    }
+    
+    @Test
+    public void testInvalidate() {
+        interceptor.invalidate("Condition");
+        assertEquals(0, patientSearch.invalidations.get());
+        assertEquals(0, locationSearch.invalidations.get());
+        interceptor.invalidate("Patient");
+        assertEquals(1, patientSearch.invalidations.get());
+        assertEquals(0, locationSearch.invalidations.get());
+        interceptor.invalidate("");
+        assertEquals(2, patientSearch.invalidations.get());
+        assertEquals(1, locationSearch.invalidations.get());
+    }
+    
+}
@@ -0,0 +1,77 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.query;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SearchResultCacheTest {
+    
+    
+    private static final List<String> RESULTS = Arrays.asList("a", "b", "c");
+    
+    @Test
+    public void testCopies() {
+        SearchResultCache<String> cache = new SearchResultCache<>(10, 60);
+        List<String> results = new ArrayList<>(RESULTS);
+        cache.put("key", results);
+        results.clear();
+        List<String> cached = cache.get("key");
+        assertEquals(RESULTS, cached);
+        cached.clear();
+        assertEquals(RESULTS, cache.get("key"));
+        assertNull(cache.get("other"));
+        cache.put("null", null);
+        assertNull(cache.get("null"));
+    }
+    
+    @Test
+    public void testExpiration() throws Exception {
+        SearchResultCache<String> cache = new SearchResultCache<>(10, 0);
+        cache.put("key", RESULTS);
+        assertNull(cache.get("key"));
+        cache = new SearchResultCache<>(10, 1);
+        cache.put("key", RESULTS);
+        assertEquals(RESULTS, cache.get("key"));
+        Thread.sleep(1100);
+        assertNull(cache.get("key"));
+    }
+    
+    @Test
+    public void testEviction() {
+        SearchResultCache<String> cache = new SearchResultCache<>(2, 60);
+        cache.put("key1", RESULTS);
+        cache.put("key2", RESULTS);
+        cache.get("key1");
+        cache.put("key3", RESULTS);
+        assertEquals(RESULTS, cache.get("key1"));
+        assertNull(cache.get("key2"));
+        assertEquals(RESULTS, cache.get("key3"));
+        cache.clear();
+        assertNull(cache.get("key1"));
+    }
+    
+}
@@ -0,0 +1,113 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.carewebframework.api.domain.IUser;
+
+import org.junit.Test;
+
+public class BasicAuthInterceptorTest {
+    
+    
+    /**
+     * Interceptor whose authenticated user is set by the test.
+     */
+    private static class UserInterceptor extends BasicAuthInterceptor {
+        
+        
+        private volatile IUser user;
+        
+        UserInterceptor(String id, BasicAuthConfigurator config) {
+            super(id, config);
+        }
+        
+        @Override
+        protected IUser getAuthenticatedUser() {
+            return user;
+        }
+    }
+    
+    private String encode(String username, String password) throws Exception {
+        return Base64.encodeBase64String((username + ":" + password).getBytes("ISO-8859-1"));
+    }
+    
+    @Test
+    public void testConfiguredUser() throws Exception {
+        BasicAuthConfigurator config = new BasicAuthConfigurator();
+        config.setUsername("system");
+        config.setPassword("secret");
+        UserInterceptor interceptor = new UserInterceptor("BasicTest1", config);
+        interceptor.user = TestUser.create("user1", "pw1");
+        String credentials = interceptor.getCredentials();
+        assertEquals(encode("system", "secret"), credentials);
+        assertEquals("Basic " + credentials, interceptor.getAuthorization());
+        // The configured user takes precedence over the authenticated user.
+        interceptor.user = TestUser.create("user2", "pw2");
+        assertSame(credentials, interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testAuthenticatedUser() throws Exception {
+        UserInterceptor interceptor = new UserInterceptor("BasicTest2", new BasicAuthConfigurator());
+        assertNull(interceptor.getCredentials());
+        assertNull(interceptor.getAuthorization());
+        interceptor.user = TestUser.create("user1", "pw1");
+        String credentials = interceptor.getCredentials();
+        String authorization = interceptor.getAuthorization();
+        assertEquals(encode("user1", "pw1"), credentials);
+        assertEquals("Basic " + credentials, authorization);
+        // Credentials are computed once per user.
+        assertSame(credentials, interceptor.getCredentials());
+        assertSame(authorization, interceptor.getAuthorization());
+        interceptor.user = TestUser.create("user2", "pw2");
+        assertEquals(encode("user2", "pw2"), interceptor.getCredentials());
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertSame(credentials, interceptor.getCredentials());
+        // A changed password is detected.
+        interceptor.user = TestUser.create("user1", "pw1a");
+        assertEquals(encode("user1", "pw1a"), interceptor.getCredentials());
+        // Released credentials are recomputed.
+        credentials = interceptor.getCredentials();
+        interceptor.releaseCredentials("user1");
+        assertNotSame(credentials, interceptor.getCredentials());
+        assertEquals(credentials, interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testCacheSize() {
+        UserInterceptor interceptor = new UserInterceptor("BasicTest3", new BasicAuthConfigurator());
+        interceptor.setCacheSize(1);
+        interceptor.user = TestUser.create("user1", "pw1");
+        String credentials = interceptor.getCredentials();
+        interceptor.user = TestUser.create("user2", "pw2");
+        interceptor.getCredentials();
+        // The least recently used entry was evicted.
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertNotSame(credentials, interceptor.getCredentials());
+    }
+    
+}
@@ -0,0 +1,374 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hspconsortium.client.auth.access.AccessToken;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class JWTAuthInterceptorTest {
+    
+    
+    private static final FhirContext fhirContext = FhirContext.forDstu3();
+    
+    /**
+     * Interceptor whose token provider is replaced by a stub and whose clock is advanced by the
+     * test. Tokens are numbered sequentially. A fetch may be made to wait until released, and may
+     * be made to fail. Each caller of getCredentials is counted down on the entered latch, if set.
+     */
+    private static class StubInterceptor extends JWTAuthInterceptor {
+        
+        
+        private final AtomicInteger fetches = new AtomicInteger();
+        
+        private volatile long expiresIn = 3600;
+        
+        private volatile long now = 1000000;
+        
+        private volatile CountDownLatch entered;
+        
+        private volatile CountDownLatch started;
+        
+        private volatile CountDownLatch release;
+        
+        private volatile boolean fail;
+        
+        StubInterceptor(double refreshFraction) throws Exception {
+            super("JWTTest", fhirContext, createConfig(refreshFraction));
+        }
+        
+        @Override
+        protected AccessToken fetchAccessToken() {
+            int n = fetches.incrementAndGet();
+            
+            if (started != null) {
+                started.countDown();
+                
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            
+            if (fail) {
+                throw new RuntimeException("Token provider unavailable.");
+            }
+            
+            return createToken("access-" + n, expiresIn);
+        }
+        
+        @Override
+        public String getCredentials() {
+            if (entered != null) {
+                entered.countDown();
+            }
+            
+            return super.getCredentials();
+        }
+        
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+        
+        /**
+         * Creates an access token that expires after the specified number of seconds.
+         */
+        private AccessToken createToken(final String value, final long expiresIn) {
+            final long expiresAt = now + expiresIn * 1000;
+            return (AccessToken) Proxy.newProxyInstance(AccessToken.class.getClassLoader(),
+                new Class<?>[] { AccessToken.class }, new InvocationHandler() {
+                    
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        switch (method.getName()) {
+                            case "getValue":
+                            case "toString":
+                                return value;
+                            
+                            case "getExpiresIn":
+                                return expiresIn;
+                            
+                            case "isExpired":
+                                return now >= expiresAt;
+                            
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            
+                            case "equals":
+                                return proxy == args[0];
+                            
+                            default:
+                                return method.getReturnType() == boolean.class ? false : null;
+                        }
+                    }
+                    
+                });
+        }
+        
+        void block() {
+            started = new CountDownLatch(1);
+            release = new CountDownLatch(1);
+        }
+        
+        void unblock() {
+            release.countDown();
+            started = null;
+        }
+    }
+    
+    private static JWTAuthConfigurator createConfig(double refreshFraction) {
+        JWTAuthConfigurator config = new JWTAuthConfigurator();
+        config.setWebKey("/test.jwks");
+        config.setTokenProviderUrl("http://localhost/token");
+        config.setIssuer("careweb");
+        config.setRequestedScopes("system/*.read");
+        config.setRefreshFraction(refreshFraction);
+        return config;
+    }
+    
+    /**
+     * Scheduler that holds delayed tasks until the test runs them. Tasks without a delay are
+     * executed normally.
+     */
+    private static class ManualScheduler extends ScheduledThreadPoolExecutor {
+        
+        
+        private final BlockingQueue<Runnable> scheduled = new LinkedBlockingQueue<>();
+        
+        private final List<Long> delays = new ArrayList<>();
+        
+        ManualScheduler() {
+            super(1);
+        }
+        
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            if (delay <= 0) {
+                return super.schedule(command, delay, unit);
+            }
+            
+            synchronized (delays) {
+                delays.add(unit.toMillis(delay));
+            }
+            
+            scheduled.add(command);
+            return null;
+        }
+    }
+    
+    private ExecutorService executor;
+    
+    @Before
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+    
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Calls getCredentials on several threads at once and returns the results.
+     */
+    private List<String> getCredentials(final JWTAuthInterceptor interceptor, int threads) throws Exception {
+        List<Future<String>> futures = new ArrayList<>();
+        
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<String>() {
+                
+                @Override
+                public String call() {
+                    return interceptor.getCredentials();
+                }
+                
+            }));
+        }
+        
+        List<String> results = new ArrayList<>();
+        
+        for (Future<String> future : futures) {
+            results.add(future.get(5, TimeUnit.SECONDS));
+        }
+        
+        return results;
+    }
+    
+    @Test
+    public void testConcurrentInitialFetch() throws Exception {
+        final StubInterceptor interceptor = new StubInterceptor(0.8);
+        interceptor.block();
+        interceptor.entered = new CountDownLatch(3);
+        Future<List<String>> results = executor.submit(new Callable<List<String>>() {
+            
+            @Override
+            public List<String> call() throws Exception {
+                return getCredentials(interceptor, 3);
+            }
+            
+        });
+        interceptor.started.await(5, TimeUnit.SECONDS);
+        // Callers that arrive after the fetch completes find the new token, so the result is the
+        // same either way; waiting for all callers to arrive makes the contention likely.
+        interceptor.entered.await(5, TimeUnit.SECONDS);
+        interceptor.unblock();
+        
+        for (String result : results.get(5, TimeUnit.SECONDS)) {
+            assertEquals("access-1", result);
+        }
+        
+        // Callers with no token share a single fetch.
+        assertEquals(1, interceptor.fetches.get());
+        assertEquals(1, interceptor.getFetchCount());
+    }
+    
+    @Test
+    public void testConcurrentRenewal() throws Exception {
+        final StubInterceptor interceptor = new StubInterceptor(0.5);
+        interceptor.expiresIn = 10;
+        assertEquals("access-1", interceptor.getCredentials());
+        interceptor.now += 4999;
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(1, interceptor.fetches.get());
+        interceptor.now += 1;
+        interceptor.block();
+        // Without a scheduler, the first caller to find the token stale renews it on its own thread.
+        Future<String> renewer = executor.submit(new Callable<String>() {
+            
+            @Override
+            public String call() {
+                return interceptor.getCredentials();
+            }
+            
+        });
+        interceptor.started.await(5, TimeUnit.SECONDS);
+        
+        // While the renewal is in progress, other callers use the current token without waiting.
+        for (String result : getCredentials(interceptor, 3)) {
+            assertEquals("access-1", result);
+        }
+        
+        assertEquals(2, interceptor.fetches.get());
+        interceptor.expiresIn = 3600;
+        interceptor.unblock();
+        assertEquals("access-1", renewer.get(5, TimeUnit.SECONDS));
+        assertEquals("access-2", interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testBackgroundRenewal() throws Exception {
+        ManualScheduler scheduler = new ManualScheduler();
+        
+        try {
+            StubInterceptor interceptor = new StubInterceptor(0.5);
+            interceptor.setScheduler(scheduler);
+            interceptor.expiresIn = 10;
+            assertEquals("access-1", interceptor.getCredentials());
+            // Renewal is scheduled for half of the token's lifetime after the fetch.
+            Runnable renewal = scheduler.scheduled.poll(5, TimeUnit.SECONDS);
+            assertEquals(Long.valueOf(5000), scheduler.delays.get(0));
+            interceptor.now += 5000;
+            interceptor.block();
+            // The scheduled renewal starts a fetch, which blocks on the scheduler thread.
+            renewal.run();
+            interceptor.started.await(5, TimeUnit.SECONDS);
+            
+            for (String result : getCredentials(interceptor, 3)) {
+                assertEquals("access-1", result);
+            }
+            
+            assertEquals(2, interceptor.fetches.get());
+            interceptor.expiresIn = 3600;
+            interceptor.unblock();
+            // The completed renewal schedules the next one.
+            assertNotNull(scheduler.scheduled.poll(5, TimeUnit.SECONDS));
+            assertEquals(Long.valueOf(1800000), scheduler.delays.get(1));
+            assertEquals(2, interceptor.getFetchCount());
+            assertEquals("access-2", interceptor.getCredentials());
+        } finally {
+            scheduler.shutdownNow();
+        }
+    }
+    
+    @Test
+    public void testRenewalFailure() throws Exception {
+        StubInterceptor interceptor = new StubInterceptor(0.5);
+        interceptor.expiresIn = 10;
+        assertEquals("access-1", interceptor.getCredentials());
+        interceptor.now += 5000;
+        interceptor.fail = true;
+        // The renewal fails, but the current token has not expired and remains in use.
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(2, interceptor.fetches.get());
+        // Renewal is not retried until the retry delay has elapsed.
+        interceptor.now += 4999;
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(2, interceptor.fetches.get());
+        assertEquals(1, interceptor.getFetchCount());
+        // Once the token has expired, callers wait for a renewal.
+        interceptor.now += 1;
+        interceptor.fail = false;
+        assertEquals("access-3", interceptor.getCredentials());
+        assertEquals(2, interceptor.getFetchCount());
+    }
+    
+    @Test
+    public void testInitialFetchFailure() throws Exception {
+        StubInterceptor interceptor = new StubInterceptor(0.8);
+        interceptor.fail = true;
+        
+        try {
+            interceptor.getCredentials();
+            fail("Expected RuntimeException");
+        } catch (RuntimeException e) {
+            // Expected
+        }
+        
+        interceptor.fail = false;
+        assertEquals("access-2", interceptor.getCredentials());
+    }
+    
+}
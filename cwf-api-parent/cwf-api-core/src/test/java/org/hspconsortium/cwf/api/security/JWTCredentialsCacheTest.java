@@ -0,0 +1,177 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.security.interfaces.RSAPrivateKey;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jwt.SignedJWT;
+
+import org.hspconsortium.cwf.api.security.JWTCredentialsCache.CachedCredentials;
+import org.junit.After;
+import org.junit.Test;
+
+public class JWTCredentialsCacheTest {
+    
+    
+    /**
+     * Credentials whose clock is advanced by the test. The token reference of each assertion
+     * signed is recorded.
+     */
+    private static class TestCredentials extends CachedCredentials {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final List<String> signed = new ArrayList<>();
+        
+        private long now = 1000000;
+        
+        TestCredentials(long duration) throws Exception {
+            super(getPrivateKey(), duration);
+            setIssuer("careweb");
+            setSubject("user1");
+            setAudience("http://localhost/token");
+            setDuration(duration);
+        }
+        
+        @Override
+        public void setTokenReference(String tokenReference) {
+            signed.add(tokenReference);
+            super.setTokenReference(tokenReference);
+        }
+        
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+        
+        private static RSAPrivateKey getPrivateKey() throws Exception {
+            JWKSet jwks = JWKSet.load(JWTCredentialsCacheTest.class.getResource("/test.jwks"));
+            return ((RSAKey) jwks.getKeys().get(0)).toRSAPrivateKey();
+        }
+    }
+    
+    private JWTAuthConfigurator createConfig(String issuer, String subject, long duration) {
+        JWTAuthConfigurator config = new JWTAuthConfigurator();
+        config.setWebKey("/test.jwks");
+        config.setTokenProviderUrl("http://localhost/token");
+        config.setAudience("");
+        config.setIssuer(issuer);
+        config.setSubject(subject);
+        config.setDuration(duration);
+        return config;
+    }
+    
+    /**
+     * Returns the token reference of a signed assertion.
+     */
+    private String getTokenReference(String assertion) throws Exception {
+        return SignedJWT.parse(assertion).getJWTClaimsSet().getJWTID();
+    }
+    
+    @After
+    public void tearDown() {
+        JWTCredentialsCache.clear();
+    }
+    
+    @Test
+    public void testSharing() {
+        CachedCredentials credentials = JWTCredentialsCache.getCredentials(createConfig("careweb", "user1", 300));
+        // Shared by web key and issuer only
+        assertSame(credentials, JWTCredentialsCache.getCredentials(createConfig("careweb", "user2", 300)));
+        assertNotSame(credentials, JWTCredentialsCache.getCredentials(createConfig("other", "user1", 300)));
+        JWTCredentialsCache.clear();
+        assertNotSame(credentials, JWTCredentialsCache.getCredentials(createConfig("careweb", "user1", 300)));
+    }
+    
+    @Test
+    public void testUseOnce() throws Exception {
+        TestCredentials credentials = new TestCredentials(300);
+        credentials.presign();
+        // A usable pre-signed assertion is not replaced.
+        credentials.presign();
+        assertEquals(1, credentials.signed.size());
+        String presigned = credentials.getCredentials();
+        String signed = credentials.getCredentials();
+        // The pre-signed assertion is used once; the next one is signed on demand.
+        assertEquals(credentials.signed.get(0), getTokenReference(presigned));
+        assertEquals(credentials.signed.get(1), getTokenReference(signed));
+        credentials.getCredentials();
+        assertEquals(3, credentials.signed.size());
+    }
+    
+    @Test
+    public void testExpiryMargin() throws Exception {
+        // The margin is half of a short duration, so a pre-signed assertion is discarded after 1 second.
+        TestCredentials credentials = new TestCredentials(2);
+        credentials.presign();
+        credentials.now += 999;
+        assertEquals(credentials.signed.get(0), getTokenReference(credentials.getCredentials()));
+        credentials.presign();
+        credentials.now += 1000;
+        assertEquals(2, credentials.signed.size());
+        assertEquals(credentials.signed.get(2), getTokenReference(credentials.getCredentials()));
+        // A pre-signed assertion that is no longer usable is replaced by presign.
+        credentials.presign();
+        credentials.now += 1000;
+        credentials.presign();
+        assertEquals(5, credentials.signed.size());
+        assertEquals(credentials.signed.get(4), getTokenReference(credentials.getCredentials()));
+    }
+    
+    @Test
+    public void testPresignExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        TestCredentials credentials = new TestCredentials(300);
+        credentials.presign(new Executor() {
+            
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+            
+        });
+        assertEquals(1, tasks.size());
+        assertEquals(0, credentials.signed.size());
+        tasks.get(0).run();
+        assertEquals(credentials.signed.get(0), getTokenReference(credentials.getCredentials()));
+        // A rejected task is ignored; an assertion is then signed on demand.
+        credentials.presign(new Executor() {
+            
+            @Override
+            public void execute(Runnable command) {
+                throw new IllegalStateException();
+            }
+            
+        });
+        assertEquals(credentials.signed.get(1), getTokenReference(credentials.getCredentials()));
+        assertEquals(2, credentials.signed.size());
+    }
+    
+}
@@ -0,0 +1,207 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Map;
+
+import org.carewebframework.api.domain.IUser;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import ca.uhn.fhir.context.FhirContext;
+
+public class OAuth2AuthInterceptorTest {
+    
+    
+    private static final FhirContext fhirContext = FhirContext.forDstu3();
+    
+    /**
+     * Interceptor whose authenticated user and clock are set by the test.
+     */
+    private static class UserInterceptor extends OAuth2AuthInterceptor {
+        
+        
+        private volatile IUser user;
+        
+        private volatile long now = 1000000;
+        
+        UserInterceptor(String id, OAuth2AuthConfigurator config) {
+            super(id, fhirContext, config);
+        }
+        
+        @Override
+        protected IUser getAuthenticatedUser() {
+            return user;
+        }
+        
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+    
+    private StubTokenEndpoint endpoint;
+    
+    @Before
+    public void setUp() throws Exception {
+        endpoint = new StubTokenEndpoint();
+    }
+    
+    @After
+    public void tearDown() {
+        endpoint.stop();
+    }
+    
+    private OAuth2AuthConfigurator createConfig(String grantType, double refreshFraction) {
+        OAuth2AuthConfigurator config = new OAuth2AuthConfigurator();
+        config.setTokenProviderUrl(endpoint.getUrl());
+        config.setGrantType(grantType);
+        config.setClientId("careweb");
+        config.setClientSecret("secret");
+        config.setRequestedScopes("system/*.read");
+        config.setRefreshFraction(refreshFraction);
+        config.setTimeout(5000);
+        return config;
+    }
+    
+    private Map<String, String> getRequest(int index) {
+        return endpoint.getRequests().get(index);
+    }
+    
+    @Test
+    public void testNotConfigured() {
+        OAuth2AuthInterceptor interceptor = new OAuth2AuthInterceptor("OAuth2Test0", fhirContext,
+                new OAuth2AuthConfigurator());
+        assertNull(interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testCachedToken() {
+        OAuth2AuthInterceptor interceptor = new OAuth2AuthInterceptor("OAuth2Test1", fhirContext,
+                createConfig("client_credentials", 0.8));
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(1, endpoint.getRequests().size());
+        assertEquals("client_credentials", getRequest(0).get("grant_type"));
+        assertEquals("system/*.read", getRequest(0).get("scope"));
+        interceptor.clear();
+        assertEquals("access-2", interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testClientCredentialsRenewal() {
+        endpoint.setExpiresIn(10);
+        UserInterceptor interceptor = new UserInterceptor("OAuth2Test2", createConfig("client_credentials", 0.5));
+        assertEquals("access-1", interceptor.getCredentials());
+        interceptor.now += 4999;
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(1, endpoint.getRequests().size());
+        interceptor.now += 1;
+        // Client credentials tokens are renewed with a new client credentials request.
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(2, endpoint.getRequests().size());
+        assertEquals("client_credentials", getRequest(1).get("grant_type"));
+        assertEquals("access-2", interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testPasswordGrant() {
+        UserInterceptor interceptor = new UserInterceptor("OAuth2Test3", createConfig("password", 0.8));
+        assertNull(interceptor.getCredentials());
+        assertEquals(0, endpoint.getRequests().size());
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals("password", getRequest(0).get("grant_type"));
+        assertEquals("user1", getRequest(0).get("username"));
+        assertEquals("pw1", getRequest(0).get("password"));
+        assertEquals("system/*.read", getRequest(0).get("scope"));
+        // Tokens are cached per user.
+        interceptor.user = TestUser.create("user2", "pw2");
+        assertEquals("access-2", interceptor.getCredentials());
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(2, endpoint.getRequests().size());
+        // A changed password invalidates the user's token.
+        interceptor.user = TestUser.create("user1", "pw1a");
+        assertEquals("access-3", interceptor.getCredentials());
+        assertEquals("pw1a", getRequest(2).get("password"));
+        // Releasing a user's credentials discards the user's token only.
+        interceptor.releaseCredentials("user1");
+        assertEquals("access-4", interceptor.getCredentials());
+        interceptor.user = TestUser.create("user2", "pw2");
+        assertEquals("access-2", interceptor.getCredentials());
+        assertEquals(4, endpoint.getRequests().size());
+    }
+    
+    @Test
+    public void testRefresh() {
+        endpoint.setExpiresIn(10);
+        UserInterceptor interceptor = new UserInterceptor("OAuth2Test4", createConfig("password", 0.5));
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertEquals("access-1", interceptor.getCredentials());
+        interceptor.now += 5000;
+        // Without a scheduler, the stale token is renewed on the calling thread.
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(2, endpoint.getRequests().size());
+        assertEquals("refresh_token", getRequest(1).get("grant_type"));
+        assertEquals("refresh-1", getRequest(1).get("refresh_token"));
+        assertEquals("access-2", interceptor.getCredentials());
+        // An expired token is renewed before it is returned.
+        interceptor.now += 10000;
+        assertEquals("access-3", interceptor.getCredentials());
+        assertEquals(3, endpoint.getRequests().size());
+    }
+    
+    @Test
+    public void testNoRefreshToken() {
+        endpoint.setExpiresIn(10);
+        endpoint.setIssueRefreshTokens(false);
+        UserInterceptor interceptor = new UserInterceptor("OAuth2Test5", createConfig("password", 0.5));
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertEquals("access-1", interceptor.getCredentials());
+        interceptor.now += 5000;
+        // With no refresh token, the token is renewed with the configured grant.
+        assertEquals("access-1", interceptor.getCredentials());
+        assertEquals(2, endpoint.getRequests().size());
+        assertEquals("password", getRequest(1).get("grant_type"));
+        assertNull(getRequest(1).get("refresh_token"));
+        assertEquals("access-2", interceptor.getCredentials());
+    }
+    
+    @Test
+    public void testCacheSize() {
+        UserInterceptor interceptor = new UserInterceptor("OAuth2Test6", createConfig("password", 0.8));
+        interceptor.setCacheSize(1);
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertEquals("access-1", interceptor.getCredentials());
+        interceptor.user = TestUser.create("user2", "pw2");
+        assertEquals("access-2", interceptor.getCredentials());
+        // The least recently used token was evicted.
+        interceptor.user = TestUser.create("user1", "pw1");
+        assertEquals("access-3", interceptor.getCredentials());
+    }
+    
+}
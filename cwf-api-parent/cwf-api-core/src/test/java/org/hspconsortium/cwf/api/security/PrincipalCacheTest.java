@@ -0,0 +1,84 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class PrincipalCacheTest {
+    
+    
+    /**
+     * Cache whose clock is advanced by the test.
+     */
+    private static class TestCache extends PrincipalCache<String> {
+        
+        
+        private long now = 1000000;
+        
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+    
+    @Test
+    public void testEviction() {
+        PrincipalCache<String> cache = new PrincipalCache<>();
+        cache.setMaximumSize(2);
+        cache.put("user1", "a");
+        cache.put("user2", "b");
+        assertEquals("a", cache.get("user1"));
+        cache.put("user3", "c");
+        // user2 was least recently used
+        assertNull(cache.get("user2"));
+        assertEquals("a", cache.get("user1"));
+        assertEquals("c", cache.get("user3"));
+        assertEquals("c", cache.remove("user3"));
+        assertNull(cache.get("user3"));
+        assertEquals(1, cache.size());
+        cache.clear();
+        assertEquals(0, cache.size());
+    }
+    
+    @Test
+    public void testExpiration() {
+        TestCache cache = new TestCache();
+        cache.setTimeToLive(1);
+        cache.put("user1", "a");
+        cache.put("user2", "b");
+        cache.now += 600;
+        // Use keeps an entry alive.
+        assertEquals("a", cache.get("user1"));
+        assertEquals(2, cache.size());
+        cache.now += 400;
+        assertEquals("a", cache.get("user1"));
+        assertNull(cache.get("user2"));
+        assertEquals(1, cache.size());
+        cache.now += 999;
+        assertEquals("a", cache.get("user1"));
+        cache.now += 1000;
+        assertNull(cache.get("user1"));
+        assertEquals(0, cache.size());
+    }
+    
+}
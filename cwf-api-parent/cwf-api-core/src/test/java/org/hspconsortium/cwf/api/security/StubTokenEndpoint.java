@@ -0,0 +1,110 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import org.apache.commons.io.IOUtils;
+
+/**
+ * Local OAuth2 token endpoint for tests. Issues sequentially numbered access and refresh tokens
+ * and records the form parameters of each request. Each response echoes the requested scope.
+ */
+public class StubTokenEndpoint implements HttpHandler {
+    
+    
+    private final HttpServer server;
+    
+    private final AtomicInteger counter = new AtomicInteger();
+    
+    private final List<Map<String, String>> requests = Collections
+            .synchronizedList(new ArrayList<Map<String, String>>());
+    
+    private volatile long expiresIn = 3600;
+    
+    private volatile boolean issueRefreshTokens = true;
+    
+    public StubTokenEndpoint() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/token", this);
+        server.start();
+    }
+    
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/token";
+    }
+    
+    public void stop() {
+        server.stop(0);
+    }
+    
+    public List<Map<String, String>> getRequests() {
+        return requests;
+    }
+    
+    public void setExpiresIn(long expiresIn) {
+        this.expiresIn = expiresIn;
+    }
+    
+    public void setIssueRefreshTokens(boolean issueRefreshTokens) {
+        this.issueRefreshTokens = issueRefreshTokens;
+    }
+    
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        Map<String, String> params = new HashMap<>();
+        
+        for (String param : IOUtils.toString(exchange.getRequestBody(), "UTF-8").split("&")) {
+            String[] pcs = param.split("=", 2);
+            
+            if (pcs.length == 2) {
+                params.put(URLDecoder.decode(pcs[0], "UTF-8"), URLDecoder.decode(pcs[1], "UTF-8"));
+            }
+        }
+        
+        requests.add(params);
+        int n = counter.incrementAndGet();
+        String scope = params.containsKey("scope") ? params.get("scope") : "";
+        String body = "{\"access_token\":\"access-" + n + "\",\"token_type\":\"Bearer\",\"expires_in\":" + expiresIn
+                + ",\"scope\":\"" + scope + "\""
+                + (issueRefreshTokens ? ",\"refresh_token\":\"refresh-" + n + "\"" : "") + "}";
+        byte[] bytes = body.getBytes("UTF-8");
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+    
+}
@@ -0,0 +1,65 @@
+/*
+ * #%L
+ * cwf-api-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.security;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.carewebframework.api.domain.IUser;
+
+/**
+ * Creates users for tests. Only the login name and password are supported.
+ */
+public class TestUser {
+    
+    
+    public static IUser create(final String username, final String password) {
+        return (IUser) Proxy.newProxyInstance(IUser.class.getClassLoader(), new Class<?>[] { IUser.class },
+            new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getLoginName":
+                        case "toString":
+                            return username;
+                        
+                        case "getPassword":
+                            return password;
+                        
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        
+                        case "equals":
+                            return proxy == args[0];
+                        
+                        default:
+                            return null;
+                    }
+                }
+                
+            });
+    }
+    
+    private TestUser() {
+    }
+    
+}
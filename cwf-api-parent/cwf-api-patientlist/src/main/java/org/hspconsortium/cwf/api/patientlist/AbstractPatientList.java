@@ -19,9 +19,11 @@
  */
 package org.hspconsortium.cwf.api.patientlist;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -36,6 +38,7 @@ import org.carewebframework.api.domain.IDomainFactory;
 import org.carewebframework.common.DateRange;
 
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patient.PatientIndex;
 
 /**
  * Base class for patient list implementations.
@@ -57,6 +60,12 @@ public abstract class AbstractPatientList implements IPatientList {
     
     private DateRange dateRange;
     
+    private List<PatientListItem> pageItems;
+    
+    private SortKey pageSortKey;
+    
+    private PatientIndex patientIndex;
+    
     /**
      * Copy constructor.
      *
@@ -67,6 +76,7 @@ public abstract class AbstractPatientList implements IPatientList {
         this.entityName = list.getEntityName();
         this.activeFilter = list.getActiveFilter();
         this.dateRange = list.dateRange == null ? null : new DateRange(list.dateRange);
+        this.patientIndex = list.patientIndex;
         this.filterManager = createFilterManager();
     }
     
@@ -92,6 +102,46 @@ public abstract class AbstractPatientList implements IPatientList {
         return patientFactory.fetchObject(Patient.class, patientId);
     }
     
+    /**
+     * Returns fully instantiated patient objects for multiple patient ids using a single batched
+     * request. Patients that could not be retrieved are omitted from the result. Retrieved patients
+     * are added to the patient index, if one was set. This may be called from any thread.
+     *
+     * @param patientIds The patient ids.
+     * @return Map of patient objects indexed by their logical id, ordered as the patient ids were
+     *         given.
+     */
+    protected Map<String, Patient> getPatients(Collection<String> patientIds) {
+        Map<String, Patient> patients = new LinkedHashMap<>(patientIds.size());
+        
+        if (patientIds.isEmpty()) {
+            return patients;
+        }
+        
+        for (String patientId : patientIds) {
+            patients.put(patientId, null);
+        }
+        
+        String[] ary = new String[patients.size()];
+        List<Patient> results = patientFactory.fetchObjects(Patient.class, patients.keySet().toArray(ary));
+        
+        for (Patient patient : results) {
+            String id = patient.getIdElement().getIdPart();
+            
+            if (patients.containsKey(id)) {
+                patients.put(id, patient);
+            }
+        }
+        
+        patients.values().removeAll(Collections.singleton(null));
+        
+        if (patientIndex != null) {
+            patientIndex.addAll(patients.values());
+        }
+        
+        return patients;
+    }
+    
     /**
      * Add a list of patients to the current item list.
      *
@@ -244,6 +294,8 @@ public abstract class AbstractPatientList implements IPatientList {
      */
     @Override
     public void refresh() {
+        clearPageItems();
+        
         if (filterManager != null) {
             filterManager.refreshFilters();
         }
@@ -257,6 +309,7 @@ public abstract class AbstractPatientList implements IPatientList {
     @Override
     public void setActiveFilter(AbstractPatientListFilter filter) {
         this.activeFilter = filter;
+        clearPageItems();
     }
     
     /**
@@ -267,6 +320,50 @@ public abstract class AbstractPatientList implements IPatientList {
     @Override
     public abstract Collection<PatientListItem> getListItems();
     
+    /**
+     * Returns a page of list items. The default implementation retrieves all list items, sorting
+     * them as requested, and retains the result so that subsequent pages are served from memory
+     * until the list is refreshed or changed. Override to retrieve pages from a server.
+     *
+     * @see IPatientList#getListItems(int, int, SortKey)
+     */
+    @Override
+    public List<PatientListItem> getListItems(int offset, int limit, SortKey sortKey) {
+        return PatientListUtil.getPage(getPageItems(sortKey), offset, limit);
+    }
+    
+    /**
+     * Returns all list items in the requested order, using the retained result if available.
+     *
+     * @param sortKey The requested order.
+     * @return All list items.
+     */
+    private synchronized List<PatientListItem> getPageItems(SortKey sortKey) {
+        if (pageItems == null || pageSortKey != sortKey) {
+            Collection<PatientListItem> items = getListItems();
+            List<PatientListItem> list = items == null ? new ArrayList<PatientListItem>()
+                    : new ArrayList<>(items);
+            
+            if (sortKey == SortKey.NAME) {
+                Collections.sort(list);
+            }
+            
+            pageItems = list;
+            pageSortKey = sortKey;
+        }
+        
+        return pageItems;
+    }
+    
+    /**
+     * Discards list items retained for paging. Subclasses must call this when list contents
+     * change other than by a refresh.
+     */
+    protected synchronized void clearPageItems() {
+        pageItems = null;
+        pageSortKey = null;
+    }
+    
     /**
      * Returns the date range, if applicable.
      *
@@ -277,6 +374,25 @@ public abstract class AbstractPatientList implements IPatientList {
         return dateRange;
     }
     
+    /**
+     * Returns the patient index to which retrieved patients are added.
+     *
+     * @return The patient index (may be null).
+     */
+    public PatientIndex getPatientIndex() {
+        return patientIndex;
+    }
+    
+    /**
+     * Sets the patient index to which retrieved patients are added. The index is supplied rather
+     * than looked up, since patients may be retrieved off the desktop thread.
+     *
+     * @param patientIndex The patient index (may be null).
+     */
+    public void setPatientIndex(PatientIndex patientIndex) {
+        this.patientIndex = patientIndex;
+    }
+    
     /**
      * Sets the end date, if applicable.
      *
@@ -0,0 +1,362 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.api.event.IEventManager;
+import org.carewebframework.api.spring.SpringUtil;
+import org.carewebframework.common.DateRange;
+import org.carewebframework.common.MiscUtil;
+
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+
+/**
+ * Base class for patient lists whose items are loaded on a background thread. A load is started
+ * by the first call to <b>isPending</b> or <b>getListItems</b> and its result is retained until
+ * the list is refreshed or its filter or date range changes. While the load is in progress,
+ * <b>isPending</b> returns true and <b>getListItems</b> returns, without blocking, the items
+ * published so far (see <b>publish</b>). When the load completes, a <b>PATIENTLIST.LOADED</b>
+ * event is fired with the list as its data.
+ * <p>
+ * Because <b>loadListItems</b> executes outside of the desktop thread, implementations must not
+ * depend on desktop-scoped state unless it was captured beforehand (see <b>prepareLoad</b>). It
+ * runs as the user who requested the load, so requests made through authenticating clients carry
+ * that user's credentials.
+ */
+public abstract class AsyncPatientList extends AbstractPatientList {
+    
+    
+    private static final Log log = LogFactory.getLog(AsyncPatientList.class);
+    
+    /**
+     * Event fired when a load completes.
+     */
+    public static final String EVENT_LOADED = "PATIENTLIST.LOADED";
+    
+    private static final String EXECUTOR_BEAN = "fhirQueryExecutor";
+    
+    private static final String EVENT_MANAGER_BEAN = "eventManager";
+    
+    private ExecutorService executor;
+    
+    private IEventManager eventManager;
+    
+    private Future<Collection<PatientListItem>> loader;
+    
+    private List<PatientListItem> published = Collections.emptyList();
+    
+    private final ThreadLocal<List<PatientListItem>> publishTarget = new ThreadLocal<>();
+    
+    /**
+     * Copy constructor.
+     *
+     * @param list Source list to copy.
+     */
+    public AsyncPatientList(AsyncPatientList list) {
+        super(list);
+        this.executor = list.executor;
+        this.eventManager = list.eventManager;
+    }
+    
+    /**
+     * Derived classes should call this constructor from their argumentless constructor.
+     *
+     * @param name The display name of the list.
+     * @param entityName The display name of the filter's entity type, if any.
+     */
+    protected AsyncPatientList(String name, String entityName) {
+        super(name, entityName);
+    }
+    
+    /**
+     * Builds the list items. This is called on a background thread. Implementations that build
+     * the list incrementally may call <b>publish</b> to make items available before the load
+     * completes.
+     *
+     * @return The list items.
+     * @throws Exception Any exception.
+     */
+    protected abstract Collection<PatientListItem> loadListItems() throws Exception;
+    
+    /**
+     * Called on the requesting thread immediately before a load is submitted. Override to capture
+     * any state that is not accessible from a background thread.
+     */
+    protected void prepareLoad() {
+    }
+    
+    /**
+     * Makes list items available to callers while the load is still in progress. This may only be
+     * called from <b>loadListItems</b>.
+     *
+     * @param items Items to add to those already published.
+     */
+    protected void publish(Collection<PatientListItem> items) {
+        List<PatientListItem> target = publishTarget.get();
+        
+        if (target != null) {
+            synchronized (target) {
+                target.addAll(items);
+            }
+        }
+    }
+    
+    /**
+     * Returns the list items without blocking. While a load is in progress, this returns the items
+     * published so far.
+     *
+     * @return The list items, or an empty list if the load was cancelled or interrupted.
+     * @see IPatientList#getListItems()
+     */
+    @Override
+    public Collection<PatientListItem> getListItems() {
+        Future<Collection<PatientListItem>> future = startLoad();
+        
+        if (!future.isDone()) {
+            return getPublishedItems();
+        }
+        
+        try {
+            return future.get();
+        } catch (CancellationException e) {
+            return Collections.emptyList();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Collections.emptyList();
+        } catch (ExecutionException e) {
+            log.error("Error loading patient list '" + getName() + "'.", e.getCause());
+            throw MiscUtil.toUnchecked(e.getCause());
+        }
+    }
+    
+    /**
+     * Returns a page of list items. While a load is in progress, the page is taken from the items
+     * published so far and is not retained.
+     *
+     * @see IPatientList#getListItems(int, int, SortKey)
+     */
+    @Override
+    public List<PatientListItem> getListItems(int offset, int limit, SortKey sortKey) {
+        if (!isPending()) {
+            return super.getListItems(offset, limit, sortKey);
+        }
+        
+        List<PatientListItem> items = getPublishedItems();
+        
+        if (sortKey == SortKey.NAME) {
+            Collections.sort(items);
+        }
+        
+        return PatientListUtil.getPage(items, offset, limit);
+    }
+    
+    /**
+     * Returns a copy of the items published by the current load.
+     *
+     * @return The published items.
+     */
+    private List<PatientListItem> getPublishedItems() {
+        List<PatientListItem> items;
+        
+        synchronized (this) {
+            items = published;
+        }
+        
+        synchronized (items) {
+            return new ArrayList<>(items);
+        }
+    }
+    
+    /**
+     * Returns true while the list items are being loaded. Starts a load if one is not already in
+     * progress or completed.
+     *
+     * @see IPatientList#isPending()
+     */
+    @Override
+    public boolean isPending() {
+        return !startLoad().isDone();
+    }
+    
+    /**
+     * Cancels a load in progress. The next request for list items will start a new load.
+     */
+    public synchronized void cancel() {
+        if (loader != null && !loader.isDone()) {
+            loader.cancel(true);
+        }
+        
+        loader = null;
+        published = Collections.emptyList();
+    }
+    
+    /**
+     * Discards any loaded items, cancelling a load in progress.
+     *
+     * @see IPatientList#refresh()
+     */
+    @Override
+    public void refresh() {
+        cancel();
+        super.refresh();
+    }
+    
+    @Override
+    public void setActiveFilter(AbstractPatientListFilter filter) {
+        cancel();
+        super.setActiveFilter(filter);
+    }
+    
+    @Override
+    public void setDateRange(DateRange value) {
+        cancel();
+        super.setDateRange(value);
+    }
+    
+    /**
+     * Returns the current load, submitting a new one if none is in progress or completed. The
+     * event manager and the requesting user are resolved here, on the requesting thread, since
+     * they are desktop-scoped.
+     *
+     * @return The future for the current load.
+     */
+    private synchronized Future<Collection<PatientListItem>> startLoad() {
+        if (loader == null || loader.isCancelled()) {
+            prepareLoad();
+            final List<PatientListItem> target = published = new ArrayList<>();
+            final IEventManager eventManager = getEventManager();
+            final IUser user = AbstractAuthInterceptor.getCurrentUser();
+            final Callable<Collection<PatientListItem>> load = new Callable<Collection<PatientListItem>>() {
+                
+                @Override
+                public Collection<PatientListItem> call() throws Exception {
+                    publishTarget.set(target);
+                    
+                    try {
+                        return loadListItems();
+                    } finally {
+                        publishTarget.remove();
+                    }
+                }
+                
+            };
+            
+            FutureTask<Collection<PatientListItem>> task = new FutureTask<Collection<PatientListItem>>(
+                    new Callable<Collection<PatientListItem>>() {
+                        
+                        @Override
+                        public Collection<PatientListItem> call() throws Exception {
+                            return AbstractAuthInterceptor.callAs(user, load);
+                        }
+                        
+                    }) {
+                
+                @Override
+                protected void done() {
+                    if (!isCancelled()) {
+                        fireLoaded(eventManager);
+                    }
+                }
+                
+            };
+            
+            loader = task;
+            getExecutor().execute(task);
+        }
+        
+        return loader;
+    }
+    
+    /**
+     * Fires the event signaling that a load has completed.
+     *
+     * @param eventManager The event manager (may be null).
+     */
+    private void fireLoaded(IEventManager eventManager) {
+        if (eventManager != null) {
+            try {
+                eventManager.fireLocalEvent(EVENT_LOADED, this);
+            } catch (Exception e) {
+                log.warn("Error firing load completion event for patient list '" + getName() + "'.", e);
+            }
+        }
+    }
+    
+    /**
+     * Returns the executor used for background loads. If none has been set, the shared query
+     * executor is used.
+     *
+     * @return The executor.
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = SpringUtil.getBean(EXECUTOR_BEAN, ExecutorService.class);
+        }
+        
+        return executor;
+    }
+    
+    /**
+     * Sets the executor used for background loads.
+     *
+     * @param executor The executor.
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+    /**
+     * Returns the event manager used to signal load completion. If none has been set, the
+     * session's event manager is used. This must be called on the requesting thread.
+     *
+     * @return The event manager, or null if none.
+     */
+    public synchronized IEventManager getEventManager() {
+        if (eventManager == null) {
+            eventManager = SpringUtil.getBean(EVENT_MANAGER_BEAN, IEventManager.class);
+        }
+        
+        return eventManager;
+    }
+    
+    /**
+     * Sets the event manager used to signal load completion.
+     *
+     * @param eventManager The event manager.
+     */
+    public synchronized void setEventManager(IEventManager eventManager) {
+        this.eventManager = eventManager;
+    }
+    
+}
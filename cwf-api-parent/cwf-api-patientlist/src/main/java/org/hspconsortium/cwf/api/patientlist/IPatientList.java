@@ -19,7 +19,10 @@
  */
 package org.hspconsortium.cwf.api.patientlist;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 
 import org.carewebframework.common.DateRange;
 
@@ -28,6 +31,20 @@ import org.carewebframework.common.DateRange;
  */
 public interface IPatientList {
     
+    /**
+     * Orderings that may be requested when retrieving list items a page at a time.
+     */
+    enum SortKey {
+        /**
+         * The list's natural order, i.e., the order returned by <b>getListItems()</b>.
+         */
+        NONE,
+        /**
+         * Alphabetically by patient name.
+         */
+        NAME
+    };
+    
     /**
      * Returns the name assigned to this list. The name must be unique across all patient lists.
      * 
@@ -147,6 +164,39 @@ public interface IPatientList {
      */
     Collection<PatientListItem> getListItems();
     
+    /**
+     * Returns the total number of list items, applying the same criteria as
+     * <b>getListItems()</b>. The default implementation retrieves all list items.
+     * 
+     * @return The total number of list items (0 if the required parameters have not been set).
+     */
+    default int getListItemCount() {
+        Collection<PatientListItem> items = getListItems();
+        return items == null ? 0 : items.size();
+    }
+    
+    /**
+     * Returns a single page of list items. Lists backed by a server that supports paging should
+     * retrieve only the requested page, sorted by the server. The default implementation retrieves
+     * all list items and returns the requested portion.
+     * 
+     * @param offset Index of the first item to return.
+     * @param limit Maximum number of items to return.
+     * @param sortKey Order in which the items are to be returned.
+     * @return The requested page of items (never null). This will contain fewer than the requested
+     *         number of items if the end of the list is reached.
+     */
+    default List<PatientListItem> getListItems(int offset, int limit, SortKey sortKey) {
+        Collection<PatientListItem> items = getListItems();
+        List<PatientListItem> list = items == null ? new ArrayList<PatientListItem>() : new ArrayList<>(items);
+        
+        if (sortKey == SortKey.NAME) {
+            Collections.sort(list);
+        }
+        
+        return PatientListUtil.getPage(list, offset, limit);
+    }
+    
     /**
      * Returns a fully cloned copy of this list.
      * 
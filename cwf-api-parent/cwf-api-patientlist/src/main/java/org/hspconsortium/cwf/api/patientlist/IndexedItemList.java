@@ -0,0 +1,306 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.hl7.fhir.dstu3.model.Patient;
+
+/**
+ * An ordered collection of patient list items that is indexed by the logical id of each item's
+ * patient. Membership tests, removal, and insertion at either end take constant time. Items whose
+ * patient has no logical id are kept in order but are not indexed, and are located by a sequential
+ * search using <b>PatientListItem.equals</b>. Callers are responsible for not adding an item that
+ * is already present.
+ */
+class IndexedItemList implements Iterable<PatientListItem> {
+    
+    
+    /**
+     * A node in the doubly-linked list of items.
+     */
+    private static class Node {
+        
+        
+        private final PatientListItem item;
+        
+        private Node prev;
+        
+        private Node next;
+        
+        Node(PatientListItem item) {
+            this.item = item;
+        }
+    }
+    
+    private final Map<String, Node> index = new HashMap<>();
+    
+    private Node head;
+    
+    private Node tail;
+    
+    private int size;
+    
+    private List<PatientListItem> view;
+    
+    /**
+     * Returns the key under which a patient is indexed.
+     *
+     * @param patient The patient (may be null).
+     * @return The patient's logical id, or null if none.
+     */
+    private static String getKey(Patient patient) {
+        return patient == null || patient.getIdElement() == null ? null : patient.getIdElement().getIdPart();
+    }
+    
+    /**
+     * Returns the number of items.
+     *
+     * @return The number of items.
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Returns true if an item equal to the specified item is present.
+     *
+     * @param item The item to find.
+     * @return True if an equal item is present.
+     */
+    public boolean contains(PatientListItem item) {
+        return findNode(item) != null;
+    }
+    
+    /**
+     * Returns the item associated with the specified patient.
+     *
+     * @param patient The patient.
+     * @return The associated item, or null if none.
+     */
+    public PatientListItem find(Patient patient) {
+        return patient == null ? null : find(new PatientListItem(patient));
+    }
+    
+    /**
+     * Returns the item that is equal to the specified item.
+     *
+     * @param item The item to find.
+     * @return The equal item, or null if none.
+     */
+    private PatientListItem find(PatientListItem item) {
+        Node node = findNode(item);
+        return node == null ? null : node.item;
+    }
+    
+    /**
+     * Adds an item at the beginning of the list.
+     *
+     * @param item The item to add.
+     */
+    public void addFirst(PatientListItem item) {
+        Node node = createNode(item);
+        node.next = head;
+        
+        if (head != null) {
+            head.prev = node;
+        } else {
+            tail = node;
+        }
+        
+        head = node;
+    }
+    
+    /**
+     * Adds an item at the end of the list.
+     *
+     * @param item The item to add.
+     */
+    public void addLast(PatientListItem item) {
+        Node node = createNode(item);
+        node.prev = tail;
+        
+        if (tail != null) {
+            tail.next = node;
+        } else {
+            head = node;
+        }
+        
+        tail = node;
+    }
+    
+    /**
+     * Removes the item equal to the specified item.
+     *
+     * @param item The item to remove.
+     * @return True if an item was removed.
+     */
+    public boolean remove(PatientListItem item) {
+        Node node = findNode(item);
+        
+        if (node == null) {
+            return false;
+        }
+        
+        unlink(node);
+        return true;
+    }
+    
+    /**
+     * Removes the last item.
+     */
+    public void removeLast() {
+        if (tail != null) {
+            unlink(tail);
+        }
+    }
+    
+    /**
+     * Removes all items.
+     */
+    public void clear() {
+        index.clear();
+        head = tail = null;
+        size = 0;
+        view = null;
+    }
+    
+    /**
+     * Sorts the items by their natural order.
+     */
+    public void sort() {
+        List<PatientListItem> items = new ArrayList<>(asList());
+        Collections.sort(items);
+        clear();
+        
+        for (PatientListItem item : items) {
+            addLast(item);
+        }
+    }
+    
+    /**
+     * Returns the items as an unmodifiable list. The list is cached until the next modification.
+     *
+     * @return The items in order.
+     */
+    public List<PatientListItem> asList() {
+        if (view == null) {
+            List<PatientListItem> items = new ArrayList<>(size);
+            
+            for (Node node = head; node != null; node = node.next) {
+                items.add(node.item);
+            }
+            
+            view = Collections.unmodifiableList(items);
+        }
+        
+        return view;
+    }
+    
+    @Override
+    public Iterator<PatientListItem> iterator() {
+        return asList().iterator();
+    }
+    
+    /**
+     * Creates a node for an item, indexing it if possible.
+     *
+     * @param item The item.
+     * @return The new node.
+     */
+    private Node createNode(PatientListItem item) {
+        Node node = new Node(item);
+        String key = getKey(item.getPatient());
+        
+        if (key != null) {
+            index.put(key, node);
+        }
+        
+        size++;
+        view = null;
+        return node;
+    }
+    
+    /**
+     * Removes a node from the list and index.
+     *
+     * @param node The node to remove.
+     */
+    private void unlink(Node node) {
+        if (node.prev != null) {
+            node.prev.next = node.next;
+        } else {
+            head = node.next;
+        }
+        
+        if (node.next != null) {
+            node.next.prev = node.prev;
+        } else {
+            tail = node.prev;
+        }
+        
+        String key = getKey(node.item.getPatient());
+        
+        if (key != null) {
+            index.remove(key);
+        }
+        
+        node.prev = node.next = null;
+        size--;
+        view = null;
+    }
+    
+    /**
+     * Returns the node whose item is equal to the specified item.
+     *
+     * @param item The item to find.
+     * @return The node, or null if not found.
+     */
+    private Node findNode(PatientListItem item) {
+        if (item == null || item.getPatient() == null) {
+            return null;
+        }
+        
+        String key = getKey(item.getPatient());
+        
+        if (key != null) {
+            Node node = index.get(key);
+            return node != null && item.equals(node.item) ? node : null;
+        }
+        
+        if (index.size() == size) {
+            return null;
+        }
+        
+        for (Node node = head; node != null; node = node.next) {
+            if (item.equals(node.item)) {
+                return node;
+            }
+        }
+        
+        return null;
+    }
+    
+}
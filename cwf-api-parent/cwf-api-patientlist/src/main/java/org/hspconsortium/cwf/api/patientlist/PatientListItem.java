@@ -21,6 +21,7 @@ package org.hspconsortium.cwf.api.patientlist;
 
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hspconsortium.cwf.api.patient.PatientContext;
+import org.hspconsortium.cwf.api.patient.PatientSortKey;
 import org.hspconsortium.cwf.fhir.common.FhirUtil;
 
 /**
@@ -34,6 +35,8 @@ public class PatientListItem implements Comparable<PatientListItem> {
     
     private final String info;
     
+    private PatientSortKey sortKey;
+    
     /**
      * Creates a patient list item with no additional information.
      * 
@@ -72,6 +75,19 @@ public class PatientListItem implements Comparable<PatientListItem> {
         return info;
     }
     
+    /**
+     * Returns the key used to sort this item by patient name. The key is computed on first use.
+     * 
+     * @return The sort key.
+     */
+    public PatientSortKey getSortKey() {
+        if (sortKey == null) {
+            sortKey = PatientSortKey.forText(patient == null ? null : FhirUtil.formatName(patient.getName()));
+        }
+        
+        return sortKey;
+    }
+    
     /**
      * Selects the associated patient into the shared context.
      */
@@ -93,8 +109,6 @@ public class PatientListItem implements Comparable<PatientListItem> {
      */
     @Override
     public int compareTo(PatientListItem item) {
-        String name1 = FhirUtil.formatName(patient.getName());
-        String name2 = FhirUtil.formatName(item.patient.getName());
-        return name1.compareToIgnoreCase(name2);
+        return getSortKey().compareTo(item.getSortKey());
     }
 }
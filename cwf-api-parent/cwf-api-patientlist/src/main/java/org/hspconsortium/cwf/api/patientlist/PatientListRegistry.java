@@ -34,7 +34,9 @@ import org.carewebframework.api.IRegisterEvent;
 import org.carewebframework.api.spring.SpringUtil;
 
 /**
- * Registry for all patient lists.
+ * Registry for all patient lists. Registered lists are held in an immutable, pre-sorted snapshot
+ * that is replaced whenever a list is registered or unregistered, so lookups and iteration require
+ * no locking.
  */
 public class PatientListRegistry implements IRegisterEvent, IPatientListRegistry {
     
@@ -71,13 +73,37 @@ public class PatientListRegistry implements IRegisterEvent, IPatientListRegistry
         
     }
     
-    private static final PatientListComparator patientListComparator = new PatientListComparator();
+    /**
+     * Immutable view of the registry's contents. A new snapshot is published whenever the
+     * registered lists change.
+     */
+    private static class Snapshot {
+        
+        
+        private final List<IPatientList> lists;
+        
+        private final Map<String, IPatientList> index;
+        
+        Snapshot(List<IPatientList> lists) {
+            List<IPatientList> sorted = new ArrayList<>(lists);
+            Collections.sort(sorted, patientListComparator);
+            Map<String, IPatientList> map = new HashMap<>(sorted.size() * 2);
+            
+            for (IPatientList list : sorted) {
+                map.put(list.getName(), list);
+            }
+            
+            this.lists = Collections.unmodifiableList(sorted);
+            this.index = Collections.unmodifiableMap(map);
+        }
+        
+    }
     
-    private final List<IPatientList> patientList = new ArrayList<>();
+    private static final PatientListComparator patientListComparator = new PatientListComparator();
     
-    private final Map<String, IPatientList> patientListIndex = new HashMap<>();
+    private static final Snapshot EMPTY = new Snapshot(Collections.<IPatientList> emptyList());
     
-    private boolean needsSorting;
+    private volatile Snapshot snapshot = EMPTY;
     
     /**
      * Returns a reference to the patient list registry.
@@ -96,17 +122,17 @@ public class PatientListRegistry implements IRegisterEvent, IPatientListRegistry
      * it to this registry.
      */
     @Override
-    public void registerObject(Object object) {
+    public synchronized void registerObject(Object object) {
         if (object instanceof IPatientList) {
             IPatientList list = (IPatientList) object;
             String name = list.getName();
             
-            if (findByName(name) != null) {
+            if (snapshot.index.containsKey(name)) {
                 log.warn("A patient list named '" + name + "' has already been registered.");
             } else {
-                needsSorting = true;
-                patientList.add(list);
-                patientListIndex.put(name, list);
+                List<IPatientList> lists = new ArrayList<>(snapshot.lists);
+                lists.add(list);
+                snapshot = new Snapshot(lists);
             }
         }
     }
@@ -116,34 +142,22 @@ public class PatientListRegistry implements IRegisterEvent, IPatientListRegistry
      * remove it from this registry.
      */
     @Override
-    public void unregisterObject(Object object) {
-        if (object instanceof IPatientList) {
-            IPatientList list = (IPatientList) object;
-            patientList.remove(list);
-            patientListIndex.remove(list.getName());
+    public synchronized void unregisterObject(Object object) {
+        if (object instanceof IPatientList && snapshot.lists.contains(object)) {
+            List<IPatientList> lists = new ArrayList<>(snapshot.lists);
+            lists.remove(object);
+            snapshot = new Snapshot(lists);
         }
     }
     
     /**
-     * Returns an iterator for iterating across all registered patient lists.
+     * Returns an iterator for iterating across all registered patient lists in sorted order. The
+     * iterator reflects the registry's contents at the time it was obtained and does not support
+     * removal.
      */
     @Override
     public Iterator<IPatientList> iterator() {
-        if (needsSorting) {
-            sort();
-        }
-        
-        return patientList.iterator();
-    }
-    
-    /**
-     * Sort the list, if necessary, using the supplied comparator.
-     */
-    private synchronized void sort() {
-        if (needsSorting) {
-            needsSorting = false;
-            Collections.sort(patientList, patientListComparator);
-        }
+        return snapshot.lists.iterator();
     }
     
     /**
@@ -154,6 +168,6 @@ public class PatientListRegistry implements IRegisterEvent, IPatientListRegistry
      */
     @Override
     public IPatientList findByName(String name) {
-        return patientListIndex.get(name);
+        return snapshot.index.get(name);
     }
 }
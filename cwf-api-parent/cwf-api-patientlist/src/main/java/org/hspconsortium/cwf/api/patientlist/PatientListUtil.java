@@ -19,9 +19,11 @@
  */
 package org.hspconsortium.cwf.api.patientlist;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import org.apache.commons.lang.StringUtils;
@@ -148,6 +150,22 @@ public class PatientListUtil {
         return pcs.length < pieces ? Arrays.copyOf(pcs, pieces) : pcs;
     }
     
+    /**
+     * Returns an unmodifiable copy of a portion of a list.
+     * 
+     * @param <T> The type of list element.
+     * @param list The list.
+     * @param offset Index of the first element to return.
+     * @param limit Maximum number of elements to return.
+     * @return The requested elements. Fewer than the requested number are returned if the end of
+     *         the list is reached.
+     */
+    public static <T> List<T> getPage(List<T> list, int offset, int limit) {
+        int from = Math.max(0, Math.min(offset, list.size()));
+        int to = Math.max(from, (int) Math.min((long) from + limit, list.size()));
+        return Collections.unmodifiableList(new ArrayList<>(list.subList(from, to)));
+    }
+    
     public static String formatName(String name) {
         if (StringUtils.isEmpty(name)) {
             return "";
@@ -0,0 +1,358 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.api.spring.SpringUtil;
+
+/**
+ * Write-behind persistence for property-based patient lists. Saves are queued rather than written
+ * immediately, and successive saves of the same list are coalesced so that only the most recent
+ * contents are written. Submitting a save never writes it. A queued save is written by a
+ * scheduled flush once it has been queued for the flush delay, or when the session ends.
+ * <p>
+ * User-level properties are saved on behalf of the authenticated user, which is only known on the
+ * desktop thread, so writes are never performed on a background thread. The scheduler only times
+ * the flush delay; the flush itself is handed to the flush executor, which must run it on the
+ * desktop thread outside of the event that submitted the save. If either is not set, queued saves
+ * are written only when flushed explicitly or when the session ends.
+ * <p>
+ * A save that fails is retried on subsequent flushes up to a maximum number of attempts, unless a
+ * newer save of the same list supersedes it. The queue is bounded: when it is full (which requires
+ * that many different lists change within the flush delay), the oldest queued save is written on
+ * the calling thread.
+ */
+public class PatientListWriter {
+    
+    
+    private static final Log log = LogFactory.getLog(PatientListWriter.class);
+    
+    /**
+     * A queued save.
+     */
+    private static class PendingWrite {
+        
+        
+        private final PropertyBasedPatientList list;
+        
+        private final String propertyName;
+        
+        private final String listName;
+        
+        private final List<String> patids;
+        
+        private final long queuedAt;
+        
+        private int attempts;
+        
+        PendingWrite(PropertyBasedPatientList list, String propertyName, String listName, List<String> patids,
+            long queuedAt) {
+            this.list = list;
+            this.propertyName = propertyName;
+            this.listName = listName;
+            this.patids = Collections.unmodifiableList(new ArrayList<>(patids));
+            this.queuedAt = queuedAt;
+        }
+        
+        void write() throws Exception {
+            attempts++;
+            list.saveProperty(propertyName, listName, patids);
+        }
+    }
+    
+    private final Map<String, PendingWrite> pending = new LinkedHashMap<>();
+    
+    private final Object flushLock = new Object();
+    
+    private final Runnable flushTask = new Runnable() {
+        
+        @Override
+        public void run() {
+            synchronized (PatientListWriter.this) {
+                flushScheduled = false;
+            }
+            
+            flush(System.currentTimeMillis() - flushDelay);
+            scheduleFlush();
+        }
+        
+    };
+    
+    private final Runnable dispatchTask = new Runnable() {
+        
+        @Override
+        public void run() {
+            Executor executor = flushExecutor;
+            
+            try {
+                if (executor == null) {
+                    throw new IllegalStateException("No flush executor.");
+                }
+                
+                executor.execute(flushTask);
+            } catch (Exception e) {
+                synchronized (PatientListWriter.this) {
+                    flushScheduled = false;
+                }
+                
+                log.warn("Unable to flush patient list saves; they will be written at session end.", e);
+            }
+        }
+        
+    };
+    
+    private boolean flushScheduled;
+    
+    private ScheduledExecutorService scheduler;
+    
+    private volatile Executor flushExecutor;
+    
+    private long flushDelay = 2000;
+    
+    private int maxRetries = 3;
+    
+    private int maxPending = 50;
+    
+    /**
+     * Returns the patient list writer for the current session.
+     *
+     * @return The patient list writer, or null if none is available.
+     */
+    public static PatientListWriter getPatientListWriter() {
+        return SpringUtil.getBean("patientListWriter", PatientListWriter.class);
+    }
+    
+    /**
+     * Returns the key under which saves of a list are coalesced.
+     *
+     * @param propertyName The property name.
+     * @param listName The list name (may be null).
+     * @return The key.
+     */
+    private static String getKey(String propertyName, String listName) {
+        return propertyName + "\n" + (listName == null ? "" : listName);
+    }
+    
+    /**
+     * Queues a save, replacing any queued save of the same list, and schedules a flush if none is
+     * scheduled. A replacement save keeps the queue time of the save it replaces, so that a list
+     * that changes continually is still written once per flush delay.
+     *
+     * @param list The list being saved.
+     * @param propertyName The property name.
+     * @param listName The list name (may be null).
+     * @param patids The patient logical ids to save.
+     */
+    public void submit(PropertyBasedPatientList list, String propertyName, String listName, List<String> patids) {
+        PendingWrite overflow = null;
+        
+        synchronized (this) {
+            String key = getKey(propertyName, listName);
+            PendingWrite previous = pending.remove(key);
+            long queuedAt = previous == null ? System.currentTimeMillis() : previous.queuedAt;
+            pending.put(key, new PendingWrite(list, propertyName, listName, patids, queuedAt));
+            
+            if (pending.size() > maxPending) {
+                Iterator<PendingWrite> iter = pending.values().iterator();
+                overflow = iter.next();
+                iter.remove();
+            }
+        }
+        
+        if (overflow != null) {
+            write(overflow, false);
+        }
+        
+        scheduleFlush();
+    }
+    
+    /**
+     * Schedules a flush after the flush delay if saves are queued, no flush is already scheduled,
+     * and both a scheduler and a flush executor are available.
+     */
+    private synchronized void scheduleFlush() {
+        if (flushScheduled || pending.isEmpty() || scheduler == null || flushExecutor == null) {
+            return;
+        }
+        
+        try {
+            scheduler.schedule(dispatchTask, flushDelay, TimeUnit.MILLISECONDS);
+            flushScheduled = true;
+        } catch (Exception e) {
+            log.warn("Unable to schedule patient list flush.", e);
+        }
+    }
+    
+    /**
+     * Returns the contents of a queued save, if any. Lists must consult this before reading from
+     * the property store so that unflushed changes are not lost.
+     *
+     * @param propertyName The property name.
+     * @param listName The list name (may be null).
+     * @return The patient logical ids awaiting save, or null if none are queued.
+     */
+    public synchronized List<String> getPending(String propertyName, String listName) {
+        PendingWrite write = pending.get(getKey(propertyName, listName));
+        return write == null ? null : write.patids;
+    }
+    
+    /**
+     * Returns the number of queued saves.
+     *
+     * @return The number of queued saves.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+    
+    /**
+     * Writes all queued saves. A save remains queued until it has been written, so that it is
+     * visible to <b>getPending</b> while the write is in progress. Saves that fail remain queued
+     * until their retries are exhausted.
+     */
+    public void flush() {
+        flush(Long.MAX_VALUE);
+    }
+    
+    /**
+     * Writes queued saves that were queued no later than the specified time. Flushes are
+     * serialized, so a save is never written by two flushes at once.
+     *
+     * @param queuedBefore Only saves queued at or before this time are written.
+     */
+    private void flush(long queuedBefore) {
+        synchronized (flushLock) {
+            List<PendingWrite> writes = new ArrayList<>();
+            
+            synchronized (this) {
+                for (PendingWrite write : pending.values()) {
+                    if (write.queuedAt <= queuedBefore) {
+                        writes.add(write);
+                    }
+                }
+            }
+            
+            for (PendingWrite write : writes) {
+                write(write, true);
+            }
+        }
+    }
+    
+    /**
+     * Performs a save. If it succeeds or may not be retried, it is removed from the queue.
+     *
+     * @param write The save to perform.
+     * @param retry If true, a failed save is left queued for retry.
+     */
+    private void write(PendingWrite write, boolean retry) {
+        try {
+            write.write();
+        } catch (Exception e) {
+            if (retry && write.attempts <= maxRetries) {
+                log.warn("Error while saving patient list; will retry.", e);
+                return;
+            }
+            
+            log.error("Error while saving patient list; changes were discarded.", e);
+        }
+        
+        synchronized (this) {
+            String key = getKey(write.propertyName, write.listName);
+            
+            if (pending.get(key) == write) {
+                pending.remove(key);
+            }
+        }
+    }
+    
+    /**
+     * Writes all queued saves. Called at session end.
+     */
+    public void destroy() {
+        flush();
+        
+        synchronized (this) {
+            if (!pending.isEmpty()) {
+                log.error("Unable to save " + pending.size() + " patient list(s) at session end.");
+                pending.clear();
+            }
+        }
+    }
+    
+    /**
+     * Sets the scheduler used to time the flush delay. It does not perform writes.
+     *
+     * @param scheduler The scheduler.
+     */
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Sets the executor that performs scheduled flushes. It must run each flush on the desktop
+     * thread, after the event that submitted the save has completed.
+     *
+     * @param flushExecutor The flush executor.
+     */
+    public void setFlushExecutor(Executor flushExecutor) {
+        this.flushExecutor = flushExecutor;
+        scheduleFlush();
+    }
+    
+    /**
+     * Sets the time, in milliseconds, that a save remains queued before it is written.
+     *
+     * @param flushDelay The flush delay in milliseconds.
+     */
+    public void setFlushDelay(long flushDelay) {
+        this.flushDelay = flushDelay;
+    }
+    
+    /**
+     * Sets the maximum number of times a failed save is retried before it is discarded.
+     *
+     * @param maxRetries The maximum number of retries.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+    
+    /**
+     * Sets the maximum number of queued saves.
+     *
+     * @param maxPending The maximum number of queued saves.
+     */
+    public void setMaxPending(int maxPending) {
+        this.maxPending = maxPending;
+    }
+    
+}
@@ -21,8 +21,10 @@ package org.hspconsortium.cwf.api.patientlist;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -37,6 +39,9 @@ import org.hl7.fhir.dstu3.model.Patient;
  * overridden). This name becomes the application instance value when storing list contents to and
  * retrieving from the associated property. If the derived class does not implement filters, the
  * null application instance value will be used.
+ * <p>
+ * When a page of items is requested in natural order before the full list has been loaded, only
+ * the patients on that page are retrieved.
  */
 public abstract class PropertyBasedPatientList extends AbstractPatientList {
     
@@ -45,10 +50,18 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
     
     private final String propertyName;
     
-    private List<PatientListItem> pplList;
+    private IndexedItemList pplList;
+    
+    private List<String> storedIds;
     
     private boolean changed;
     
+    private boolean durable;
+    
+    private boolean saving;
+    
+    private String saveListName;
+    
     /**
      * Creates an instance of this list using the specified parameters.
      *
@@ -69,6 +82,7 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
     protected PropertyBasedPatientList(PropertyBasedPatientList list) {
         super(list);
         this.propertyName = list.propertyName;
+        this.durable = list.durable;
     }
     
     /**
@@ -80,7 +94,7 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
         getListItems();
         PatientListItem item;
         
-        while ((item = PatientListUtil.findListItem(patient, pplList)) != null) {
+        while ((item = pplList.find(patient)) != null) {
             removeItem(item);
         }
     }
@@ -93,6 +107,7 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
     protected void removeItem(PatientListItem item) {
         pplList.remove(item);
         changed = true;
+        clearPageItems();
     }
     
     /**
@@ -128,12 +143,13 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
         }
         
         if (top) {
-            pplList.add(0, item);
+            pplList.addFirst(item);
         } else {
-            pplList.add(item);
+            pplList.addLast(item);
         }
         
         changed = true;
+        clearPageItems();
     }
     
     /**
@@ -153,33 +169,109 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
     @Override
     public Collection<PatientListItem> getListItems() {
         if (this.pplList == null) {
-            this.pplList = new ArrayList<>();
+            this.pplList = new IndexedItemList();
+            loadPatients(getStoredIds(), getListSizeMax());
+        }
+        
+        return this.pplList.asList();
+    }
+    
+    /**
+     * Returns the number of list items. If the list has not been loaded, this is the number of
+     * stored patient ids, which may include patients that can no longer be retrieved.
+     */
+    @Override
+    public int getListItemCount() {
+        return pplList != null ? pplList.size() : Math.min(getStoredIds().size(), getListSizeMax());
+    }
+    
+    /**
+     * Returns a page of list items. If the list has not been loaded and the natural order is
+     * requested, only the patients on the requested page are retrieved. Patients that cannot be
+     * retrieved are omitted from the page.
+     */
+    @Override
+    public List<PatientListItem> getListItems(int offset, int limit, SortKey sortKey) {
+        if (pplList != null || sortKey != SortKey.NONE) {
+            return super.getListItems(offset, limit, sortKey);
+        }
+        
+        List<String> ids = getStoredIds();
+        ids = PatientListUtil.getPage(ids.subList(0, Math.min(ids.size(), getListSizeMax())), offset, limit);
+        List<PatientListItem> items = new ArrayList<>(ids.size());
+        
+        try {
+            for (Patient patient : getPatients(ids).values()) {
+                items.add(new PatientListItem(patient));
+            }
+        } catch (Exception e) {
+            log.error("Error while retrieving patients for list.", e);
+        }
+        
+        return items;
+    }
+    
+    /**
+     * Returns the stored patient ids for the list in their stored order, without duplicates. Ids
+     * pending an asynchronous save take precedence over the stored property. The ids are retained
+     * until the list is refreshed.
+     *
+     * @return The stored patient ids (never null).
+     */
+    private List<String> getStoredIds() {
+        if (storedIds == null) {
+            Set<String> ids = new LinkedHashSet<>();
             
             if (!isFiltered() || getActiveFilter() != null) {
                 try {
                     String filterName = getListName();
-                    int max = getListSizeMax();
-                    List<String> patids = PropertyUtil.getValues(propertyName, filterName);
+                    PatientListWriter writer = PatientListWriter.getPatientListWriter();
+                    List<String> patids = writer == null ? null : writer.getPending(propertyName, filterName);
+                    patids = patids != null ? patids : PropertyUtil.getValues(propertyName, filterName);
                     
                     if (patids != null) {
-                        for (String patientId : patids) {
-                            if (pplList.size() >= max) {
-                                break;
-                            }
-                            
-                            try {
-                                addPatient(getPatient(patientId), false);
-                            } catch (Exception e) {}
-                        }
+                        ids.addAll(patids);
+                        ids.remove(null);
+                        ids.remove("");
                     }
-                    
                 } catch (Exception e) {
                     log.error("Error while retrieving patient list.", e);
                 }
             }
+            
+            storedIds = new ArrayList<>(ids);
         }
         
-        return Collections.unmodifiableList(this.pplList);
+        return storedIds;
+    }
+    
+    /**
+     * Populates the list from stored patient ids, preserving their stored order. Patients are
+     * retrieved in batches sized to the remaining list capacity, so a list that is entirely
+     * resolvable requires a single request regardless of its size. Ids that cannot be resolved are
+     * skipped.
+     *
+     * @param ids Stored patient ids, without duplicates.
+     * @param max Maximum number of list entries.
+     */
+    private void loadPatients(List<String> ids, int max) {
+        Iterator<String> iter = ids.iterator();
+        
+        while (iter.hasNext() && pplList.size() < max) {
+            List<String> batch = new ArrayList<>();
+            
+            while (iter.hasNext() && batch.size() < max - pplList.size()) {
+                batch.add(iter.next());
+            }
+            
+            try {
+                for (Patient patient : getPatients(batch).values()) {
+                    pplList.addLast(new PatientListItem(patient));
+                }
+            } catch (Exception e) {
+                log.error("Error while retrieving patients for list.", e);
+            }
+        }
     }
     
     /**
@@ -189,6 +281,7 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
     public void refresh() {
         super.refresh();
         pplList = null;
+        storedIds = null;
         changed = false;
     }
     
@@ -210,13 +303,15 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
         maxSize = maxSize < 0 ? 0 : maxSize;
         
         while (this.pplList.size() > maxSize) {
-            this.pplList.remove(this.pplList.size() - 1);
+            this.pplList.removeLast();
+            clearPageItems();
         }
     }
     
     /**
      * Saves the patient list for the user. First, trims the list if it exceeds the maximum
-     * allowable length.
+     * allowable length. Unless the list is durable, the save is queued to the session's patient
+     * list writer, which coalesces successive saves and defers the write.
      *
      * @param sort If true, the list is sorted before saving.
      */
@@ -229,7 +324,8 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
         getListItems();
         
         if (sort) {
-            Collections.sort(pplList);
+            pplList.sort();
+            clearPageItems();
         }
         
         try {
@@ -244,7 +340,14 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
                 }
             }
             
-            saveProperty(propertyName, patids);
+            String listName = getListName();
+            PatientListWriter writer = durable ? null : PatientListWriter.getPatientListWriter();
+            
+            if (writer != null) {
+                writer.submit(this, propertyName, listName, patids);
+            } else {
+                saveProperty(propertyName, listName, patids);
+            }
         } catch (Exception e) {
             log.error("Error while saving patient list.", e);
         }
@@ -252,14 +355,51 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
     
     /**
      * Saves the patient id string to the appropriate property value. The default is to save as a
-     * user level preference. This can be overridden by subclasses for different behavior.
+     * user level preference. This can be overridden by subclasses for different behavior. Note
+     * that a save queued to the patient list writer may be written after the active list has
+     * changed, so overrides should use {@link #getSaveListName()} rather than
+     * {@link #getListName()}.
      *
      * @param propertyName the name of the property definition to use when saving
      * @param patids List of patient logical ids.
      * @throws Exception Unspecified exception.
      */
     protected void saveProperty(String propertyName, List<String> patids) throws Exception {
-        PropertyUtil.saveValues(propertyName, getListName(), false, patids);
+        PropertyUtil.saveValues(propertyName, getSaveListName(), false, patids);
+    }
+    
+    /**
+     * Saves the patient ids for the named list by calling {@link #saveProperty(String, List)},
+     * during which {@link #getSaveListName()} returns the specified list name.
+     *
+     * @param propertyName the name of the property definition to use when saving
+     * @param listName The name of the list being saved.
+     * @param patids List of patient logical ids.
+     * @throws Exception Unspecified exception.
+     */
+    protected void saveProperty(String propertyName, String listName, List<String> patids) throws Exception {
+        boolean wasSaving = saving;
+        String previous = saveListName;
+        saving = true;
+        saveListName = listName;
+        
+        try {
+            saveProperty(propertyName, patids);
+        } finally {
+            saving = wasSaving;
+            saveListName = previous;
+        }
+    }
+    
+    /**
+     * Returns the name of the list being saved. This is the list name captured when the save was
+     * made, which may differ from the current list name if the save was queued.
+     *
+     * @return The name of the list being saved, or the current list name if no save is in
+     *         progress.
+     */
+    protected String getSaveListName() {
+        return saving ? saveListName : getListName();
     }
     
     /**
@@ -274,6 +414,7 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
         
         getListItems();
         pplList.clear();
+        clearPageItems();
         saveList(false);
         refresh();
     }
@@ -287,6 +428,25 @@ public abstract class PropertyBasedPatientList extends AbstractPatientList {
         return getActiveFilter() == null ? null : getActiveFilter().getName();
     }
     
+    /**
+     * Returns true if saves are performed synchronously rather than queued.
+     *
+     * @return True if saves are synchronous.
+     */
+    public boolean isDurable() {
+        return durable;
+    }
+    
+    /**
+     * Set to true to perform saves synchronously rather than queuing them for asynchronous
+     * persistence.
+     *
+     * @param durable If true, saves are synchronous.
+     */
+    public void setDurable(boolean durable) {
+        this.durable = durable;
+    }
+    
     /**
      * Returns the setting for the maximum list size for the list. By default, there is no effective
      * size limit.
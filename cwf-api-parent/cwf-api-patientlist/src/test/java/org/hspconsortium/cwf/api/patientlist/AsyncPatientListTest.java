@@ -0,0 +1,248 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.carewebframework.api.domain.IUser;
+import org.carewebframework.api.event.IEventManager;
+
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.api.security.BasicAuthConfigurator;
+import org.hspconsortium.cwf.api.security.BasicAuthInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncPatientListTest {
+    
+    
+    private static final int PAGES = 3;
+    
+    private static final int PAGE_SIZE = 2;
+    
+    private static final BasicAuthInterceptor interceptor = new BasicAuthInterceptor("AsyncPatientListTest",
+            new BasicAuthConfigurator());
+    
+    /**
+     * List that serves pages of patients from memory, publishing each page as it is served.
+     * Serving the last page waits until released.
+     */
+    private static class MockList extends AsyncPatientList {
+        
+        
+        private final CountDownLatch release = new CountDownLatch(1);
+        
+        private final List<String> credentials = Collections.synchronizedList(new ArrayList<String>());
+        
+        private volatile boolean recordCredentials;
+        
+        MockList() {
+            super("Test", null);
+        }
+        
+        @Override
+        protected Collection<PatientListItem> loadListItems() throws Exception {
+            List<PatientListItem> items = new ArrayList<>();
+            
+            if (recordCredentials) {
+                credentials.add(interceptor.getCredentials());
+            }
+            
+            for (int page = 0; page < PAGES; page++) {
+                if (page == PAGES - 1) {
+                    release.await();
+                }
+                
+                List<PatientListItem> pageItems = new ArrayList<>();
+                
+                for (int i = 0; i < PAGE_SIZE; i++) {
+                    Patient patient = new Patient();
+                    patient.setId("Patient/" + (page * PAGE_SIZE + i));
+                    patient.addName().addFamily("Patient" + (page * PAGE_SIZE + i));
+                    pageItems.add(new PatientListItem(patient));
+                }
+                
+                items.addAll(pageItems);
+                publish(pageItems);
+            }
+            
+            return items;
+        }
+    }
+    
+    private final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+    
+    private ExecutorService executor;
+    
+    private MockList list;
+    
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        list = new MockList();
+        list.setExecutor(executor);
+        list.setEventManager((IEventManager) Proxy.newProxyInstance(getClass().getClassLoader(),
+            new Class<?>[] { IEventManager.class }, new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    if ("fireLocalEvent".equals(method.getName()) && AsyncPatientList.EVENT_LOADED.equals(args[0])) {
+                        events.add(args[1]);
+                    }
+                    
+                    return null;
+                }
+                
+            }));
+    }
+    
+    @After
+    public void tearDown() {
+        list.release.countDown();
+        executor.shutdownNow();
+    }
+    
+    /**
+     * Waits until at least the specified number of items has been published.
+     */
+    private void awaitPublished(int count) throws InterruptedException {
+        long timeout = System.currentTimeMillis() + 5000;
+        
+        while (list.getListItems().size() < count) {
+            assertTrue("Timed out waiting for published items.", System.currentTimeMillis() < timeout);
+            Thread.sleep(10);
+        }
+    }
+    
+    @Test
+    public void testPartialResults() throws Exception {
+        int partial = PAGE_SIZE * (PAGES - 1);
+        assertTrue(list.isPending());
+        awaitPublished(partial);
+        // The last page is still being retrieved, so the load remains pending without blocking.
+        assertTrue(list.isPending());
+        assertEquals(partial, list.getListItems().size());
+        assertEquals(partial, list.getListItemCount());
+        assertEquals(PAGE_SIZE, list.getListItems(0, PAGE_SIZE, IPatientList.SortKey.NONE).size());
+        assertTrue(events.isEmpty());
+        list.release.countDown();
+        assertSame(list, events.poll(5, TimeUnit.SECONDS));
+        assertFalse(list.isPending());
+        assertEquals(PAGE_SIZE * PAGES, list.getListItems().size());
+        assertEquals(PAGE_SIZE * PAGES, list.getListItemCount());
+        assertEquals("5", list.getListItems(4, 10, IPatientList.SortKey.NONE).get(1).getPatient().getIdElement()
+                .getIdPart());
+    }
+    
+    @Test
+    public void testCancel() throws Exception {
+        list.isPending();
+        awaitPublished(PAGE_SIZE);
+        list.cancel();
+        // The next request starts a new load, which also waits for the last page.
+        assertTrue(list.isPending());
+        list.cancel();
+        executor.shutdown();
+        list.release.countDown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        // A cancelled load does not signal completion.
+        assertTrue(events.isEmpty());
+    }
+    
+    @Test
+    public void testLoadsAsRequester() throws Exception {
+        list.recordCredentials = true;
+        list.release.countDown();
+        requestAs(createUser("user1", "pw1"));
+        assertSame(list, events.poll(5, TimeUnit.SECONDS));
+        list.refresh();
+        requestAs(createUser("user2", "pw2"));
+        assertSame(list, events.poll(5, TimeUnit.SECONDS));
+        // Each load is authenticated as the user who requested it, not as the executor's thread.
+        assertEquals(2, list.credentials.size());
+        assertEquals(Base64.encodeBase64String("user1:pw1".getBytes("ISO-8859-1")), list.credentials.get(0));
+        assertEquals(Base64.encodeBase64String("user2:pw2".getBytes("ISO-8859-1")), list.credentials.get(1));
+    }
+    
+    /**
+     * Requests the list items as the specified user, starting a load.
+     */
+    private void requestAs(IUser user) throws Exception {
+        AbstractAuthInterceptor.callAs(user, new Callable<Boolean>() {
+            
+            @Override
+            public Boolean call() {
+                return list.isPending();
+            }
+            
+        });
+    }
+    
+    private static IUser createUser(final String username, final String password) {
+        return (IUser) Proxy.newProxyInstance(IUser.class.getClassLoader(), new Class<?>[] { IUser.class },
+            new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getLoginName":
+                        case "toString":
+                            return username;
+                        
+                        case "getPassword":
+                            return password;
+                        
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        
+                        case "equals":
+                            return proxy == args[0];
+                        
+                        default:
+                            return null;
+                    }
+                }
+                
+            });
+    }
+    
+}
@@ -0,0 +1,114 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.hl7.fhir.dstu3.model.Patient;
+import org.junit.Test;
+
+public class IndexedItemListTest {
+    
+    
+    private PatientListItem createItem(String id) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        return new PatientListItem(patient);
+    }
+    
+    @Test
+    public void testOperations() {
+        IndexedItemList items = new IndexedItemList();
+        PatientListItem item1 = createItem("1");
+        PatientListItem item2 = createItem("2");
+        PatientListItem item3 = createItem("3");
+        items.addLast(item1);
+        items.addLast(item2);
+        items.addFirst(item3);
+        assertEquals(3, items.size());
+        assertSame(item3, items.asList().get(0));
+        assertTrue(items.contains(createItem("2")));
+        assertSame(item2, items.find(item2.getPatient()));
+        assertTrue(items.remove(createItem("1")));
+        assertFalse(items.remove(createItem("1")));
+        assertNull(items.find(item1.getPatient()));
+        items.removeLast();
+        assertEquals(1, items.size());
+        assertSame(item3, items.asList().get(0));
+        items.clear();
+        assertEquals(0, items.size());
+        assertFalse(items.contains(item3));
+    }
+    
+    /**
+     * Compares a random sequence of operations against the equivalent operations on an array list.
+     */
+    @Test
+    public void testAgainstArrayList() {
+        Random random = new Random(1);
+        IndexedItemList items = new IndexedItemList();
+        List<PatientListItem> expected = new ArrayList<>();
+        
+        for (int i = 0; i < 5000; i++) {
+            PatientListItem item = createItem(Integer.toString(random.nextInt(50)));
+            
+            switch (random.nextInt(4)) {
+                case 0:
+                case 1:
+                    if (!expected.contains(item)) {
+                        assertFalse(items.contains(item));
+                        
+                        if (random.nextBoolean()) {
+                            expected.add(0, item);
+                            items.addFirst(item);
+                        } else {
+                            expected.add(item);
+                            items.addLast(item);
+                        }
+                    } else {
+                        assertTrue(items.contains(item));
+                    }
+                    break;
+                
+                case 2:
+                    assertEquals(expected.remove(item), items.remove(item));
+                    break;
+                
+                case 3:
+                    if (!expected.isEmpty()) {
+                        expected.remove(expected.size() - 1);
+                        items.removeLast();
+                    }
+                    break;
+            }
+            
+            assertEquals(expected, items.asList());
+        }
+    }
+    
+}
@@ -0,0 +1,199 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PatientListRegistryTest {
+    
+    
+    private static final int THREADS = 8;
+    
+    private static final int LISTS_PER_THREAD = 250;
+    
+    /**
+     * Creates a minimal patient list with the specified name and sequence.
+     */
+    private IPatientList createList(final String name, final int sequence) {
+        return (IPatientList) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { IPatientList.class },
+            new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getName":
+                            return name;
+                        
+                        case "getSequence":
+                            return sequence;
+                        
+                        case "equals":
+                            return proxy == args[0];
+                        
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        
+                        case "toString":
+                            return name;
+                        
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                }
+                
+            });
+    }
+    
+    @Test
+    public void testOrderAndLookup() {
+        PatientListRegistry registry = new PatientListRegistry();
+        IPatientList b = createList("B", 0);
+        IPatientList a = createList("a", 0);
+        IPatientList mru = createList("MRU", -100);
+        registry.registerObject(b);
+        registry.registerObject(a);
+        registry.registerObject(mru);
+        registry.registerObject(createList("a", 5));
+        registry.registerObject("not a list");
+        List<IPatientList> lists = new ArrayList<>();
+        
+        for (IPatientList list : registry) {
+            lists.add(list);
+        }
+        
+        assertEquals(3, lists.size());
+        assertSame(mru, lists.get(0));
+        assertSame(a, lists.get(1));
+        assertSame(b, lists.get(2));
+        assertSame(a, registry.findByName("a"));
+        registry.unregisterObject(a);
+        assertNull(registry.findByName("a"));
+        Iterator<IPatientList> iter = registry.iterator();
+        assertSame(mru, iter.next());
+        assertSame(b, iter.next());
+        assertFalse(iter.hasNext());
+    }
+    
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final PatientListRegistry registry = new PatientListRegistry();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        
+        try {
+            for (int t = 0; t < THREADS; t++) {
+                final int thread = t;
+                
+                futures.add(executor.submit(new Callable<Void>() {
+                    
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        
+                        for (int i = 0; i < LISTS_PER_THREAD; i++) {
+                            String name = "list-" + thread + "-" + i;
+                            IPatientList list = createList(name, i % 7);
+                            registry.registerObject(list);
+                            assertSame(list, registry.findByName(name));
+                            
+                            if (i % 5 == 0) {
+                                registry.unregisterObject(list);
+                                assertNull(registry.findByName(name));
+                            }
+                        }
+                        
+                        return null;
+                    }
+                    
+                }));
+                
+                futures.add(executor.submit(new Callable<Void>() {
+                    
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        
+                        for (int i = 0; i < LISTS_PER_THREAD; i++) {
+                            IPatientList previous = null;
+                            
+                            for (IPatientList list : registry) {
+                                assertNotNull(list);
+                                
+                                if (previous != null) {
+                                    assertTrue(previous.getSequence() <= list.getSequence());
+                                }
+                                
+                                previous = list;
+                            }
+                        }
+                        
+                        return null;
+                    }
+                    
+                }));
+            }
+            
+            start.countDown();
+            
+            for (Future<?> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        List<String> names = new ArrayList<>();
+        
+        for (IPatientList list : registry) {
+            names.add(list.getName());
+        }
+        
+        assertEquals(THREADS * (LISTS_PER_THREAD - LISTS_PER_THREAD / 5), names.size());
+        
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < LISTS_PER_THREAD; i++) {
+                String name = "list-" + t + "-" + i;
+                assertEquals(i % 5 != 0, registry.findByName(name) != null);
+            }
+        }
+    }
+    
+}
@@ -0,0 +1,224 @@
+/*
+ * #%L
+ * cwf-api-patientlist
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.patientlist;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class PatientListWriterTest {
+    
+    
+    /**
+     * Property-based list that records its saves rather than writing them to the property store.
+     * A save may be made to wait until released, and may be made to fail.
+     */
+    private static class MockPropertyList extends PropertyBasedPatientList {
+        
+        
+        private final List<List<String>> saves = Collections.synchronizedList(new ArrayList<List<String>>());
+        
+        private final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+        
+        private final List<String> listNames = Collections.synchronizedList(new ArrayList<String>());
+        
+        private volatile CountDownLatch started;
+        
+        private volatile CountDownLatch release;
+        
+        private volatile int failures;
+        
+        MockPropertyList() {
+            super("Test", "Patient", "TEST.PROPERTY");
+        }
+        
+        @Override
+        protected void saveProperty(String propertyName, List<String> patids) throws Exception {
+            threads.add(Thread.currentThread());
+            listNames.add(getSaveListName());
+            
+            if (started != null) {
+                started.countDown();
+                release.await();
+            }
+            
+            if (failures > 0) {
+                failures--;
+                throw new Exception("Save failed.");
+            }
+            
+            saves.add(patids);
+        }
+    }
+    
+    private PatientListWriter createWriter(long flushDelay) {
+        PatientListWriter writer = new PatientListWriter();
+        writer.setFlushDelay(flushDelay);
+        return writer;
+    }
+    
+    @Test
+    public void testCoalesce() {
+        MockPropertyList list = new MockPropertyList();
+        PatientListWriter writer = createWriter(60000);
+        writer.submit(list, "TEST.PROPERTY", null, Arrays.asList("1"));
+        writer.submit(list, "TEST.PROPERTY", null, Arrays.asList("2", "1"));
+        assertEquals(0, list.saves.size());
+        assertEquals(1, writer.getPendingCount());
+        assertEquals(Arrays.asList("2", "1"), writer.getPending("TEST.PROPERTY", null));
+        writer.destroy();
+        assertEquals(Collections.singletonList(Arrays.asList("2", "1")), list.saves);
+        assertNull(writer.getPending("TEST.PROPERTY", null));
+    }
+    
+    /**
+     * Submitting a save must never write it, even when an earlier save is overdue. A scheduled
+     * flush is handed to the flush executor, standing in for the desktop, which runs it here on the
+     * test thread.
+     */
+    @Test
+    public void testScheduledFlush() throws Exception {
+        MockPropertyList list = new MockPropertyList();
+        PatientListWriter writer = createWriter(0);
+        writer.submit(list, "TEST.PROPERTY", "A", Arrays.asList("1"));
+        writer.submit(list, "TEST.PROPERTY", "B", Arrays.asList("2"));
+        assertEquals(0, list.saves.size());
+        assertEquals(2, writer.getPendingCount());
+        final BlockingQueue<Runnable> desktop = new LinkedBlockingQueue<>();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        
+        try {
+            writer.setScheduler(scheduler);
+            writer.setFlushExecutor(new Executor() {
+                
+                @Override
+                public void execute(Runnable command) {
+                    desktop.add(command);
+                }
+                
+            });
+            
+            Runnable flush = desktop.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Flush not scheduled", flush);
+            assertEquals(0, list.saves.size());
+            flush.run();
+            assertEquals(2, list.saves.size());
+            assertEquals(0, writer.getPendingCount());
+            assertEquals(Arrays.asList("A", "B"), list.listNames);
+            // A later save schedules another flush.
+            writer.submit(list, "TEST.PROPERTY", "A", Arrays.asList("3"));
+            assertEquals(2, list.saves.size());
+            flush = desktop.poll(5, TimeUnit.SECONDS);
+            assertNotNull("Flush not scheduled", flush);
+            flush.run();
+            assertEquals(Arrays.asList("3"), list.saves.get(2));
+        } finally {
+            scheduler.shutdownNow();
+        }
+        
+        for (Thread thread : list.threads) {
+            assertSame(Thread.currentThread(), thread);
+        }
+    }
+    
+    @Test
+    public void testRetry() {
+        MockPropertyList list = new MockPropertyList();
+        PatientListWriter writer = createWriter(60000);
+        writer.setMaxRetries(1);
+        list.failures = 1;
+        writer.submit(list, "TEST.PROPERTY", "A", Arrays.asList("1"));
+        writer.flush();
+        assertEquals(1, writer.getPendingCount());
+        writer.flush();
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(1, list.saves.size());
+        list.failures = 2;
+        writer.submit(list, "TEST.PROPERTY", "A", Arrays.asList("2"));
+        writer.flush();
+        writer.flush();
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(1, list.saves.size());
+    }
+    
+    @Test
+    public void testConcurrentFlush() throws Exception {
+        final MockPropertyList list = new MockPropertyList();
+        final PatientListWriter writer = createWriter(60000);
+        writer.submit(list, "TEST.PROPERTY", "A", Arrays.asList("1"));
+        writer.submit(list, "TEST.PROPERTY", "B", Arrays.asList("2"));
+        list.started = new CountDownLatch(1);
+        list.release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        
+        try {
+            Future<?> flush = executor.submit(new Callable<Void>() {
+                
+                @Override
+                public Void call() {
+                    writer.flush();
+                    return null;
+                }
+                
+            });
+            
+            list.started.await();
+            Future<?> destroy = executor.submit(new Callable<Void>() {
+                
+                @Override
+                public Void call() {
+                    writer.destroy();
+                    return null;
+                }
+                
+            });
+            
+            Thread.sleep(100);
+            list.release.countDown();
+            flush.get();
+            destroy.get();
+        } finally {
+            executor.shutdownNow();
+        }
+        
+        assertEquals(2, list.saves.size());
+        assertEquals(2, list.threads.size());
+        assertEquals(0, writer.getPendingCount());
+    }
+    
+}
@@ -21,6 +21,8 @@ package org.hspconsortium.cwf.api.smart;
 
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.carewebframework.api.event.IEventManager;
 import org.carewebframework.api.event.IGenericEvent;
@@ -64,11 +66,14 @@ public abstract class SmartContextBase implements IGenericEvent<Object>, ISmartC
     
     private final List<ISmartContextSubscriber> subscribers = new WeakList<>();
     
+    private final Map<ISmartContextSubscriber, ContextMap> delivered = new WeakHashMap<>();
+    
     private final IGenericEvent<String> refreshListener = new IGenericEvent<String>() {
         
         
         @Override
         public void eventCallback(String eventName, String eventData) {
+            resetContext();
             notifySubscribers();
         }
         
@@ -112,9 +117,16 @@ public abstract class SmartContextBase implements IGenericEvent<Object>, ISmartC
      */
     @Override
     public void eventCallback(String eventName, Object eventData) {
+        resetContext();
+        notifySubscribers();
+    }
+    
+    /**
+     * Rebuilds the SMART context from the current context state.
+     */
+    private void resetContext() {
         context.clear();
         updateContext(context);
-        notifySubscribers();
     }
     
     /**
@@ -127,7 +139,8 @@ public abstract class SmartContextBase implements IGenericEvent<Object>, ISmartC
     }
     
     /**
-     * Notifies each subscriber of a SMART context change.
+     * Notifies each subscriber of a SMART context change. Subscribers that have already received
+     * the current context are not notified again.
      */
     protected void notifySubscribers() {
         for (ISmartContextSubscriber subscriber : subscribers) {
@@ -136,13 +149,15 @@ public abstract class SmartContextBase implements IGenericEvent<Object>, ISmartC
     }
     
     /**
-     * Notifies a single subscriber of a SMART context change. Note that a copy of the SMART context
-     * is passed to the subscriber as the subscriber may choose to augment the context in some way.
+     * Notifies a single subscriber of a SMART context change, unless the subscriber was last
+     * notified of identical context contents. Note that a copy of the SMART context is passed to
+     * the subscriber as the subscriber may choose to augment the context in some way.
      * 
      * @param subscriber The context subscriber.
      */
     protected void notifySubscriber(ISmartContextSubscriber subscriber) {
-        if (subscriber != null) {
+        if (subscriber != null && !context.equals(delivered.get(subscriber))) {
+            delivered.put(subscriber, new ContextMap(context));
             subscriber.updateContext(contextScope, new ContextMap(context));
         }
     }
@@ -184,5 +199,6 @@ public abstract class SmartContextBase implements IGenericEvent<Object>, ISmartC
     @Override
     public void unsubscribe(ISmartContextSubscriber subscriber) {
         subscribers.remove(subscriber);
+        delivered.remove(subscriber);
     }
 }
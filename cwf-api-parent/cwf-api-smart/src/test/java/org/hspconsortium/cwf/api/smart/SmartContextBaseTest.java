@@ -0,0 +1,135 @@
+/*
+ * #%L
+ * SMART Integration API Support
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.api.smart;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.hspconsortium.cwf.api.smart.SmartContextBase.ContextMap;
+import org.junit.Test;
+
+public class SmartContextBaseTest {
+    
+    
+    /**
+     * Context whose state is set directly by the test.
+     */
+    private static class TestContext extends SmartContextBase {
+        
+        
+        private final Map<String, String> values = new HashMap<>();
+        
+        TestContext() {
+            super("patient", "CONTEXT.CHANGED.Patient");
+        }
+        
+        @Override
+        protected void updateContext(ContextMap context) {
+            context.putAll(values);
+        }
+        
+        /**
+         * Simulates a context change notification.
+         */
+        void change(String key, String value) {
+            values.put(key, value);
+            eventCallback("CONTEXT.CHANGED.Patient", null);
+        }
+    }
+    
+    /**
+     * Subscriber that records each context it is sent.
+     */
+    private static class TestSubscriber implements ISmartContextSubscriber {
+        
+        
+        private final List<ContextMap> updates = new ArrayList<>();
+        
+        @Override
+        public void updateContext(String contextScope, ContextMap context) {
+            assertEquals("patient", contextScope);
+            updates.add(context);
+        }
+    }
+    
+    @Test
+    public void testUnchangedContext() {
+        TestContext context = new TestContext();
+        TestSubscriber subscriber = new TestSubscriber();
+        context.change("patientId", "1");
+        context.subscribe(subscriber);
+        assertEquals(1, subscriber.updates.size());
+        assertEquals("1", subscriber.updates.get(0).get("patientId"));
+        // A notification that leaves the context unchanged is not delivered.
+        context.change("patientId", "1");
+        assertEquals(1, subscriber.updates.size());
+        context.change("patientId", "2");
+        assertEquals(2, subscriber.updates.size());
+        assertEquals("2", subscriber.updates.get(1).get("patientId"));
+        // Subscribing again while subscribed does not redeliver.
+        context.subscribe(subscriber);
+        assertEquals(2, subscriber.updates.size());
+    }
+    
+    @Test
+    public void testDeliveredCopy() {
+        TestContext context = new TestContext();
+        TestSubscriber subscriber1 = new TestSubscriber();
+        TestSubscriber subscriber2 = new TestSubscriber();
+        context.change("patientId", "1");
+        context.subscribe(subscriber1);
+        // Augmenting the delivered context affects neither detection of unchanged context nor
+        // other subscribers.
+        subscriber1.updates.get(0).put("extra", "value");
+        context.change("patientId", "1");
+        assertEquals(1, subscriber1.updates.size());
+        context.subscribe(subscriber2);
+        assertFalse(subscriber2.updates.get(0).containsKey("extra"));
+    }
+    
+    @Test
+    public void testResubscribe() {
+        TestContext context = new TestContext();
+        TestSubscriber subscriber1 = new TestSubscriber();
+        TestSubscriber subscriber2 = new TestSubscriber();
+        context.change("patientId", "1");
+        context.subscribe(subscriber1);
+        context.subscribe(subscriber2);
+        context.unsubscribe(subscriber1);
+        context.change("patientId", "2");
+        assertEquals(1, subscriber1.updates.size());
+        assertEquals(2, subscriber2.updates.size());
+        // A subscriber that resubscribes receives the current context even if it was delivered
+        // before unsubscribing.
+        context.unsubscribe(subscriber2);
+        context.subscribe(subscriber2);
+        assertEquals(3, subscriber2.updates.size());
+        assertEquals("2", subscriber2.updates.get(2).get("patientId"));
+        context.subscribe(subscriber1);
+        assertEquals(2, subscriber1.updates.size());
+        assertEquals("2", subscriber1.updates.get(1).get("patientId"));
+    }
+    
+}
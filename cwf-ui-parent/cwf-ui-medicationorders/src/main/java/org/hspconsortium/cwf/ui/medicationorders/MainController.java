@@ -48,6 +48,7 @@ public class MainController extends ResourceListView<MedicationOrder, Medication
     protected void init() {
         setup(MedicationOrder.class, "Medication Orders", "Order Detail", "MedicationOrder?patient=#", 1, "Medication",
             "Date", "Status", "Sig");
+        setPrefetchTypes("Medication");
         super.init();
     }
     
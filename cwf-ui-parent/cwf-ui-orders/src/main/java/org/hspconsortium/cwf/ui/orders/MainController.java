@@ -62,6 +62,7 @@ public class MainController extends ResourceListView<IBaseResource, IBaseResourc
     @Override
     protected void init() {
         setup(IBaseResource.class, "Orders", "Order Detail", QUERY, 1, "Type^^min", "Date^^min", "Order^^1", "Notes^^1");
+        setPrefetchTypes("Medication");
         super.init();
     }
     
@@ -0,0 +1,82 @@
+/*
+ * #%L
+ * cwf-ui-patientselection-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.patientselection;
+
+import java.util.concurrent.Executor;
+
+import org.carewebframework.ui.FrameworkWebSupport;
+
+import org.hspconsortium.cwf.api.patientlist.PatientListWriter;
+
+import org.zkoss.zk.ui.Desktop;
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+
+/**
+ * Runs the session's patient list flushes on the desktop thread, so that saves are made on behalf
+ * of the authenticated user without delaying the event (such as a patient context change) that
+ * queued them.
+ */
+public class PatientListFlushExecutor implements Executor {
+    
+    
+    private static final EventListener<Event> flushListener = new EventListener<Event>() {
+        
+        @Override
+        public void onEvent(Event event) throws Exception {
+            ((Runnable) event.getData()).run();
+        }
+        
+    };
+    
+    private final PatientListWriter writer;
+    
+    private Desktop desktop;
+    
+    public PatientListFlushExecutor(PatientListWriter writer) {
+        this.writer = writer;
+    }
+    
+    /**
+     * Binds to the current desktop and registers with the patient list writer. Called by Spring
+     * IOC.
+     */
+    public void init() {
+        desktop = FrameworkWebSupport.getDesktop();
+        writer.setFlushExecutor(this);
+    }
+    
+    /**
+     * Unregisters from the patient list writer. Called by Spring IOC.
+     */
+    public void destroy() {
+        writer.setFlushExecutor(null);
+    }
+    
+    /**
+     * Schedules a task for execution on the desktop thread.
+     */
+    @Override
+    public void execute(Runnable task) {
+        Executions.schedule(desktop, flushListener, new Event("onFlush", null, task));
+    }
+    
+}
@@ -0,0 +1,139 @@
+/*
+ * #%L
+ * cwf-ui-patientselection-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.patientselection;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.zkoss.zul.AbstractListModel;
+
+import org.hspconsortium.cwf.api.patientlist.IPatientList;
+import org.hspconsortium.cwf.api.patientlist.IPatientList.SortKey;
+import org.hspconsortium.cwf.api.patientlist.PatientListItem;
+
+/**
+ * List model that retrieves patient list items a page at a time as they are requested for
+ * rendering. Only a limited number of the most recently used pages are retained. If a page holds
+ * fewer items than expected (e.g., because some patients could not be retrieved), the missing
+ * positions are filled with empty items.
+ */
+public class PatientListModel extends AbstractListModel<PatientListItem> {
+    
+    
+    private static final long serialVersionUID = 1L;
+    
+    public static final int DEFAULT_PAGE_SIZE = 50;
+    
+    private static final int MAX_PAGES = 10;
+    
+    private static final PatientListItem EMPTY_ITEM = new PatientListItem(null, null);
+    
+    private final IPatientList patientList;
+    
+    private final SortKey sortKey;
+    
+    private final int pageSize;
+    
+    private final int size;
+    
+    private final Map<Integer, List<PatientListItem>> pages = new LinkedHashMap<Integer, List<PatientListItem>>(16,
+            0.75f, true) {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<PatientListItem>> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    
+    /**
+     * Creates a model for the patient list in its natural order using the default page size.
+     *
+     * @param patientList The patient list.
+     */
+    public PatientListModel(IPatientList patientList) {
+        this(patientList, SortKey.NONE, DEFAULT_PAGE_SIZE);
+    }
+    
+    /**
+     * Creates a model for the patient list.
+     *
+     * @param patientList The patient list.
+     * @param sortKey The order in which items are to be presented.
+     * @param pageSize The number of items to retrieve at a time.
+     */
+    public PatientListModel(IPatientList patientList, SortKey sortKey, int pageSize) {
+        this.patientList = patientList;
+        this.sortKey = sortKey;
+        this.pageSize = pageSize < 1 ? DEFAULT_PAGE_SIZE : pageSize;
+        this.size = patientList.getListItemCount();
+    }
+    
+    /**
+     * Returns the item at the specified index, retrieving the page containing it if necessary.
+     */
+    @Override
+    public PatientListItem getElementAt(int index) {
+        if (index < 0 || index >= size) {
+            return null;
+        }
+        
+        int pageIndex = index / pageSize;
+        List<PatientListItem> page = pages.get(pageIndex);
+        
+        if (page == null) {
+            page = patientList.getListItems(pageIndex * pageSize, pageSize, sortKey);
+            pages.put(pageIndex, page);
+        }
+        
+        int i = index % pageSize;
+        return i < page.size() ? page.get(i) : EMPTY_ITEM;
+    }
+    
+    /**
+     * Returns the total number of items, as determined when the model was created.
+     */
+    @Override
+    public int getSize() {
+        return size;
+    }
+    
+    /**
+     * Returns the underlying patient list.
+     *
+     * @return The patient list.
+     */
+    public IPatientList getPatientList() {
+        return patientList;
+    }
+    
+    /**
+     * Returns the order in which items are presented.
+     *
+     * @return The sort key.
+     */
+    public SortKey getSortKey() {
+        return sortKey;
+    }
+    
+}
@@ -20,6 +20,7 @@
 package org.hspconsortium.cwf.ui.patientselection;
 
 import java.util.Comparator;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -33,6 +34,7 @@ import org.zkoss.zul.Listitem;
 import org.zkoss.zul.Window;
 
 import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patient.PatientSortKey;
 
 /**
  * Controller for patient matches dialog.
@@ -48,6 +50,12 @@ public class PatientMatches extends Window {
     
     private final DOBComparator dobComparatorDsc = new DOBComparator(false);
     
+    private final NameComparator nameComparatorAsc = new NameComparator(true);
+    
+    private final NameComparator nameComparatorDsc = new NameComparator(false);
+    
+    private final Map<Patient, PatientSortKey> sortKeys = new IdentityHashMap<>();
+    
     private final Features features = Features.getInstance();
     
     /**
@@ -76,6 +84,44 @@ public class PatientMatches extends Window {
         
     }
     
+    /**
+     * Comparator for sorting by patient last name.
+     */
+    private class NameComparator implements Comparator<Listitem> {
+        
+        
+        private final boolean ascending;
+        
+        NameComparator(boolean ascending) {
+            super();
+            this.ascending = ascending;
+        }
+        
+        @Override
+        public int compare(Listitem o1, Listitem o2) {
+            int result = getSortKey((Patient) o1.getValue()).compareTo(getSortKey((Patient) o2.getValue()));
+            return ascending ? result : -result;
+        }
+        
+    }
+    
+    /**
+     * Returns the last name sort key for a patient, computing it only once per patient.
+     * 
+     * @param patient The patient.
+     * @return The sort key.
+     */
+    private PatientSortKey getSortKey(Patient patient) {
+        PatientSortKey key = sortKeys.get(patient);
+        
+        if (key == null) {
+            key = PatientSortKey.forFamilyName(patient);
+            sortKeys.put(patient, key);
+        }
+        
+        return key;
+    }
+    
     /**
      * Returns the feature map for use by EL to determine if a given feature is enabled.
      * 
@@ -103,6 +149,24 @@ public class PatientMatches extends Window {
         return dobComparatorDsc;
     }
     
+    /**
+     * Returns the name ascending comparator.
+     * 
+     * @return Ascending name comparator.
+     */
+    public NameComparator getNameComparatorAsc() {
+        return nameComparatorAsc;
+    }
+    
+    /**
+     * Returns the name descending comparator.
+     * 
+     * @return Descending name comparator.
+     */
+    public NameComparator getNameComparatorDsc() {
+        return nameComparatorDsc;
+    }
+    
     /**
      * Closes the dialog and returns the selected patient to the caller.
      * 
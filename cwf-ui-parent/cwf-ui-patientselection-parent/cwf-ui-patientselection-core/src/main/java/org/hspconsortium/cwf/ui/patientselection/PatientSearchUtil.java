@@ -19,7 +19,6 @@
  */
 package org.hspconsortium.cwf.ui.patientselection;
 
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 
@@ -32,13 +31,12 @@ import org.carewebframework.ui.zk.ZKUtil;
 
 import org.zkoss.zul.Messagebox;
 
-import org.hl7.fhir.dstu3.model.HumanName;
-import org.hl7.fhir.dstu3.model.HumanName.NameUse;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hspconsortium.cwf.api.SearchException;
+import org.hspconsortium.cwf.api.patient.PatientIndex;
 import org.hspconsortium.cwf.api.patient.PatientSearchCriteria;
+import org.hspconsortium.cwf.api.patient.PatientSortKey;
 import org.hspconsortium.cwf.api.patient.PatientUtil;
-import org.hspconsortium.cwf.fhir.common.FhirUtil;
 
 /**
  * Patient search services.
@@ -47,9 +45,9 @@ public class PatientSearchUtil {
     
     private static final Log log = LogFactory.getLog(PatientSearchUtil.class);
     
-    private static final String ERROR_PATIENT_NOT_FOUND = "@patientsearch.error.patient.not.found";
+    static final String ERROR_PATIENT_NOT_FOUND = "@patientsearch.error.patient.not.found";
     
-    private static final String UNEXPECTED_ERROR = "@patientsearch.error.unknown";
+    static final String UNEXPECTED_ERROR = "@patientsearch.error.unknown";
     
     private static final String TEXT_TOO_MANY_MATCHES = "@patientsearch.warn.too.many.matches.text";
     
@@ -61,25 +59,16 @@ public class PatientSearchUtil {
     
     private static final String REFINE_BUTTONS = BTN_REFINE_LABEL + "|" + BTN_CONTINUE_LABEL;
     
-    private static final Comparator<Patient> patientComparator = new Comparator<Patient>() {
-        
-        /**
-         * Sort by patient full name, ignoring case.
-         * 
-         * @param patient1 First patient to compare.
-         * @param patient2 Second patient to compare.
-         * @return Result of comparison.
-         */
-        @Override
-        public int compare(Patient patient1, Patient patient2) {
-            HumanName name1 = FhirUtil.getName(patient1.getName(), NameUse.USUAL, null);
-            HumanName name2 = FhirUtil.getName(patient2.getName(), NameUse.USUAL, null);
-            String cmp1 = name1 == null ? "" : name1.toString();
-            String cmp2 = name2 == null ? "" : name2.toString();
-            return cmp1.compareToIgnoreCase(cmp2.toString());
-        }
-        
-    };
+    /**
+     * Returns a comparator for sorting search results by patient full name, ignoring case. The
+     * comparator caches each patient's sort key, so a new comparator should be obtained for each
+     * sort.
+     * 
+     * @return The patient comparator.
+     */
+    public static Comparator<Patient> getPatientComparator() {
+        return PatientSortKey.createComparator();
+    }
     
     /**
      * Perform search, using the specified search text.
@@ -113,7 +102,7 @@ public class PatientSearchUtil {
         }
         try {
             criteria.validate();
-            List<Patient> matches = PatientUtil.search(criteria);
+            List<Patient> matches = PatientUtil.search(criteria, PatientIndex.getPatientIndex());
             
             if (matches == null || matches.size() == 0) {
                 throw new SearchException(ERROR_PATIENT_NOT_FOUND);
@@ -128,7 +117,7 @@ public class PatientSearchUtil {
             }
             
             //PatientContext.checkRequired(matches);
-            Collections.sort(matches, patientComparator);
+            PatientSortKey.sort(matches);
             return matches;
         } catch (SearchException e) {
             throw e;
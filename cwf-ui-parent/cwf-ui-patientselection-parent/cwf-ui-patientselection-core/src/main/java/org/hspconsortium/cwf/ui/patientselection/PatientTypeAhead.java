@@ -0,0 +1,500 @@
+/*
+ * #%L
+ * cwf-ui-patientselection-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.patientselection;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.time.DateUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.common.StrUtil;
+import org.carewebframework.ui.zk.ZKUtil;
+
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.SearchException;
+import org.hspconsortium.cwf.api.patient.PatientIndex;
+import org.hspconsortium.cwf.api.patient.PatientSearchCriteria;
+import org.hspconsortium.cwf.api.patient.PatientUtil;
+import org.hspconsortium.cwf.api.query.IPageListener;
+import org.hspconsortium.cwf.fhir.common.FhirUtil;
+
+/**
+ * Supports type-ahead patient searches. Each new search supersedes (and cancels) the previous one.
+ * Results of completed searches are retained in a small cache keyed by search text. When new search
+ * text merely narrows the criteria of a cached search whose results were complete (for example,
+ * "smi" followed by "smith"), the cached results are filtered locally and no server request is
+ * issued. Local filtering follows the server's rules for string parameters: each value matches the
+ * start of a name component, ignoring case and accents, and multiple values for the same parameter
+ * are alternatives. Otherwise, results accumulate page by page as they are retrieved, allowing a caller to
+ * display them incrementally by polling.
+ * <p>
+ * Searches run in the background and may be polled from any thread.
+ */
+public class PatientTypeAhead {
+    
+    
+    private static final Log log = LogFactory.getLog(PatientTypeAhead.class);
+    
+    /**
+     * A single type-ahead search.
+     */
+    public static class Search implements IPageListener<Patient> {
+        
+        
+        private final String searchText;
+        
+        private final PatientSearchCriteria criteria;
+        
+        private final List<Patient> results = new ArrayList<>();
+        
+        private int polled;
+        
+        private volatile boolean done;
+        
+        private volatile String message;
+        
+        private volatile CompletableFuture<List<Patient>> future;
+        
+        private Search(String searchText, PatientSearchCriteria criteria) {
+            this.searchText = searchText;
+            this.criteria = criteria;
+        }
+        
+        /**
+         * Receives a page of results from the background search.
+         */
+        @Override
+        public void onPage(List<Patient> page) {
+            synchronized (results) {
+                results.addAll(page);
+            }
+        }
+        
+        /**
+         * Returns the search text that initiated this search.
+         * 
+         * @return The search text.
+         */
+        public String getSearchText() {
+            return searchText;
+        }
+        
+        /**
+         * Returns any results retrieved since the last call to this method.
+         * 
+         * @return Newly retrieved results (never null).
+         */
+        public List<Patient> poll() {
+            synchronized (results) {
+                List<Patient> page = new ArrayList<>(results.subList(polled, results.size()));
+                polled = results.size();
+                return page;
+            }
+        }
+        
+        /**
+         * Returns all results retrieved so far.
+         * 
+         * @return Results retrieved so far.
+         */
+        public List<Patient> getResults() {
+            synchronized (results) {
+                return new ArrayList<>(results);
+            }
+        }
+        
+        /**
+         * Returns true if the search has completed, failed or been canceled.
+         * 
+         * @return True if the search is done.
+         */
+        public boolean isDone() {
+            return done;
+        }
+        
+        /**
+         * Returns true if the search has been canceled.
+         * 
+         * @return True if the search has been canceled.
+         */
+        public boolean isCancelled() {
+            CompletableFuture<?> future = this.future;
+            return future != null && future.isCancelled();
+        }
+        
+        /**
+         * Returns the message to be displayed when a completed search produced no results or
+         * failed.
+         * 
+         * @return The message, or null if none.
+         */
+        public String getMessage() {
+            return message;
+        }
+        
+        /**
+         * Cancels the search, aborting any server request in progress.
+         */
+        public void cancel() {
+            CompletableFuture<?> future = this.future;
+            
+            if (future != null) {
+                future.cancel(true);
+            }
+            
+            done = true;
+        }
+        
+        /**
+         * Marks the search as done.
+         * 
+         * @param error The exception that terminated the search, or null if successful.
+         */
+        private void finish(Throwable error) {
+            if (error instanceof CompletionException) {
+                error = error.getCause();
+            }
+            
+            if (error instanceof CancellationException) {
+                // Superseded - nothing to report.
+            } else if (error instanceof SearchException) {
+                message = error.getMessage();
+            } else if (error != null) {
+                log.error("Error during type-ahead patient search.", error);
+                message = StrUtil.formatMessage(PatientSearchUtil.UNEXPECTED_ERROR,
+                    ZKUtil.formatExceptionForDisplay(error));
+            } else if (getResults().isEmpty()) {
+                message = StrUtil.formatMessage(PatientSearchUtil.ERROR_PATIENT_NOT_FOUND);
+            }
+            
+            done = true;
+        }
+    }
+    
+    private final int maxMatches;
+    
+    private final int cacheSize;
+    
+    private final Map<String, Search> prefixCache;
+    
+    private Search current;
+    
+    private PatientIndex patientIndex;
+    
+    /**
+     * Creates a type-ahead search helper.
+     * 
+     * @param maxMatches Maximum number of matches to retrieve for any one search.
+     * @param cacheSize Maximum number of completed searches to retain for local filtering.
+     */
+    public PatientTypeAhead(int maxMatches, int cacheSize) {
+        this.maxMatches = maxMatches;
+        this.cacheSize = cacheSize;
+        this.prefixCache = new LinkedHashMap<String, Search>(16, 0.75f, true) {
+            
+            
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Entry<String, Search> eldest) {
+                return size() > PatientTypeAhead.this.cacheSize;
+            }
+            
+        };
+    }
+    
+    /**
+     * Sets the patient index to consult before searching the server.
+     * 
+     * @param patientIndex The patient index (may be null).
+     */
+    public void setPatientIndex(PatientIndex patientIndex) {
+        this.patientIndex = patientIndex;
+    }
+    
+    /**
+     * Starts a search using the specified search text, canceling any search in progress.
+     * 
+     * @param searchText The search text, parsed as for a normal patient search.
+     * @return The new search, or null if the search text does not yet constitute valid criteria.
+     */
+    public synchronized Search search(String searchText) {
+        cancel();
+        searchText = normalize(searchText);
+        PatientSearchCriteria criteria = new PatientSearchCriteria(searchText);
+        
+        if (criteria.isEmpty() || !criteria.isValid()) {
+            return null;
+        }
+        
+        criteria.setMaximum(maxMatches);
+        final Search search = new Search(searchText, criteria);
+        Search cached = findNarrowable(criteria, searchText);
+        
+        if (cached != null) {
+            List<Patient> filtered = new ArrayList<>();
+            
+            for (Patient patient : cached.getResults()) {
+                if (matches(patient, criteria)) {
+                    filtered.add(patient);
+                }
+            }
+            
+            search.onPage(filtered);
+            search.finish(null);
+            prefixCache.put(searchText, search);
+            return current = search;
+        }
+        
+        search.future = PatientUtil.searchAsync(criteria, search, patientIndex);
+        search.future.whenComplete(new BiConsumer<List<Patient>, Throwable>() {
+            
+            
+            @Override
+            public void accept(List<Patient> results, Throwable error) {
+                search.finish(error);
+                
+                if (error == null) {
+                    synchronized (PatientTypeAhead.this) {
+                        prefixCache.put(search.searchText, search);
+                    }
+                }
+            }
+            
+        });
+        
+        return current = search;
+    }
+    
+    /**
+     * Cancels the search in progress, if any.
+     */
+    public synchronized void cancel() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+    
+    /**
+     * Discards all cached search results.
+     */
+    public synchronized void clear() {
+        cancel();
+        prefixCache.clear();
+    }
+    
+    /**
+     * Finds a cached search whose complete results are a superset of those for the specified
+     * criteria. Favors the most specific (i.e., longest) matching search text.
+     * 
+     * @param criteria The new search criteria.
+     * @param searchText The new search text.
+     * @return A cached search, or null if none qualifies.
+     */
+    private Search findNarrowable(PatientSearchCriteria criteria, String searchText) {
+        Search best = null;
+        String text = searchText.toLowerCase();
+        
+        for (Search cached : prefixCache.values()) {
+            if (cached.results.size() >= maxMatches) {
+                continue; // Incomplete results cannot be narrowed locally.
+            }
+            
+            if (text.startsWith(cached.searchText.toLowerCase()) && narrows(cached.criteria, criteria)
+                    && (best == null || cached.searchText.length() > best.searchText.length())) {
+                best = cached;
+            }
+        }
+        
+        return best;
+    }
+    
+    /**
+     * Returns true if every patient matching the new criteria must also match the old. Only
+     * name-based criteria (optionally qualified by gender) can be narrowed. The new criteria may
+     * add a gender or birth date, but not an identifier.
+     * 
+     * @param oldCriteria The criteria of the cached search.
+     * @param newCriteria The new criteria.
+     * @return True if the new criteria narrow the old.
+     */
+    boolean narrows(PatientSearchCriteria oldCriteria, PatientSearchCriteria newCriteria) {
+        if (oldCriteria.getId() != null || oldCriteria.getMRN() != null || oldCriteria.getSSN() != null
+                || oldCriteria.getBirth() != null || oldCriteria.getName() == null) {
+            return false;
+        }
+        
+        if (newCriteria.getId() != null || newCriteria.getMRN() != null || newCriteria.getSSN() != null
+                || newCriteria.getName() == null) {
+            return false;
+        }
+        
+        if (oldCriteria.getGender() != null && !oldCriteria.getGender().equals(newCriteria.getGender())) {
+            return false;
+        }
+        
+        HumanName oldName = oldCriteria.getName();
+        HumanName newName = newCriteria.getName();
+        return narrows(FhirUtil.toStringList(oldName.getFamily()), FhirUtil.toStringList(newName.getFamily()))
+                && narrows(FhirUtil.toStringList(oldName.getGiven()), FhirUtil.toStringList(newName.getGiven()));
+    }
+    
+    /**
+     * Returns true if the new values of a name parameter select a subset of the patients selected
+     * by the old values. Since the values of a parameter are alternatives, each new value must
+     * extend some old value. A parameter without values selects all patients.
+     * 
+     * @param oldValues Old parameter values.
+     * @param newValues New parameter values.
+     * @return True if the new values narrow the old.
+     */
+    private boolean narrows(List<String> oldValues, List<String> newValues) {
+        if (oldValues.isEmpty()) {
+            return true;
+        }
+        
+        if (newValues.isEmpty()) {
+            return false;
+        }
+        
+        for (String newValue : newValues) {
+            if (!startsWithAny(newValue, oldValues)) {
+                return false;
+            }
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Returns true if the patient satisfies the criteria, emulating the server's matching rules
+     * for name, gender and birth date criteria.
+     * 
+     * @param patient The patient.
+     * @param criteria The search criteria.
+     * @return True if the patient satisfies the criteria.
+     */
+    boolean matches(Patient patient, PatientSearchCriteria criteria) {
+        if (criteria.getGender() != null) {
+            String gender = patient.getGender() == null ? null : patient.getGender().toCode();
+            
+            if (gender == null || !gender.substring(0, 1).equalsIgnoreCase(criteria.getGender())) {
+                return false;
+            }
+        }
+        
+        if (criteria.getBirth() != null
+                && (patient.getBirthDate() == null || !DateUtils.isSameDay(patient.getBirthDate(), criteria.getBirth()))) {
+            return false;
+        }
+        
+        HumanName name = criteria.getName();
+        
+        if (name == null) {
+            return true;
+        }
+        
+        List<String> families = new ArrayList<>();
+        List<String> givens = new ArrayList<>();
+        
+        for (HumanName patientName : patient.getName()) {
+            families.addAll(FhirUtil.toStringList(patientName.getFamily()));
+            givens.addAll(FhirUtil.toStringList(patientName.getGiven()));
+        }
+        
+        return matches(families, FhirUtil.toStringList(name.getFamily()))
+                && matches(givens, FhirUtil.toStringList(name.getGiven()));
+    }
+    
+    /**
+     * Returns true if any criterion value matches the start of any of the patient's name
+     * components, ignoring case and accents. A criterion without values matches any patient.
+     * 
+     * @param values The patient's name components.
+     * @param criteria The criterion values.
+     * @return True if the criterion matches.
+     */
+    private boolean matches(List<String> values, List<String> criteria) {
+        if (criteria.isEmpty()) {
+            return true;
+        }
+        
+        for (String value : values) {
+            if (startsWithAny(value, criteria)) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Returns true if the value starts with any of the prefixes, ignoring case and accents.
+     * 
+     * @param value The value.
+     * @param prefixes The prefixes.
+     * @return True if the value starts with any of the prefixes.
+     */
+    private boolean startsWithAny(String value, List<String> prefixes) {
+        value = normalizeName(value);
+        
+        for (String prefix : prefixes) {
+            if (value.startsWith(normalizeName(prefix))) {
+                return true;
+            }
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Removes accents from and lower cases a name component, as the server does when matching
+     * string parameters.
+     * 
+     * @param value The name component.
+     * @return The normalized name component.
+     */
+    private String normalizeName(String value) {
+        return Normalizer.normalize(value, Normalizer.Form.NFD).replaceAll("\\p{M}", "").toLowerCase();
+    }
+    
+    /**
+     * Normalizes white space in search text so that equivalent input shares a cache entry.
+     * 
+     * @param searchText The raw search text.
+     * @return The normalized search text.
+     */
+    private String normalize(String searchText) {
+        return StringUtils.trimToEmpty(searchText).replaceAll("\\s+", " ");
+    }
+}
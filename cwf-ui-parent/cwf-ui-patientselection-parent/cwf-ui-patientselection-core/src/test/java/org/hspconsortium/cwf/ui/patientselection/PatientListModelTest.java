@@ -0,0 +1,234 @@
+/*
+ * #%L
+ * cwf-ui-patientselection-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.patientselection;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.carewebframework.common.DateRange;
+
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patientlist.AbstractPatientListFilter;
+import org.hspconsortium.cwf.api.patientlist.IPatientList;
+import org.hspconsortium.cwf.api.patientlist.IPatientListFilterManager;
+import org.hspconsortium.cwf.api.patientlist.IPatientListItemManager;
+import org.hspconsortium.cwf.api.patientlist.PatientListItem;
+import org.junit.Test;
+
+public class PatientListModelTest {
+    
+    
+    /**
+     * Patient list that records each page request. Only the paging methods are functional.
+     */
+    private static class MockPatientList implements IPatientList {
+        
+        
+        private final List<PatientListItem> items = new ArrayList<>();
+        
+        private final List<String> requests = new ArrayList<>();
+        
+        private int shortBy;
+        
+        MockPatientList(int size) {
+            for (int i = 0; i < size; i++) {
+                Patient patient = new Patient();
+                patient.setId("Patient/" + i);
+                patient.addName().addFamily("Patient" + (size - i));
+                items.add(new PatientListItem(patient));
+            }
+        }
+        
+        @Override
+        public Collection<PatientListItem> getListItems() {
+            return items;
+        }
+        
+        @Override
+        public List<PatientListItem> getListItems(int offset, int limit, SortKey sortKey) {
+            requests.add(offset + ":" + limit + ":" + sortKey);
+            List<PatientListItem> page = IPatientList.super.getListItems(offset, limit, sortKey);
+            return shortBy == 0 ? page : page.subList(0, Math.max(0, page.size() - shortBy));
+        }
+        
+        @Override
+        public String getName() {
+            return "Mock";
+        }
+        
+        @Override
+        public String getDisplayName() {
+            return "Mock";
+        }
+        
+        @Override
+        public String getEntityName() {
+            return null;
+        }
+        
+        @Override
+        public int getSequence() {
+            return 0;
+        }
+        
+        @Override
+        public boolean isDateRangeRequired() {
+            return false;
+        }
+        
+        @Override
+        public boolean isDisabled() {
+            return false;
+        }
+        
+        @Override
+        public boolean isFiltered() {
+            return false;
+        }
+        
+        @Override
+        public AbstractPatientListFilter getActiveFilter() {
+            return null;
+        }
+        
+        @Override
+        public IPatientListItemManager getItemManager() {
+            return null;
+        }
+        
+        @Override
+        public IPatientListFilterManager getFilterManager() {
+            return null;
+        }
+        
+        @Override
+        public void setActiveFilter(AbstractPatientListFilter filter) {
+        }
+        
+        @Override
+        public DateRange getDateRange() {
+            return null;
+        }
+        
+        @Override
+        public void setDateRange(DateRange value) {
+        }
+        
+        @Override
+        public Collection<AbstractPatientListFilter> getFilters() {
+            return null;
+        }
+        
+        @Override
+        public IPatientList copy() {
+            return this;
+        }
+        
+        @Override
+        public IPatientList copy(String serialized) {
+            return this;
+        }
+        
+        @Override
+        public String serialize() {
+            return null;
+        }
+        
+        @Override
+        public void refresh() {
+        }
+        
+        @Override
+        public boolean isPending() {
+            return false;
+        }
+        
+    }
+    
+    @Test
+    public void testPaging() {
+        MockPatientList list = new MockPatientList(120);
+        PatientListModel model = new PatientListModel(list, IPatientList.SortKey.NONE, 50);
+        assertEquals(120, model.getSize());
+        assertSame(list.items.get(0), model.getElementAt(0));
+        assertSame(list.items.get(49), model.getElementAt(49));
+        assertEquals(1, list.requests.size());
+        assertSame(list.items.get(50), model.getElementAt(50));
+        assertSame(list.items.get(119), model.getElementAt(119));
+        assertNull(model.getElementAt(120));
+        assertNull(model.getElementAt(-1));
+        assertEquals("0:50:NONE", list.requests.get(0));
+        assertEquals("50:50:NONE", list.requests.get(1));
+        assertEquals("100:50:NONE", list.requests.get(2));
+        assertEquals(3, list.requests.size());
+    }
+    
+    @Test
+    public void testSortKey() {
+        MockPatientList list = new MockPatientList(5);
+        PatientListModel model = new PatientListModel(list, IPatientList.SortKey.NAME, 2);
+        // Names are assigned in descending order, so sorting by name reverses the list.
+        assertSame(list.items.get(4), model.getElementAt(0));
+        assertSame(list.items.get(0), model.getElementAt(4));
+        assertEquals("0:2:NAME", list.requests.get(0));
+    }
+    
+    @Test
+    public void testPageLRU() {
+        MockPatientList list = new MockPatientList(20);
+        PatientListModel model = new PatientListModel(list, IPatientList.SortKey.NONE, 1);
+        
+        // Fill the page cache (10 pages), then one more to evict page 0
+        for (int i = 0; i <= 10; i++) {
+            model.getElementAt(i);
+        }
+        
+        assertEquals(11, list.requests.size());
+        // Page 1 is still cached, and becomes most recently used
+        model.getElementAt(1);
+        assertEquals(11, list.requests.size());
+        // Page 0 was evicted and is reloaded, evicting page 2 (now least recently used)
+        model.getElementAt(0);
+        assertEquals(12, list.requests.size());
+        assertEquals("0:1:NONE", list.requests.get(11));
+        model.getElementAt(1);
+        assertEquals(12, list.requests.size());
+        model.getElementAt(2);
+        assertEquals(13, list.requests.size());
+        assertEquals("2:1:NONE", list.requests.get(12));
+    }
+    
+    @Test
+    public void testShortPage() {
+        MockPatientList list = new MockPatientList(10);
+        list.shortBy = 1;
+        PatientListModel model = new PatientListModel(list, IPatientList.SortKey.NONE, 5);
+        assertSame(list.items.get(3), model.getElementAt(3));
+        PatientListItem item = model.getElementAt(4);
+        assertNull(item.getPatient());
+        assertNull(item.getInfo());
+    }
+    
+}
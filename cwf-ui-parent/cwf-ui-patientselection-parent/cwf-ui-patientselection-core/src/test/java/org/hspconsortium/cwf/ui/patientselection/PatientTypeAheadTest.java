@@ -0,0 +1,115 @@
+/*
+ * #%L
+ * cwf-ui-patientselection-core
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.patientselection;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.hl7.fhir.dstu3.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.dstu3.model.HumanName;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patient.PatientSearchCriteria;
+import org.junit.Test;
+
+public class PatientTypeAheadTest {
+    
+    
+    private final PatientTypeAhead typeAhead = new PatientTypeAhead(100, 10);
+    
+    private Patient createPatient(String family, String... given) {
+        Patient patient = new Patient();
+        HumanName name = patient.addName().addFamily(family);
+        
+        for (String value : given) {
+            name.addGiven(value);
+        }
+        
+        return patient;
+    }
+    
+    private PatientSearchCriteria createCriteria(String[] families, String... given) {
+        HumanName name = new HumanName();
+        
+        for (String value : families) {
+            name.addFamily(value);
+        }
+        
+        for (String value : given) {
+            name.addGiven(value);
+        }
+        
+        PatientSearchCriteria criteria = new PatientSearchCriteria();
+        criteria.setName(name);
+        return criteria;
+    }
+    
+    @Test
+    public void testMatchesFromStart() {
+        Patient patient = createPatient("Smith-Jones", "Mary Ann");
+        assertTrue(typeAhead.matches(patient, new PatientSearchCriteria("smi")));
+        assertTrue(typeAhead.matches(patient, new PatientSearchCriteria("SMITH-J, mary a")));
+        // The server does not match words within a name component.
+        assertFalse(typeAhead.matches(patient, new PatientSearchCriteria("jones")));
+        assertFalse(typeAhead.matches(patient, new PatientSearchCriteria("smith, ann")));
+    }
+    
+    @Test
+    public void testMatchesIgnoringAccents() {
+        Patient patient = createPatient("M\u00fcller", "Ren\u00e9e");
+        assertTrue(typeAhead.matches(patient, new PatientSearchCriteria("muller, renee")));
+        assertTrue(typeAhead.matches(createPatient("Muller"), new PatientSearchCriteria("m\u00fcl")));
+        assertFalse(typeAhead.matches(patient, new PatientSearchCriteria("mueller")));
+    }
+    
+    @Test
+    public void testMatchesAnyValue() {
+        Patient patient = createPatient("Smith", "John");
+        assertTrue(typeAhead.matches(patient, createCriteria(new String[] { "jones", "smi" })));
+        assertTrue(typeAhead.matches(patient, createCriteria(new String[] { "smith" }, "paul", "jo")));
+        assertFalse(typeAhead.matches(patient, createCriteria(new String[] { "jones", "brown" })));
+        assertFalse(typeAhead.matches(patient, createCriteria(new String[] { "smith" }, "paul", "george")));
+    }
+    
+    @Test
+    public void testMatchesGender() {
+        Patient patient = createPatient("Smith", "John");
+        patient.setGender(AdministrativeGender.MALE);
+        assertTrue(typeAhead.matches(patient, new PatientSearchCriteria("smith;m")));
+        assertFalse(typeAhead.matches(patient, new PatientSearchCriteria("smith;f")));
+    }
+    
+    @Test
+    public void testNarrows() {
+        assertTrue(typeAhead.narrows(new PatientSearchCriteria("smi"), new PatientSearchCriteria("smith")));
+        assertTrue(typeAhead.narrows(new PatientSearchCriteria("smith"), new PatientSearchCriteria("smith, jo")));
+        assertTrue(typeAhead.narrows(new PatientSearchCriteria("smith"), new PatientSearchCriteria("smith;m")));
+        assertTrue(typeAhead.narrows(new PatientSearchCriteria("m\u00fcl"), new PatientSearchCriteria("mull")));
+        assertFalse(typeAhead.narrows(new PatientSearchCriteria("smith"), new PatientSearchCriteria("smyth")));
+        assertFalse(typeAhead.narrows(new PatientSearchCriteria("smith, jo"), new PatientSearchCriteria("smith")));
+        assertFalse(typeAhead.narrows(new PatientSearchCriteria("smith;m"), new PatientSearchCriteria("smith")));
+        assertFalse(typeAhead.narrows(new PatientSearchCriteria("smith"), new PatientSearchCriteria("smith;123456")));
+        // Adding an alternative value broadens the search.
+        assertFalse(typeAhead.narrows(createCriteria(new String[] { "smi" }),
+            createCriteria(new String[] { "smith", "jones" })));
+        assertTrue(typeAhead.narrows(createCriteria(new String[] { "smi", "jo" }),
+            createCriteria(new String[] { "jones" })));
+    }
+    
+}
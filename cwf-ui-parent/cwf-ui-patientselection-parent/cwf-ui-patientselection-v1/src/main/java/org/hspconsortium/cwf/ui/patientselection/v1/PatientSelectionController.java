@@ -22,6 +22,7 @@ package org.hspconsortium.cwf.ui.patientselection.v1;
 import java.text.MessageFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.commons.lang.StringUtils;
@@ -41,6 +42,7 @@ import org.zkoss.zk.ui.event.DropEvent;
 import org.zkoss.zk.ui.event.Event;
 import org.zkoss.zk.ui.event.EventListener;
 import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.event.InputEvent;
 import org.zkoss.zk.ui.util.Clients;
 import org.zkoss.zul.Button;
 import org.zkoss.zul.Comboitem;
@@ -58,9 +60,12 @@ import org.zkoss.zul.Window;
 
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hspconsortium.cwf.api.patient.PatientContext;
+import org.hspconsortium.cwf.api.patient.PatientIndex;
 import org.hspconsortium.cwf.api.patientlist.AbstractPatientListFilter;
+import org.hspconsortium.cwf.api.patientlist.AsyncPatientList;
 import org.hspconsortium.cwf.api.patientlist.FavoritePatientList;
 import org.hspconsortium.cwf.api.patientlist.IPatientList;
+import org.hspconsortium.cwf.api.patientlist.IPatientList.SortKey;
 import org.hspconsortium.cwf.api.patientlist.IPatientListFilterManager;
 import org.hspconsortium.cwf.api.patientlist.IPatientListFilterManager.FilterCapability;
 import org.hspconsortium.cwf.api.patientlist.IPatientListItemManager;
@@ -72,7 +77,9 @@ import org.hspconsortium.cwf.ui.patientselection.IPatientDetailRenderer;
 import org.hspconsortium.cwf.ui.patientselection.PatientDetailRenderer;
 import org.hspconsortium.cwf.ui.patientselection.PatientListFilterRenderer;
 import org.hspconsortium.cwf.ui.patientselection.PatientListItemRenderer;
+import org.hspconsortium.cwf.ui.patientselection.PatientListModel;
 import org.hspconsortium.cwf.ui.patientselection.PatientSearchUtil;
+import org.hspconsortium.cwf.ui.patientselection.PatientTypeAhead;
 
 /**
  * Controller for patient selection dialog.
@@ -88,6 +95,14 @@ public class PatientSelectionController extends FrameworkController {
     
     private static final String FILTER_DROP_ID = "patientselection.filter.drop.id";
     
+    private static final int MAX_MATCHES = 100;
+    
+    private static final int TYPE_AHEAD_MIN_LENGTH = 2;
+    
+    private static final int TYPE_AHEAD_POLL_INTERVAL = 250;
+    
+    private static final int TYPE_AHEAD_CACHE_SIZE = 10;
+    
     private final String[] dateRanges = Labels.getLabel(Constants.LBL_DATE_RANGE_VALUES).split("\n");
     
     private final String txtDateRange = Labels.getLabel(Constants.LBL_DATE_RANGE_LABEL);
@@ -146,6 +161,8 @@ public class PatientSelectionController extends FrameworkController {
     
     private Timer timer;
     
+    private Timer tmrTypeAhead;
+    
     private Component pnlManagedList;
     
     private Component pnlManagedListFilters;
@@ -202,8 +219,38 @@ public class PatientSelectionController extends FrameworkController {
     
     private final List<PatientListItem> pendingListItem = new ArrayList<>();
     
+    private int listPageSize = PatientListModel.DEFAULT_PAGE_SIZE;
+    
+    private SortKey listSortKey = SortKey.NONE;
+    
     private IPatientDetailRenderer patientDetailRenderer = new PatientDetailRenderer();
     
+    private boolean typeAhead;
+    
+    private int typeAheadDelay = 300;
+    
+    private PatientTypeAhead typeAheadSearch;
+    
+    private PatientTypeAhead.Search activeSearch;
+    
+    private String pendingSearchText;
+    
+    /**
+     * Debounces keystrokes in the search box when type-ahead search is enabled.
+     */
+    private final EventListener<InputEvent> typeAheadListener = new EventListener<InputEvent>() {
+        
+        
+        @Override
+        public void onEvent(InputEvent event) throws Exception {
+            pendingSearchText = event.getValue();
+            tmrTypeAhead.stop();
+            tmrTypeAhead.setRepeats(false);
+            tmrTypeAhead.setDelay(typeAheadDelay);
+            tmrTypeAhead.start();
+        }
+    };
+    
     /**
      * Handles drag/drop events for filters in filter management mode.
      */
@@ -232,6 +279,7 @@ public class PatientSelectionController extends FrameworkController {
         initDateRanges();
         initRegisteredLists();
         initRenderers();
+        initTypeAhead();
         CareWebUtil.associateCSH(root, "patientSelectionV1Help", null, null);
     }
     
@@ -274,6 +322,17 @@ public class PatientSelectionController extends FrameworkController {
         lstManagedListFilter.setItemRenderer(PatientListFilterRenderer.getInstance());
     }
     
+    /**
+     * Enables type-ahead search if so configured.
+     */
+    private void initTypeAhead() {
+        if (typeAhead) {
+            typeAheadSearch = new PatientTypeAhead(MAX_MATCHES, TYPE_AHEAD_CACHE_SIZE);
+            typeAheadSearch.setPatientIndex(PatientIndex.getPatientIndex());
+            edtSearch.addEventListener(Events.ON_CHANGING, typeAheadListener);
+        }
+    }
+    
     /**
      * Returns the renderer for the patient detail view.
      * 
@@ -298,6 +357,10 @@ public class PatientSelectionController extends FrameworkController {
      * @param list The patient list to make active.
      */
     private void setActiveList(IPatientList list) {
+        if (activeList != list) {
+            cancelListLoad();
+        }
+        
         activeList = list;
         activeFilter = null;
         btnFavorite.setDisabled(list == this.favorites);
@@ -374,24 +437,31 @@ public class PatientSelectionController extends FrameworkController {
         return false;
     }
     
+    /**
+     * Cancels any background load of the active list's items.
+     */
+    private void cancelListLoad() {
+        if (activeList instanceof AsyncPatientList) {
+            ((AsyncPatientList) activeList).cancel();
+        }
+    }
+    
     private void refreshPatientList() {
         timer.stop();
         
         if (activeList != null) {
-            Collection<PatientListItem> items;
+            ListModel<PatientListItem> model;
             
             if (activeList.isPending()) {
-                items = pendingListItem;
+                model = new ListModelList<PatientListItem>(pendingListItem);
                 timer.start();
             } else {
-                items = activeList.getListItems();
+                model = new PatientListModel(activeList, listSortKey, listPageSize);
             }
             
-            ListModelList<PatientListItem> model = items == null ? new ListModelList<PatientListItem>()
-                    : new ListModelList<PatientListItem>(items);
-            
-            if (model.isEmpty()) {
-                model.add(new PatientListItem(null, txtNoPatients));
+            if (model.getSize() == 0) {
+                model = new ListModelList<PatientListItem>(
+                        Collections.singletonList(new PatientListItem(null, txtNoPatients)));
             }
             
             lstPatientList.setModel(model);
@@ -458,12 +528,13 @@ public class PatientSelectionController extends FrameworkController {
      */
     private void doSearch() {
         log.trace("Start doSearch()");
+        cancelTypeAhead();
         Clients.clearBusy();
         displaySearchMessage(null);
         
         try {
             lstSearch.clearSelection();
-            List<Patient> matches = PatientSearchUtil.execute(edtSearch.getValue(), 100);
+            List<Patient> matches = PatientSearchUtil.execute(edtSearch.getValue(), MAX_MATCHES);
             
             if (matches != null) {
                 lstSearch.setModel(new ListModelList<Patient>(matches));
@@ -481,6 +552,84 @@ public class PatientSelectionController extends FrameworkController {
         Events.postEvent(Events.ON_SELECT, lstSearch, null);
     }
     
+    /**
+     * Starts a type-ahead search for the pending search text, superseding any search in progress.
+     * Results are added to the search list as they arrive by polling.
+     */
+    private void startTypeAhead() {
+        String searchText = StringUtils.trimToEmpty(pendingSearchText);
+        pendingSearchText = null;
+        
+        if (searchText.length() < TYPE_AHEAD_MIN_LENGTH) {
+            cancelTypeAhead();
+            return;
+        }
+        
+        if (activeSearch != null && searchText.equals(activeSearch.getSearchText())) {
+            return;
+        }
+        
+        activeSearch = typeAheadSearch.search(searchText);
+        
+        if (activeSearch == null) {
+            tmrTypeAhead.stop();
+            return;
+        }
+        
+        displaySearchMessage(null);
+        lstSearch.setModel(new ListModelList<Patient>());
+        pollTypeAhead();
+        
+        if (activeSearch != null) {
+            tmrTypeAhead.setDelay(TYPE_AHEAD_POLL_INTERVAL);
+            tmrTypeAhead.setRepeats(true);
+            tmrTypeAhead.start();
+        }
+    }
+    
+    /**
+     * Adds any newly retrieved type-ahead results to the search list. When the search is done, the
+     * results are sorted or, if there were none, a message is displayed.
+     */
+    @SuppressWarnings("unchecked")
+    private void pollTypeAhead() {
+        PatientTypeAhead.Search search = activeSearch;
+        boolean done = search.isDone();
+        ListModelList<Patient> model = (ListModelList<Patient>) lstSearch.getModel();
+        model.addAll(search.poll());
+        
+        if (!done) {
+            return;
+        }
+        
+        tmrTypeAhead.stop();
+        activeSearch = null;
+        
+        if (search.isCancelled()) {
+            return;
+        }
+        
+        if (search.getMessage() != null) {
+            displaySearchMessage(search.getMessage());
+        } else {
+            model.sort(PatientSearchUtil.getPatientComparator(), true);
+        }
+    }
+    
+    /**
+     * Cancels any type-ahead search that is pending or in progress.
+     */
+    private void cancelTypeAhead() {
+        pendingSearchText = null;
+        tmrTypeAhead.stop();
+        
+        if (typeAheadSearch != null) {
+            typeAheadSearch.cancel();
+        }
+        
+        activeSearch = null;
+    }
+    
     private void displaySearchMessage(String message) {
         lstSearch.clearSelection();
         lstSearch.setModel((ListModelList<?>) null);
@@ -493,6 +642,52 @@ public class PatientSelectionController extends FrameworkController {
         Clients.scrollIntoView(lstSearch.getFirstChild());
     }
     
+    /**
+     * Returns true if type-ahead search is enabled.
+     * 
+     * @return True if type-ahead search is enabled.
+     */
+    public boolean isTypeAhead() {
+        return typeAhead;
+    }
+    
+    /**
+     * Enables or disables type-ahead search. When enabled, a search is initiated automatically
+     * after the user pauses typing.
+     * 
+     * @param typeAhead True to enable type-ahead search.
+     */
+    public void setTypeAhead(boolean typeAhead) {
+        this.typeAhead = typeAhead;
+    }
+    
+    /**
+     * Sets the pause in typing, in milliseconds, after which a type-ahead search is initiated.
+     * 
+     * @param typeAheadDelay The delay in milliseconds.
+     */
+    public void setTypeAheadDelay(int typeAheadDelay) {
+        this.typeAheadDelay = typeAheadDelay;
+    }
+    
+    /**
+     * Sets the number of patient list items to retrieve at a time as the list is scrolled.
+     * 
+     * @param listPageSize The page size.
+     */
+    public void setListPageSize(int listPageSize) {
+        this.listPageSize = listPageSize;
+    }
+    
+    /**
+     * Sets the order in which patient list items are presented.
+     * 
+     * @param listSortKey The sort key (if null, the list's natural order is used).
+     */
+    public void setListSortKey(SortKey listSortKey) {
+        this.listSortKey = listSortKey == null ? SortKey.NONE : listSortKey;
+    }
+    
     /**
      * Set the patient list registry (injected by Spring).
      * 
@@ -742,6 +937,7 @@ public class PatientSelectionController extends FrameworkController {
             return;
         }
         
+        cancelTypeAhead();
         root.setVisible(false);
     }
     
@@ -749,6 +945,7 @@ public class PatientSelectionController extends FrameworkController {
         if (manageListMode) {
             setManageListMode(false);
         } else {
+            cancelTypeAhead();
             root.removeAttribute(Constants.SELECTED_PATIENT_ATTRIB);
             root.setVisible(false);
         }
@@ -825,6 +1022,19 @@ public class PatientSelectionController extends FrameworkController {
         }
     }
     
+    /**
+     * Initiates a type-ahead search once typing pauses, then polls for its results.
+     */
+    public void onTimer$tmrTypeAhead() {
+        if (pendingSearchText != null) {
+            startTypeAhead();
+        } else if (activeSearch != null) {
+            pollTypeAhead();
+        } else {
+            tmrTypeAhead.stop();
+        }
+    }
+    
     /**
      * When a filter is selected, make it the active filter for the active patient list.
      * 
@@ -956,8 +1166,10 @@ public class PatientSelectionController extends FrameworkController {
     }
     
     public void onClick$btnManagedListImport() {
-        for (Object item : (ListModelList<?>) lstPatientList.getModel()) {
-            managedListAdd((PatientListItem) item, false);
+        ListModel<?> model = lstPatientList.getModel();
+        
+        for (int i = 0; i < model.getSize(); i++) {
+            managedListAdd((PatientListItem) model.getElementAt(i), false);
         }
         
         managedListRefresh();
@@ -0,0 +1,330 @@
+/*
+ * #%L
+ * cwf-ui-reporting
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.reporting;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.carewebframework.api.FrameworkUtil;
+import org.carewebframework.api.domain.IUser;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.patient.PatientContext;
+import org.hspconsortium.cwf.api.patient.PatientContext.IPatientContextEvent;
+import org.hspconsortium.cwf.api.security.AbstractAuthInterceptor;
+import org.hspconsortium.cwf.fhir.common.BaseService;
+
+/**
+ * Retrieves clinical data for a patient as soon as the patient context changes, rather than
+ * waiting for each resource list view to request its data in turn. A search is issued in parallel
+ * for each registered resource path (e.g., "Condition?patient=#", where "#" is replaced by the
+ * patient's logical id). Resource list views register their paths when initialized; additional
+ * paths may be configured.
+ * <p>
+ * Results are cached for the current patient only. Each result is handed out once, so that a
+ * subsequent refresh of a view retrieves current data from the server. A result is not handed out
+ * once it is older than the configured time-to-live; the view then retrieves its own data.
+ * <p>
+ * Searches run on executor threads, which have no authenticated user. They are run as the user
+ * who was authenticated when the patient was selected, so that authentication schemes that use
+ * the user's credentials apply to them as they do to searches issued by the views.
+ */
+public class PatientDataPrefetcher implements IPatientContextEvent {
+    
+    
+    private static final Log log = LogFactory.getLog(PatientDataPrefetcher.class);
+    
+    /**
+     * A pending or completed search and the time at which it was submitted.
+     */
+    private static class Result {
+        
+        
+        private final Future<Bundle> future;
+        
+        private final long submittedAt;
+        
+        Result(Future<Bundle> future, long submittedAt) {
+            this.future = future;
+            this.submittedAt = submittedAt;
+        }
+    }
+    
+    private final Set<String> paths = new LinkedHashSet<>();
+    
+    private final Map<String, Result> results = new HashMap<>();
+    
+    private String patientId;
+    
+    private IUser user;
+    
+    private long timeToLive = 60000;
+    
+    private boolean enabled = true;
+    
+    private BaseService fhirService;
+    
+    private ExecutorService executor;
+    
+    /**
+     * Registers with the application framework to receive patient context events. Called by
+     * Spring IOC.
+     */
+    public void init() {
+        FrameworkUtil.getAppFramework().registerObject(this);
+    }
+    
+    /**
+     * Cancels outstanding searches and unregisters from the application framework. Called by
+     * Spring IOC.
+     */
+    public void destroy() {
+        clear();
+        
+        if (FrameworkUtil.getAppFramework() != null) {
+            FrameworkUtil.getAppFramework().unregisterObject(this);
+        }
+    }
+    
+    @Override
+    public String pending(boolean silent) {
+        return null;
+    }
+    
+    /**
+     * Starts retrieving data for the new patient.
+     */
+    @Override
+    public void committed() {
+        prefetch(PatientContext.getActivePatient());
+    }
+    
+    @Override
+    public void canceled() {
+    }
+    
+    /**
+     * Registers a resource path to be retrieved when the patient changes. If data for a patient
+     * has already been retrieved, retrieval for the new path starts immediately.
+     *
+     * @param path The resource path, with "#" marking the position of the patient id.
+     */
+    public synchronized void registerPath(String path) {
+        if (paths.add(path) && patientId != null) {
+            submit(path);
+        }
+    }
+    
+    /**
+     * Starts retrieving data for the specified patient, if not already started. Results for any
+     * other patient are discarded.
+     *
+     * @param patient The patient (if null, all results are discarded).
+     */
+    public synchronized void prefetch(Patient patient) {
+        String id = patient == null ? null : patient.getIdElement().getIdPart();
+        
+        if (id == null || !enabled) {
+            clear();
+            return;
+        }
+        
+        if (id.equals(patientId)) {
+            return;
+        }
+        
+        clear();
+        patientId = id;
+        user = getAuthenticatedUser();
+        
+        for (String path : paths) {
+            submit(path);
+        }
+    }
+    
+    /**
+     * Returns the retrieved data for a patient and resource path, waiting for the retrieval to
+     * complete if necessary. The result is removed from the cache. This should not be called on
+     * the desktop thread.
+     *
+     * @param patient The patient.
+     * @param path The resource path.
+     * @return The retrieved data, or null if none was retrieved for this patient and path, the
+     *         retrieval failed, or the result is older than the time-to-live.
+     */
+    public Bundle take(Patient patient, String path) {
+        Result result;
+        
+        synchronized (this) {
+            String id = patient == null ? null : patient.getIdElement().getIdPart();
+            result = id == null || !id.equals(patientId) ? null : results.remove(path);
+        }
+        
+        if (result == null) {
+            return null;
+        }
+        
+        if (timeToLive > 0 && currentTimeMillis() - result.submittedAt > timeToLive) {
+            result.future.cancel(true);
+            return null;
+        }
+        
+        try {
+            return result.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ExecutionException e) {
+            log.warn("Error prefetching " + path, e.getCause());
+            return null;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+    
+    /**
+     * Cancels outstanding retrievals and discards all results.
+     */
+    public synchronized void clear() {
+        for (Result result : results.values()) {
+            result.future.cancel(true);
+        }
+        
+        results.clear();
+        patientId = null;
+        user = null;
+    }
+    
+    /**
+     * Submits a search for a resource path for the current patient.
+     *
+     * @param path The resource path.
+     */
+    private void submit(String path) {
+        final String url = path.replace("#", patientId);
+        final IUser requester = user;
+        final Callable<Bundle> search = new Callable<Bundle>() {
+            
+            @Override
+            public Bundle call() throws Exception {
+                return search(url);
+            }
+            
+        };
+        
+        try {
+            long now = currentTimeMillis();
+            results.put(path, new Result(executor.submit(new Callable<Bundle>() {
+                
+                @Override
+                public Bundle call() throws Exception {
+                    return AbstractAuthInterceptor.callAs(requester, search);
+                }
+                
+            }), now));
+        } catch (Exception e) {
+            log.warn("Unable to prefetch " + url, e);
+        }
+    }
+    
+    /**
+     * Performs a search. Called on an executor thread.
+     *
+     * @param url The search URL.
+     * @return The search result.
+     */
+    protected Bundle search(String url) {
+        return fhirService.getClient().search().byUrl(url).returnBundle(Bundle.class).execute();
+    }
+    
+    /**
+     * Returns the current time, against which the age of results is measured. Override to supply a
+     * different clock.
+     *
+     * @return The current time in milliseconds.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+    
+    /**
+     * Returns the current user, on whose behalf searches are run.
+     *
+     * @return The current user, or null if none.
+     */
+    protected IUser getAuthenticatedUser() {
+        return AbstractAuthInterceptor.getCurrentUser();
+    }
+    
+    /**
+     * Sets additional resource paths to be retrieved.
+     *
+     * @param paths Whitespace-delimited list of resource paths.
+     */
+    public synchronized void setPaths(String paths) {
+        for (String path : StringUtils.split(StringUtils.defaultString(paths))) {
+            if (!path.isEmpty()) {
+                this.paths.add(path);
+            }
+        }
+    }
+    
+    /**
+     * Enables or disables prefetching. When disabled, resource list views retrieve their own data.
+     *
+     * @param enabled If true, prefetching is enabled.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+    
+    /**
+     * Sets the time, in seconds, after which a result is no longer handed out.
+     *
+     * @param timeToLive The time-to-live in seconds (if zero or negative, results do not expire).
+     */
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive * 1000;
+    }
+    
+    public BaseService getFhirService() {
+        return fhirService;
+    }
+    
+    public void setFhirService(BaseService fhirService) {
+        this.fhirService = fhirService;
+    }
+    
+    public void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+    
+}
@@ -19,11 +19,18 @@
  */
 package org.hspconsortium.cwf.ui.reporting.controller;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.carewebframework.api.event.IGenericEvent;
 import org.carewebframework.ui.sharedforms.ListViewForm;
@@ -36,17 +43,26 @@ import org.zkoss.zul.Html;
 import org.zkoss.zul.Listitem;
 import org.zkoss.zul.Window;
 
+import org.hl7.fhir.dstu3.model.BaseResource;
 import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Bundle.BundleEntryComponent;
 import org.hl7.fhir.dstu3.model.DomainResource;
 import org.hl7.fhir.dstu3.model.Patient;
 import org.hl7.fhir.dstu3.model.Reference;
 import org.hl7.fhir.instance.model.api.IBaseDatatype;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.instance.model.api.IIdType;
 import org.hl7.fhir.utilities.xhtml.XhtmlNode;
+import org.hspconsortium.cwf.api.DomainFactory;
 import org.hspconsortium.cwf.api.patient.PatientContext;
 import org.hspconsortium.cwf.fhir.common.BaseService;
 import org.hspconsortium.cwf.fhir.common.FhirUtil;
 import org.hspconsortium.cwf.ui.reporting.Constants;
+import org.hspconsortium.cwf.ui.reporting.PatientDataPrefetcher;
+
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.rest.client.IGenericClient;
+import ca.uhn.fhir.util.FhirTerser;
 
 /**
  * Controller for cover sheet components.
@@ -59,6 +75,8 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
     
     private static final long serialVersionUID = 1L;
     
+    private static final Log log = LogFactory.getLog(ResourceListView.class);
+    
     protected Html detailView;
     
     protected Patient patient;
@@ -69,10 +87,14 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
     
     private BaseService fhirService;
     
+    private PatientDataPrefetcher prefetcher;
+    
     private String resourcePath;
     
     private Class<R> resourceClass;
     
+    private final Set<String> prefetchTypes = new HashSet<>();
+    
     private final IGenericEvent<IBaseResource> eventListener = new IGenericEvent<IBaseResource>() {
         
         
@@ -100,9 +122,26 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
         this.resourcePath = resourcePath;
         this.resourceClass = resourceClass;
         this.getEventManager().subscribe("Patient", eventListener);
+        
+        if (prefetcher != null) {
+            prefetcher.registerPath(resourcePath);
+        }
+        
         super.setup(title, sortBy, headers);
     }
     
+    /**
+     * Sets the resource types whose references are to be resolved in bulk when data is retrieved.
+     * This allows rendering logic that accesses referenced resources to do so without additional
+     * server requests.
+     * 
+     * @param resourceTypes Resource types (e.g., "Medication", "Practitioner") to prefetch.
+     */
+    protected void setPrefetchTypes(String... resourceTypes) {
+        prefetchTypes.clear();
+        prefetchTypes.addAll(Arrays.asList(resourceTypes));
+    }
+    
     @Override
     public String pending(boolean silent) {
         return null;
@@ -111,6 +150,11 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
     @Override
     public void committed() {
         patient = PatientContext.getActivePatient();
+        
+        if (prefetcher != null) {
+            prefetcher.prefetch(patient);
+        }
+        
         refresh();
     }
     
@@ -152,8 +196,13 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
         detailView.setContent(null);
     }
     
+    /**
+     * Retrieves data for the current patient in the background, using data prefetched upon the
+     * patient context change if available.
+     */
     @Override
     protected void requestData() {
+        final Patient patient = this.patient;
         final String url = resourcePath.replace("#", patient.getIdElement().getIdPart());
         
         startBackgroundThread(new ZKRunnable() {
@@ -161,7 +210,13 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
             
             @Override
             public void run(ZKThread thread) throws Exception {
-                Bundle bundle = fhirService.getClient().search().byUrl(url).returnBundle(Bundle.class).execute();
+                Bundle bundle = prefetcher == null ? null : prefetcher.take(patient, resourcePath);
+                
+                if (bundle == null) {
+                    bundle = fhirService.getClient().search().byUrl(url).returnBundle(Bundle.class).execute();
+                }
+                
+                prefetchReferences(bundle);
                 thread.setAttribute("bundle", bundle);
             }
             
@@ -186,6 +241,78 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
         renderData();
     }
     
+    /**
+     * Resolves unresolved references within the bundle whose resource types have been designated
+     * for prefetching. References are collected and deduplicated across all bundle entries, then
+     * retrieved with one batched search per resource type. The retrieved resources are attached to
+     * their references. Failure is not fatal, since references may still be resolved individually.
+     * 
+     * @param bundle The bundle.
+     */
+    protected void prefetchReferences(Bundle bundle) {
+        if (prefetchTypes.isEmpty() || bundle == null) {
+            return;
+        }
+        
+        IGenericClient client = fhirService.getClient();
+        FhirContext fhirContext = client.getFhirContext();
+        FhirTerser terser = fhirContext.newTerser();
+        String serverBase = StringUtils.removeEnd(client.getServerBase(), "/");
+        Map<String, Map<String, List<Reference>>> referencesByType = new LinkedHashMap<>();
+        
+        for (BundleEntryComponent entry : bundle.getEntry()) {
+            if (entry.getResource() == null) {
+                continue;
+            }
+            
+            for (Reference reference : terser.getAllPopulatedChildElementsOfType(entry.getResource(), Reference.class)) {
+                IIdType id = reference.getReferenceElement();
+                
+                if (reference.getResource() != null || id.isLocal() || !id.hasIdPart()
+                        || !prefetchTypes.contains(id.getResourceType())
+                        || (id.hasBaseUrl() && !serverBase.equals(StringUtils.removeEnd(id.getBaseUrl(), "/")))) {
+                    continue;
+                }
+                
+                Map<String, List<Reference>> references = referencesByType.get(id.getResourceType());
+                
+                if (references == null) {
+                    referencesByType.put(id.getResourceType(), references = new LinkedHashMap<>());
+                }
+                
+                List<Reference> list = references.get(id.getIdPart());
+                
+                if (list == null) {
+                    references.put(id.getIdPart(), list = new ArrayList<>());
+                }
+                
+                list.add(reference);
+            }
+        }
+        
+        for (Map.Entry<String, Map<String, List<Reference>>> entry : referencesByType.entrySet()) {
+            try {
+                Map<String, List<Reference>> references = entry.getValue();
+                @SuppressWarnings("unchecked")
+                Class<BaseResource> clazz = (Class<BaseResource>) fhirContext.getResourceDefinition(entry.getKey())
+                        .getImplementingClass();
+                String[] ids = references.keySet().toArray(new String[references.size()]);
+                
+                for (BaseResource resource : DomainFactory.getInstance().fetchObjects(clazz, ids)) {
+                    List<Reference> list = references.get(resource.getIdElement().getIdPart());
+                    
+                    if (list != null) {
+                        for (Reference reference : list) {
+                            reference.setResource(resource);
+                        }
+                    }
+                }
+            } catch (Exception e) {
+                log.warn("Error prefetching referenced resources of type " + entry.getKey(), e);
+            }
+        }
+    }
+    
     /**
      * Extracts results from the returned bundle. Override for special processing.
      * 
@@ -261,4 +388,12 @@ public abstract class ResourceListView<R extends IBaseResource, M> extends ListV
         this.fhirService = fhirService;
     }
     
+    public PatientDataPrefetcher getPrefetcher() {
+        return prefetcher;
+    }
+    
+    public void setPrefetcher(PatientDataPrefetcher prefetcher) {
+        this.prefetcher = prefetcher;
+    }
+    
 }
@@ -0,0 +1,187 @@
+/*
+ * #%L
+ * cwf-ui-reporting
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.reporting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.commons.codec.binary.Base64;
+
+import org.carewebframework.api.domain.IUser;
+
+import org.hl7.fhir.dstu3.model.Bundle;
+import org.hl7.fhir.dstu3.model.Patient;
+import org.hspconsortium.cwf.api.security.BasicAuthConfigurator;
+import org.hspconsortium.cwf.api.security.BasicAuthInterceptor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PatientDataPrefetcherTest {
+    
+    
+    private static final BasicAuthInterceptor interceptor = new BasicAuthInterceptor("PrefetchTest",
+            new BasicAuthConfigurator());
+    
+    /**
+     * Prefetcher that records each search and the credentials it would be sent with, rather than
+     * calling a server. Its clock is advanced by the test.
+     */
+    private static class TestPrefetcher extends PatientDataPrefetcher {
+        
+        
+        private final List<String> urls = Collections.synchronizedList(new ArrayList<String>());
+        
+        private final List<String> credentials = Collections.synchronizedList(new ArrayList<String>());
+        
+        private volatile IUser user;
+        
+        private volatile long now = 1000000;
+        
+        @Override
+        protected Bundle search(String url) {
+            urls.add(url);
+            credentials.add(interceptor.getCredentials());
+            Bundle bundle = new Bundle();
+            bundle.setTotal(urls.size());
+            return bundle;
+        }
+        
+        @Override
+        protected IUser getAuthenticatedUser() {
+            return user;
+        }
+        
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+    
+    private ExecutorService executor;
+    
+    private TestPrefetcher prefetcher;
+    
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadExecutor();
+        prefetcher = new TestPrefetcher();
+        prefetcher.setExecutor(executor);
+        prefetcher.user = createUser("user1", "pw1");
+    }
+    
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+    
+    private static IUser createUser(final String username, final String password) {
+        return (IUser) Proxy.newProxyInstance(IUser.class.getClassLoader(), new Class<?>[] { IUser.class },
+            new InvocationHandler() {
+                
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    switch (method.getName()) {
+                        case "getLoginName":
+                        case "toString":
+                            return username;
+                        
+                        case "getPassword":
+                            return password;
+                        
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        
+                        case "equals":
+                            return proxy == args[0];
+                        
+                        default:
+                            return null;
+                    }
+                }
+                
+            });
+    }
+    
+    private static Patient createPatient(String id) {
+        Patient patient = new Patient();
+        patient.setId(id);
+        return patient;
+    }
+    
+    @Test
+    public void testTake() {
+        Patient patient = createPatient("123");
+        prefetcher.setPaths("Condition?patient=# Observation?subject=#");
+        prefetcher.prefetch(patient);
+        assertNull(prefetcher.take(createPatient("456"), "Condition?patient=#"));
+        assertNotNull(prefetcher.take(patient, "Condition?patient=#"));
+        // Each result is handed out once.
+        assertNull(prefetcher.take(patient, "Condition?patient=#"));
+        assertNotNull(prefetcher.take(patient, "Observation?subject=#"));
+        assertEquals(2, prefetcher.urls.size());
+        assertEquals("Condition?patient=123", prefetcher.urls.get(0));
+        assertEquals("Observation?subject=123", prefetcher.urls.get(1));
+        // A path registered later is retrieved for the current patient.
+        prefetcher.registerPath("AllergyIntolerance?patient=#");
+        assertNotNull(prefetcher.take(patient, "AllergyIntolerance?patient=#"));
+        prefetcher.clear();
+        prefetcher.registerPath("Encounter?patient=#");
+        assertNull(prefetcher.take(patient, "Encounter?patient=#"));
+    }
+    
+    @Test
+    public void testTimeToLive() {
+        Patient patient = createPatient("123");
+        prefetcher.setPaths("Condition?patient=# Observation?subject=#");
+        prefetcher.setTimeToLive(1);
+        prefetcher.prefetch(patient);
+        prefetcher.now += 1000;
+        assertNotNull(prefetcher.take(patient, "Condition?patient=#"));
+        prefetcher.now += 1;
+        // A stale result is not handed out, so that the view retrieves current data.
+        assertNull(prefetcher.take(patient, "Observation?subject=#"));
+    }
+    
+    @Test
+    public void testRunAsUser() throws Exception {
+        Patient patient = createPatient("123");
+        prefetcher.setPaths("Condition?patient=#");
+        prefetcher.prefetch(patient);
+        assertNotNull(prefetcher.take(patient, "Condition?patient=#"));
+        // Searches are authenticated as the user who selected the patient.
+        assertEquals(Base64.encodeBase64String("user1:pw1".getBytes("ISO-8859-1")), prefetcher.credentials.get(0));
+        prefetcher.user = createUser("user2", "pw2");
+        prefetcher.prefetch(createPatient("456"));
+        assertNotNull(prefetcher.take(createPatient("456"), "Condition?patient=#"));
+        assertEquals(Base64.encodeBase64String("user2:pw2".getBytes("ISO-8859-1")), prefetcher.credentials.get(1));
+    }
+    
+}
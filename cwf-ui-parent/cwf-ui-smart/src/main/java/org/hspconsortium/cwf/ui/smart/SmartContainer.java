@@ -19,11 +19,24 @@
  */
 package org.hspconsortium.cwf.ui.smart;
 
+import java.io.IOException;
+import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
 import org.carewebframework.api.spring.SpringUtil;
+import org.carewebframework.common.JSONUtil;
 
+import org.zkoss.zk.ui.Executions;
+import org.zkoss.zk.ui.event.Event;
+import org.zkoss.zk.ui.event.EventListener;
+import org.zkoss.zk.ui.event.Events;
+import org.zkoss.zk.ui.sys.ContentRenderer;
+import org.zkoss.zk.ui.util.Clients;
 import org.zkoss.zul.Iframe;
 
 import org.hspconsortium.cwf.api.smart.ISmartContextSubscriber;
@@ -40,6 +53,25 @@ public class SmartContainer extends Iframe implements ISmartContextSubscriber {
     
     private static final long serialVersionUID = 1L;
     
+    private static final Log log = LogFactory.getLog(SmartContainer.class);
+    
+    private static final String ON_CONTEXT_CHANGE = "onContextChange";
+    
+    /**
+     * Manifest entry by which an app declares that it accepts context updates via postMessage.
+     */
+    public static final String MANIFEST_CONTEXT_UPDATE = "context_update";
+    
+    /**
+     * Value of the manifest entry that enables postMessage context updates.
+     */
+    public static final String CONTEXT_UPDATE_POST_MESSAGE = "postMessage";
+    
+    /**
+     * Type of the message posted to an app whose context has changed.
+     */
+    public static final String CONTEXT_UPDATE_MESSAGE = "cwf-smart-context";
+    
     protected final SmartManifest _manifest = new SmartManifest();
     
     protected final Map<String, ContextMap> _context = new HashMap<>();
@@ -48,9 +80,35 @@ public class SmartContainer extends Iframe implements ISmartContextSubscriber {
     
     private boolean _active;
     
+    private boolean _refreshPending;
+    
+    private String _launchedUrl;
+    
+    private Map<String, Map<String, String>> _launchedContext;
+    
+    private boolean _srcStale;
+    
     public SmartContainer() {
+        this(SpringUtil.getBean("smartContextRegistry", SmartContextRegistry.class));
+    }
+    
+    /**
+     * Creates a container that subscribes to contexts from the specified registry.
+     * 
+     * @param contextRegistry The SMART context registry.
+     */
+    protected SmartContainer(SmartContextRegistry contextRegistry) {
         this.setStyle("background:lightgray");
-        contextRegistry = SpringUtil.getBean("smartContextRegistry", SmartContextRegistry.class);
+        this.contextRegistry = contextRegistry;
+        addEventListener(ON_CONTEXT_CHANGE, new EventListener<Event>() {
+            
+            
+            @Override
+            public void onEvent(Event event) throws Exception {
+                processRefresh();
+            }
+            
+        });
     }
     
     /**
@@ -83,7 +141,9 @@ public class SmartContainer extends Iframe implements ISmartContextSubscriber {
     
     /**
      * ISmartContextSubscriber.updateContext is called by the associated SMART context to notify
-     * this container of a change to the context.
+     * this container of a change to the context. The container is refreshed once after the current
+     * event has been processed, so that changes to several context scopes within the same event
+     * cycle result in a single refresh.
      */
     @Override
     public void updateContext(String contextScope, ContextMap context) {
@@ -93,6 +153,36 @@ public class SmartContainer extends Iframe implements ISmartContextSubscriber {
             _context.put(contextScope, context);
         }
         
+        if (!isRefreshDeferrable()) {
+            refresh();
+        } else if (!_refreshPending) {
+            _refreshPending = true;
+            postRefresh();
+        }
+    }
+    
+    /**
+     * Returns true if a refresh can be deferred until the current event has been processed.
+     * 
+     * @return True if an execution is active and the container is attached to a desktop.
+     */
+    protected boolean isRefreshDeferrable() {
+        return Executions.getCurrent() != null && getDesktop() != null;
+    }
+    
+    /**
+     * Posts the event that performs a deferred refresh (see {@link #processRefresh}).
+     */
+    protected void postRefresh() {
+        Events.postEvent(ON_CONTEXT_CHANGE, this, null);
+    }
+    
+    /**
+     * Performs a deferred refresh. Called when the event posted by {@link #postRefresh} is
+     * processed.
+     */
+    protected void processRefresh() {
+        _refreshPending = false;
         refresh();
     }
     
@@ -100,9 +190,114 @@ public class SmartContainer extends Iframe implements ISmartContextSubscriber {
         subscribeAll(false);
     }
     
+    /**
+     * Refreshes the app to reflect the current context. Nothing is done if neither the launch url
+     * nor the context has changed since the app was last launched or updated. If the app is already
+     * running and its manifest declares support, the new context is sent to the app via
+     * postMessage rather than relaunching it. In that case, the iframe's src is brought up to date
+     * when the container is next rendered, so the app is not reloaded now. Otherwise, the app is
+     * relaunched.
+     */
     public void refresh() {
-        invalidate();
-        setSrc(getUrl());
+        String url = getUrl();
+        
+        if (StringUtils.equals(url, _launchedUrl) && _context.equals(_launchedContext)) {
+            return;
+        }
+        
+        boolean updated = url != null && _launchedUrl != null && postContext();
+        _launchedUrl = url;
+        _launchedContext = new HashMap<>();
+        
+        for (Map.Entry<String, ContextMap> entry : _context.entrySet()) {
+            _launchedContext.put(entry.getKey(), new HashMap<>(entry.getValue()));
+        }
+        
+        _srcStale = updated;
+        
+        if (!updated) {
+            invalidate();
+            setSrc(url);
+        }
+    }
+    
+    /**
+     * Sets the iframe's src to the current launch url if the app's context was last updated via
+     * postMessage. A full render (e.g., when the container is reattached or its parent is redrawn)
+     * reloads the app, which must then be launched with its current context rather than the one
+     * it was originally launched with.
+     */
+    @Override
+    protected void renderProperties(ContentRenderer renderer) throws IOException {
+        updateSrc();
+        super.renderProperties(renderer);
+    }
+    
+    /**
+     * Brings the iframe's src up to date with the current launch url if it has become stale.
+     */
+    protected void updateSrc() {
+        if (_srcStale) {
+            _srcStale = false;
+            setSrc(_launchedUrl);
+        }
+    }
+    
+    /**
+     * Forces the app to be relaunched, regardless of whether its context has changed.
+     */
+    public void reload() {
+        _launchedUrl = null;
+        _launchedContext = null;
+        refresh();
+    }
+    
+    /**
+     * Returns true if the app's manifest declares support for postMessage context updates.
+     * 
+     * @return True if postMessage context updates are supported.
+     */
+    public boolean isContextUpdateSupported() {
+        return CONTEXT_UPDATE_POST_MESSAGE.equals(_manifest.getValue(MANIFEST_CONTEXT_UPDATE));
+    }
+    
+    /**
+     * Sends the current context to a running app via postMessage, if the app supports it. The
+     * message is targeted to the origin of the app's launch url.
+     * 
+     * @return True if the context was sent.
+     */
+    protected boolean postContext() {
+        if (!isContextUpdateSupported() || getDesktop() == null) {
+            return false;
+        }
+        
+        try {
+            URI uri = new URI(_manifest.getValue("launch_uri"));
+            
+            if (uri.getScheme() == null || uri.getAuthority() == null) {
+                return false;
+            }
+            
+            Map<String, String> params = new HashMap<>();
+            
+            for (ContextMap context : _context.values()) {
+                params.putAll(context);
+            }
+            
+            Map<String, Object> message = new HashMap<>();
+            message.put("type", CONTEXT_UPDATE_MESSAGE);
+            message.put("context", params);
+            String origin = uri.getScheme() + "://" + uri.getAuthority();
+            Clients.evalJavaScript("var f=document.getElementById('" + getUuid() + "');"
+                    + "if(f&&f.contentWindow)f.contentWindow.postMessage("
+                    + JSONUtil.getMapper().writeValueAsString(message) + ","
+                    + JSONUtil.getMapper().writeValueAsString(origin) + ");");
+            return true;
+        } catch (Exception e) {
+            log.warn("Unable to post context update to SMART app; relaunching.", e);
+            return false;
+        }
     }
     
     /**
@@ -110,7 +305,7 @@ public class SmartContainer extends Iframe implements ISmartContextSubscriber {
      * 
      * @return SMART plugin url.
      */
-    private String getUrl() {
+    protected String getUrl() {
         return SmartContextService.getInstance().getUrl(_manifest, _context.values());
     }
     
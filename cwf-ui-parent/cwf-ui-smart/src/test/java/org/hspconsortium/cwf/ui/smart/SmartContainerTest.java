@@ -0,0 +1,243 @@
+/*
+ * #%L
+ * cwf-ui-smart
+ * %%
+ * Copyright (C) 2014 - 2016 Healthcare Services Platform Consortium
+ * %%
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * #L%
+ */
+package org.hspconsortium.cwf.ui.smart;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.hspconsortium.cwf.api.smart.SmartContextBase;
+import org.hspconsortium.cwf.api.smart.SmartContextBase.ContextMap;
+import org.hspconsortium.cwf.api.smart.SmartContextRegistry;
+import org.hspconsortium.cwf.api.smart.SmartManifest;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SmartContainerTest {
+    
+    
+    private static final String LAUNCH_URI = "http://app.example.org/launch";
+    
+    /**
+     * Context whose state is set directly by the test.
+     */
+    private static class TestContext extends SmartContextBase {
+        
+        
+        private final String key;
+        
+        private String value;
+        
+        TestContext(String contextScope, String key, String value) {
+            super(contextScope, "CONTEXT.CHANGED." + contextScope);
+            this.key = key;
+            this.value = value;
+        }
+        
+        @Override
+        protected void updateContext(ContextMap context) {
+            context.put(key, value);
+        }
+        
+        /**
+         * Simulates a context change notification.
+         */
+        void change(String value) {
+            this.value = value;
+            eventCallback("CONTEXT.CHANGED." + getContextScope(), null);
+        }
+    }
+    
+    /**
+     * Container that runs outside of a desktop. It records each launch and each context update
+     * posted to the app, and defers refreshes only when requested.
+     */
+    private static class TestContainer extends SmartContainer {
+        
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final List<String> launches = new ArrayList<>();
+        
+        private final List<String> posts = new ArrayList<>();
+        
+        private boolean deferrable;
+        
+        private int refreshesPosted;
+        
+        TestContainer(SmartContextRegistry contextRegistry) {
+            super(contextRegistry);
+        }
+        
+        @Override
+        public void setSrc(String src) {
+            launches.add(src);
+            super.setSrc(src);
+        }
+        
+        @Override
+        protected String getUrl() {
+            Map<String, String> params = new TreeMap<>();
+            
+            for (ContextMap context : _context.values()) {
+                params.putAll(context);
+            }
+            
+            return LAUNCH_URI + "?" + params;
+        }
+        
+        @Override
+        protected boolean postContext() {
+            if (!isContextUpdateSupported()) {
+                return false;
+            }
+            
+            posts.add(getUrl());
+            return true;
+        }
+        
+        @Override
+        protected boolean isRefreshDeferrable() {
+            return deferrable;
+        }
+        
+        @Override
+        protected void postRefresh() {
+            refreshesPosted++;
+        }
+    }
+    
+    private TestContext patientContext;
+    
+    private TestContext userContext;
+    
+    private TestContainer container;
+    
+    @Before
+    public void setUp() {
+        SmartContextRegistry registry = new SmartContextRegistry();
+        patientContext = new TestContext("patient", "patientId", "1");
+        userContext = new TestContext("user", "userId", "u1");
+        registry.registerObject(patientContext);
+        registry.registerObject(userContext);
+        container = new TestContainer(registry);
+    }
+    
+    private SmartManifest createManifest(boolean contextUpdate) {
+        Map<String, String> map = new HashMap<>();
+        map.put("scope", "patient, user");
+        map.put("launch_uri", LAUNCH_URI);
+        
+        if (contextUpdate) {
+            map.put(SmartContainer.MANIFEST_CONTEXT_UPDATE, SmartContainer.CONTEXT_UPDATE_POST_MESSAGE);
+        }
+        
+        return new SmartManifest(map);
+    }
+    
+    @Test
+    public void testRefreshPerEventCycle() {
+        container.deferrable = true;
+        container.setManifest(createManifest(false));
+        // Both scopes are delivered on subscription, but only one refresh is requested.
+        assertEquals(1, container.refreshesPosted);
+        assertEquals(0, container.launches.size());
+        container.processRefresh();
+        assertEquals(1, container.launches.size());
+        assertEquals(container.getUrl(), container.getSrc());
+        patientContext.change("2");
+        userContext.change("u2");
+        assertEquals(2, container.refreshesPosted);
+        assertEquals(1, container.launches.size());
+        container.processRefresh();
+        assertEquals(2, container.launches.size());
+        assertEquals(LAUNCH_URI + "?{patientId=2, userId=u2}", container.getSrc());
+    }
+    
+    @Test
+    public void testUnchangedContext() {
+        container.setManifest(createManifest(false));
+        int launches = container.launches.size();
+        assertEquals(LAUNCH_URI + "?{patientId=1, userId=u1}", container.getSrc());
+        // Neither the url nor the context has changed, so the app is not relaunched.
+        container.refresh();
+        // Clearing a scope changes the url; the context scope itself is unchanged, so resubscribing
+        // is needed to have it delivered again.
+        container.updateContext("patient", null);
+        container.refresh();
+        assertEquals(launches + 1, container.launches.size());
+        assertEquals(LAUNCH_URI + "?{userId=u1}", container.getSrc());
+        patientContext.unsubscribe(container);
+        patientContext.subscribe(container);
+        assertEquals(launches + 2, container.launches.size());
+        container.refresh();
+        assertEquals(launches + 2, container.launches.size());
+        // A reload relaunches the app even though nothing has changed.
+        container.reload();
+        assertEquals(launches + 3, container.launches.size());
+        assertEquals(LAUNCH_URI + "?{patientId=1, userId=u1}", container.getSrc());
+        assertEquals(0, container.posts.size());
+    }
+    
+    @Test
+    public void testRelaunch() {
+        container.setManifest(createManifest(false));
+        int launches = container.launches.size();
+        patientContext.change("2");
+        // The app does not accept context updates, so it is relaunched.
+        assertEquals(launches + 1, container.launches.size());
+        assertEquals(LAUNCH_URI + "?{patientId=2, userId=u1}", container.getSrc());
+        assertEquals(0, container.posts.size());
+    }
+    
+    @Test
+    public void testPostMessage() {
+        container.setManifest(createManifest(true));
+        int launches = container.launches.size();
+        String launched = container.getSrc();
+        assertEquals(LAUNCH_URI + "?{patientId=1, userId=u1}", launched);
+        assertEquals(0, container.posts.size());
+        patientContext.change("2");
+        // The running app is sent the new context rather than being relaunched.
+        assertEquals(1, container.posts.size());
+        assertEquals(LAUNCH_URI + "?{patientId=2, userId=u1}", container.posts.get(0));
+        assertEquals(launches, container.launches.size());
+        assertEquals(launched, container.getSrc());
+        // The next render brings the src up to date, once.
+        container.updateSrc();
+        assertEquals(launches + 1, container.launches.size());
+        assertEquals(LAUNCH_URI + "?{patientId=2, userId=u1}", container.getSrc());
+        container.updateSrc();
+        assertEquals(launches + 1, container.launches.size());
+        // An unchanged context is not posted again.
+        patientContext.change("2");
+        container.refresh();
+        assertEquals(1, container.posts.size());
+        // A reload relaunches the app even though it accepts context updates.
+        container.reload();
+        assertEquals(launches + 2, container.launches.size());
+        assertEquals(1, container.posts.size());
+    }
+    
+}